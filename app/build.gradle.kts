@@ -35,6 +35,10 @@ android {
     kotlinOptions {
         jvmTarget = "17"
     }
+    testOptions {
+        // Local tests touch android.util.Log and android.location.Location
+        unitTests.isReturnDefaultValues = true
+    }
 }
 
 dependencies {
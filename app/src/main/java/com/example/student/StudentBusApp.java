@@ -6,6 +6,7 @@ import android.app.NotificationManager;
 import android.os.Build;
 import androidx.core.app.NotificationCompat;
 
+import com.example.student.services.JournalReplayService;
 import com.google.firebase.FirebaseApp;
 import com.jakewharton.threetenabp.AndroidThreeTen;
 
@@ -26,6 +27,9 @@ public class StudentBusApp extends Application {
         
         // Create notification channels
         createNotificationChannels();
+        
+        // Replay journaled fixes and check-ins whenever we get back online
+        JournalReplayService.getInstance(this).start();
     }
 
     private void createNotificationChannels() {
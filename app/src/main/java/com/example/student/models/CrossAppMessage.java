@@ -17,6 +17,7 @@ public class CrossAppMessage {
     private boolean isRead;
     private Date timestamp;
     private Date readAt;
+    private Date expiresAt;
     private String busId;
     private String routeId;
     private String studentId;
@@ -38,6 +39,25 @@ public class CrossAppMessage {
         this.priority = "medium";
     }
 
+    /**
+     * Copy of this message addressed to another receiver
+     */
+    public CrossAppMessage copyForReceiver(String messageId, String receiverId, String receiverType) {
+        CrossAppMessage copy = new CrossAppMessage(messageId, senderId, senderType,
+                receiverId, receiverType, messageType);
+        copy.title = title;
+        copy.content = content;
+        copy.data = data;
+        copy.priority = priority;
+        copy.isRead = isRead;
+        copy.timestamp = timestamp;
+        copy.expiresAt = expiresAt;
+        copy.busId = busId;
+        copy.routeId = routeId;
+        copy.studentId = studentId;
+        return copy;
+    }
+
     // Getters and Setters
     public String getMessageId() {
         return messageId;
@@ -146,6 +166,14 @@ public class CrossAppMessage {
         this.readAt = readAt;
     }
 
+    public Date getExpiresAt() {
+        return expiresAt;
+    }
+
+    public void setExpiresAt(Date expiresAt) {
+        this.expiresAt = expiresAt;
+    }
+
     public String getBusId() {
         return busId;
     }
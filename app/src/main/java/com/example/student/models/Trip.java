@@ -11,6 +11,9 @@ public class Trip {
     private Date checkOutTime;
     private String checkInLocation;
     private String checkOutLocation;
+    private String encodedPath; // simplified trip trace, encoded polyline
+    private int rawPointCount;
+    private int pathPointCount;
     private boolean isCompleted;
     private String notes;
     private Date createdAt;
@@ -93,6 +96,30 @@ public class Trip {
         this.checkOutLocation = checkOutLocation;
     }
 
+    public String getEncodedPath() {
+        return encodedPath;
+    }
+
+    public void setEncodedPath(String encodedPath) {
+        this.encodedPath = encodedPath;
+    }
+
+    public int getRawPointCount() {
+        return rawPointCount;
+    }
+
+    public void setRawPointCount(int rawPointCount) {
+        this.rawPointCount = rawPointCount;
+    }
+
+    public int getPathPointCount() {
+        return pathPointCount;
+    }
+
+    public void setPathPointCount(int pathPointCount) {
+        this.pathPointCount = pathPointCount;
+    }
+
     public boolean isCompleted() {
         return isCompleted;
     }
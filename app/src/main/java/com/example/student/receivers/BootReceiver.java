@@ -9,6 +9,8 @@ import android.util.Log;
 
 import androidx.core.content.ContextCompat;
 
+import com.example.student.services.GeofenceCheckInService;
+import com.example.student.services.JournalReplayService;
 import com.example.student.services.LocationService;
 import com.example.student.utils.LocationServiceManager;
 
@@ -20,6 +22,10 @@ public class BootReceiver extends BroadcastReceiver {
         if (Intent.ACTION_BOOT_COMPLETED.equals(intent.getAction())) {
             Log.d(TAG, "Boot completed, attempting to start location service");
             LocationServiceManager.startLocationService(context);
+            // Registered geofences do not survive a reboot
+            GeofenceCheckInService.getInstance(context).restoreGeofences();
+            // Anything journaled before the reboot is still on disk
+            JournalReplayService.getInstance(context).requestDrain();
         }
     }
 }
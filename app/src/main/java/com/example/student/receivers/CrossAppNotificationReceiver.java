@@ -3,9 +3,14 @@ package com.example.student.receivers;
 import android.content.BroadcastReceiver;
 import android.content.Context;
 import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.example.student.services.CrossAppIntegrationService;
+import com.example.student.utils.Constants;
+
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class CrossAppNotificationReceiver extends BroadcastReceiver {
     private static final String TAG = "CrossAppNotificationReceiver";
@@ -36,14 +41,33 @@ public class CrossAppNotificationReceiver extends BroadcastReceiver {
         String messageId = intent.getStringExtra("message_id");
         if (messageId != null) {
             Log.d(TAG, "Marking message as read: " + messageId);
+            // The process may be killed once onReceive returns, so skip the receipt
+            // debounce and keep it alive until the write is handed to Firestore, but
+            // no longer than READ_RECEIPT_RECEIVER_TIMEOUT
+            PendingResult pendingResult = goAsync();
+            AtomicBoolean finished = new AtomicBoolean(false);
+            Handler handler = new Handler(Looper.getMainLooper());
+            Runnable finish = () -> {
+                if (finished.compareAndSet(false, true)) {
+                    handler.removeCallbacksAndMessages(null);
+                    pendingResult.finish();
+                }
+            };
+            handler.postDelayed(() -> {
+                if (!finished.get()) {
+                    Log.w(TAG, "Read receipt still pending after " + Constants.READ_RECEIPT_RECEIVER_TIMEOUT + " ms, left queued");
+                }
+                finish.run();
+            }, Constants.READ_RECEIPT_RECEIVER_TIMEOUT);
             CrossAppIntegrationService.getInstance(context)
-                    .markMessageAsRead(messageId)
-                    .thenAccept(success -> {
-                        if (success) {
+                    .markMessageAsReadNow(messageId)
+                    .whenComplete((success, throwable) -> {
+                        if (Boolean.TRUE.equals(success)) {
                             Log.d(TAG, "Message marked as read successfully");
                         } else {
-                            Log.e(TAG, "Failed to mark message as read");
+                            Log.e(TAG, "Failed to mark message as read", throwable);
                         }
+                        finish.run();
                     });
         }
     }
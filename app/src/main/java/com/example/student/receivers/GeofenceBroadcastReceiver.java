@@ -0,0 +1,65 @@
+package com.example.student.receivers;
+
+import android.content.BroadcastReceiver;
+import android.content.Context;
+import android.content.Intent;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.student.services.GeofenceCheckInService;
+import com.example.student.utils.Constants;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofenceStatusCodes;
+import com.google.android.gms.location.GeofencingEvent;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+public class GeofenceBroadcastReceiver extends BroadcastReceiver {
+    private static final String TAG = "GeofenceBroadcastReceiver";
+
+    @Override
+    public void onReceive(Context context, Intent intent) {
+        GeofencingEvent event = GeofencingEvent.fromIntent(intent);
+        if (event == null) {
+            return;
+        }
+        if (event.hasError()) {
+            Log.e(TAG, "Geofencing error: " + GeofenceStatusCodes.getStatusCodeString(event.getErrorCode()));
+            return;
+        }
+
+        List<String> geofenceIds = new ArrayList<>();
+        if (event.getTriggeringGeofences() != null) {
+            for (Geofence geofence : event.getTriggeringGeofences()) {
+                geofenceIds.add(geofence.getRequestId());
+            }
+        }
+        int transition = event.getGeofenceTransition();
+        Log.d(TAG, "Geofence transition " + transition + " for " + geofenceIds);
+
+        // Keep the process alive until the check-in message is written, but no longer than
+        // GEOFENCE_RECEIVER_TIMEOUT: offline the write only completes once the device is back
+        // online, and Firestore sends it from its local queue then without this receiver
+        PendingResult pendingResult = goAsync();
+        AtomicBoolean finished = new AtomicBoolean(false);
+        Handler handler = new Handler(Looper.getMainLooper());
+        Runnable finish = () -> {
+            if (finished.compareAndSet(false, true)) {
+                handler.removeCallbacksAndMessages(null);
+                pendingResult.finish();
+            }
+        };
+        handler.postDelayed(() -> {
+            if (!finished.get()) {
+                Log.w(TAG, "Check-in still pending after " + Constants.GEOFENCE_RECEIVER_TIMEOUT + " ms, left queued");
+            }
+            finish.run();
+        }, Constants.GEOFENCE_RECEIVER_TIMEOUT);
+        GeofenceCheckInService.getInstance(context)
+                .onGeofenceTransition(transition, geofenceIds)
+                .whenComplete((success, throwable) -> finish.run());
+    }
+}
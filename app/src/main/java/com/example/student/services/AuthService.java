@@ -22,6 +22,9 @@ public class AuthService {
     private Student currentStudent;
     private CrossAppIntegrationService crossAppService;
     private RealTimeSyncService syncService;
+    private RetentionCompactor retentionCompactor;
+    private LocalSyncEngine localSync;
+    private GeofenceCheckInService geofenceCheckIn;
 
     private AuthService(Context context) {
         firebaseAuth = FirebaseAuth.getInstance();
@@ -31,6 +34,9 @@ public class AuthService {
         // Initialize cross-app services
         crossAppService = CrossAppIntegrationService.getInstance(context);
         syncService = RealTimeSyncService.getInstance(context);
+        retentionCompactor = RetentionCompactor.getInstance(context);
+        localSync = LocalSyncEngine.getInstance(context);
+        geofenceCheckIn = GeofenceCheckInService.getInstance(context);
         
         // Restore demo login state if available
         restoreDemoLoginState();
@@ -335,6 +341,13 @@ public class AuthService {
         if (syncService != null) {
             syncService.stopAllSync();
         }
+        BusDirectory.getInstance().invalidateAll();
+        DriverDirectory.getInstance().invalidateAll();
+        SupervisorDirectory.getInstance().stop();
+        // Geofences outlive the process, so they must not keep checking this student in
+        geofenceCheckIn.stopAutoCheckIn();
+        // The next student must not see this one's trips
+        localSync.clear();
         
         currentStudent = null;
         clearLoginState();
@@ -397,19 +410,24 @@ public class AuthService {
         if (currentStudent != null && syncService != null) {
             Log.d(TAG, "Starting cross-app integration for student: " + currentStudent.getStudentId());
             
-            // Start listening for messages from drivers and supervisors
-            syncService.startMessageSync(
-                    currentStudent.getStudentId(), 
-                    CrossAppIntegrationService.USER_TYPE_STUDENT,
-                    new RealTimeSyncService.MessageSyncListener() {
-                        @Override
-                        public void onNewMessagesReceived(java.util.List<com.example.student.models.CrossAppMessage> messages) {
-                            // Handle incoming messages
-                            Log.d(TAG, "Received " + messages.size() + " new cross-app messages");
-                            // You can add notification handling here
-                        }
-                    }
-            );
+            // Start listening for messages from drivers and supervisors, direct and on the bus's channels
+            String busId = currentStudent.getAssignedBusId();
+            RealTimeSyncService.MessageSyncListener messageListener = new RealTimeSyncService.MessageSyncListener() {
+                @Override
+                public void onNewMessagesReceived(java.util.List<com.example.student.models.CrossAppMessage> messages) {
+                    // Handle incoming messages
+                    Log.d(TAG, "Received " + messages.size() + " new cross-app messages");
+                    // You can add notification handling here
+                }
+            };
+            String studentId = currentStudent.getStudentId();
+            // Trips and schedules are kept on disk for the history and schedule screens
+            localSync.syncStudent(studentId, busId);
+            // Direct messages only: students publish to the route and bus channels but never read them
+            syncService.startMessageSync(studentId,
+                    CrossAppIntegrationService.USER_TYPE_STUDENT, messageListener);
+            // Expired messages are cleared before they pile up in the inbox queries
+            retentionCompactor.compactIfDue(studentId);
             
             // Start listening for emergency alerts
             syncService.startEmergencySync(
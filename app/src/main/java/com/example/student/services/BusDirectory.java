@@ -0,0 +1,184 @@
+package com.example.student.services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.student.models.Bus;
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-memory bus lookup for the cross-app send paths.
+ * A DocumentHub subscription per bus keeps its entry current, sharing the
+ * listener the sync services already hold on the same document, so repeated
+ * lookups cost no network round-trip. Entries that only have cached data
+ * (listener offline or failed) are trusted for BUS_DIRECTORY_TTL before a
+ * server read.
+ */
+public class BusDirectory {
+    private static final String TAG = "BusDirectory";
+    private static BusDirectory instance;
+
+    private FirebaseFirestore firestore;
+    private DocumentHub documentHub;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private BusDirectory() {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.documentHub = DocumentHub.getInstance();
+    }
+
+    public static synchronized BusDirectory getInstance() {
+        if (instance == null) {
+            instance = new BusDirectory();
+        }
+        return instance;
+    }
+
+    /**
+     * Resolve a bus, from memory when possible. Completes with null if the bus does not exist.
+     */
+    public CompletableFuture<Bus> getBus(String busId) {
+        if (busId == null || busId.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        synchronized (this) {
+            Entry entry = entries.get(busId);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(busId, entry);
+                watch(busId, entry);
+            }
+            if (entry.loaded && (entry.live || SystemClock.elapsedRealtime() - entry.updatedAt < Constants.BUS_DIRECTORY_TTL)) {
+                return CompletableFuture.completedFuture(entry.bus);
+            }
+            CompletableFuture<Bus> future = new CompletableFuture<>();
+            entry.waiters.add(future);
+            if (entry.loaded && !entry.refreshing) {
+                // Only cached data and it has aged out
+                refresh(busId, entry);
+            }
+            return future;
+        }
+    }
+
+    /**
+     * The cached bus without any network access, or null if it is not loaded
+     */
+    public synchronized Bus peek(String busId) {
+        Entry entry = entries.get(busId);
+        return entry != null && entry.loaded ? entry.bus : null;
+    }
+
+    /**
+     * Drop a bus so the next lookup starts from the server again
+     */
+    public synchronized void invalidate(String busId) {
+        Entry entry = entries.remove(busId);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    private void watch(String busId, Entry entry) {
+        entry.registration = documentHub.subscribe(Constants.COLLECTION_BUSES, busId, Bus.class,
+                new DocumentHub.Listener<Bus>() {
+                    @Override
+                    public void onDocument(Bus bus, boolean fromCache) {
+                        update(entry, bus, !fromCache);
+                    }
+
+                    @Override
+                    public void onError(Exception e) {
+                        Log.e(TAG, "Bus listener failed for " + busId + ", falling back to reads", e);
+                        synchronized (BusDirectory.this) {
+                            entry.live = false;
+                            if (!entry.loaded && !entry.refreshing) {
+                                refresh(busId, entry);
+                            }
+                        }
+                    }
+                });
+    }
+
+    private void refresh(String busId, Entry entry) {
+        entry.refreshing = true;
+        firestore.collection(Constants.COLLECTION_BUSES)
+                .document(busId)
+                .get()
+                .addOnSuccessListener(busDoc -> {
+                    synchronized (this) {
+                        entry.refreshing = false;
+                    }
+                    update(entry, busDoc.exists() ? busDoc.toObject(Bus.class) : null, entry.live);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to refresh bus " + busId, e);
+                    List<CompletableFuture<Bus>> waiters;
+                    Bus stale;
+                    synchronized (this) {
+                        entry.refreshing = false;
+                        waiters = takeWaiters(entry);
+                        stale = entry.bus;
+                    }
+                    // Stale data beats no data on the send paths
+                    for (CompletableFuture<Bus> waiter : waiters) {
+                        waiter.complete(stale);
+                    }
+                });
+    }
+
+    private void update(Entry entry, Bus bus, boolean live) {
+        List<CompletableFuture<Bus>> waiters;
+        synchronized (this) {
+            entry.bus = bus;
+            entry.loaded = true;
+            entry.live = live;
+            entry.updatedAt = SystemClock.elapsedRealtime();
+            waiters = takeWaiters(entry);
+        }
+        for (CompletableFuture<Bus> waiter : waiters) {
+            waiter.complete(bus);
+        }
+    }
+
+    private List<CompletableFuture<Bus>> takeWaiters(Entry entry) {
+        List<CompletableFuture<Bus>> waiters = new ArrayList<>(entry.waiters);
+        entry.waiters.clear();
+        return waiters;
+    }
+
+    private void release(Entry entry) {
+        if (entry.registration != null) {
+            entry.registration.remove();
+            entry.registration = null;
+        }
+        for (CompletableFuture<Bus> waiter : takeWaiters(entry)) {
+            waiter.complete(entry.bus);
+        }
+    }
+
+    private static class Entry {
+        Bus bus;
+        boolean loaded;
+        boolean live; // last data came from the server through the listener
+        boolean refreshing;
+        long updatedAt;
+        ListenerRegistration registration;
+        final List<CompletableFuture<Bus>> waiters = new ArrayList<>();
+    }
+}
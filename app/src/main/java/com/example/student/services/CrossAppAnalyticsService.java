@@ -10,6 +10,7 @@ import com.example.student.utils.Constants;
 import com.google.firebase.analytics.FirebaseAnalytics;
 import com.google.firebase.firestore.FirebaseFirestore;
 
+import java.util.Date;
 import java.util.HashMap;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
@@ -262,10 +263,11 @@ public class CrossAppAnalyticsService {
             Map<String, Object> analyticsData = new HashMap<>(data);
             analyticsData.put("event_type", eventType);
             analyticsData.put("timestamp", System.currentTimeMillis());
+            analyticsData.put("expiresAt", new Date(System.currentTimeMillis() + Constants.TTL_ANALYTICS));
             analyticsData.put("app_version", getAppVersion());
             analyticsData.put("device_info", getDeviceInfo());
             
-            firestore.collection("analytics")
+            firestore.collection(Constants.COLLECTION_ANALYTICS)
                     .add(analyticsData)
                     .addOnSuccessListener(documentReference -> {
                         Log.d(TAG, "Analytics data stored: " + documentReference.getId());
@@ -289,8 +291,9 @@ public class CrossAppAnalyticsService {
     public CompletableFuture<Map<String, Object>> getAnalyticsSummary(String studentId) {
         CompletableFuture<Map<String, Object>> future = new CompletableFuture<>();
         
-        firestore.collection("analytics")
+        firestore.collection(Constants.COLLECTION_ANALYTICS)
                 .whereEqualTo("student_id", studentId)
+                .whereGreaterThan("timestamp", System.currentTimeMillis() - Constants.TTL_ANALYTICS)
                 .orderBy("timestamp", com.google.firebase.firestore.Query.Direction.DESCENDING)
                 .limit(100)
                 .get()
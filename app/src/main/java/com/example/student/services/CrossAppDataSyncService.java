@@ -10,10 +10,8 @@ import com.example.student.models.Supervisor;
 import com.example.student.models.Route;
 import com.example.student.models.Schedule;
 import com.example.student.utils.Constants;
-import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
-import com.google.firebase.firestore.Query;
 
 import java.util.ArrayList;
 import java.util.List;
@@ -21,7 +19,8 @@ import java.util.concurrent.CompletableFuture;
 
 /**
  * Service for syncing data between student, driver, and supervisor apps
- * Handles offline data caching and conflict resolution
+ * Documents received here are written through to LocalStore, and schedules are
+ * served from it, so offline caching and conflict resolution live in LocalSyncEngine
  */
 public class CrossAppDataSyncService {
     private static final String TAG = "CrossAppDataSync";
@@ -30,6 +29,8 @@ public class CrossAppDataSyncService {
     private FirebaseFirestore firestore;
     private Context context;
     private List<ListenerRegistration> listeners;
+    private DocumentHub documentHub;
+    private LocalSyncEngine localSync;
     
     // Sync intervals
     private static final int BUS_DATA_SYNC_INTERVAL = 30000; // 30 seconds
@@ -40,6 +41,8 @@ public class CrossAppDataSyncService {
         this.context = context.getApplicationContext();
         this.firestore = FirebaseFirestore.getInstance();
         this.listeners = new ArrayList<>();
+        this.documentHub = DocumentHub.getInstance();
+        this.localSync = LocalSyncEngine.getInstance(context);
     }
 
     public static synchronized CrossAppDataSyncService getInstance(Context context) {
@@ -55,21 +58,11 @@ public class CrossAppDataSyncService {
     public void startBusDataSync(String busId, BusDataSyncListener listener) {
         Log.d(TAG, "Starting bus data sync for bus: " + busId);
         
-        ListenerRegistration registration = firestore.collection(Constants.COLLECTION_BUSES)
-                .document(busId)
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Error syncing bus data", e);
-                        return;
-                    }
-
-                    if (snapshot != null && snapshot.exists()) {
-                        Bus bus = snapshot.toObject(Bus.class);
-                        if (bus != null) {
-                            Log.d(TAG, "Bus data synced: " + bus.getBusNumber());
-                            listener.onBusDataUpdated(bus);
-                        }
-                    }
+        ListenerRegistration registration = documentHub.subscribe(Constants.COLLECTION_BUSES, busId, Bus.class,
+                bus -> {
+                    Log.d(TAG, "Bus data synced: " + bus.getBusNumber());
+                    localSync.cacheDocument(Constants.COLLECTION_BUSES, busId, bus, bus.getLastUpdated());
+                    listener.onBusDataUpdated(bus);
                 });
 
         listeners.add(registration);
@@ -81,54 +74,36 @@ public class CrossAppDataSyncService {
     public void startRouteDataSync(String routeId, RouteDataSyncListener listener) {
         Log.d(TAG, "Starting route data sync for route: " + routeId);
         
-        ListenerRegistration registration = firestore.collection(Constants.COLLECTION_ROUTES)
-                .document(routeId)
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Error syncing route data", e);
-                        return;
-                    }
-
-                    if (snapshot != null && snapshot.exists()) {
-                        Route route = snapshot.toObject(Route.class);
-                        if (route != null) {
-                            Log.d(TAG, "Route data synced: " + route.getRouteName());
-                            listener.onRouteDataUpdated(route);
-                        }
-                    }
+        ListenerRegistration registration = documentHub.subscribe(Constants.COLLECTION_ROUTES, routeId,
+                Route.class, route -> {
+                    Log.d(TAG, "Route data synced: " + route.getRouteName());
+                    localSync.cacheDocument(Constants.COLLECTION_ROUTES, routeId, route, route.getUpdatedAt());
+                    listener.onRouteDataUpdated(route);
                 });
 
         listeners.add(registration);
     }
 
     /**
-     * Start syncing schedule data
+     * Start syncing schedule data; delivered from the local store, which only fetches changed schedules
      */
     public void startScheduleDataSync(String routeId, ScheduleDataSyncListener listener) {
         Log.d(TAG, "Starting schedule data sync for route: " + routeId);
         
-        Query query = firestore.collection(Constants.COLLECTION_SCHEDULES)
-                .whereEqualTo("routeId", routeId)
-                .whereEqualTo("isActive", true);
-
-        ListenerRegistration registration = query.addSnapshotListener((snapshots, e) -> {
-            if (e != null) {
-                Log.e(TAG, "Error syncing schedule data", e);
-                return;
-            }
-
-            if (snapshots != null && !snapshots.isEmpty()) {
-                List<Schedule> schedules = new ArrayList<>();
-                for (DocumentSnapshot doc : snapshots.getDocuments()) {
-                    Schedule schedule = doc.toObject(Schedule.class);
-                    if (schedule != null) {
-                        schedules.add(schedule);
+        localSync.syncSchedules(routeId);
+        ListenerRegistration registration = localSync.observe(LocalSyncEngine.scheduleScope(routeId),
+                Schedule.class, stored -> {
+                    List<Schedule> schedules = new ArrayList<>();
+                    for (Schedule schedule : stored) {
+                        if (schedule.isActive()) {
+                            schedules.add(schedule);
+                        }
+                    }
+                    if (!schedules.isEmpty()) {
+                        Log.d(TAG, "Schedule data synced: " + schedules.size() + " schedules");
+                        listener.onScheduleDataUpdated(schedules);
                     }
-                }
-                Log.d(TAG, "Schedule data synced: " + schedules.size() + " schedules");
-                listener.onScheduleDataUpdated(schedules);
-            }
-        });
+                });
 
         listeners.add(registration);
     }
@@ -139,21 +114,11 @@ public class CrossAppDataSyncService {
     public void syncStudentData(String studentId, StudentDataSyncListener listener) {
         Log.d(TAG, "Syncing student data for: " + studentId);
         
-        ListenerRegistration registration = firestore.collection(Constants.COLLECTION_STUDENTS)
-                .document(studentId)
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Error syncing student data", e);
-                        return;
-                    }
-
-                    if (snapshot != null && snapshot.exists()) {
-                        Student student = snapshot.toObject(Student.class);
-                        if (student != null) {
-                            Log.d(TAG, "Student data synced: " + student.getName());
-                            listener.onStudentDataUpdated(student);
-                        }
-                    }
+        ListenerRegistration registration = documentHub.subscribe(Constants.COLLECTION_STUDENTS, studentId,
+                Student.class, student -> {
+                    Log.d(TAG, "Student data synced: " + student.getName());
+                    localSync.cacheDocument(Constants.COLLECTION_STUDENTS, studentId, student, student.getUpdatedAt());
+                    listener.onStudentDataUpdated(student);
                 });
 
         listeners.add(registration);
@@ -163,74 +128,24 @@ public class CrossAppDataSyncService {
      * Get driver information by bus ID
      */
     public CompletableFuture<Driver> getDriverByBusId(String busId) {
-        CompletableFuture<Driver> future = new CompletableFuture<>();
-        
-        firestore.collection(Constants.COLLECTION_BUSES)
-                .document(busId)
-                .get()
-                .addOnSuccessListener(busDoc -> {
-                    if (busDoc.exists()) {
-                        Bus bus = busDoc.toObject(Bus.class);
-                        if (bus != null && bus.getDriverName() != null) {
-                            // Get driver details
-                            firestore.collection(Constants.COLLECTION_DRIVERS)
-                                    .whereEqualTo("name", bus.getDriverName())
-                                    .limit(1)
-                                    .get()
-                                    .addOnSuccessListener(driverDocs -> {
-                                        if (!driverDocs.isEmpty()) {
-                                            Driver driver = driverDocs.getDocuments().get(0).toObject(Driver.class);
-                                            future.complete(driver);
-                                        } else {
-                                            future.complete(null);
-                                        }
-                                    })
-                                    .addOnFailureListener(e -> {
-                                        Log.e(TAG, "Error getting driver by bus ID", e);
-                                        future.complete(null);
-                                    });
-                        } else {
-                            future.complete(null);
-                        }
-                    } else {
-                        future.complete(null);
-                    }
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error getting bus for driver lookup", e);
-                    future.complete(null);
+        // One hop through the busId -> driver index, usually answered from memory
+        return DriverDirectory.getInstance().getDriverForBus(busId)
+                .exceptionally(e -> {
+                    Log.e(TAG, "Error getting driver by bus ID", e);
+                    return null;
                 });
-        
-        return future;
     }
 
     /**
      * Get supervisor information by route ID
      */
     public CompletableFuture<List<Supervisor>> getSupervisorsByRouteId(String routeId) {
-        CompletableFuture<List<Supervisor>> future = new CompletableFuture<>();
-        
-        firestore.collection(Constants.COLLECTION_SUPERVISORS)
-                .whereArrayContains("assignedRoutes", routeId)
-                .whereEqualTo("isActive", true)
-                .get()
-                .addOnSuccessListener(supervisorDocs -> {
-                    List<Supervisor> supervisors = new ArrayList<>();
-                    for (DocumentSnapshot doc : supervisorDocs.getDocuments()) {
-                        Supervisor supervisor = doc.toObject(Supervisor.class);
-                        if (supervisor != null) {
-                            supervisors.add(supervisor);
-                        }
-                    }
+        // Answered from the supervisor routing table rather than a query per call
+        return SupervisorDirectory.getInstance().getSupervisorsForRoute(routeId, true)
+                .thenApply(supervisors -> {
                     Log.d(TAG, "Found " + supervisors.size() + " supervisors for route: " + routeId);
-                    future.complete(supervisors);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Error getting supervisors by route ID", e);
-                    future.complete(new ArrayList<>());
+                    return supervisors;
                 });
-        
-        return future;
     }
 
     /**
@@ -275,27 +190,16 @@ public class CrossAppDataSyncService {
     public void startBusStatusSync(String busId, BusStatusSyncListener listener) {
         Log.d(TAG, "Starting bus status sync for bus: " + busId);
         
-        ListenerRegistration registration = firestore.collection(Constants.COLLECTION_BUSES)
-                .document(busId)
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Error syncing bus status", e);
-                        return;
-                    }
+        ListenerRegistration registration = documentHub.subscribe(Constants.COLLECTION_BUSES, busId, Bus.class,
+                bus -> {
+                    String status = bus.getStatus();
+                    boolean isOnRoute = bus.isOnRoute();
+                    boolean isMoving = bus.isMoving();
 
-                    if (snapshot != null && snapshot.exists()) {
-                        Bus bus = snapshot.toObject(Bus.class);
-                        if (bus != null) {
-                            String status = bus.getStatus();
-                            boolean isOnRoute = bus.isOnRoute();
-                            boolean isMoving = bus.isMoving();
-                            
-                            Log.d(TAG, "Bus status synced - Status: " + status + 
-                                  ", On Route: " + isOnRoute + ", Moving: " + isMoving);
-                            
-                            listener.onBusStatusUpdated(status, isOnRoute, isMoving, bus);
-                        }
-                    }
+                    Log.d(TAG, "Bus status synced - Status: " + status +
+                          ", On Route: " + isOnRoute + ", Moving: " + isMoving);
+
+                    listener.onBusStatusUpdated(status, isOnRoute, isMoving, bus);
                 });
 
         listeners.add(registration);
@@ -1,6 +1,8 @@
 package com.example.student.services;
 
 import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
 import android.util.Log;
 
 import com.example.student.models.CrossAppMessage;
@@ -9,25 +11,38 @@ import com.example.student.models.Bus;
 import com.example.student.models.Driver;
 import com.example.student.models.Supervisor;
 import com.example.student.utils.Constants;
-import com.google.firebase.firestore.DocumentReference;
-import com.google.firebase.firestore.DocumentSnapshot;
+import com.example.student.utils.LocationServiceManager;
+import com.example.student.utils.MessageIdGenerator;
+import com.example.student.utils.RetentionPolicy;
+import com.google.android.gms.tasks.Task;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
 import com.google.firebase.firestore.WriteBatch;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
 import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
 
 public class CrossAppIntegrationService {
     private static final String TAG = "CrossAppIntegration";
     private static CrossAppIntegrationService instance;
     
     private FirebaseFirestore firestore;
+    private BusDirectory busDirectory;
+    private DriverDirectory driverDirectory;
+    private SupervisorDirectory supervisorDirectory;
+    private OutboundScheduler scheduler;
+    private MessageIdGenerator idGenerator;
+    private Handler retryHandler;
     private Context context;
     private List<ListenerRegistration> listeners;
     
@@ -43,6 +58,7 @@ public class CrossAppIntegrationService {
     public static final String USER_TYPE_STUDENT = "student";
     public static final String USER_TYPE_DRIVER = "driver";
     public static final String USER_TYPE_SUPERVISOR = "supervisor";
+    public static final String USER_TYPE_CHANNEL = "channel";
     
     // Priority levels
     public static final String PRIORITY_LOW = "low";
@@ -53,6 +69,12 @@ public class CrossAppIntegrationService {
     private CrossAppIntegrationService(Context context) {
         this.context = context.getApplicationContext();
         this.firestore = FirebaseFirestore.getInstance();
+        this.busDirectory = BusDirectory.getInstance();
+        this.driverDirectory = DriverDirectory.getInstance();
+        this.supervisorDirectory = SupervisorDirectory.getInstance();
+        this.scheduler = OutboundScheduler.getInstance();
+        this.idGenerator = MessageIdGenerator.getInstance(this.context);
+        this.retryHandler = new Handler(Looper.getMainLooper());
         this.listeners = new ArrayList<>();
     }
 
@@ -64,29 +86,144 @@ public class CrossAppIntegrationService {
     }
 
     /**
-     * Send a message to another app/user
+     * Send a message to another app/user, queued by priority
      */
     public CompletableFuture<Boolean> sendMessage(CrossAppMessage message) {
+        if (message.getMessageId() == null) {
+            message.setMessageId(generateMessageId());
+        }
+        stampExpiry(message);
+        return scheduler.submit(message.getPriority(), coalesceKey(message.getReceiverId(), message),
+                () -> writeMessage(message));
+    }
+
+    private CompletableFuture<Boolean> writeMessage(CrossAppMessage message) {
+        // Document id is the message id, so a retried write cannot duplicate it
+        return writeWithRetry("Message " + message.getMessageId(),
+                () -> firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
+                        .document(message.getMessageId())
+                        .set(message));
+    }
+
+    /**
+     * Write a route-wide message once to a channel instead of once per receiver
+     */
+    public CompletableFuture<Boolean> publishToChannel(String channelId, CrossAppMessage message) {
+        if (message.getMessageId() == null) {
+            message.setMessageId(generateMessageId());
+        }
+        stampExpiry(message);
+        return scheduler.submit(message.getPriority(), coalesceKey(channelId, message),
+                () -> writeToChannel(channelId, message));
+    }
+
+    private CompletableFuture<Boolean> writeToChannel(String channelId, CrossAppMessage message) {
+        return writeWithRetry("Channel message " + message.getMessageId() + " to " + channelId,
+                () -> firestore.collection(Constants.COLLECTION_CROSS_APP_CHANNELS)
+                        .document(channelId)
+                        .collection(Constants.COLLECTION_CHANNEL_MESSAGES)
+                        .document(message.getMessageId())
+                        .set(message));
+    }
+
+    /**
+     * Run a write, retrying transient failures with exponential backoff.
+     * Every attempt writes the same document ids, so retrying a write that did
+     * land only overwrites it.
+     * Firestore only acknowledges a write once the server has it, which offline
+     * never happens; a write neither acknowledged nor failed after
+     * MESSAGE_QUEUED_TIMEOUT is reported as sent, since it is already in the
+     * SDK's persisted queue and goes out when the device is back online.
+     */
+    private CompletableFuture<Boolean> writeWithRetry(String what, Supplier<Task<Void>> write) {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
-        
+        retryHandler.postDelayed(() -> {
+            if (future.complete(true)) {
+                Log.d(TAG, what + " queued until the server is reachable");
+            }
+        }, Constants.MESSAGE_QUEUED_TIMEOUT);
+        attemptWrite(what, write, 0, future);
+        return future;
+    }
+
+    private void attemptWrite(String what, Supplier<Task<Void>> write, int attempt,
+                              CompletableFuture<Boolean> future) {
         try {
-            // Add message to cross-app messages collection
-            firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
-                    .add(message)
-                    .addOnSuccessListener(documentReference -> {
-                        Log.d(TAG, "Message sent successfully: " + documentReference.getId());
+            write.get()
+                    .addOnSuccessListener(aVoid -> {
+                        Log.d(TAG, what + " sent");
                         future.complete(true);
                     })
                     .addOnFailureListener(e -> {
-                        Log.e(TAG, "Failed to send message", e);
-                        future.complete(false);
+                        if (attempt < Constants.MESSAGE_RETRY_MAX && isTransient(e)) {
+                            long delay = Constants.MESSAGE_RETRY_BASE_DELAY << attempt;
+                            Log.w(TAG, what + " failed, retrying in " + delay + "ms", e);
+                            retryHandler.postDelayed(() -> attemptWrite(what, write, attempt + 1, future), delay);
+                        } else {
+                            Log.e(TAG, what + " failed", e);
+                            future.complete(false);
+                        }
                     });
         } catch (Exception e) {
-            Log.e(TAG, "Error sending message", e);
+            Log.e(TAG, "Error sending " + what, e);
             future.complete(false);
         }
-        
-        return future;
+    }
+
+    private static boolean isTransient(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+            case RESOURCE_EXHAUSTED:
+            case INTERNAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    /**
+     * Whether messages of this type go to a route or bus channel
+     */
+    public static boolean isChannelDelivered(String messageType) {
+        return Constants.CROSS_APP_CHANNEL_DELIVERY
+                && (MESSAGE_TYPE_LOCATION_UPDATE.equals(messageType) || MESSAGE_TYPE_STATUS_UPDATE.equals(messageType));
+    }
+
+    /**
+     * Whether this receiver type consumes channels. Students only publish to them:
+     * everything on a route channel is another student's relayed location.
+     */
+    public static boolean readsChannels(String userType) {
+        return USER_TYPE_DRIVER.equals(userType) || USER_TYPE_SUPERVISOR.equals(userType);
+    }
+
+    public static String routeChannelId(String routeId) {
+        return "route_" + routeId;
+    }
+
+    public static String busChannelId(String busId) {
+        return "bus_" + busId;
+    }
+
+    /**
+     * Channels the driver and supervisors of this bus read: its route and the bus itself
+     */
+    public static List<String> channelIdsFor(Bus bus, String busId) {
+        List<String> channelIds = new ArrayList<>();
+        if (bus != null && bus.getRouteId() != null) {
+            channelIds.add(routeChannelId(bus.getRouteId()));
+        }
+        channelIds.add(busChannelId(busId));
+        return channelIds;
+    }
+
+    private static String channelIdFor(Bus bus, String busId) {
+        return bus.getRouteId() != null ? routeChannelId(bus.getRouteId()) : busChannelId(busId);
     }
 
     /**
@@ -98,50 +235,55 @@ public class CrossAppIntegrationService {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
         
         try {
-            // Get bus information to find driver and route
-            firestore.collection(Constants.COLLECTION_BUSES)
-                    .document(busId)
-                    .get()
-                    .addOnSuccessListener(busDoc -> {
-                        if (busDoc.exists()) {
-                            Bus bus = busDoc.toObject(Bus.class);
-                            if (bus != null) {
-                                // Send to driver
-                                if (bus.getDriverName() != null) {
-                                    CrossAppMessage driverMessage = new CrossAppMessage(
-                                            generateMessageId(), studentId, USER_TYPE_STUDENT,
-                                            bus.getDriverName(), USER_TYPE_DRIVER, MESSAGE_TYPE_LOCATION_UPDATE
-                                    );
-                                    driverMessage.setTitle("Student Location Update");
-                                    driverMessage.setContent("Student " + studentId + " location updated");
-                                    driverMessage.setBusId(busId);
-                                    driverMessage.setPriority(PRIORITY_MEDIUM);
-                                    
-                                    Map<String, Object> locationData = new HashMap<>();
-                                    locationData.put("latitude", latitude);
-                                    locationData.put("longitude", longitude);
-                                    locationData.put("speed", speed);
-                                    locationData.put("direction", direction);
-                                    locationData.put("timestamp", new Date());
-                                    driverMessage.setData(locationData);
-                                    
-                                    sendMessage(driverMessage);
-                                }
-                                
-                                // Send to supervisor
-                                sendLocationUpdateToSupervisor(studentId, busId, latitude, longitude, speed, direction);
-                                
-                                future.complete(true);
-                            } else {
-                                future.complete(false);
-                            }
+            // Resolve the route from the bus directory and the driver from the driver directory
+            busDirectory.getBus(busId)
+                    .thenAccept(bus -> {
+                        if (bus != null && isChannelDelivered(MESSAGE_TYPE_LOCATION_UPDATE)) {
+                            // One write that the driver and every supervisor of the route read
+                            String channelId = channelIdFor(bus, busId);
+                            CrossAppMessage channelMessage = new CrossAppMessage(
+                                    generateMessageId(), studentId, USER_TYPE_STUDENT,
+                                    channelId, USER_TYPE_CHANNEL, MESSAGE_TYPE_LOCATION_UPDATE
+                            );
+                            channelMessage.setTitle("Student Location Update");
+                            channelMessage.setContent("Student " + studentId + " location updated");
+                            channelMessage.setBusId(busId);
+                            channelMessage.setRouteId(bus.getRouteId());
+                            channelMessage.setPriority(PRIORITY_MEDIUM);
+                            channelMessage.setData(locationData(latitude, longitude, speed, direction));
+                            publishToChannel(channelId, channelMessage).thenAccept(future::complete);
+                        } else if (bus != null) {
+                            // Send to driver
+                            CompletableFuture<Boolean> driverSent = driverDirectory.getDriverIdForBus(busId)
+                                    .thenCompose(receiverId -> {
+                                        if (receiverId == null) {
+                                            return CompletableFuture.completedFuture(true);
+                                        }
+                                        CrossAppMessage driverMessage = new CrossAppMessage(
+                                                generateMessageId(), studentId, USER_TYPE_STUDENT,
+                                                receiverId, USER_TYPE_DRIVER, MESSAGE_TYPE_LOCATION_UPDATE
+                                        );
+                                        driverMessage.setTitle("Student Location Update");
+                                        driverMessage.setContent("Student " + studentId + " location updated");
+                                        driverMessage.setBusId(busId);
+                                        driverMessage.setPriority(PRIORITY_MEDIUM);
+                                        driverMessage.setData(locationData(latitude, longitude, speed, direction));
+                                        return sendMessage(driverMessage);
+                                    });
+                            
+                            // Send to supervisor
+                            CompletableFuture<Boolean> supervisorsSent = sendLocationUpdateToSupervisor(
+                                    studentId, bus, busId, latitude, longitude, speed, direction);
+                            
+                            completeWhenDelivered(future, driverSent, supervisorsSent);
                         } else {
                             future.complete(false);
                         }
                     })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Failed to get bus information", e);
+                    .exceptionally(e -> {
+                        Log.e(TAG, "Failed to resolve bus " + busId, e);
                         future.complete(false);
+                        return null;
                     });
         } catch (Exception e) {
             Log.e(TAG, "Error sending location update", e);
@@ -159,18 +301,20 @@ public class CrossAppIntegrationService {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
         
         try {
-            // Get bus and route information
-            firestore.collection(Constants.COLLECTION_BUSES)
-                    .document(busId)
-                    .get()
-                    .addOnSuccessListener(busDoc -> {
-                        if (busDoc.exists()) {
-                            Bus bus = busDoc.toObject(Bus.class);
-                            if (bus != null) {
-                                // Send to driver
+            // Driver and route resolve side by side, each from its own directory
+            CompletableFuture<String> driverId = driverDirectory.getDriverIdForBus(busId);
+            busDirectory.getBus(busId)
+                    .thenAccept(bus -> {
+                        if (bus != null) {
+                            // Send to driver
+                            CompletableFuture<Boolean> driverSent = driverId.thenCompose(receiverId -> {
+                                if (receiverId == null) {
+                                    Log.w(TAG, "No driver assigned to bus " + busId + ", check-in goes to supervisors only");
+                                    return CompletableFuture.completedFuture(true);
+                                }
                                 CrossAppMessage driverMessage = new CrossAppMessage(
                                         generateMessageId(), studentId, USER_TYPE_STUDENT,
-                                        bus.getDriverName(), USER_TYPE_DRIVER, MESSAGE_TYPE_CHECKIN
+                                        receiverId, USER_TYPE_DRIVER, MESSAGE_TYPE_CHECKIN
                                 );
                                 driverMessage.setTitle("Student Check-in");
                                 driverMessage.setContent("Student " + studentId + " checked in at stop " + stopId);
@@ -184,22 +328,22 @@ public class CrossAppIntegrationService {
                                 checkInData.put("timestamp", new Date());
                                 driverMessage.setData(checkInData);
                                 
-                                sendMessage(driverMessage);
-                                
-                                // Send to supervisor
-                                sendCheckInToSupervisor(studentId, busId, stopId, checkInType);
-                                
-                                future.complete(true);
-                            } else {
-                                future.complete(false);
-                            }
+                                return sendMessage(driverMessage);
+                            });
+                            
+                            // Send to supervisor
+                            CompletableFuture<Boolean> supervisorsSent =
+                                    sendCheckInToSupervisor(studentId, bus, busId, stopId, checkInType);
+                            
+                            completeWhenDelivered(future, driverSent, supervisorsSent);
                         } else {
                             future.complete(false);
                         }
                     })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Failed to get bus information for check-in", e);
+                    .exceptionally(e -> {
+                        Log.e(TAG, "Failed to resolve bus " + busId, e);
                         future.complete(false);
+                        return null;
                     });
         } catch (Exception e) {
             Log.e(TAG, "Error sending check-in notification", e);
@@ -215,20 +359,24 @@ public class CrossAppIntegrationService {
     public CompletableFuture<Boolean> sendEmergencyAlert(String studentId, String busId, 
                                                         String emergencyType, String message) {
         CompletableFuture<Boolean> future = new CompletableFuture<>();
+        // Get the student's latest position out with the alert instead of after the next batch
+        LocationServiceManager.requestEmergencyFlush(context);
         
         try {
-            // Get bus information
-            firestore.collection(Constants.COLLECTION_BUSES)
-                    .document(busId)
-                    .get()
-                    .addOnSuccessListener(busDoc -> {
-                        if (busDoc.exists()) {
-                            Bus bus = busDoc.toObject(Bus.class);
-                            if (bus != null) {
-                                // Send to driver
+            // Usually answered from memory, keeping a round-trip off emergency dispatch
+            CompletableFuture<String> driverId = driverDirectory.getDriverIdForBus(busId);
+            busDirectory.getBus(busId)
+                    .thenAccept(bus -> {
+                        if (bus != null) {
+                            // Send to driver
+                            CompletableFuture<Boolean> driverSent = driverId.thenCompose(receiverId -> {
+                                if (receiverId == null) {
+                                    Log.w(TAG, "No driver assigned to bus " + busId + ", emergency goes to supervisors only");
+                                    return CompletableFuture.completedFuture(true);
+                                }
                                 CrossAppMessage driverMessage = new CrossAppMessage(
                                         generateMessageId(), studentId, USER_TYPE_STUDENT,
-                                        bus.getDriverName(), USER_TYPE_DRIVER, MESSAGE_TYPE_EMERGENCY
+                                        receiverId, USER_TYPE_DRIVER, MESSAGE_TYPE_EMERGENCY
                                 );
                                 driverMessage.setTitle("EMERGENCY ALERT");
                                 driverMessage.setContent(message);
@@ -241,22 +389,22 @@ public class CrossAppIntegrationService {
                                 emergencyData.put("timestamp", new Date());
                                 driverMessage.setData(emergencyData);
                                 
-                                sendMessage(driverMessage);
-                                
-                                // Send to all supervisors
-                                sendEmergencyToSupervisors(studentId, busId, emergencyType, message);
-                                
-                                future.complete(true);
-                            } else {
-                                future.complete(false);
-                            }
+                                return sendMessage(driverMessage);
+                            });
+                            
+                            // Send to all supervisors
+                            CompletableFuture<Boolean> supervisorsSent =
+                                    sendEmergencyToSupervisors(studentId, busId, emergencyType, message);
+                            
+                            completeWhenDelivered(future, driverSent, supervisorsSent);
                         } else {
                             future.complete(false);
                         }
                     })
-                    .addOnFailureListener(e -> {
-                        Log.e(TAG, "Failed to get bus information for emergency", e);
+                    .exceptionally(e -> {
+                        Log.e(TAG, "Failed to resolve bus " + busId, e);
                         future.complete(false);
+                        return null;
                     });
         } catch (Exception e) {
             Log.e(TAG, "Error sending emergency alert", e);
@@ -270,53 +418,60 @@ public class CrossAppIntegrationService {
      * Listen for messages from other apps
      */
     public void startListeningForMessages(String userId, String userType, MessageListener listener) {
-        Query query = firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
-                .whereEqualTo("receiverId", userId)
-                .whereEqualTo("receiverType", userType)
-                .orderBy("timestamp", Query.Direction.DESCENDING)
-                .limit(50);
-
-        ListenerRegistration registration = query.addSnapshotListener((snapshots, e) -> {
-            if (e != null) {
-                Log.e(TAG, "Error listening for messages", e);
-                return;
-            }
+        // Recent view of the inbox subscription shared with the unread and emergency syncs
+        listeners.add(MessageInbox.getInstance().subscribe(userId, userType, MessageInbox.RECENT,
+                listener::onMessagesChanged));
+    }
 
-            if (snapshots != null && !snapshots.isEmpty()) {
-                List<CrossAppMessage> messages = new ArrayList<>();
-                for (DocumentSnapshot doc : snapshots.getDocuments()) {
-                    CrossAppMessage message = doc.toObject(CrossAppMessage.class);
-                    if (message != null) {
-                        message.setMessageId(doc.getId());
-                        messages.add(message);
-                    }
-                }
-                listener.onMessagesReceived(messages);
-            }
-        });
+    /**
+     * Listen for direct messages and for the given channels as one merged stream,
+     * newest first
+     */
+    public void startListeningForMessages(String userId, String userType, List<String> channelIds,
+                                          MessageListener listener) {
+        if (!readsChannels(userType)) {
+            startListeningForMessages(userId, userType, listener);
+            return;
+        }
+        MessageMerger merger = new MessageMerger(listener);
+        MessageInbox.Subscription direct = MessageInbox.getInstance().subscribe(userId, userType,
+                MessageInbox.RECENT, merger::onDelta);
+        merger.addSource(direct::getMessages);
+        listeners.add(direct);
 
-        listeners.add(registration);
+        for (String channelId : channelIds) {
+            MessageView view = new MessageView();
+            merger.addSource(view::getMessages);
+            listeners.add(firestore.collection(Constants.COLLECTION_CROSS_APP_CHANNELS)
+                    .document(channelId)
+                    .collection(Constants.COLLECTION_CHANNEL_MESSAGES)
+                    .whereGreaterThan("timestamp", RetentionPolicy.inboxWindowStart())
+                    .orderBy("timestamp", Query.Direction.DESCENDING)
+                    .limit(Constants.CROSS_APP_MESSAGE_LIMIT)
+                    .addSnapshotListener((snapshots, e) -> merger.onSnapshot(view, snapshots, e)));
+        }
     }
 
     /**
      * Mark message as read
      */
     public CompletableFuture<Boolean> markMessageAsRead(String messageId) {
-        CompletableFuture<Boolean> future = new CompletableFuture<>();
-        
-        firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
-                .document(messageId)
-                .update("isRead", true, "readAt", new Date())
-                .addOnSuccessListener(aVoid -> {
-                    Log.d(TAG, "Message marked as read: " + messageId);
-                    future.complete(true);
-                })
-                .addOnFailureListener(e -> {
-                    Log.e(TAG, "Failed to mark message as read", e);
-                    future.complete(false);
-                });
-        
-        return future;
+        // Batched with other receipts; open views see it as read right away
+        return ReadReceiptBatcher.getInstance().markRead(messageId);
+    }
+
+    /**
+     * Mark a message as read without batching, e.g. from a notification action
+     */
+    public CompletableFuture<Boolean> markMessageAsReadNow(String messageId) {
+        return ReadReceiptBatcher.getInstance().markReadNow(messageId);
+    }
+
+    /**
+     * Mark many messages as read in as few writes as possible
+     */
+    public CompletableFuture<Boolean> markMessagesAsRead(List<String> messageIds) {
+        return ReadReceiptBatcher.getInstance().markRead(messageIds);
     }
 
     /**
@@ -379,134 +534,255 @@ public class CrossAppIntegrationService {
         listeners.clear();
     }
 
-    // Private helper methods
-    private void sendLocationUpdateToSupervisor(String studentId, String busId, 
-                                               double latitude, double longitude, 
-                                               double speed, String direction) {
-        // Get all supervisors for the route
-        firestore.collection(Constants.COLLECTION_BUSES)
-                .document(busId)
-                .get()
-                .addOnSuccessListener(busDoc -> {
-                    if (busDoc.exists()) {
-                        Bus bus = busDoc.toObject(Bus.class);
-                        if (bus != null && bus.getRouteId() != null) {
-                            // Find supervisors assigned to this route
-                            firestore.collection(Constants.COLLECTION_SUPERVISORS)
-                                    .whereArrayContains("assignedRoutes", bus.getRouteId())
-                                    .get()
-                                    .addOnSuccessListener(supervisorDocs -> {
-                                        for (DocumentSnapshot doc : supervisorDocs.getDocuments()) {
-                                            Supervisor supervisor = doc.toObject(Supervisor.class);
-                                            if (supervisor != null) {
-                                                CrossAppMessage supervisorMessage = new CrossAppMessage(
-                                                        generateMessageId(), studentId, USER_TYPE_STUDENT,
-                                                        supervisor.getSupervisorId(), USER_TYPE_SUPERVISOR, 
-                                                        MESSAGE_TYPE_LOCATION_UPDATE
-                                                );
-                                                supervisorMessage.setTitle("Student Location Update");
-                                                supervisorMessage.setContent("Student " + studentId + " location updated on route " + bus.getRouteId());
-                                                supervisorMessage.setBusId(busId);
-                                                supervisorMessage.setRouteId(bus.getRouteId());
-                                                supervisorMessage.setPriority(PRIORITY_MEDIUM);
-                                                
-                                                Map<String, Object> locationData = new HashMap<>();
-                                                locationData.put("latitude", latitude);
-                                                locationData.put("longitude", longitude);
-                                                locationData.put("speed", speed);
-                                                locationData.put("direction", direction);
-                                                locationData.put("timestamp", new Date());
-                                                supervisorMessage.setData(locationData);
-                                                
-                                                sendMessage(supervisorMessage);
-                                            }
-                                        }
-                                    });
+    /**
+     * Deliver one logical message to many receivers as per-receiver documents,
+     * committed in WriteBatches of at most FANOUT_BATCH_SIZE writes.
+     * @return receiverId -> whether that receiver's document was committed or queued for sending
+     */
+    public CompletableFuture<Map<String, Boolean>> sendFanOut(CrossAppMessage template,
+                                                            List<String> receiverIds, String receiverType) {
+        Map<String, Boolean> results = new ConcurrentHashMap<>();
+        if (receiverIds == null || receiverIds.isEmpty()) {
+            return CompletableFuture.completedFuture(results);
+        }
+        stampExpiry(template);
+
+        List<CompletableFuture<Void>> commits = new ArrayList<>();
+        for (int from = 0; from < receiverIds.size(); from += Constants.FANOUT_BATCH_SIZE) {
+            List<String> chunk = receiverIds.subList(from, Math.min(from + Constants.FANOUT_BATCH_SIZE, receiverIds.size()));
+            List<CrossAppMessage> copies = new ArrayList<>(chunk.size());
+            for (String receiverId : chunk) {
+                copies.add(template.copyForReceiver(generateMessageId(), receiverId, receiverType));
+            }
+
+            // A batch can only be committed once, so each attempt builds it again with the same ids
+            CompletableFuture<Boolean> commit = scheduler.submit(template.getPriority(),
+                    fanOutCoalesceKey(template, receiverType, from),
+                    () -> writeWithRetry("Fan-out batch of " + copies.size() + " messages", () -> {
+                        WriteBatch batch = firestore.batch();
+                        for (CrossAppMessage copy : copies) {
+                            batch.set(firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
+                                    .document(copy.getMessageId()), copy);
                         }
-                    }
+                        return batch.commit();
+                    }));
+            commits.add(commit.thenAccept(delivered -> {
+                for (String receiverId : chunk) {
+                    results.put(receiverId, delivered);
+                }
+            }));
+        }
+
+        return CompletableFuture.allOf(commits.toArray(new CompletableFuture[0]))
+                .thenApply(done -> {
+                    Log.d(TAG, "Fan-out of " + template.getMessageType() + " to " + receiverIds.size()
+                            + " " + receiverType + "s in " + commits.size() + " batch(es)");
+                    return results;
                 });
     }
 
-    private void sendCheckInToSupervisor(String studentId, String busId, String stopId, String checkInType) {
-        // Similar implementation to sendLocationUpdateToSupervisor
-        firestore.collection(Constants.COLLECTION_BUSES)
-                .document(busId)
-                .get()
-                .addOnSuccessListener(busDoc -> {
-                    if (busDoc.exists()) {
-                        Bus bus = busDoc.toObject(Bus.class);
-                        if (bus != null && bus.getRouteId() != null) {
-                            firestore.collection(Constants.COLLECTION_SUPERVISORS)
-                                    .whereArrayContains("assignedRoutes", bus.getRouteId())
-                                    .get()
-                                    .addOnSuccessListener(supervisorDocs -> {
-                                        for (DocumentSnapshot doc : supervisorDocs.getDocuments()) {
-                                            Supervisor supervisor = doc.toObject(Supervisor.class);
-                                            if (supervisor != null) {
-                                                CrossAppMessage supervisorMessage = new CrossAppMessage(
-                                                        generateMessageId(), studentId, USER_TYPE_STUDENT,
-                                                        supervisor.getSupervisorId(), USER_TYPE_SUPERVISOR, 
-                                                        MESSAGE_TYPE_CHECKIN
-                                                );
-                                                supervisorMessage.setTitle("Student Check-in");
-                                                supervisorMessage.setContent("Student " + studentId + " checked in at stop " + stopId);
-                                                supervisorMessage.setBusId(busId);
-                                                supervisorMessage.setRouteId(bus.getRouteId());
-                                                supervisorMessage.setStudentId(studentId);
-                                                supervisorMessage.setPriority(PRIORITY_HIGH);
-                                                
-                                                Map<String, Object> checkInData = new HashMap<>();
-                                                checkInData.put("stopId", stopId);
-                                                checkInData.put("checkInType", checkInType);
-                                                checkInData.put("timestamp", new Date());
-                                                supervisorMessage.setData(checkInData);
-                                                
-                                                sendMessage(supervisorMessage);
-                                            }
-                                        }
-                                    });
-                        }
-                    }
-                });
+    // Private helper methods
+    private CompletableFuture<Boolean> sendLocationUpdateToSupervisor(String studentId, Bus bus, String busId,
+                                                                      double latitude, double longitude,
+                                                                      double speed, String direction) {
+        if (bus.getRouteId() == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        CrossAppMessage supervisorMessage = new CrossAppMessage(
+                null, studentId, USER_TYPE_STUDENT,
+                null, USER_TYPE_SUPERVISOR, MESSAGE_TYPE_LOCATION_UPDATE
+        );
+        supervisorMessage.setTitle("Student Location Update");
+        supervisorMessage.setContent("Student " + studentId + " location updated on route " + bus.getRouteId());
+        supervisorMessage.setBusId(busId);
+        supervisorMessage.setRouteId(bus.getRouteId());
+        supervisorMessage.setPriority(PRIORITY_MEDIUM);
+        supervisorMessage.setData(locationData(latitude, longitude, speed, direction));
+
+        // Supervisors assigned to this route, from the routing table
+        return supervisorDirectory.getSupervisorsForRoute(bus.getRouteId(), false)
+                .thenCompose(supervisors -> sendFanOut(supervisorMessage, supervisorIds(supervisors), USER_TYPE_SUPERVISOR))
+                .thenApply(CrossAppIntegrationService::allDelivered);
     }
 
-    private void sendEmergencyToSupervisors(String studentId, String busId, String emergencyType, String message) {
-        // Send to all active supervisors
-        firestore.collection(Constants.COLLECTION_SUPERVISORS)
-                .whereEqualTo("isActive", true)
-                .get()
-                .addOnSuccessListener(supervisorDocs -> {
-                    for (DocumentSnapshot doc : supervisorDocs.getDocuments()) {
-                        Supervisor supervisor = doc.toObject(Supervisor.class);
-                        if (supervisor != null) {
-                            CrossAppMessage supervisorMessage = new CrossAppMessage(
-                                    generateMessageId(), studentId, USER_TYPE_STUDENT,
-                                    supervisor.getSupervisorId(), USER_TYPE_SUPERVISOR, 
-                                    MESSAGE_TYPE_EMERGENCY
-                            );
-                            supervisorMessage.setTitle("EMERGENCY ALERT");
-                            supervisorMessage.setContent(message);
-                            supervisorMessage.setBusId(busId);
-                            supervisorMessage.setStudentId(studentId);
-                            supervisorMessage.setPriority(PRIORITY_URGENT);
-                            
-                            Map<String, Object> emergencyData = new HashMap<>();
-                            emergencyData.put("emergencyType", emergencyType);
-                            emergencyData.put("timestamp", new Date());
-                            supervisorMessage.setData(emergencyData);
-                            
-                            sendMessage(supervisorMessage);
-                        }
-                    }
-                });
+    private CompletableFuture<Boolean> sendCheckInToSupervisor(String studentId, Bus bus, String busId,
+                                                               String stopId, String checkInType) {
+        if (bus.getRouteId() == null) {
+            return CompletableFuture.completedFuture(true);
+        }
+        CrossAppMessage supervisorMessage = new CrossAppMessage(
+                null, studentId, USER_TYPE_STUDENT,
+                null, USER_TYPE_SUPERVISOR, MESSAGE_TYPE_CHECKIN
+        );
+        supervisorMessage.setTitle("Student Check-in");
+        supervisorMessage.setContent("Student " + studentId + " checked in at stop " + stopId);
+        supervisorMessage.setBusId(busId);
+        supervisorMessage.setRouteId(bus.getRouteId());
+        supervisorMessage.setStudentId(studentId);
+        supervisorMessage.setPriority(PRIORITY_HIGH);
+
+        Map<String, Object> checkInData = new HashMap<>();
+        checkInData.put("stopId", stopId);
+        checkInData.put("checkInType", checkInType);
+        checkInData.put("timestamp", new Date());
+        supervisorMessage.setData(checkInData);
+
+        return supervisorDirectory.getSupervisorsForRoute(bus.getRouteId(), false)
+                .thenCompose(supervisors -> sendFanOut(supervisorMessage, supervisorIds(supervisors), USER_TYPE_SUPERVISOR))
+                .thenApply(CrossAppIntegrationService::allDelivered);
+    }
+
+    private CompletableFuture<Boolean> sendEmergencyToSupervisors(String studentId, String busId,
+                                                                  String emergencyType, String message) {
+        CrossAppMessage supervisorMessage = new CrossAppMessage(
+                null, studentId, USER_TYPE_STUDENT,
+                null, USER_TYPE_SUPERVISOR, MESSAGE_TYPE_EMERGENCY
+        );
+        supervisorMessage.setTitle("EMERGENCY ALERT");
+        supervisorMessage.setContent(message);
+        supervisorMessage.setBusId(busId);
+        supervisorMessage.setStudentId(studentId);
+        supervisorMessage.setPriority(PRIORITY_URGENT);
+
+        Map<String, Object> emergencyData = new HashMap<>();
+        emergencyData.put("emergencyType", emergencyType);
+        emergencyData.put("timestamp", new Date());
+        supervisorMessage.setData(emergencyData);
+
+        // Every active supervisor in as few commits as possible
+        return supervisorDirectory.getActiveSupervisors()
+                .thenCompose(supervisors -> sendFanOut(supervisorMessage, supervisorIds(supervisors), USER_TYPE_SUPERVISOR))
+                .thenApply(CrossAppIntegrationService::allDelivered);
+    }
+
+    /**
+     * Complete future once the driver and supervisor writes have both been acknowledged
+     * or queued for sending
+     */
+    private static void completeWhenDelivered(CompletableFuture<Boolean> future,
+                                              CompletableFuture<Boolean> driverSent,
+                                              CompletableFuture<Boolean> supervisorsSent) {
+        driverSent.thenCombine(supervisorsSent, (driver, supervisors) -> driver && supervisors)
+                .whenComplete((delivered, e) -> future.complete(e == null && delivered));
+    }
+
+    private static void stampExpiry(CrossAppMessage message) {
+        if (message.getExpiresAt() == null) {
+            message.setExpiresAt(RetentionPolicy.expiresAt(message.getMessageType(), message.getTimestamp()));
+        }
+    }
+
+    /**
+     * Location updates from one sender to one receiver supersede each other while queued
+     */
+    private static String coalesceKey(String receiverId, CrossAppMessage message) {
+        if (!MESSAGE_TYPE_LOCATION_UPDATE.equals(message.getMessageType())) {
+            return null;
+        }
+        return message.getMessageType() + ":" + message.getSenderId() + ":" + receiverId;
+    }
+
+    /**
+     * Queued location fan-outs to the receivers of one route (or bus) supersede
+     * each other chunk by chunk; null for fan-outs that must all be sent
+     */
+    static String fanOutCoalesceKey(CrossAppMessage template, String receiverType, int chunkStart) {
+        String group = template.getRouteId() != null ? template.getRouteId() : template.getBusId();
+        if (group == null) {
+            return null;
+        }
+        return coalesceKey(receiverType + ":" + group + ":" + chunkStart, template);
+    }
+
+    private static Map<String, Object> locationData(double latitude, double longitude,
+                                                    double speed, String direction) {
+        Map<String, Object> locationData = new HashMap<>();
+        locationData.put("latitude", latitude);
+        locationData.put("longitude", longitude);
+        locationData.put("speed", speed);
+        locationData.put("direction", direction);
+        locationData.put("timestamp", new Date());
+        return locationData;
+    }
+
+    private static List<String> supervisorIds(List<Supervisor> supervisors) {
+        List<String> ids = new ArrayList<>(supervisors.size());
+        for (Supervisor supervisor : supervisors) {
+            if (supervisor.getSupervisorId() != null) {
+                ids.add(supervisor.getSupervisorId());
+            }
+        }
+        return ids;
+    }
+
+    private static boolean allDelivered(Map<String, Boolean> results) {
+        return !results.containsValue(false);
     }
 
     private String generateMessageId() {
-        return "msg_" + System.currentTimeMillis() + "_" + (int)(Math.random() * 1000);
+        return idGenerator.next();
+    }
+
+    /**
+     * Keeps the latest list from each source and emits them merged by timestamp
+     */
+    private static class MessageMerger {
+        private final List<Supplier<List<CrossAppMessage>>> sources = new ArrayList<>();
+        private final MessageListener listener;
+
+        MessageMerger(MessageListener listener) {
+            this.listener = listener;
+        }
+
+        void addSource(Supplier<List<CrossAppMessage>> source) {
+            sources.add(source);
+        }
+
+        void onSnapshot(MessageView view, QuerySnapshot snapshots, Exception e) {
+            if (e != null) {
+                Log.e(TAG, "Error listening for messages", e);
+                return;
+            }
+            if (snapshots != null) {
+                onDelta(view.apply(snapshots));
+            }
+        }
+
+        void onDelta(MessageView.Delta delta) {
+            if (!delta.isEmpty()) {
+                listener.onMessagesChanged(delta.withMessages(this::merged));
+            }
+        }
+
+        private List<CrossAppMessage> merged() {
+            List<CrossAppMessage> merged = new ArrayList<>();
+            for (Supplier<List<CrossAppMessage>> source : sources) {
+                merged.addAll(source.get());
+            }
+            Collections.sort(merged, (a, b) -> {
+                Date left = a.getTimestamp();
+                Date right = b.getTimestamp();
+                if (left == null || right == null) {
+                    return left == right ? 0 : (left == null ? 1 : -1);
+                }
+                return right.compareTo(left);
+            });
+            if (merged.size() > Constants.CROSS_APP_MESSAGE_LIMIT) {
+                merged = new ArrayList<>(merged.subList(0, Constants.CROSS_APP_MESSAGE_LIMIT));
+            }
+            return merged;
+        }
     }
 
     // Interface for message listener
     public interface MessageListener {
         void onMessagesReceived(List<CrossAppMessage> messages);
+
+        /**
+         * Called with what changed; override to skip building the full list
+         */
+        default void onMessagesChanged(MessageView.Delta delta) {
+            onMessagesReceived(delta.getMessages());
+        }
     }
 }
@@ -0,0 +1,210 @@
+package com.example.student.services;
+
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Exactly one Firestore listener per document path, shared by every local
+ * subscriber. Each snapshot is deserialized once per model class and the same
+ * object is handed to all subscribers, so they must treat it as read-only.
+ * The listener detaches when the last subscriber removes its registration,
+ * or when Firestore fails it, so the next subscribe attaches a fresh one.
+ */
+public class DocumentHub {
+    private static final String TAG = "DocumentHub";
+    private static DocumentHub instance;
+
+    private FirebaseFirestore firestore;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private DocumentHub() {
+        this.firestore = FirebaseFirestore.getInstance();
+    }
+
+    public static synchronized DocumentHub getInstance() {
+        if (instance == null) {
+            instance = new DocumentHub();
+        }
+        return instance;
+    }
+
+    /**
+     * Receive the document as {@code type} every time it changes, starting with
+     * the current value if the document is already being listened to.
+     * Snapshots of a missing document are not delivered.
+     */
+    public <T> ListenerRegistration subscribe(String collection, String documentId, Class<T> type,
+                                              Consumer<T> subscriber) {
+        return subscribe(collection, documentId, type, (value, fromCache) -> {
+            if (value != null) {
+                subscriber.accept(value);
+            }
+        });
+    }
+
+    /**
+     * Like {@link #subscribe(String, String, Class, Consumer)}, but also told
+     * whether each value only comes from the local cache, when the document does
+     * not exist, and when the shared listener fails
+     */
+    public <T> ListenerRegistration subscribe(String collection, String documentId, Class<T> type,
+                                              Listener<T> subscriber) {
+        String path = collection + "/" + documentId;
+        Subscriber<T> handle;
+        Runnable current = null;
+        synchronized (this) {
+            Entry entry = entries.get(path);
+            if (entry == null) {
+                entry = new Entry(path);
+                entries.put(path, entry);
+                listen(collection, documentId, entry);
+            }
+            handle = new Subscriber<>(entry, type, subscriber);
+            entry.subscribers.add(handle);
+            if (entry.snapshot != null) {
+                current = handle.deliveryFor(entry);
+            }
+        }
+        if (current != null) {
+            current.run();
+        }
+        return handle;
+    }
+
+    /**
+     * Number of documents with a live listener
+     */
+    public synchronized int getListenerCount() {
+        return entries.size();
+    }
+
+    private void listen(String collection, String documentId, Entry entry) {
+        Log.d(TAG, "Listening to " + entry.path);
+        entry.registration = firestore.collection(collection)
+                .document(documentId)
+                .addSnapshotListener((snapshot, e) -> {
+                    if (e != null) {
+                        Log.e(TAG, "Error listening to " + entry.path, e);
+                        List<Subscriber<?>> failed;
+                        synchronized (this) {
+                            // The listener is dead; let the next subscribe start a new one
+                            if (entries.get(entry.path) == entry) {
+                                entries.remove(entry.path);
+                            }
+                            failed = new ArrayList<>(entry.subscribers);
+                        }
+                        for (Subscriber<?> subscriber : failed) {
+                            subscriber.fail(e);
+                        }
+                        return;
+                    }
+                    if (snapshot == null) {
+                        return;
+                    }
+                    List<Runnable> deliveries = new ArrayList<>();
+                    synchronized (this) {
+                        entry.snapshot = snapshot;
+                        entry.decoded.clear();
+                        for (Subscriber<?> subscriber : entry.subscribers) {
+                            deliveries.add(subscriber.deliveryFor(entry));
+                        }
+                    }
+                    for (Runnable delivery : deliveries) {
+                        delivery.run();
+                    }
+                });
+    }
+
+    private synchronized void unsubscribe(Subscriber<?> subscriber) {
+        Entry entry = subscriber.entry;
+        entry.subscribers.remove(subscriber);
+        if (entry.subscribers.isEmpty() && entries.get(entry.path) == entry) {
+            Log.d(TAG, "Last subscriber left, detaching " + entry.path);
+            entries.remove(entry.path);
+            entry.registration.remove();
+        }
+    }
+
+    private static class Entry {
+        final String path;
+        final List<Subscriber<?>> subscribers = new ArrayList<>();
+        // Latest snapshot, deserialized lazily once per model class
+        final Map<Class<?>, Object> decoded = new HashMap<>();
+        DocumentSnapshot snapshot;
+        ListenerRegistration registration;
+
+        Entry(String path) {
+            this.path = path;
+        }
+
+        <T> T decode(Class<T> type) {
+            if (!snapshot.exists()) {
+                return null;
+            }
+            Object value = decoded.get(type);
+            if (value == null) {
+                value = snapshot.toObject(type);
+                decoded.put(type, value);
+            }
+            return type.cast(value);
+        }
+    }
+
+    private class Subscriber<T> implements ListenerRegistration {
+        final Entry entry;
+        final Class<T> type;
+        final Listener<T> listener;
+        boolean removed;
+
+        Subscriber(Entry entry, Class<T> type, Listener<T> listener) {
+            this.entry = entry;
+            this.type = type;
+            this.listener = listener;
+        }
+
+        Runnable deliveryFor(Entry entry) {
+            T value = entry.decode(type);
+            boolean fromCache = entry.snapshot.getMetadata().isFromCache();
+            return () -> {
+                if (!removed) {
+                    listener.onDocument(value, fromCache);
+                }
+            };
+        }
+
+        void fail(Exception e) {
+            if (!removed) {
+                listener.onError(e);
+            }
+        }
+
+        @Override
+        public void remove() {
+            if (removed) {
+                return;
+            }
+            removed = true;
+            unsubscribe(this);
+        }
+    }
+
+    public interface Listener<T> {
+        /**
+         * @param value the document, or null if it does not exist
+         * @param fromCache whether the value has not been confirmed by the server
+         */
+        void onDocument(T value, boolean fromCache);
+
+        default void onError(Exception e) {
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.example.student.services;
+
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.student.models.Driver;
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * In-memory busId -> driver index, maintained from Driver.assignedBusId.
+ * One listener per bus on the drivers assigned to it keeps the entry current,
+ * so driver-bound sends resolve their recipient without a round-trip and
+ * address the driver by document id instead of by (non-unique) name.
+ * Entries that only have cached data are trusted for DRIVER_DIRECTORY_TTL.
+ */
+public class DriverDirectory {
+    private static final String TAG = "DriverDirectory";
+    private static DriverDirectory instance;
+
+    private FirebaseFirestore firestore;
+    private final Map<String, Entry> entries = new HashMap<>();
+
+    private DriverDirectory() {
+        this.firestore = FirebaseFirestore.getInstance();
+    }
+
+    public static synchronized DriverDirectory getInstance() {
+        if (instance == null) {
+            instance = new DriverDirectory();
+        }
+        return instance;
+    }
+
+    /**
+     * Resolve the driver assigned to a bus, from memory when possible.
+     * Completes with null if no driver is assigned.
+     */
+    public CompletableFuture<Driver> getDriverForBus(String busId) {
+        return resolve(busId).thenApply(entry -> {
+            synchronized (this) {
+                return entry != null ? entry.driver : null;
+            }
+        });
+    }
+
+    /**
+     * Document id of the driver assigned to a bus, the receiverId of driver-bound messages.
+     * Completes with null if no driver is assigned.
+     */
+    public CompletableFuture<String> getDriverIdForBus(String busId) {
+        return resolve(busId).thenApply(entry -> {
+            synchronized (this) {
+                return entry != null ? entry.driverId : null;
+            }
+        });
+    }
+
+    /**
+     * The cached driver without any network access, or null if it is not loaded
+     */
+    public synchronized Driver peek(String busId) {
+        Entry entry = entries.get(busId);
+        return entry != null && entry.loaded ? entry.driver : null;
+    }
+
+    /**
+     * Drop a bus so the next lookup starts from the server again
+     */
+    public synchronized void invalidate(String busId) {
+        Entry entry = entries.remove(busId);
+        if (entry != null) {
+            release(entry);
+        }
+    }
+
+    public synchronized void invalidateAll() {
+        for (Entry entry : entries.values()) {
+            release(entry);
+        }
+        entries.clear();
+    }
+
+    private CompletableFuture<Entry> resolve(String busId) {
+        if (busId == null || busId.isEmpty()) {
+            return CompletableFuture.completedFuture(null);
+        }
+        synchronized (this) {
+            Entry entry = entries.get(busId);
+            if (entry == null) {
+                entry = new Entry();
+                entries.put(busId, entry);
+                watch(busId, entry);
+            }
+            if (entry.loaded && (entry.live || SystemClock.elapsedRealtime() - entry.updatedAt < Constants.DRIVER_DIRECTORY_TTL)) {
+                return CompletableFuture.completedFuture(entry);
+            }
+            CompletableFuture<Entry> future = new CompletableFuture<>();
+            entry.waiters.add(future);
+            if (entry.loaded && !entry.refreshing) {
+                // Only cached data and it has aged out
+                refresh(busId, entry);
+            }
+            return future;
+        }
+    }
+
+    private Query assignedTo(String busId) {
+        return firestore.collection(Constants.COLLECTION_DRIVERS).whereEqualTo("assignedBusId", busId);
+    }
+
+    private void watch(String busId, Entry entry) {
+        entry.registration = assignedTo(busId)
+                .addSnapshotListener((snapshots, e) -> {
+                    if (e != null) {
+                        Log.e(TAG, "Driver listener failed for bus " + busId + ", falling back to reads", e);
+                        synchronized (this) {
+                            entry.live = false;
+                            if (!entry.loaded && !entry.refreshing) {
+                                refresh(busId, entry);
+                            }
+                        }
+                        return;
+                    }
+                    if (snapshots != null) {
+                        update(entry, pick(busId, snapshots.getDocuments()), !snapshots.getMetadata().isFromCache());
+                    }
+                });
+    }
+
+    private void refresh(String busId, Entry entry) {
+        entry.refreshing = true;
+        assignedTo(busId)
+                .get()
+                .addOnSuccessListener(snapshots -> {
+                    synchronized (this) {
+                        entry.refreshing = false;
+                    }
+                    update(entry, pick(busId, snapshots.getDocuments()), entry.live);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to refresh driver of bus " + busId, e);
+                    List<CompletableFuture<Entry>> waiters;
+                    synchronized (this) {
+                        entry.refreshing = false;
+                        waiters = takeWaiters(entry);
+                    }
+                    // Stale data beats no data on the send paths
+                    for (CompletableFuture<Entry> waiter : waiters) {
+                        waiter.complete(entry);
+                    }
+                });
+    }
+
+    /**
+     * The bus's driver among the documents assigned to it: on duty first, then active,
+     * then the lowest id, so every device settles on the same one during a handover
+     */
+    private static DocumentSnapshot pick(String busId, List<DocumentSnapshot> docs) {
+        DocumentSnapshot best = null;
+        int bestRank = -1;
+        for (DocumentSnapshot doc : docs) {
+            int rank = (flag(doc, "onDuty", "isOnDuty") ? 2 : 0) + (flag(doc, "active", "isActive") ? 1 : 0);
+            if (best == null || rank > bestRank
+                    || (rank == bestRank && doc.getId().compareTo(best.getId()) < 0)) {
+                best = doc;
+                bestRank = rank;
+            }
+        }
+        if (docs.size() > 1) {
+            Log.w(TAG, docs.size() + " drivers assigned to bus " + busId + ", using " + best.getId());
+        }
+        return best;
+    }
+
+    /**
+     * Boolean model fields are stored under either name depending on which app wrote them
+     */
+    private static boolean flag(DocumentSnapshot doc, String field, String legacyField) {
+        return Boolean.TRUE.equals(doc.getBoolean(field)) || Boolean.TRUE.equals(doc.getBoolean(legacyField));
+    }
+
+    private void update(Entry entry, DocumentSnapshot doc, boolean live) {
+        Driver driver = doc != null ? doc.toObject(Driver.class) : null;
+        List<CompletableFuture<Entry>> waiters;
+        synchronized (this) {
+            entry.driver = driver;
+            entry.driverId = driver != null ? doc.getId() : null;
+            entry.loaded = true;
+            entry.live = live;
+            entry.updatedAt = SystemClock.elapsedRealtime();
+            waiters = takeWaiters(entry);
+        }
+        for (CompletableFuture<Entry> waiter : waiters) {
+            waiter.complete(entry);
+        }
+    }
+
+    private List<CompletableFuture<Entry>> takeWaiters(Entry entry) {
+        List<CompletableFuture<Entry>> waiters = new ArrayList<>(entry.waiters);
+        entry.waiters.clear();
+        return waiters;
+    }
+
+    private void release(Entry entry) {
+        if (entry.registration != null) {
+            entry.registration.remove();
+            entry.registration = null;
+        }
+        for (CompletableFuture<Entry> waiter : takeWaiters(entry)) {
+            waiter.complete(entry);
+        }
+    }
+
+    private static class Entry {
+        Driver driver;
+        String driverId;
+        boolean loaded;
+        boolean live; // last data came from the server through the listener
+        boolean refreshing;
+        long updatedAt;
+        ListenerRegistration registration;
+        final List<CompletableFuture<Entry>> waiters = new ArrayList<>();
+    }
+}
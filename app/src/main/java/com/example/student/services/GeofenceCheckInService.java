@@ -0,0 +1,473 @@
+package com.example.student.services;
+
+import android.Manifest;
+import android.app.PendingIntent;
+import android.content.Context;
+import android.content.Intent;
+import android.content.SharedPreferences;
+import android.content.pm.PackageManager;
+import android.os.Build;
+import android.util.Log;
+
+import androidx.core.content.ContextCompat;
+
+import com.example.student.models.Bus;
+import com.example.student.models.BusStop;
+import com.example.student.models.Route;
+import com.example.student.models.Schedule;
+import com.example.student.models.Student;
+import com.example.student.models.Trip;
+import com.example.student.receivers.GeofenceBroadcastReceiver;
+import com.example.student.utils.Constants;
+import com.google.android.gms.location.Geofence;
+import com.google.android.gms.location.GeofencingClient;
+import com.google.android.gms.location.GeofencingRequest;
+import com.google.android.gms.location.LocationServices;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Automatic check-in driven by OS geofences instead of continuous GPS.
+ * A geofence of CHECKIN_RADIUS is registered around the student's stop and
+ * around the school (the last stop of the route). The schedule window decides
+ * the direction: around pickup, dwelling at the stop checks the student in and
+ * reaching the school checks them out; around drop-off it is the other way
+ * round. The OS wakes the app only on those transitions, so LocationService
+ * can stay in a low-power mode.
+ */
+public class GeofenceCheckInService {
+    private static final String TAG = "GeofenceCheckInService";
+    private static final String PREFS_NAME = "geofence_checkin_prefs";
+    private static final String KEY_ENABLED = "enabled";
+    private static final String KEY_BUS_ID = "bus_id";
+    private static final String KEY_STOP_ID = "stop_id";
+    private static final String KEY_SCHOOL_STOP_ID = "school_stop_id";
+    private static final String KEY_STOP_LAT = "stop_lat";
+    private static final String KEY_STOP_LNG = "stop_lng";
+    private static final String KEY_SCHOOL_LAT = "school_lat";
+    private static final String KEY_SCHOOL_LNG = "school_lng";
+    private static final String KEY_CHECKED_IN = "checked_in";
+    private static final String KEY_CHECKED_IN_AT = "checked_in_at";
+    private static final String KEY_DIRECTION = "direction";
+    private static final String KEY_WINDOWS = "windows";
+
+    private static final String DIRECTION_PICKUP = "pickup";
+    private static final String DIRECTION_DROPOFF = "dropoff";
+
+    private static final String GEOFENCE_STOP = "stop";
+    private static final String GEOFENCE_SCHOOL = "school";
+
+    private static GeofenceCheckInService instance;
+
+    private Context context;
+    private GeofencingClient geofencingClient;
+    private SharedPreferences preferences;
+    private PendingIntent geofencePendingIntent;
+
+    private GeofenceCheckInService(Context context) {
+        this.context = context.getApplicationContext();
+        this.geofencingClient = LocationServices.getGeofencingClient(this.context);
+        this.preferences = this.context.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized GeofenceCheckInService getInstance(Context context) {
+        if (instance == null) {
+            instance = new GeofenceCheckInService(context);
+        }
+        return instance;
+    }
+
+    /**
+     * True once geofences are registered and the OS is watching the stop
+     */
+    public boolean isEnabled() {
+        return preferences.getBoolean(KEY_ENABLED, false);
+    }
+
+    /**
+     * True while a geofence check-in is open; it lapses GEOFENCE_TRIP_WINDOW after check-in
+     * in case the matching check-out transition never came
+     */
+    public boolean isCheckedIn() {
+        if (!preferences.getBoolean(KEY_CHECKED_IN, false)) {
+            return false;
+        }
+        long checkedInAt = preferences.getLong(KEY_CHECKED_IN_AT, 0);
+        if (System.currentTimeMillis() - checkedInAt > Constants.GEOFENCE_TRIP_WINDOW) {
+            Log.d(TAG, "Auto check-in from " + new Date(checkedInAt) + " expired");
+            preferences.edit()
+                    .putBoolean(KEY_CHECKED_IN, false)
+                    .remove(KEY_CHECKED_IN_AT)
+                    .remove(KEY_DIRECTION)
+                    .apply();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Resolve the student's stop and school and register geofences around them
+     */
+    public CompletableFuture<Boolean> startAutoCheckIn() {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+
+        Student student = AuthService.getInstance(context).getCurrentStudent();
+        if (student == null || student.getAssignedBusId() == null || student.getAssignedBusId().isEmpty()) {
+            Log.d(TAG, "No assigned bus, auto check-in not available");
+            future.complete(false);
+            return future;
+        }
+        if (!hasLocationPermission()) {
+            Log.w(TAG, "Location permission missing, auto check-in not available");
+            future.complete(false);
+            return future;
+        }
+
+        String busId = student.getAssignedBusId();
+        String studentId = student.getStudentId();
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        firestore.collection(Constants.COLLECTION_BUSES)
+                .document(busId)
+                .get()
+                .addOnSuccessListener(busDoc -> {
+                    Bus bus = busDoc.toObject(Bus.class);
+                    if (bus == null || bus.getRouteId() == null) {
+                        future.complete(false);
+                        return;
+                    }
+                    firestore.collection(Constants.COLLECTION_SCHEDULES)
+                            .whereEqualTo("routeId", bus.getRouteId())
+                            .whereEqualTo("isActive", true)
+                            .get()
+                            .addOnSuccessListener(scheduleDocs -> {
+                                List<Schedule> schedules = scheduleDocs.toObjects(Schedule.class);
+                                // The student's own stop is the one they last boarded or left the bus at
+                                LocalSyncEngine.getInstance(context)
+                                        .load(LocalSyncEngine.tripScope(studentId), Trip.class)
+                                        .thenAccept(trips -> loadRouteAndRegister(firestore, busId,
+                                                bus.getRouteId(), schedules, trips, future));
+                            })
+                            .addOnFailureListener(e -> {
+                                Log.e(TAG, "Failed to load schedules for auto check-in", e);
+                                future.complete(false);
+                            });
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to load bus for auto check-in", e);
+                    future.complete(false);
+                });
+
+        return future;
+    }
+
+    /**
+     * Remove the geofences, forget the saved bus, stops and check-in state,
+     * and go back to manual check-in
+     */
+    public CompletableFuture<Boolean> stopAutoCheckIn() {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        preferences.edit().clear().apply();
+        geofencingClient.removeGeofences(getGeofencePendingIntent())
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Auto check-in geofences removed");
+                    future.complete(true);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to remove geofences", e);
+                    future.complete(false);
+                });
+        return future;
+    }
+
+    /**
+     * Re-register the saved geofences, which the OS drops on reboot
+     */
+    public void restoreGeofences() {
+        if (!isEnabled() || !hasLocationPermission()) {
+            return;
+        }
+        registerGeofences(
+                preferences.getString(KEY_STOP_ID, null),
+                Double.longBitsToDouble(preferences.getLong(KEY_STOP_LAT, 0)),
+                Double.longBitsToDouble(preferences.getLong(KEY_STOP_LNG, 0)),
+                Double.longBitsToDouble(preferences.getLong(KEY_SCHOOL_LAT, 0)),
+                Double.longBitsToDouble(preferences.getLong(KEY_SCHOOL_LNG, 0)),
+                new CompletableFuture<>());
+    }
+
+    /**
+     * Handle a transition delivered to GeofenceBroadcastReceiver
+     */
+    public CompletableFuture<Boolean> onGeofenceTransition(int transition, List<String> geofenceIds) {
+        String studentId = AuthService.getInstance(context).getLastStudentId();
+        String busId = preferences.getString(KEY_BUS_ID, null);
+        if (studentId == null || studentId.isEmpty() || busId == null) {
+            Log.w(TAG, "Geofence transition without a logged in student or bus");
+            return CompletableFuture.completedFuture(false);
+        }
+
+        if (isCheckedIn()) {
+            // Leave the bus where this trip ends: the school after pickup, the stop after drop-off
+            boolean pickup = DIRECTION_PICKUP.equals(preferences.getString(KEY_DIRECTION, DIRECTION_PICKUP));
+            String destination = pickup ? GEOFENCE_SCHOOL : GEOFENCE_STOP;
+            if (!geofenceIds.contains(destination)) {
+                return CompletableFuture.completedFuture(false);
+            }
+            String stopId = preferences.getString(pickup ? KEY_SCHOOL_STOP_ID : KEY_STOP_ID, null);
+            preferences.edit()
+                    .putBoolean(KEY_CHECKED_IN, false)
+                    .remove(KEY_CHECKED_IN_AT)
+                    .remove(KEY_DIRECTION)
+                    .apply();
+            Log.d(TAG, "Auto check-out at stop " + stopId);
+            return sendTransition(studentId, busId, stopId, Constants.CHECKOUT_TYPE_GEOFENCE);
+        }
+
+        // Boarding needs a dwell, so riding past a geofence does not count
+        if (transition != Geofence.GEOFENCE_TRANSITION_DWELL) {
+            return CompletableFuture.completedFuture(false);
+        }
+        String direction = currentDirection(System.currentTimeMillis());
+        if (direction == null) {
+            Log.d(TAG, "Geofence dwell outside any pickup or drop-off window, ignored");
+            return CompletableFuture.completedFuture(false);
+        }
+        boolean pickup = DIRECTION_PICKUP.equals(direction);
+        if (!geofenceIds.contains(pickup ? GEOFENCE_STOP : GEOFENCE_SCHOOL)) {
+            return CompletableFuture.completedFuture(false);
+        }
+        String stopId = preferences.getString(pickup ? KEY_STOP_ID : KEY_SCHOOL_STOP_ID, null);
+        preferences.edit()
+                .putBoolean(KEY_CHECKED_IN, true)
+                .putLong(KEY_CHECKED_IN_AT, System.currentTimeMillis())
+                .putString(KEY_DIRECTION, direction)
+                .apply();
+        Log.d(TAG, "Auto check-in for " + direction + " at stop " + stopId);
+        return sendTransition(studentId, busId, stopId, Constants.CHECKIN_TYPE_GEOFENCE);
+    }
+
+    /**
+     * Pickup from SAMPLING_WINDOW_BEFORE ahead of the pickup time until GEOFENCE_TRIP_WINDOW after it;
+     * drop-off from GEOFENCE_TRIP_WINDOW ahead of the drop-off time until SAMPLING_WINDOW_AFTER after it.
+     * Null outside both, so a stray transition at night or on a free day checks no one in.
+     */
+    private String currentDirection(long nowMillis) {
+        Calendar now = Calendar.getInstance();
+        now.setTimeInMillis(nowMillis);
+        String today = now.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.US);
+        today = today != null ? today.toLowerCase(Locale.US) : "";
+        long minute = now.get(Calendar.HOUR_OF_DAY) * 60L + now.get(Calendar.MINUTE);
+        long before = Constants.SAMPLING_WINDOW_BEFORE / 60000;
+        long after = Constants.SAMPLING_WINDOW_AFTER / 60000;
+        long trip = Constants.GEOFENCE_TRIP_WINDOW / 60000;
+
+        String windows = preferences.getString(KEY_WINDOWS, "");
+        for (String window : windows.split(";")) {
+            String[] parts = window.split(",", -1);
+            if (parts.length != 3 || (!parts[0].isEmpty() && !parts[0].equals(today))) {
+                continue;
+            }
+            long pickupAt = Long.parseLong(parts[1]);
+            long dropoffAt = Long.parseLong(parts[2]);
+            if (pickupAt >= 0 && minute >= pickupAt - before && minute <= pickupAt + trip) {
+                return DIRECTION_PICKUP;
+            }
+            if (dropoffAt >= 0 && minute >= dropoffAt - trip && minute <= dropoffAt + after) {
+                return DIRECTION_DROPOFF;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * The student stop's schedules as "day,pickupMinute,dropoffMinute" entries, -1 for a missing time
+     */
+    private static String encodeWindows(List<Schedule> schedules, String stopId) {
+        StringBuilder windows = new StringBuilder();
+        for (Schedule schedule : schedules) {
+            if (!stopId.equals(schedule.getStopId())) {
+                continue;
+            }
+            if (windows.length() > 0) {
+                windows.append(';');
+            }
+            windows.append(schedule.getDayOfWeek() != null ? schedule.getDayOfWeek() : "")
+                    .append(',').append(minuteOfDay(schedule.getPickupTime()))
+                    .append(',').append(minuteOfDay(schedule.getDropoffTime()));
+        }
+        return windows.toString();
+    }
+
+    private static long minuteOfDay(Date time) {
+        if (time == null) {
+            return -1;
+        }
+        Calendar calendar = Calendar.getInstance();
+        calendar.setTime(time);
+        return calendar.get(Calendar.HOUR_OF_DAY) * 60L + calendar.get(Calendar.MINUTE);
+    }
+
+    private CompletableFuture<Boolean> sendTransition(String studentId, String busId, String stopId, String type) {
+        return CrossAppIntegrationService.getInstance(context)
+                .sendCheckInNotification(studentId, busId, stopId, type)
+                .thenApply(success -> {
+                    new EnhancedNotificationManager(context).showCheckInNotification(studentId, stopId, type, success);
+                    return success;
+                });
+    }
+
+    private void loadRouteAndRegister(FirebaseFirestore firestore, String busId, String routeId,
+                                      List<Schedule> schedules, List<Trip> trips,
+                                      CompletableFuture<Boolean> future) {
+        firestore.collection(Constants.COLLECTION_ROUTES)
+                .document(routeId)
+                .get()
+                .addOnSuccessListener(routeDoc -> {
+                    Route route = routeDoc.toObject(Route.class);
+                    if (route == null || route.getStops() == null || route.getStops().isEmpty()) {
+                        future.complete(false);
+                        return;
+                    }
+
+                    BusStop school = null;
+                    for (BusStop stop : route.getStops()) {
+                        // Routes end at the school
+                        if (stop.getLocation() != null
+                                && (school == null || stop.getSequence() > school.getSequence())) {
+                            school = stop;
+                        }
+                    }
+                    BusStop studentStop = school != null ? findStudentStop(route, school, schedules, trips) : null;
+                    if (studentStop == null) {
+                        Log.d(TAG, "Student stop or school not found on route " + routeId);
+                        future.complete(false);
+                        return;
+                    }
+
+                    preferences.edit()
+                            .putString(KEY_BUS_ID, busId)
+                            .putString(KEY_STOP_ID, studentStop.getStopId())
+                            .putString(KEY_SCHOOL_STOP_ID, school.getStopId())
+                            .putLong(KEY_STOP_LAT, Double.doubleToRawLongBits(studentStop.getLocation().latitude))
+                            .putLong(KEY_STOP_LNG, Double.doubleToRawLongBits(studentStop.getLocation().longitude))
+                            .putLong(KEY_SCHOOL_LAT, Double.doubleToRawLongBits(school.getLocation().latitude))
+                            .putLong(KEY_SCHOOL_LNG, Double.doubleToRawLongBits(school.getLocation().longitude))
+                            .putString(KEY_WINDOWS, encodeWindows(schedules, studentStop.getStopId()))
+                            .apply();
+
+                    registerGeofences(studentStop.getStopId(),
+                            studentStop.getLocation().latitude, studentStop.getLocation().longitude,
+                            school.getLocation().latitude, school.getLocation().longitude, future);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to load route for auto check-in", e);
+                    future.complete(false);
+                });
+    }
+
+    /**
+     * The scheduled stop of the route the student last checked in or out at, or the only
+     * scheduled stop besides the school. Null when that leaves more than one candidate,
+     * until a manual check-in tells which one is theirs.
+     */
+    private static BusStop findStudentStop(Route route, BusStop school, List<Schedule> schedules, List<Trip> trips) {
+        Map<String, BusStop> scheduled = new HashMap<>();
+        for (BusStop stop : route.getStops()) {
+            if (stop.getLocation() == null || stop == school) {
+                continue;
+            }
+            for (Schedule schedule : schedules) {
+                if (stop.getStopId() != null && stop.getStopId().equals(schedule.getStopId())) {
+                    scheduled.put(stop.getStopId(), stop);
+                    break;
+                }
+            }
+        }
+        // Trips come newest first
+        for (Trip trip : trips) {
+            BusStop stop = trip.getStopId() != null ? scheduled.get(trip.getStopId()) : null;
+            if (stop != null) {
+                return stop;
+            }
+        }
+        return scheduled.size() == 1 ? scheduled.values().iterator().next() : null;
+    }
+
+    @SuppressWarnings("MissingPermission")
+    private void registerGeofences(String stopId, double stopLat, double stopLng,
+                                   double schoolLat, double schoolLng, CompletableFuture<Boolean> future) {
+        if (stopId == null) {
+            future.complete(false);
+            return;
+        }
+
+        List<Geofence> geofences = new ArrayList<>();
+        geofences.add(new Geofence.Builder()
+                .setRequestId(GEOFENCE_STOP)
+                .setCircularRegion(stopLat, stopLng, Constants.CHECKIN_RADIUS)
+                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                // Dwell boards the pickup, enter ends the drop-off
+                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_DWELL | Geofence.GEOFENCE_TRANSITION_ENTER)
+                .setLoiteringDelay(Constants.GEOFENCE_LOITERING_DELAY)
+                .setNotificationResponsiveness(Constants.GEOFENCE_RESPONSIVENESS)
+                .build());
+        geofences.add(new Geofence.Builder()
+                .setRequestId(GEOFENCE_SCHOOL)
+                .setCircularRegion(schoolLat, schoolLng, Constants.CHECKIN_RADIUS)
+                .setExpirationDuration(Geofence.NEVER_EXPIRE)
+                // Enter ends the pickup, dwell boards the drop-off
+                .setTransitionTypes(Geofence.GEOFENCE_TRANSITION_ENTER | Geofence.GEOFENCE_TRANSITION_DWELL)
+                .setLoiteringDelay(Constants.GEOFENCE_LOITERING_DELAY)
+                .setNotificationResponsiveness(Constants.GEOFENCE_RESPONSIVENESS)
+                .build());
+
+        GeofencingRequest request = new GeofencingRequest.Builder()
+                // A student already waiting at the stop is checked in once the dwell time passes
+                .setInitialTrigger(GeofencingRequest.INITIAL_TRIGGER_DWELL)
+                .addGeofences(geofences)
+                .build();
+
+        geofencingClient.addGeofences(request, getGeofencePendingIntent())
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Auto check-in geofences registered for stop " + stopId);
+                    preferences.edit().putBoolean(KEY_ENABLED, true).apply();
+                    future.complete(true);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to register geofences", e);
+                    preferences.edit().putBoolean(KEY_ENABLED, false).apply();
+                    future.complete(false);
+                });
+    }
+
+    private PendingIntent getGeofencePendingIntent() {
+        if (geofencePendingIntent == null) {
+            Intent intent = new Intent(context, GeofenceBroadcastReceiver.class);
+            // Geofencing fills in the triggering event, so the intent must stay mutable
+            int flags = PendingIntent.FLAG_UPDATE_CURRENT;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.S) {
+                flags |= PendingIntent.FLAG_MUTABLE;
+            }
+            geofencePendingIntent = PendingIntent.getBroadcast(context, 0, intent, flags);
+        }
+        return geofencePendingIntent;
+    }
+
+    private boolean hasLocationPermission() {
+        if (ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            return false;
+        }
+        return Build.VERSION.SDK_INT < Build.VERSION_CODES.Q
+                || ContextCompat.checkSelfPermission(context, Manifest.permission.ACCESS_BACKGROUND_LOCATION)
+                == PackageManager.PERMISSION_GRANTED;
+    }
+}
@@ -0,0 +1,213 @@
+package com.example.student.services;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.net.NetworkCapabilities;
+import android.util.Log;
+
+import androidx.annotation.NonNull;
+
+import com.example.student.utils.Constants;
+import com.example.student.utils.LocationJournal;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Drains the LocationJournal into Firestore, in order, whenever the device is
+ * online. Writes are keyed by journal sequence number (fixes into per-range
+ * track chunks, check-ins into their trip document), so replaying a record
+ * that was written but not yet acknowledged before a crash only overwrites it.
+ */
+public class JournalReplayService {
+    private static final String TAG = "JournalReplayService";
+    private static JournalReplayService instance;
+
+    private Context context;
+    private FirebaseFirestore firestore;
+    private LocationJournal journal;
+    private ConnectivityManager connectivityManager;
+    private ConnectivityManager.NetworkCallback networkCallback;
+    private volatile boolean online;
+
+    // Journal thread only
+    private boolean draining;
+
+    private JournalReplayService(Context context) {
+        this.context = context.getApplicationContext();
+        this.firestore = FirebaseFirestore.getInstance();
+        this.journal = LocationJournal.getInstance(this.context);
+        this.connectivityManager = (ConnectivityManager) this.context.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    public static synchronized JournalReplayService getInstance(Context context) {
+        if (instance == null) {
+            instance = new JournalReplayService(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Watch connectivity and replay the journal each time the device comes online
+     */
+    public synchronized void start() {
+        if (networkCallback != null || connectivityManager == null) {
+            return;
+        }
+        networkCallback = new ConnectivityManager.NetworkCallback() {
+            @Override
+            public void onAvailable(@NonNull Network network) {
+                online = true;
+                Log.d(TAG, "Network available, replaying journal");
+                requestDrain();
+            }
+
+            @Override
+            public void onLost(@NonNull Network network) {
+                online = false;
+                Log.d(TAG, "Network lost, journaling locally");
+            }
+
+            @Override
+            public void onCapabilitiesChanged(@NonNull Network network, @NonNull NetworkCapabilities capabilities) {
+                boolean validated = capabilities.hasCapability(NetworkCapabilities.NET_CAPABILITY_VALIDATED);
+                if (validated && !online) {
+                    online = true;
+                    requestDrain();
+                } else if (!validated) {
+                    online = false;
+                }
+            }
+        };
+        connectivityManager.registerDefaultNetworkCallback(networkCallback);
+    }
+
+    public synchronized void stop() {
+        if (networkCallback != null) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallback = null;
+        }
+    }
+
+    /**
+     * Whether fixes can go straight to Firestore instead of the journal
+     */
+    public boolean isOnline() {
+        return online;
+    }
+
+    /**
+     * Replay anything unacknowledged if the device is online
+     */
+    public void requestDrain() {
+        journal.getExecutor().execute(this::drain);
+    }
+
+    private void drain() {
+        if (draining || !online || !journal.hasUnacknowledged()) {
+            return;
+        }
+        String studentId = AuthService.getInstance(context).getLastStudentId();
+        if (studentId == null || studentId.isEmpty()) {
+            Log.w(TAG, "No student id yet, holding journal");
+            return;
+        }
+
+        DocumentReference studentDoc = firestore.collection(Constants.COLLECTION_STUDENT_LOCATIONS)
+                .document(studentId);
+        Map<String, Map<String, Object>> chunks = new LinkedHashMap<>();
+        WriteBatch batch = firestore.batch();
+        long[] lastSequence = {journal.getAcknowledgedSequence()};
+
+        int read = journal.readAfter(lastSequence[0], Constants.JOURNAL_REPLAY_BATCH, record -> {
+            lastSequence[0] = record.sequence;
+            if (record.type == LocationJournal.TYPE_FIX) {
+                String chunkId = "journal_" + (record.sequence / Constants.JOURNAL_CHUNK_SPAN);
+                Map<String, Object> points = chunks.get(chunkId);
+                if (points == null) {
+                    points = new HashMap<>();
+                    chunks.put(chunkId, points);
+                }
+                Map<String, Object> point = new HashMap<>();
+                point.put("latitude", record.latitude);
+                point.put("longitude", record.longitude);
+                point.put("accuracy", record.accuracy);
+                point.put("speed", record.speed);
+                point.put("bearing", record.bearing);
+                point.put("timestamp", new Date(record.time));
+                // Keyed by sequence so a replayed point overwrites itself
+                points.put(String.valueOf(record.sequence), point);
+            } else if (record.type == LocationJournal.TYPE_CHECKIN) {
+                if (record.tripId.isEmpty() || record.busId.isEmpty() || record.stopId.isEmpty()) {
+                    // Never turn an unresolved check-in into a trip; the record is acknowledged and dropped
+                    Log.w(TAG, "Skipping journaled check-in without trip, bus or stop: " + record.sequence);
+                    return;
+                }
+                batch.set(firestore.collection(Constants.COLLECTION_TRIPS).document(record.tripId),
+                        checkInFields(record), SetOptions.merge());
+            }
+        });
+        if (read == 0) {
+            return;
+        }
+
+        for (Map.Entry<String, Map<String, Object>> chunk : chunks.entrySet()) {
+            Map<String, Object> data = new HashMap<>();
+            data.put("studentId", studentId);
+            data.put("source", "journal");
+            data.put("points", chunk.getValue());
+            batch.set(studentDoc.collection(Constants.COLLECTION_TRACKS).document(chunk.getKey()),
+                    data, SetOptions.merge());
+        }
+
+        draining = true;
+        long replayedUpTo = lastSequence[0];
+        batch.commit()
+                .addOnSuccessListener(journal.getExecutor(), aVoid -> {
+                    draining = false;
+                    journal.acknowledge(replayedUpTo);
+                    Log.d(TAG, "Replayed " + read + " journal records up to " + replayedUpTo);
+                    drain();
+                })
+                .addOnFailureListener(journal.getExecutor(), e -> {
+                    draining = false;
+                    // Retried on the next reconnect or journal append
+                    Log.e(TAG, "Journal replay failed", e);
+                });
+    }
+
+    private Map<String, Object> checkInFields(LocationJournal.Record record) {
+        Map<String, Object> fields = new HashMap<>();
+        fields.put("tripId", record.tripId);
+        fields.put("studentId", record.studentId);
+        fields.put("busId", record.busId);
+        fields.put("stopId", record.stopId);
+        // Lets devices sync trips as deltas past their last updatedAt
+        fields.put("updatedAt", new Date());
+        String location = record.latitude + "," + record.longitude;
+        if (record.checkOut) {
+            fields.put("checkOutTime", new Date(record.time));
+            fields.put("checkOutLocation", location);
+            fields.put("completed", true);
+            fields.put("checkOutSequence", record.sequence);
+            if (record.encodedPath != null) {
+                fields.put("encodedPath", record.encodedPath);
+                fields.put("rawPointCount", record.rawPointCount);
+                fields.put("pathPointCount", record.pathPointCount);
+            }
+        } else {
+            fields.put("checkInTime", new Date(record.time));
+            fields.put("checkInLocation", location);
+            fields.put("checkInType", record.checkInType);
+            fields.put("checkInSequence", record.sequence);
+        }
+        return fields;
+    }
+}
@@ -0,0 +1,530 @@
+package com.example.student.services;
+
+import android.content.Context;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.student.models.Schedule;
+import com.example.student.models.Trip;
+import com.example.student.utils.Constants;
+import com.example.student.utils.LocalStore;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.MetadataChanges;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+import java.util.function.Function;
+
+/**
+ * Keeps LocalStore up to date with Firestore. A scope is a query the screens
+ * read from disk, e.g. one route's schedules. A full read every
+ * SYNC_FULL_RECONCILE_INTERVAL drops local rows that no longer exist; in
+ * between only documents whose updatedAt is past the scope's high-water mark
+ * are fetched and listened to. Delta sync needs every writer of the scope to
+ * stamp updatedAt: a scope with any document lacking it keeps a zero mark and
+ * is synced with a plain listener on the whole query instead, whose first
+ * server snapshot doubles as the full read.
+ * Rows are resolved last-writer-wins on updatedAt. Screens observe a scope and
+ * are re-read from disk after each applied delta, never from the network.
+ */
+public class LocalSyncEngine {
+    private static final String TAG = "LocalSyncEngine";
+    private static LocalSyncEngine instance;
+
+    private FirebaseFirestore firestore;
+    private LocalStore store;
+    private Handler mainHandler;
+
+    // Guarded by this
+    private final Map<String, ScopeSync> scopes = new HashMap<>();
+    private final Map<String, List<Runnable>> observers = new HashMap<>();
+
+    private LocalSyncEngine(Context context) {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.store = LocalStore.getInstance(context);
+        this.mainHandler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized LocalSyncEngine getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocalSyncEngine(context);
+        }
+        return instance;
+    }
+
+    public static String scheduleScope(String routeId) {
+        return Constants.COLLECTION_SCHEDULES + ":" + routeId;
+    }
+
+    public static String tripScope(String studentId) {
+        return Constants.COLLECTION_TRIPS + ":" + studentId;
+    }
+
+    public static String inboxScope(String receiverId) {
+        return Constants.COLLECTION_CROSS_APP_MESSAGES + ":" + receiverId;
+    }
+
+    public static String documentScope(String collection, String documentId) {
+        return collection + "/" + documentId;
+    }
+
+    /**
+     * Sync one route's schedules into the store
+     */
+    public void syncSchedules(String routeId) {
+        startScope(scheduleScope(routeId), Constants.COLLECTION_SCHEDULES, Schedule.class,
+                firestore.collection(Constants.COLLECTION_SCHEDULES).whereEqualTo("routeId", routeId));
+    }
+
+    /**
+     * Sync one student's trips into the store
+     */
+    public void syncTrips(String studentId) {
+        startScope(tripScope(studentId), Constants.COLLECTION_TRIPS, Trip.class,
+                firestore.collection(Constants.COLLECTION_TRIPS).whereEqualTo("studentId", studentId));
+    }
+
+    /**
+     * Sync everything the student's screens read: trips, and the schedules of their bus's route
+     */
+    public void syncStudent(String studentId, String busId) {
+        syncTrips(studentId);
+        if (busId == null || busId.isEmpty()) {
+            return;
+        }
+        BusDirectory.getInstance().getBus(busId).thenAccept(bus -> {
+            if (bus == null) {
+                return;
+            }
+            // Kept on disk so the schedule screen can find the route without the network
+            cacheDocument(Constants.COLLECTION_BUSES, busId, bus, bus.getLastUpdated());
+            if (bus.getRouteId() != null) {
+                syncSchedules(bus.getRouteId());
+            }
+        });
+    }
+
+    /**
+     * Write through a document received from a live listener elsewhere, e.g. DocumentHub
+     */
+    public void cacheDocument(String collection, String documentId, Object model, Date version) {
+        String scope = documentScope(collection, documentId);
+        long stamp = version != null ? version.getTime() : 0;
+        store.getExecutor().execute(() -> {
+            if (store.put(collection, scope, documentId, model, stamp)) {
+                notifyScope(scope);
+            }
+        });
+    }
+
+    /**
+     * Fill a schedule scope from documents already in the Firestore cache, e.g. from a
+     * loaded bundle, and record it as fully synced at {@code builtAt} so the first sync
+     * of the scope only asks for changes made since; a builtAt of 0 (unknown) seeds the
+     * rows but leaves the next full sync due
+     */
+    public void seedSchedules(String routeId, List<DocumentSnapshot> docs, long builtAt) {
+        String scope = scheduleScope(routeId);
+        List<Row> rows = decodeRows(docs, Schedule.class);
+        store.getExecutor().execute(() -> {
+            replaceScopeRows(scope, Constants.COLLECTION_SCHEDULES, rows, builtAt);
+            notifyScope(scope);
+        });
+    }
+
+    /**
+     * Replace a scope with a result kept live elsewhere, e.g. the newest page of the inbox
+     */
+    public <T> void cacheScope(String collection, String scope, Map<String, T> models, Function<T, Date> version) {
+        Map<String, Long> versions = new HashMap<>();
+        for (Map.Entry<String, T> entry : models.entrySet()) {
+            Date stamp = version.apply(entry.getValue());
+            versions.put(entry.getKey(), stamp != null ? stamp.getTime() : 0);
+        }
+        store.getExecutor().execute(() -> {
+            store.runInTransaction(() -> {
+                for (Map.Entry<String, T> entry : models.entrySet()) {
+                    store.put(collection, scope, entry.getKey(), entry.getValue(), versions.get(entry.getKey()));
+                }
+                store.retainOnly(scope, models.keySet());
+            });
+            notifyScope(scope);
+        });
+    }
+
+    /**
+     * Read a scope from disk once, newest first; completes on the main thread
+     */
+    public <T> CompletableFuture<List<T>> load(String scope, Class<T> type) {
+        CompletableFuture<List<T>> future = new CompletableFuture<>();
+        store.getExecutor().execute(() -> {
+            List<T> models = store.query(scope, type);
+            mainHandler.post(() -> future.complete(models));
+        });
+        return future;
+    }
+
+    /**
+     * Read one document from disk; completes on the main thread with null if it was never synced
+     */
+    public <T> CompletableFuture<T> getDocument(String collection, String documentId, Class<T> type) {
+        CompletableFuture<T> future = new CompletableFuture<>();
+        store.getExecutor().execute(() -> {
+            T model = store.get(collection, documentId, type);
+            mainHandler.post(() -> future.complete(model));
+        });
+        return future;
+    }
+
+    /**
+     * Deliver the scope's rows from disk now and again after every change applied to it.
+     * Delivery is on the main thread.
+     */
+    public <T> ListenerRegistration observe(String scope, Class<T> type, Consumer<List<T>> observer) {
+        boolean[] active = {true};
+        Runnable reload = () -> store.getExecutor().execute(() -> {
+            List<T> models = store.query(scope, type);
+            mainHandler.post(() -> {
+                if (active[0]) {
+                    observer.accept(models);
+                }
+            });
+        });
+        synchronized (this) {
+            List<Runnable> scopeObservers = observers.get(scope);
+            if (scopeObservers == null) {
+                scopeObservers = new ArrayList<>();
+                observers.put(scope, scopeObservers);
+            }
+            scopeObservers.add(reload);
+        }
+        reload.run();
+        return () -> {
+            active[0] = false;
+            synchronized (LocalSyncEngine.this) {
+                List<Runnable> scopeObservers = observers.get(scope);
+                if (scopeObservers != null) {
+                    scopeObservers.remove(reload);
+                    if (scopeObservers.isEmpty()) {
+                        observers.remove(scope);
+                    }
+                }
+            }
+        };
+    }
+
+    /**
+     * Detach every Firestore listener; the store keeps its contents
+     */
+    public synchronized void stopAll() {
+        for (ScopeSync sync : scopes.values()) {
+            sync.stop();
+        }
+        scopes.clear();
+    }
+
+    /**
+     * Detach everything and forget the stored documents, e.g. on logout
+     */
+    public void clear() {
+        stopAll();
+        store.getExecutor().execute(store::clear);
+    }
+
+    private void startScope(String scope, String collection, Class<?> type, Query query) {
+        ScopeSync sync;
+        synchronized (this) {
+            if (scopes.containsKey(scope)) {
+                return;
+            }
+            sync = new ScopeSync(scope, collection, type, query);
+            scopes.put(scope, sync);
+        }
+        store.getExecutor().execute(() -> {
+            long highWater = store.getHighWater(scope);
+            long lastFullSync = store.getLastFullSync(scope);
+            boolean full = System.currentTimeMillis() - lastFullSync > Constants.SYNC_FULL_RECONCILE_INTERVAL;
+            mainHandler.post(() -> {
+                if (highWater == 0) {
+                    // Never synced, or not every document has updatedAt
+                    sync.listenAll();
+                } else if (full) {
+                    sync.reconcile();
+                } else {
+                    sync.listen(highWater);
+                }
+            });
+        });
+    }
+
+    private void notifyScope(String scope) {
+        List<Runnable> reloads;
+        synchronized (this) {
+            List<Runnable> scopeObservers = observers.get(scope);
+            if (scopeObservers == null) {
+                return;
+            }
+            reloads = new ArrayList<>(scopeObservers);
+        }
+        for (Runnable reload : reloads) {
+            reload.run();
+        }
+    }
+
+    /**
+     * Make the scope hold exactly {@code rows}, as read in full at {@code fullSyncAt}.
+     * Runs on the store's executor.
+     * @return the scope's new high-water mark, 0 if a document has no updatedAt
+     *         and the scope cannot be delta synced
+     */
+    private long replaceScopeRows(String scope, String collection, List<Row> rows, long fullSyncAt) {
+        Set<String> ids = new HashSet<>();
+        boolean stamped = true;
+        for (Row row : rows) {
+            ids.add(row.documentId);
+            stamped &= row.updatedAt > 0;
+        }
+        if (!stamped) {
+            Log.w(TAG, scope + " has documents without updatedAt, syncing it without deltas");
+        }
+        boolean delta = stamped;
+        long[] highWater = {stamped ? store.getHighWater(scope) : 0};
+        store.runInTransaction(() -> {
+            for (Row row : rows) {
+                store.put(collection, scope, row.documentId, row.model, row.version);
+                if (delta) {
+                    highWater[0] = Math.max(highWater[0], row.updatedAt);
+                }
+            }
+            int removed = store.retainOnly(scope, ids);
+            store.setSyncState(scope, highWater[0], Math.max(fullSyncAt, store.getLastFullSync(scope)));
+            Log.d(TAG, "Replaced " + scope + ": " + rows.size() + " documents, " + removed + " removed");
+        });
+        return highWater[0];
+    }
+
+    private static List<Row> decodeRows(List<DocumentSnapshot> docs, Class<?> type) {
+        List<Row> rows = new ArrayList<>(docs.size());
+        for (DocumentSnapshot doc : docs) {
+            Object model = doc.toObject(type);
+            if (model == null) {
+                continue;
+            }
+            Date updatedAt = doc.getDate("updatedAt");
+            rows.add(new Row(doc.getId(), model, versionOf(doc),
+                    updatedAt != null ? updatedAt.getTime() : 0));
+        }
+        return rows;
+    }
+
+    /**
+     * Version used for last-writer-wins; models that predate updatedAt fall back to older stamps
+     */
+    private static long versionOf(DocumentSnapshot doc) {
+        Date version = doc.getDate("updatedAt");
+        if (version == null) {
+            version = doc.getDate("lastUpdated");
+        }
+        if (version == null) {
+            version = doc.getDate("createdAt");
+        }
+        return version != null ? version.getTime() : 0;
+    }
+
+    /**
+     * One synced scope: a full read when due, then a live delta listener
+     */
+    private class ScopeSync {
+        private final String scope;
+        private final String collection;
+        private final Class<?> type;
+        private final Query query;
+        private ListenerRegistration registration;
+        private boolean stopped;
+
+        ScopeSync(String scope, String collection, Class<?> type, Query query) {
+            this.scope = scope;
+            this.collection = collection;
+            this.type = type;
+            this.query = query;
+        }
+
+        void reconcile() {
+            query.get()
+                    .addOnSuccessListener(snapshots -> {
+                        List<Row> rows = decodeRows(snapshots.getDocuments(), type);
+                        store.getExecutor().execute(() -> {
+                            if (isStopped()) {
+                                return;
+                            }
+                            long highWater = replaceScopeRows(scope, collection, rows, System.currentTimeMillis());
+                            notifyScope(scope);
+                            mainHandler.post(() -> listenFrom(highWater));
+                        });
+                    })
+                    .addOnFailureListener(e -> {
+                        // Offline: keep showing what is on disk and catch up through the delta listener
+                        Log.e(TAG, "Full sync failed for " + scope, e);
+                        store.getExecutor().execute(() -> {
+                            long highWater = store.getHighWater(scope);
+                            mainHandler.post(() -> listenFrom(highWater));
+                        });
+                    });
+        }
+
+        private void listenFrom(long highWater) {
+            if (highWater > 0) {
+                listen(highWater);
+            } else {
+                listenAll();
+            }
+        }
+
+        void listen(long highWater) {
+            synchronized (LocalSyncEngine.this) {
+                if (stopped) {
+                    return;
+                }
+                // Re-reading a little before the mark is harmless under last-writer-wins
+                Date since = new Date(Math.max(0, highWater - Constants.SYNC_DELTA_OVERLAP));
+                registration = query.whereGreaterThanOrEqualTo("updatedAt", since)
+                        .addSnapshotListener((snapshots, e) -> {
+                            if (e != null) {
+                                Log.e(TAG, "Error listening for changes to " + scope, e);
+                                return;
+                            }
+                            if (snapshots != null) {
+                                apply(snapshots, true);
+                            }
+                        });
+            }
+        }
+
+        /**
+         * Listen to the whole query, for scopes whose documents cannot all be found by
+         * updatedAt. The first snapshot from the server replaces the scope like a full read.
+         */
+        void listenAll() {
+            synchronized (LocalSyncEngine.this) {
+                if (stopped) {
+                    return;
+                }
+                boolean[] reconciled = {false};
+                registration = query.addSnapshotListener(MetadataChanges.INCLUDE, (snapshots, e) -> {
+                    if (e != null) {
+                        Log.e(TAG, "Error listening to " + scope, e);
+                        return;
+                    }
+                    if (snapshots == null) {
+                        return;
+                    }
+                    if (reconciled[0] || snapshots.getMetadata().isFromCache()) {
+                        apply(snapshots, false);
+                        return;
+                    }
+                    reconciled[0] = true;
+                    List<Row> rows = decodeRows(snapshots.getDocuments(), type);
+                    store.getExecutor().execute(() -> {
+                        if (isStopped()) {
+                            return;
+                        }
+                        replaceScopeRows(scope, collection, rows, System.currentTimeMillis());
+                        notifyScope(scope);
+                    });
+                });
+            }
+        }
+
+        /**
+         * @param advance whether the changes may move the high-water mark; not for a plain
+         *                listener, whose scope has documents the mark cannot account for
+         */
+        private void apply(QuerySnapshot snapshots, boolean advance) {
+            List<DocumentSnapshot> changed = new ArrayList<>();
+            List<String> removedIds = new ArrayList<>();
+            for (DocumentChange change : snapshots.getDocumentChanges()) {
+                if (change.getType() == DocumentChange.Type.REMOVED) {
+                    // updatedAt only moves forward, so leaving either query means the document left the scope
+                    removedIds.add(change.getDocument().getId());
+                } else {
+                    changed.add(change.getDocument());
+                }
+            }
+            if (changed.isEmpty() && removedIds.isEmpty()) {
+                return;
+            }
+            List<Row> rows = decodeRows(changed, type);
+            store.getExecutor().execute(() -> {
+                if (isStopped()) {
+                    return;
+                }
+                boolean[] dirty = {false};
+                store.runInTransaction(() -> {
+                    long highWater = store.getHighWater(scope);
+                    for (Row row : rows) {
+                        dirty[0] |= store.put(collection, scope, row.documentId, row.model, row.version);
+                        if (advance) {
+                            highWater = Math.max(highWater, row.updatedAt);
+                        }
+                    }
+                    for (String documentId : removedIds) {
+                        store.delete(collection, documentId);
+                        dirty[0] = true;
+                    }
+                    store.setSyncState(scope, highWater, store.getLastFullSync(scope));
+                });
+                Log.d(TAG, "Applied delta to " + scope + ": " + rows.size() + " changed, "
+                        + removedIds.size() + " removed");
+                if (dirty[0]) {
+                    notifyScope(scope);
+                }
+            });
+        }
+
+        /**
+         * Checked on the store's executor before writing: clear() stops every scope before it
+         * queues the wipe on that executor, so a read that lands after logout is dropped here
+         * and one that got in first is wiped with the rest
+         */
+        private boolean isStopped() {
+            synchronized (LocalSyncEngine.this) {
+                return stopped;
+            }
+        }
+
+        void stop() {
+            stopped = true;
+            if (registration != null) {
+                registration.remove();
+                registration = null;
+            }
+        }
+    }
+
+    private static class Row {
+        final String documentId;
+        final Object model;
+        final long version;
+        final long updatedAt; // only real updatedAt values advance the high-water mark
+
+        Row(String documentId, Object model, long version, long updatedAt) {
+            this.documentId = documentId;
+            this.model = model;
+            this.version = version;
+            this.updatedAt = updatedAt;
+        }
+    }
+}
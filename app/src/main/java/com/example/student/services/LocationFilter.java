@@ -0,0 +1,224 @@
+package com.example.student.services;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.example.student.utils.Constants;
+
+/**
+ * Cleans raw fixes before anything else sees them.
+ * Fixes worse than LOCATION_ACCURACY_THRESHOLD or implying an impossible speed
+ * are rejected; the rest are smoothed by a constant-velocity Kalman filter run
+ * independently on the east and north axes of a local tangent plane.
+ */
+public class LocationFilter {
+    private static final String TAG = "LocationFilter";
+    private static final double METERS_PER_DEG_LAT = 6371000.0 * Math.PI / 180.0;
+    private static LocationFilter instance;
+
+    // Reused for every accepted fix; callers must copy it to keep it
+    private final Location output = new Location("filtered");
+
+    private boolean initialized;
+    private double originLat;
+    private double originLng;
+    private double metersPerDegLng;
+    private long lastTime;
+    private int consecutiveRejects;
+
+    // East axis state: position, velocity and covariance
+    private double xPos, xVel, xP00, xP01, xP11;
+    // North axis state
+    private double yPos, yVel, yP00, yP01, yP11;
+
+    // Statistics
+    private volatile long acceptedCount;
+    private volatile long rejectedAccuracyCount;
+    private volatile long rejectedSpeedCount;
+
+    public static synchronized LocationFilter getInstance() {
+        if (instance == null) {
+            instance = new LocationFilter();
+        }
+        return instance;
+    }
+
+    /**
+     * Check a single fix against the accuracy threshold
+     */
+    public static boolean isAccurateEnough(Location location) {
+        return location != null
+                && (!location.hasAccuracy() || location.getAccuracy() <= Constants.LOCATION_ACCURACY_THRESHOLD);
+    }
+
+    /**
+     * Run a raw fix through the filter.
+     * The returned instance is reused by the next call; copy it to keep it.
+     * @return the smoothed location, or null if the fix was rejected
+     */
+    public synchronized Location process(Location raw) {
+        if (raw == null) {
+            return null;
+        }
+        if (!isAccurateEnough(raw)) {
+            rejectedAccuracyCount++;
+            return null;
+        }
+
+        long time = raw.getTime() > 0 ? raw.getTime() : System.currentTimeMillis();
+        float accuracy = raw.hasAccuracy() ? Math.max(raw.getAccuracy(), 1f) : Constants.LOCATION_ACCURACY_THRESHOLD;
+        if (!update(time, raw.getLatitude(), raw.getLongitude(), accuracy)) {
+            return null;
+        }
+        return emit(raw, time);
+    }
+
+    /**
+     * Advance the filter with one measurement that passed the accuracy check
+     * @return false if it was rejected as an impossible jump
+     */
+    synchronized boolean update(long time, double latitude, double longitude, float accuracy) {
+        if (!initialized || time - lastTime > Constants.LOCATION_FILTER_RESET_GAP) {
+            reset(latitude, longitude, time, accuracy);
+            return true;
+        }
+
+        double dt = Math.max((time - lastTime) / 1000.0, 0.001);
+        double measX = (longitude - originLng) * metersPerDegLng;
+        double measY = (latitude - originLat) * METERS_PER_DEG_LAT;
+
+        // Speed gate against the predicted position, allowing for both accuracies
+        double predX = xPos + xVel * dt;
+        double predY = yPos + yVel * dt;
+        double jump = Math.hypot(measX - predX, measY - predY) - accuracy - Math.sqrt(xP00 + yP00);
+        if (jump / dt > Constants.LOCATION_FILTER_MAX_SPEED) {
+            rejectedSpeedCount++;
+            consecutiveRejects++;
+            if (consecutiveRejects >= Constants.LOCATION_FILTER_MAX_REJECTS) {
+                // The filter is probably the one that is wrong; start over
+                Log.d(TAG, "Too many rejected jumps, resetting filter");
+                reset(latitude, longitude, time, accuracy);
+                return true;
+            }
+            return false;
+        }
+        consecutiveRejects = 0;
+
+        double q = Constants.LOCATION_FILTER_ACCEL_NOISE * Constants.LOCATION_FILTER_ACCEL_NOISE;
+        double r = accuracy * accuracy;
+        double dt2 = dt * dt;
+        double q00 = q * dt2 * dt2 / 4;
+        double q01 = q * dt2 * dt / 2;
+        double q11 = q * dt2;
+
+        // East axis predict + update
+        xPos = predX;
+        double p00 = xP00 + 2 * dt * xP01 + dt2 * xP11 + q00;
+        double p01 = xP01 + dt * xP11 + q01;
+        double p11 = xP11 + q11;
+        double s = p00 + r;
+        double k0 = p00 / s;
+        double k1 = p01 / s;
+        double innovation = measX - xPos;
+        xPos += k0 * innovation;
+        xVel += k1 * innovation;
+        xP00 = (1 - k0) * p00;
+        xP01 = (1 - k0) * p01;
+        xP11 = p11 - k1 * p01;
+
+        // North axis predict + update
+        yPos = predY;
+        p00 = yP00 + 2 * dt * yP01 + dt2 * yP11 + q00;
+        p01 = yP01 + dt * yP11 + q01;
+        p11 = yP11 + q11;
+        s = p00 + r;
+        k0 = p00 / s;
+        k1 = p01 / s;
+        innovation = measY - yPos;
+        yPos += k0 * innovation;
+        yVel += k1 * innovation;
+        yP00 = (1 - k0) * p00;
+        yP01 = (1 - k0) * p01;
+        yP11 = p11 - k1 * p01;
+
+        lastTime = time;
+        return true;
+    }
+
+    /**
+     * Forget the current track, e.g. after the service restarts
+     */
+    public synchronized void reset() {
+        initialized = false;
+        consecutiveRejects = 0;
+    }
+
+    private void reset(double latitude, double longitude, long time, float accuracy) {
+        originLat = latitude;
+        originLng = longitude;
+        metersPerDegLng = METERS_PER_DEG_LAT * Math.cos(Math.toRadians(originLat));
+        double variance = accuracy * accuracy;
+        xPos = 0;
+        yPos = 0;
+        xVel = 0;
+        yVel = 0;
+        xP00 = variance;
+        yP00 = variance;
+        xP01 = 0;
+        yP01 = 0;
+        xP11 = Constants.LOCATION_FILTER_MAX_SPEED * Constants.LOCATION_FILTER_MAX_SPEED;
+        yP11 = xP11;
+        lastTime = time;
+        consecutiveRejects = 0;
+        initialized = true;
+    }
+
+    private Location emit(Location raw, long time) {
+        output.set(raw);
+        output.setTime(time);
+        output.setLatitude(getFilteredLatitude());
+        output.setLongitude(getFilteredLongitude());
+        output.setAccuracy(getFilteredAccuracy());
+        float speed = getFilteredSpeed();
+        output.setSpeed(speed);
+        if (speed > Constants.SAMPLING_STATIONARY_SPEED) {
+            output.setBearing(getFilteredBearing());
+        }
+        acceptedCount++;
+        return output;
+    }
+
+    // Current estimate, valid after the first accepted measurement
+    synchronized double getFilteredLatitude() {
+        return originLat + yPos / METERS_PER_DEG_LAT;
+    }
+
+    synchronized double getFilteredLongitude() {
+        return originLng + xPos / metersPerDegLng;
+    }
+
+    synchronized float getFilteredAccuracy() {
+        return (float) Math.sqrt(Math.max(xP00, yP00));
+    }
+
+    synchronized float getFilteredSpeed() {
+        return (float) Math.hypot(xVel, yVel);
+    }
+
+    synchronized float getFilteredBearing() {
+        float bearing = (float) Math.toDegrees(Math.atan2(xVel, yVel));
+        return bearing < 0 ? bearing + 360f : bearing;
+    }
+
+    public long getAcceptedCount() {
+        return acceptedCount;
+    }
+
+    public long getRejectedAccuracyCount() {
+        return rejectedAccuracyCount;
+    }
+
+    public long getRejectedSpeedCount() {
+        return rejectedSpeedCount;
+    }
+}
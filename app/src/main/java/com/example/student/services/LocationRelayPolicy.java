@@ -0,0 +1,235 @@
+package com.example.student.services;
+
+import android.location.Location;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.student.models.Bus;
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides whether a bus position seen by this student app is relayed to the
+ * driver and supervisors as a cross-app location update.
+ * Only one student per bus relays: the holder of a lease on the bus's
+ * location_relays document, taken in a transaction and renewed by the holder
+ * every half LOCATION_RELAY_LEASE. When the holder goes quiet (app closed,
+ * offline, logged out) the lease runs out and the next student on the bus to
+ * see a position takes it over. The holder forwards a position only when it
+ * moved or turned enough, and at most once per LOCATION_RELAY_MIN_INTERVAL.
+ */
+public class LocationRelayPolicy {
+    private static final String TAG = "LocationRelayPolicy";
+    private static LocationRelayPolicy instance;
+
+    public enum Decision {
+        FORWARD,
+        DISABLED,      // relaying is switched off
+        NOT_ELECTED,   // another student holds the bus's relay lease, or it is being acquired
+        RATE_LIMITED,  // too soon after the last relay for this bus
+        UNCHANGED      // moved and turned less than the thresholds
+    }
+
+    private final Map<String, RelayState> states = new HashMap<>();
+    private final Map<String, Lease> leases = new HashMap<>();
+    private final long[] decisionCounts = new long[Decision.values().length];
+    private final float[] distance = new float[1];
+    private boolean enabled = Constants.LOCATION_RELAY_ENABLED;
+
+    public static synchronized LocationRelayPolicy getInstance() {
+        if (instance == null) {
+            instance = new LocationRelayPolicy();
+        }
+        return instance;
+    }
+
+    public synchronized void setEnabled(boolean enabled) {
+        this.enabled = enabled;
+    }
+
+    /**
+     * Decide for one bus snapshot; a FORWARD decision is recorded as relayed
+     */
+    public synchronized Decision evaluate(String studentId, String busId, Bus bus) {
+        Decision decision = decide(studentId, busId, bus);
+        decisionCounts[decision.ordinal()]++;
+        if (decision == Decision.FORWARD) {
+            RelayState state = states.get(busId);
+            if (state == null) {
+                state = new RelayState();
+                states.put(busId, state);
+            }
+            state.latitude = bus.getCurrentLocation().latitude;
+            state.longitude = bus.getCurrentLocation().longitude;
+            state.direction = bus.getDirection();
+            state.relayedAt = SystemClock.elapsedRealtime();
+        }
+        long total = getForwardedCount() + getSuppressedCount();
+        if (total % 100 == 0) {
+            Log.d(TAG, "Relay: " + getForwardedCount() + " forwarded, " + getSuppressedCount() + " suppressed");
+        }
+        return decision;
+    }
+
+    public boolean shouldRelay(String studentId, String busId, Bus bus) {
+        return evaluate(studentId, busId, bus) == Decision.FORWARD;
+    }
+
+    private Decision decide(String studentId, String busId, Bus bus) {
+        if (!enabled) {
+            return Decision.DISABLED;
+        }
+        if (!isElected(studentId, busId, bus.getStudentIds())) {
+            return Decision.NOT_ELECTED;
+        }
+
+        RelayState state = states.get(busId);
+        if (state == null) {
+            return Decision.FORWARD;
+        }
+        long sinceLast = SystemClock.elapsedRealtime() - state.relayedAt;
+        if (sinceLast < Constants.LOCATION_RELAY_MIN_INTERVAL) {
+            return Decision.RATE_LIMITED;
+        }
+        if (sinceLast >= Constants.LOCATION_RELAY_MAX_SILENCE) {
+            // Heartbeat so receivers can tell a parked bus from a lost one
+            return Decision.FORWARD;
+        }
+
+        Location.distanceBetween(state.latitude, state.longitude,
+                bus.getCurrentLocation().latitude, bus.getCurrentLocation().longitude, distance);
+        if (distance[0] >= Constants.LOCATION_RELAY_MIN_DISTANCE
+                || headingChange(state.direction, bus.getDirection()) >= Constants.LOCATION_RELAY_MIN_HEADING) {
+            return Decision.FORWARD;
+        }
+        return Decision.UNCHANGED;
+    }
+
+    /**
+     * Whether this student holds the bus's relay lease. Starts a renewal when the lease is
+     * half used, or a takeover attempt when the last known lease has run out; the answer
+     * changes once that transaction completes.
+     */
+    private boolean isElected(String studentId, String busId, List<String> studentIds) {
+        if (studentId == null || studentIds == null || !studentIds.contains(studentId)) {
+            return false;
+        }
+        Lease lease = leases.get(busId);
+        if (lease == null) {
+            lease = new Lease();
+            leases.put(busId, lease);
+        }
+        long now = System.currentTimeMillis();
+        boolean held = studentId.equals(lease.holderId) && now < lease.expiresAt;
+        boolean due = held
+                ? lease.expiresAt - now < Constants.LOCATION_RELAY_LEASE / 2
+                : now >= lease.expiresAt;
+        if (due && !lease.acquiring && now >= lease.retryAt) {
+            acquire(studentId, busId, lease);
+        }
+        return held;
+    }
+
+    /**
+     * Take or renew the lease if it is free, expired or already ours; otherwise learn who holds it.
+     * Expiry is compared on each device's clock, so skew only shifts a takeover by that much.
+     */
+    private void acquire(String studentId, String busId, Lease lease) {
+        lease.acquiring = true;
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        DocumentReference ref = firestore.collection(Constants.COLLECTION_LOCATION_RELAYS).document(busId);
+        firestore.runTransaction(transaction -> {
+                    DocumentSnapshot doc = transaction.get(ref);
+                    String holderId = doc.getString("holderId");
+                    Date expiresAt = doc.getDate("expiresAt");
+                    long now = System.currentTimeMillis();
+                    Lease result = new Lease();
+                    if (holderId == null || holderId.equals(studentId)
+                            || expiresAt == null || expiresAt.getTime() <= now) {
+                        result.holderId = studentId;
+                        result.expiresAt = now + Constants.LOCATION_RELAY_LEASE;
+                        Map<String, Object> data = new HashMap<>();
+                        data.put("busId", busId);
+                        data.put("holderId", studentId);
+                        data.put("expiresAt", new Date(result.expiresAt));
+                        data.put("updatedAt", new Date(now));
+                        transaction.set(ref, data);
+                    } else {
+                        result.holderId = holderId;
+                        result.expiresAt = expiresAt.getTime();
+                    }
+                    return result;
+                })
+                .addOnSuccessListener(result -> {
+                    synchronized (this) {
+                        if (!studentId.equals(lease.holderId) && studentId.equals(result.holderId)) {
+                            Log.d(TAG, "Took the relay lease of bus " + busId);
+                        }
+                        lease.holderId = result.holderId;
+                        lease.expiresAt = result.expiresAt;
+                        lease.acquiring = false;
+                    }
+                })
+                .addOnFailureListener(e -> {
+                    Log.w(TAG, "Relay lease transaction for bus " + busId + " failed", e);
+                    synchronized (this) {
+                        lease.acquiring = false;
+                        lease.retryAt = System.currentTimeMillis() + Constants.LOCATION_RELAY_MIN_INTERVAL;
+                    }
+                });
+    }
+
+    /**
+     * Heading change in degrees; directions that are not numeric only compare equal or not
+     */
+    private static float headingChange(String previous, String current) {
+        if (previous == null || current == null) {
+            return previous == current ? 0f : 180f;
+        }
+        try {
+            float delta = Math.abs(Float.parseFloat(current) - Float.parseFloat(previous)) % 360f;
+            return delta > 180f ? 360f - delta : delta;
+        } catch (NumberFormatException e) {
+            return previous.equals(current) ? 0f : 180f;
+        }
+    }
+
+    public synchronized long getForwardedCount() {
+        return decisionCounts[Decision.FORWARD.ordinal()];
+    }
+
+    public synchronized long getSuppressedCount() {
+        long suppressed = 0;
+        for (Decision decision : Decision.values()) {
+            if (decision != Decision.FORWARD) {
+                suppressed += decisionCounts[decision.ordinal()];
+            }
+        }
+        return suppressed;
+    }
+
+    public synchronized long getCount(Decision decision) {
+        return decisionCounts[decision.ordinal()];
+    }
+
+    private static class Lease {
+        String holderId;
+        long expiresAt; // wall clock
+        long retryAt;
+        boolean acquiring;
+    }
+
+    private static class RelayState {
+        double latitude;
+        double longitude;
+        String direction;
+        long relayedAt;
+    }
+}
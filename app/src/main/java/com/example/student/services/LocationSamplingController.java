@@ -0,0 +1,279 @@
+package com.example.student.services;
+
+import android.location.Location;
+import android.util.Log;
+
+import com.example.student.models.Schedule;
+import com.example.student.utils.Constants;
+import com.google.android.gms.location.LocationRequest;
+import com.google.android.gms.maps.model.LatLng;
+
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Picks the GPS duty cycle for LocationService from movement, distance to the
+ * student's stop and the pickup/drop-off windows of the active schedules.
+ */
+public class LocationSamplingController {
+    private static final String TAG = "LocationSampling";
+
+    public enum Mode {
+        DORMANT,   // outside any window and not moving, or geofences watch the stop
+        IDLE,      // outside any window but moving
+        APPROACH,  // inside a window, away from the stop
+        ACTIVE     // inside a window near the stop, or riding
+    }
+
+    private final List<LatLng> stops = new ArrayList<>();
+    private final List<Schedule> schedules = new ArrayList<>();
+    private ModeChangeListener listener;
+
+    private Mode mode = Mode.ACTIVE;
+    private boolean geofenceAssisted;
+    private boolean moving;
+    private int movingStreak;
+    private int stationaryStreak;
+    private Location lastFix;
+
+    public void setModeChangeListener(ModeChangeListener listener) {
+        this.listener = listener;
+    }
+
+    /**
+     * Stops the student boards or leaves from; the nearest one is used
+     */
+    public void setStops(List<LatLng> stopLocations) {
+        stops.clear();
+        if (stopLocations != null) {
+            stops.addAll(stopLocations);
+        }
+        evaluate(System.currentTimeMillis());
+    }
+
+    public void setSchedules(List<Schedule> activeSchedules) {
+        schedules.clear();
+        if (activeSchedules != null) {
+            schedules.addAll(activeSchedules);
+        }
+        evaluate(System.currentTimeMillis());
+    }
+
+    /**
+     * When OS geofences watch the stop, waiting near it needs no GPS of our own
+     */
+    public void setGeofenceAssisted(boolean assisted) {
+        geofenceAssisted = assisted;
+        evaluate(System.currentTimeMillis());
+    }
+
+    public Mode getMode() {
+        return mode;
+    }
+
+    public boolean isMoving() {
+        return moving;
+    }
+
+    /**
+     * Feed a new fix and return the resulting mode
+     */
+    public Mode onLocation(Location location) {
+        if (location == null) {
+            return mode;
+        }
+        updateMovement(location);
+        // Callers may reuse the instance they pass in
+        if (lastFix == null) {
+            lastFix = new Location(location);
+        } else {
+            lastFix.set(location);
+        }
+        return evaluate(location.getTime() > 0 ? location.getTime() : System.currentTimeMillis());
+    }
+
+    /**
+     * Re-evaluate the mode, e.g. when a schedule window opens with no new fixes
+     */
+    public Mode evaluate(long nowMillis) {
+        boolean inWindow = schedules.isEmpty() || isInsideWindow(nowMillis);
+        Mode next;
+        if (!inWindow) {
+            next = moving ? Mode.IDLE : Mode.DORMANT;
+        } else if (geofenceAssisted && !moving) {
+            next = Mode.DORMANT;
+        } else if (moving || distanceToNearestStop() <= Constants.SAMPLING_NEAR_STOP_DISTANCE) {
+            next = Mode.ACTIVE;
+        } else {
+            next = Mode.APPROACH;
+        }
+
+        if (next != mode) {
+            Log.d(TAG, "Sampling mode " + mode + " -> " + next);
+            mode = next;
+            if (listener != null) {
+                listener.onSamplingModeChanged(next);
+            }
+        }
+        return mode;
+    }
+
+    /**
+     * Build the location request for the current mode
+     */
+    public LocationRequest buildLocationRequest() {
+        switch (mode) {
+            case DORMANT:
+                return LocationRequest.create()
+                        .setPriority(LocationRequest.PRIORITY_LOW_POWER)
+                        .setInterval(Constants.SAMPLING_DORMANT_INTERVAL)
+                        .setFastestInterval(Constants.SAMPLING_DORMANT_INTERVAL / 2)
+                        .setSmallestDisplacement(Constants.SAMPLING_MOVING_DISPLACEMENT);
+            case IDLE:
+                return LocationRequest.create()
+                        .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                        .setInterval(Constants.SAMPLING_IDLE_INTERVAL)
+                        .setFastestInterval(Constants.SAMPLING_IDLE_INTERVAL / 2);
+            case APPROACH:
+                return LocationRequest.create()
+                        .setPriority(LocationRequest.PRIORITY_BALANCED_POWER_ACCURACY)
+                        .setInterval(Constants.SAMPLING_APPROACH_INTERVAL)
+                        .setFastestInterval(Constants.LOCATION_UPDATE_INTERVAL);
+            case ACTIVE:
+            default:
+                return LocationRequest.create()
+                        .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                        .setInterval(Constants.LOCATION_UPDATE_INTERVAL)
+                        .setFastestInterval(Constants.LOCATION_FASTEST_INTERVAL);
+        }
+    }
+
+    /**
+     * Milliseconds until the next pickup/drop-off window opens, looking up to a week
+     * ahead so a wake-up is still set across midnight and weekends; -1 if there is none
+     */
+    public long millisUntilNextWindow(long nowMillis) {
+        Calendar day = Calendar.getInstance();
+        day.setTimeInMillis(nowMillis);
+        for (int offset = 0; offset <= 7; offset++) {
+            long best = -1;
+            for (Schedule schedule : schedules) {
+                if (!isToday(schedule, day)) {
+                    continue;
+                }
+                for (Date anchor : new Date[]{schedule.getPickupTime(), schedule.getDropoffTime()}) {
+                    long start = windowStart(anchor, day);
+                    if (start > nowMillis && (best < 0 || start - nowMillis < best)) {
+                        best = start - nowMillis;
+                    }
+                }
+            }
+            if (best >= 0) {
+                return best;
+            }
+            // Windows on later days are projected onto that day's date
+            day.add(Calendar.DAY_OF_YEAR, 1);
+        }
+        return -1;
+    }
+
+    private void updateMovement(Location location) {
+        float speed = location.hasSpeed() ? location.getSpeed() : derivedSpeed(location);
+        if (speed >= Constants.SAMPLING_MOVING_SPEED) {
+            movingStreak++;
+            stationaryStreak = 0;
+        } else if (speed <= Constants.SAMPLING_STATIONARY_SPEED) {
+            stationaryStreak++;
+            movingStreak = 0;
+        }
+        // Between the two thresholds the current state is kept (hysteresis)
+
+        if (!moving && movingStreak >= Constants.SAMPLING_MOVING_FIXES) {
+            moving = true;
+        } else if (moving && stationaryStreak >= Constants.SAMPLING_STATIONARY_FIXES) {
+            moving = false;
+        }
+    }
+
+    private float derivedSpeed(Location location) {
+        if (lastFix == null) {
+            return 0f;
+        }
+        long dt = location.getTime() - lastFix.getTime();
+        if (dt <= 0) {
+            return 0f;
+        }
+        return lastFix.distanceTo(location) * 1000f / dt;
+    }
+
+    private float distanceToNearestStop() {
+        if (stops.isEmpty()) {
+            // No stop known: treat every window as close to the stop
+            return 0f;
+        }
+        if (lastFix == null) {
+            return Float.MAX_VALUE;
+        }
+        float nearest = Float.MAX_VALUE;
+        float[] result = new float[1];
+        for (LatLng stop : stops) {
+            Location.distanceBetween(lastFix.getLatitude(), lastFix.getLongitude(),
+                    stop.latitude, stop.longitude, result);
+            nearest = Math.min(nearest, result[0]);
+        }
+        return nearest;
+    }
+
+    private boolean isInsideWindow(long nowMillis) {
+        Calendar now = Calendar.getInstance();
+        now.setTimeInMillis(nowMillis);
+        for (Schedule schedule : schedules) {
+            if (!isToday(schedule, now)) {
+                continue;
+            }
+            for (Date anchor : new Date[]{schedule.getPickupTime(), schedule.getDropoffTime()}) {
+                long start = windowStart(anchor, now);
+                if (start < 0) {
+                    continue;
+                }
+                long end = start + Constants.SAMPLING_WINDOW_BEFORE + Constants.SAMPLING_WINDOW_AFTER;
+                if (nowMillis >= start && nowMillis <= end) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private boolean isToday(Schedule schedule, Calendar now) {
+        if (schedule.getDayOfWeek() == null) {
+            return true;
+        }
+        String today = now.getDisplayName(Calendar.DAY_OF_WEEK, Calendar.LONG, Locale.US);
+        return today != null && today.toLowerCase(Locale.US).equals(schedule.getDayOfWeek());
+    }
+
+    /**
+     * Start of the window around the time-of-day of anchor, projected onto the date of now
+     */
+    private long windowStart(Date anchor, Calendar now) {
+        if (anchor == null) {
+            return -1;
+        }
+        Calendar time = Calendar.getInstance();
+        time.setTime(anchor);
+        Calendar today = (Calendar) now.clone();
+        today.set(Calendar.HOUR_OF_DAY, time.get(Calendar.HOUR_OF_DAY));
+        today.set(Calendar.MINUTE, time.get(Calendar.MINUTE));
+        today.set(Calendar.SECOND, 0);
+        today.set(Calendar.MILLISECOND, 0);
+        return today.getTimeInMillis() - Constants.SAMPLING_WINDOW_BEFORE;
+    }
+
+    public interface ModeChangeListener {
+        void onSamplingModeChanged(Mode mode);
+    }
+}
@@ -11,8 +11,11 @@ import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.location.Location;
 import android.os.Build;
+import android.os.Handler;
+import android.os.HandlerThread;
 import android.os.IBinder;
 import android.os.Looper;
+import android.os.Process;
 import android.util.Log;
 
 import androidx.annotation.NonNull;
@@ -22,22 +25,57 @@ import androidx.core.app.NotificationCompat;
 
 import com.example.student.R;
 import com.example.student.StudentBusApp;
+import com.example.student.models.Bus;
+import com.example.student.models.BusStop;
+import com.example.student.models.Route;
+import com.example.student.models.Schedule;
+import com.example.student.models.Student;
 import com.example.student.ui.MainActivity;
 import com.example.student.utils.Constants;
+import com.example.student.utils.LocationJournal;
+import com.example.student.utils.TrackBuffer;
+import com.example.student.utils.TrajectorySimplifier;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationCallback;
 import com.google.android.gms.location.LocationRequest;
 import com.google.android.gms.location.LocationResult;
 import com.google.android.gms.location.LocationServices;
+import com.google.android.gms.maps.model.LatLng;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
 
 public class LocationService extends Service {
     private static final String TAG = "LocationService";
     private static final int NOTIFICATION_ID = 1001;
+
+    public static final String ACTION_EMERGENCY_FLUSH = "com.example.student.action.EMERGENCY_FLUSH";
+
+    // Track and thread of the running service, null when it is not running
+    private static volatile TrackBuffer activeTrack;
+    private static volatile Handler activeHandler;
+    private static volatile boolean running;
     
     private FusedLocationProviderClient fusedLocationClient;
     private LocationCallback locationCallback;
     private Location lastKnownLocation;
     private Context context;
+    private LocationUploadPipeline uploadPipeline;
+    private LocationSamplingController samplingController;
+    private final LocationFilter locationFilter = LocationFilter.getInstance();
+    private final TrackBuffer trackBuffer = new TrackBuffer();
+    private LocationJournal journal;
+    private JournalReplayService journalReplayService;
+    private HandlerThread locationThread;
+    private Handler handler;
+    private Executor locationExecutor;
+    private final Runnable windowCheckRunnable = this::checkScheduleWindow;
+    private boolean emergencyPending;
 
     public LocationService() {
         // Default constructor
@@ -50,11 +88,31 @@ public class LocationService extends Service {
     @Override
     public void onCreate() {
         super.onCreate();
+        running = true;
         if (context == null) {
             context = this;
         }
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(context);
+
+        // Fixes, filtering, sampling and uploads all run here, never on the main thread
+        locationThread = new HandlerThread("LocationProcessing", Process.THREAD_PRIORITY_BACKGROUND);
+        locationThread.start();
+        handler = new Handler(locationThread.getLooper());
+        locationExecutor = handler::post;
+
+        uploadPipeline = new LocationUploadPipeline(locationThread.getLooper());
+        uploadPipeline.setStudentId(AuthService.getInstance(context).getLastStudentId());
+        journal = LocationJournal.getInstance(context);
+        journalReplayService = JournalReplayService.getInstance(context);
+        activeTrack = trackBuffer;
+        activeHandler = handler;
+        samplingController = new LocationSamplingController();
+        samplingController.setModeChangeListener(mode -> {
+            Log.d(TAG, "Rebuilding location request for mode " + mode);
+            startLocationUpdates();
+        });
         createLocationCallback();
+        handler.post(this::loadSamplingContext);
     }
 
     @Override
@@ -71,7 +129,16 @@ public class LocationService extends Service {
         
         createNotificationChannel();
         startForeground(NOTIFICATION_ID, createNotification());
-        startLocationUpdates();
+
+        if (intent != null && ACTION_EMERGENCY_FLUSH.equals(intent.getAction())) {
+            // Send the next fix straight away along with anything queued
+            handler.post(() -> {
+                emergencyPending = true;
+                uploadPipeline.flushUrgently();
+            });
+        }
+
+        handler.post(this::startLocationUpdates);
         return START_STICKY;
     }
 
@@ -86,16 +153,43 @@ public class LocationService extends Service {
             @Override
             public void onLocationResult(@NonNull LocationResult locationResult) {
                 super.onLocationResult(locationResult);
-                Location location = locationResult.getLastLocation();
-                if (location != null) {
-                    lastKnownLocation = location;
-                    Log.d(TAG, "Location updated: " + location.getLatitude() + ", " + location.getLongitude());
-                    // Here you would send location to Firebase or handle location updates
+                for (Location raw : locationResult.getLocations()) {
+                    Location location = locationFilter.process(raw);
+                    if (location == null) {
+                        Log.d(TAG, "Discarded noisy fix, accuracy " + raw.getAccuracy() + "m");
+                        continue;
+                    }
+                    handleFilteredLocation(location);
                 }
             }
         };
     }
 
+    private void handleFilteredLocation(Location location) {
+        // The filter reuses its output instance, so keep our own copy
+        if (lastKnownLocation == null) {
+            lastKnownLocation = new Location(location);
+        } else {
+            lastKnownLocation.set(location);
+        }
+        trackBuffer.append(location);
+        if (samplingController != null) {
+            samplingController.onLocation(location);
+        }
+        Log.d(TAG, "Location updated: " + location.getLatitude() + ", " + location.getLongitude());
+        LocationUiChannel.getInstance().publish(location);
+        if (journalReplayService != null && !journalReplayService.isOnline()) {
+            // Offline: keep the fix on disk until the replayer can send it
+            journal.appendFix(location);
+        } else if (uploadPipeline != null) {
+            int priority = emergencyPending
+                    ? LocationUploadPipeline.PRIORITY_EMERGENCY
+                    : LocationUploadPipeline.PRIORITY_NORMAL;
+            emergencyPending = false;
+            uploadPipeline.submit(location, priority);
+        }
+    }
+
     public void startLocationUpdates() {
         if (ActivityCompat.checkSelfPermission(context, Manifest.permission.ACCESS_FINE_LOCATION) 
                 != PackageManager.PERMISSION_GRANTED) {
@@ -103,18 +197,116 @@ public class LocationService extends Service {
             return;
         }
 
-        LocationRequest locationRequest = LocationRequest.create()
-                .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
-                .setInterval(Constants.LOCATION_UPDATE_INTERVAL)
-                .setFastestInterval(Constants.LOCATION_FASTEST_INTERVAL);
+        LocationRequest locationRequest;
+        if (samplingController != null) {
+            locationRequest = samplingController.buildLocationRequest();
+        } else {
+            locationRequest = LocationRequest.create()
+                    .setPriority(LocationRequest.PRIORITY_HIGH_ACCURACY)
+                    .setInterval(Constants.LOCATION_UPDATE_INTERVAL)
+                    .setFastestInterval(Constants.LOCATION_FASTEST_INTERVAL);
+        }
 
-        fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, Looper.getMainLooper());
+        // Re-requesting with the same callback replaces the previous request
+        Looper looper = handler != null ? handler.getLooper() : Looper.getMainLooper();
+        fusedLocationClient.requestLocationUpdates(locationRequest, locationCallback, looper);
+        scheduleWindowCheck();
     }
 
     public void stopLocationUpdates() {
         if (locationCallback != null) {
             fusedLocationClient.removeLocationUpdates(locationCallback);
         }
+        if (handler != null) {
+            handler.removeCallbacks(windowCheckRunnable);
+        }
+    }
+
+    /**
+     * Load the student's stops and schedules so sampling can follow the pickup windows
+     */
+    private void loadSamplingContext() {
+        samplingController.setGeofenceAssisted(GeofenceCheckInService.getInstance(context).isEnabled());
+
+        Student student = AuthService.getInstance(context).getCurrentStudent();
+        if (student == null || student.getAssignedBusId() == null || student.getAssignedBusId().isEmpty()) {
+            Log.d(TAG, "No assigned bus, keeping default sampling");
+            return;
+        }
+
+        FirebaseFirestore firestore = FirebaseFirestore.getInstance();
+        firestore.collection(Constants.COLLECTION_BUSES)
+                .document(student.getAssignedBusId())
+                .get()
+                .addOnSuccessListener(locationExecutor, busDoc -> {
+                    Bus bus = busDoc.toObject(Bus.class);
+                    if (bus == null || bus.getRouteId() == null) {
+                        return;
+                    }
+                    StopIndexService.getInstance(context).startRouteIndexing(bus.getRouteId());
+                    firestore.collection(Constants.COLLECTION_SCHEDULES)
+                            .whereEqualTo("routeId", bus.getRouteId())
+                            .whereEqualTo("isActive", true)
+                            .get()
+                            .addOnSuccessListener(locationExecutor, scheduleDocs -> {
+                                List<Schedule> schedules = scheduleDocs.toObjects(Schedule.class);
+                                samplingController.setSchedules(schedules);
+                                loadScheduledStops(firestore, bus.getRouteId(), schedules);
+                                scheduleWindowCheck();
+                            })
+                            .addOnFailureListener(e -> Log.e(TAG, "Failed to load schedules for sampling", e));
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Failed to load bus for sampling", e));
+    }
+
+    private void loadScheduledStops(FirebaseFirestore firestore, String routeId, List<Schedule> schedules) {
+        Set<String> stopIds = new HashSet<>();
+        for (Schedule schedule : schedules) {
+            if (schedule.getStopId() != null) {
+                stopIds.add(schedule.getStopId());
+            }
+        }
+
+        firestore.collection(Constants.COLLECTION_ROUTES)
+                .document(routeId)
+                .get()
+                .addOnSuccessListener(locationExecutor, routeDoc -> {
+                    Route route = routeDoc.toObject(Route.class);
+                    if (route == null || route.getStops() == null) {
+                        return;
+                    }
+                    List<LatLng> scheduled = new ArrayList<>();
+                    List<LatLng> all = new ArrayList<>();
+                    for (BusStop stop : route.getStops()) {
+                        if (stop.getLocation() == null) {
+                            continue;
+                        }
+                        all.add(stop.getLocation());
+                        if (stopIds.contains(stop.getStopId())) {
+                            scheduled.add(stop.getLocation());
+                        }
+                    }
+                    samplingController.setStops(scheduled.isEmpty() ? all : scheduled);
+                })
+                .addOnFailureListener(e -> Log.e(TAG, "Failed to load route stops for sampling", e));
+    }
+
+    private void scheduleWindowCheck() {
+        if (handler == null || samplingController == null) {
+            return;
+        }
+        handler.removeCallbacks(windowCheckRunnable);
+        long delay = samplingController.millisUntilNextWindow(System.currentTimeMillis());
+        if (delay >= 0) {
+            // Wake up when the next window opens even if no fix arrives. Handler time stops
+            // in deep sleep, so long waits are split and the wall clock is checked again.
+            handler.postDelayed(windowCheckRunnable, Math.min(delay + 1000, Constants.SAMPLING_WINDOW_BEFORE));
+        }
+    }
+
+    private void checkScheduleWindow() {
+        samplingController.evaluate(System.currentTimeMillis());
+        scheduleWindowCheck();
     }
 
     private void createNotificationChannel() {
@@ -149,12 +341,63 @@ public class LocationService extends Service {
     }
 
     public Location getLastKnownLocation() {
-        return lastKnownLocation;
+        return lastKnownLocation != null ? new Location(lastKnownLocation) : null;
+    }
+
+    /**
+     * Today's filtered track; only touch it from the location thread
+     */
+    public TrackBuffer getTrackBuffer() {
+        return trackBuffer;
+    }
+
+    /**
+     * Simplified trace of the running service's track between two times.
+     * Runs on the location thread; completes with null if the service is not running,
+     * and exceptionally if simplifying fails.
+     */
+    public static CompletableFuture<TrajectorySimplifier.Result> simplifyActiveTrack(long fromMillis, long toMillis) {
+        CompletableFuture<TrajectorySimplifier.Result> future = new CompletableFuture<>();
+        TrackBuffer track = activeTrack;
+        Handler trackHandler = activeHandler;
+        if (track == null || trackHandler == null || !trackHandler.post(() -> {
+            try {
+                future.complete(TrajectorySimplifier.simplify(track, fromMillis, toMillis));
+            } catch (RuntimeException e) {
+                future.completeExceptionally(e);
+            }
+        })) {
+            future.complete(null);
+        }
+        return future;
+    }
+
+    /**
+     * Whether the service is running in this process, whoever started it
+     */
+    public static boolean isRunning() {
+        return running;
+    }
+
+    public LocationUploadPipeline getUploadPipeline() {
+        return uploadPipeline;
     }
 
     @Override
     public void onDestroy() {
         super.onDestroy();
+        running = false;
         stopLocationUpdates();
+        if (activeTrack == trackBuffer) {
+            activeTrack = null;
+            activeHandler = null;
+        }
+        if (uploadPipeline != null && locationThread != null) {
+            // The thread goes away only after the final commit's callback has run on it
+            HandlerThread thread = locationThread;
+            handler.post(() -> uploadPipeline.shutdown(thread::quitSafely));
+        } else if (locationThread != null) {
+            locationThread.quitSafely();
+        }
     }
 }
@@ -0,0 +1,45 @@
+package com.example.student.services;
+
+import android.location.Location;
+import android.os.SystemClock;
+
+import androidx.lifecycle.LiveData;
+import androidx.lifecycle.MutableLiveData;
+
+import com.example.student.utils.Constants;
+
+/**
+ * Throttled hand-off of filtered fixes from the location thread to the UI.
+ * Observers get at most one fix per LOCATION_UI_THROTTLE and, being LiveData,
+ * only while their lifecycle is started.
+ */
+public class LocationUiChannel {
+    private static LocationUiChannel instance;
+
+    private final MutableLiveData<Location> location = new MutableLiveData<>();
+    private long lastPublishedAt;
+
+    public static synchronized LocationUiChannel getInstance() {
+        if (instance == null) {
+            instance = new LocationUiChannel();
+        }
+        return instance;
+    }
+
+    /**
+     * Publish a fix from any thread; fixes inside the throttle window are skipped
+     */
+    public synchronized void publish(Location fix) {
+        long now = SystemClock.elapsedRealtime();
+        if (now - lastPublishedAt < Constants.LOCATION_UI_THROTTLE) {
+            return;
+        }
+        lastPublishedAt = now;
+        // postValue keeps only the latest value until the main thread runs
+        location.postValue(new Location(fix));
+    }
+
+    public LiveData<Location> getLocation() {
+        return location;
+    }
+}
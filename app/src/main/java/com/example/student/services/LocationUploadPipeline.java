@@ -0,0 +1,351 @@
+package com.example.student.services;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.DocumentReference;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Bounded, coalescing upload queue for location fixes.
+ * Fixes inside the same time window collapse into one point and the queue is
+ * written to Firestore as a single WriteBatch when it is full, old or urgent.
+ * All methods must be called on the looper the pipeline was created with.
+ */
+public class LocationUploadPipeline {
+    private static final String TAG = "LocationUploadPipeline";
+
+    public static final int PRIORITY_NORMAL = 0;
+    public static final int PRIORITY_EMERGENCY = 1;
+
+    private final FirebaseFirestore firestore;
+    private final Handler handler;
+    private final ArrayDeque<LocationFix> queue;
+    private final Runnable ageFlushRunnable = this::flushIfStale;
+
+    private final int queueCapacity;
+    private final int maxBatchSize;
+    private final long maxBatchAgeMs;
+    private final long coalesceWindowMs;
+
+    private String studentId;
+    private boolean flushInFlight;
+    private boolean ageFlushScheduled;
+    private boolean emergencyFlushPending; // an urgent flush arrived while a batch was in flight
+    private Runnable onShutdown; // runs once the final batch's commit has been handled
+
+    // Metrics
+    private volatile int lastBatchSize;
+    private volatile long lastFlushLatencyMs;
+    private volatile long totalFlushLatencyMs;
+    private volatile int flushCount;
+    private volatile int failedFlushCount;
+    private volatile long fixesReceived;
+    private volatile long fixesCoalesced;
+    private volatile long fixesDropped;
+    private volatile long fixesUploaded;
+
+    public LocationUploadPipeline(Looper looper) {
+        this(looper,
+                Constants.LOCATION_UPLOAD_QUEUE_CAPACITY,
+                Constants.LOCATION_UPLOAD_MAX_BATCH_SIZE,
+                Constants.LOCATION_UPLOAD_MAX_BATCH_AGE,
+                Constants.LOCATION_UPLOAD_COALESCE_WINDOW);
+    }
+
+    public LocationUploadPipeline(Looper looper, int queueCapacity, int maxBatchSize,
+                                  long maxBatchAgeMs, long coalesceWindowMs) {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.handler = new Handler(looper);
+        this.queue = new ArrayDeque<>(queueCapacity);
+        this.queueCapacity = queueCapacity;
+        this.maxBatchSize = maxBatchSize;
+        this.maxBatchAgeMs = maxBatchAgeMs;
+        this.coalesceWindowMs = coalesceWindowMs;
+    }
+
+    public void setStudentId(String studentId) {
+        this.studentId = studentId;
+    }
+
+    /**
+     * Queue a fix for upload. Emergency fixes flush the queue immediately.
+     */
+    public void submit(Location location, int priority) {
+        if (location == null) {
+            return;
+        }
+        fixesReceived++;
+
+        long timestamp = location.getTime() > 0 ? location.getTime() : System.currentTimeMillis();
+        LocationFix tail = queue.peekLast();
+        if (tail != null && priority == PRIORITY_NORMAL
+                && timestamp / coalesceWindowMs == tail.timestamp / coalesceWindowMs) {
+            // Same window: keep only the newest position
+            tail.update(location, timestamp);
+            fixesCoalesced++;
+        } else {
+            if (queue.size() >= queueCapacity) {
+                queue.pollFirst();
+                fixesDropped++;
+            }
+            LocationFix fix = new LocationFix();
+            fix.update(location, timestamp);
+            fix.enqueuedAt = SystemClock.elapsedRealtime();
+            queue.addLast(fix);
+        }
+
+        if (priority == PRIORITY_EMERGENCY) {
+            flushUrgently();
+        } else if (queue.size() >= maxBatchSize) {
+            flush();
+        } else {
+            scheduleAgeFlush();
+        }
+    }
+
+    /**
+     * Flush now, or as soon as the batch in flight completes, instead of waiting for
+     * the batch size or age
+     */
+    public void flushUrgently() {
+        emergencyFlushPending = true;
+        flush();
+    }
+
+    /**
+     * Write everything that is queued as one batch
+     */
+    public void flush() {
+        if (flushInFlight || queue.isEmpty()) {
+            return;
+        }
+        if (studentId == null || studentId.isEmpty()) {
+            Log.w(TAG, "No student id yet, holding " + queue.size() + " fixes");
+            return;
+        }
+        cancelAgeFlush();
+        emergencyFlushPending = false;
+
+        List<LocationFix> batchFixes = new ArrayList<>(Math.min(queue.size(), maxBatchSize));
+        while (!queue.isEmpty() && batchFixes.size() < maxBatchSize) {
+            batchFixes.add(queue.pollFirst());
+        }
+
+        List<Map<String, Object>> points = new ArrayList<>(batchFixes.size());
+        for (LocationFix fix : batchFixes) {
+            points.add(fix.toMap());
+        }
+        LocationFix newest = batchFixes.get(batchFixes.size() - 1);
+
+        DocumentReference studentDoc = firestore.collection(Constants.COLLECTION_STUDENT_LOCATIONS)
+                .document(studentId);
+
+        Map<String, Object> chunk = new HashMap<>();
+        chunk.put("studentId", studentId);
+        chunk.put("points", points);
+        chunk.put("startTime", new Date(batchFixes.get(0).timestamp));
+        chunk.put("endTime", new Date(newest.timestamp));
+        chunk.put("pointCount", points.size());
+
+        Map<String, Object> latest = newest.toMap();
+        latest.put("studentId", studentId);
+        latest.put("updatedAt", new Date());
+
+        WriteBatch batch = firestore.batch();
+        batch.set(studentDoc.collection(Constants.COLLECTION_TRACKS).document(), chunk);
+        batch.set(studentDoc, latest, SetOptions.merge());
+
+        flushInFlight = true;
+        long startedAt = SystemClock.elapsedRealtime();
+        batch.commit()
+                .addOnCompleteListener(task -> handler.post(() -> {
+                    flushInFlight = false;
+                    long latency = SystemClock.elapsedRealtime() - startedAt;
+                    if (task.isSuccessful()) {
+                        lastBatchSize = batchFixes.size();
+                        lastFlushLatencyMs = latency;
+                        totalFlushLatencyMs += latency;
+                        flushCount++;
+                        fixesUploaded += batchFixes.size();
+                        Log.d(TAG, "Flushed " + batchFixes.size() + " fixes in " + latency + "ms, queue depth " + queue.size());
+                    } else {
+                        failedFlushCount++;
+                        Log.e(TAG, "Location batch failed, re-queueing " + batchFixes.size() + " fixes", task.getException());
+                        requeue(batchFixes);
+                        if (finishShutdown()) {
+                            return;
+                        }
+                        // Back off a full batch age before retrying
+                        cancelAgeFlush();
+                        handler.postDelayed(ageFlushRunnable, maxBatchAgeMs);
+                        ageFlushScheduled = true;
+                        return;
+                    }
+
+                    if (finishShutdown()) {
+                        return;
+                    }
+                    if (emergencyFlushPending || queue.size() >= maxBatchSize) {
+                        flush();
+                    } else if (!queue.isEmpty()) {
+                        scheduleAgeFlush();
+                    }
+                }));
+    }
+
+    /**
+     * Flush what is still queued and stop pending timers
+     * @param onDone runs on the pipeline's looper once the final batch's commit has been
+     *               handled, or after LOCATION_UPLOAD_SHUTDOWN_TIMEOUT if it is still pending
+     *               (offline it stays in Firestore's queue); the looper must live until then
+     */
+    public void shutdown(Runnable onDone) {
+        flush();
+        cancelAgeFlush();
+        if (!flushInFlight) {
+            onDone.run();
+            return;
+        }
+        onShutdown = onDone;
+        handler.postDelayed(this::finishShutdown, Constants.LOCATION_UPLOAD_SHUTDOWN_TIMEOUT);
+    }
+
+    /**
+     * Run the shutdown callback if shutdown was requested
+     * @return true if the pipeline is shut down and must not schedule more work
+     */
+    private boolean finishShutdown() {
+        if (onShutdown == null) {
+            return false;
+        }
+        Runnable done = onShutdown;
+        onShutdown = null;
+        handler.removeCallbacksAndMessages(null);
+        done.run();
+        return true;
+    }
+
+    private void requeue(List<LocationFix> fixes) {
+        // Put failed fixes back in front of newer ones, oldest dropped first if full
+        for (int i = fixes.size() - 1; i >= 0; i--) {
+            if (queue.size() >= queueCapacity) {
+                fixesDropped++;
+                continue;
+            }
+            queue.addFirst(fixes.get(i));
+        }
+    }
+
+    private void flushIfStale() {
+        ageFlushScheduled = false;
+        LocationFix head = queue.peekFirst();
+        if (head == null) {
+            return;
+        }
+        long age = SystemClock.elapsedRealtime() - head.enqueuedAt;
+        if (age >= maxBatchAgeMs) {
+            flush();
+        } else {
+            scheduleAgeFlush();
+        }
+    }
+
+    private void scheduleAgeFlush() {
+        if (ageFlushScheduled || queue.isEmpty()) {
+            return;
+        }
+        long age = SystemClock.elapsedRealtime() - queue.peekFirst().enqueuedAt;
+        handler.postDelayed(ageFlushRunnable, Math.max(0, maxBatchAgeMs - age));
+        ageFlushScheduled = true;
+    }
+
+    private void cancelAgeFlush() {
+        handler.removeCallbacks(ageFlushRunnable);
+        ageFlushScheduled = false;
+    }
+
+    // Metrics
+    public int getQueueDepth() {
+        return queue.size();
+    }
+
+    public int getLastBatchSize() {
+        return lastBatchSize;
+    }
+
+    public long getLastFlushLatencyMs() {
+        return lastFlushLatencyMs;
+    }
+
+    public long getAverageFlushLatencyMs() {
+        return flushCount == 0 ? 0 : totalFlushLatencyMs / flushCount;
+    }
+
+    public int getFlushCount() {
+        return flushCount;
+    }
+
+    public int getFailedFlushCount() {
+        return failedFlushCount;
+    }
+
+    public long getFixesReceived() {
+        return fixesReceived;
+    }
+
+    public long getFixesCoalesced() {
+        return fixesCoalesced;
+    }
+
+    public long getFixesDropped() {
+        return fixesDropped;
+    }
+
+    public long getFixesUploaded() {
+        return fixesUploaded;
+    }
+
+    private static class LocationFix {
+        long timestamp;
+        long enqueuedAt;
+        double latitude;
+        double longitude;
+        float accuracy;
+        float speed;
+        float bearing;
+
+        void update(Location location, long timestamp) {
+            this.timestamp = timestamp;
+            this.latitude = location.getLatitude();
+            this.longitude = location.getLongitude();
+            this.accuracy = location.getAccuracy();
+            this.speed = location.getSpeed();
+            this.bearing = location.getBearing();
+        }
+
+        Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("latitude", latitude);
+            map.put("longitude", longitude);
+            map.put("accuracy", accuracy);
+            map.put("speed", speed);
+            map.put("bearing", bearing);
+            map.put("timestamp", new Date(timestamp));
+            return map;
+        }
+    }
+}
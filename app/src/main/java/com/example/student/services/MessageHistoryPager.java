@@ -0,0 +1,145 @@
+package com.example.student.services;
+
+import android.util.Log;
+
+import com.example.student.models.CrossAppMessage;
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Pages through a receiver's message history, newest first, ordered by
+ * (timestamp, document id) so equal timestamps never repeat or skip a message.
+ * Only the newest page is live: its listener ends at the oldest message of
+ * that first page, so it grows with new arrivals but never overlaps the older
+ * pages, which are read once each with a startAfter cursor.
+ */
+public class MessageHistoryPager {
+    private static final String TAG = "MessageHistoryPager";
+
+    private final FirebaseFirestore firestore;
+    private final String receiverId;
+    private final String receiverType;
+    private final PageListener listener;
+    private final MessageView head = new MessageView();
+
+    private ListenerRegistration headRegistration;
+    private DocumentSnapshot cursor; // oldest document loaded so far
+    private boolean loading;
+    private boolean exhausted;
+    private boolean stopped;
+
+    public MessageHistoryPager(String receiverId, String receiverType, PageListener listener) {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.receiverId = receiverId;
+        this.receiverType = receiverType;
+        this.listener = listener;
+    }
+
+    /**
+     * Load the newest page and keep it live
+     */
+    public void start() {
+        loading = true;
+        baseQuery().limit(Constants.HISTORY_PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(firstPage -> {
+                    loading = false;
+                    if (stopped) {
+                        return;
+                    }
+                    List<DocumentSnapshot> docs = firstPage.getDocuments();
+                    exhausted = docs.size() < Constants.HISTORY_PAGE_SIZE;
+                    Query live = baseQuery();
+                    if (!docs.isEmpty()) {
+                        cursor = docs.get(docs.size() - 1);
+                        live = live.endAt(cursor);
+                    }
+                    headRegistration = live.addSnapshotListener((snapshots, e) -> {
+                        if (e != null) {
+                            Log.e(TAG, "Error listening to newest messages", e);
+                            return;
+                        }
+                        if (snapshots != null && !head.apply(snapshots).isEmpty()) {
+                            listener.onHeadChanged(head.getMessages(), !exhausted);
+                        }
+                    });
+                })
+                .addOnFailureListener(e -> {
+                    loading = false;
+                    Log.e(TAG, "Failed to load newest messages", e);
+                });
+    }
+
+    /**
+     * Fetch the next older page; ignored while a page is loading or when there are no more
+     */
+    public void loadNextPage() {
+        if (loading || exhausted || stopped || cursor == null) {
+            return;
+        }
+        loading = true;
+        baseQuery().startAfter(cursor)
+                .limit(Constants.HISTORY_PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(page -> {
+                    loading = false;
+                    if (stopped) {
+                        return;
+                    }
+                    List<DocumentSnapshot> docs = page.getDocuments();
+                    exhausted = docs.size() < Constants.HISTORY_PAGE_SIZE;
+                    List<CrossAppMessage> messages = new ArrayList<>(docs.size());
+                    for (DocumentSnapshot doc : docs) {
+                        messages.add(MessageView.toMessage(doc));
+                    }
+                    if (!docs.isEmpty()) {
+                        cursor = docs.get(docs.size() - 1);
+                    }
+                    Log.d(TAG, "Loaded " + messages.size() + " older messages");
+                    listener.onPageLoaded(messages, !exhausted);
+                })
+                .addOnFailureListener(e -> {
+                    loading = false;
+                    Log.e(TAG, "Failed to load older messages", e);
+                });
+    }
+
+    public boolean hasMore() {
+        return !exhausted;
+    }
+
+    public void stop() {
+        stopped = true;
+        if (headRegistration != null) {
+            headRegistration.remove();
+            headRegistration = null;
+        }
+    }
+
+    private Query baseQuery() {
+        return firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
+                .whereEqualTo("receiverId", receiverId)
+                .whereEqualTo("receiverType", receiverType)
+                .orderBy("timestamp", Query.Direction.DESCENDING)
+                .orderBy(FieldPath.documentId(), Query.Direction.DESCENDING);
+    }
+
+    public interface PageListener {
+        /**
+         * The live newest page changed; replaces the previous head
+         */
+        void onHeadChanged(List<CrossAppMessage> head, boolean hasMore);
+
+        /**
+         * An older page was appended after everything loaded so far
+         */
+        void onPageLoaded(List<CrossAppMessage> page, boolean hasMore);
+    }
+}
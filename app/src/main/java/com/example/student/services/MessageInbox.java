@@ -0,0 +1,341 @@
+package com.example.student.services;
+
+import android.util.Log;
+
+import com.example.student.models.CrossAppMessage;
+import com.example.student.utils.Constants;
+import com.example.student.utils.RetentionPolicy;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.function.Consumer;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * One cross_app_messages subscription per (receiverId, receiverType), shared by
+ * every view of that inbox. Each document is downloaded and deserialized once
+ * and routed to the unread, emergency and recent views by their own predicates.
+ * The snapshot listener lives as long as at least one view is subscribed.
+ */
+public class MessageInbox {
+    private static final String TAG = "MessageInbox";
+    private static MessageInbox instance;
+
+    public static final Filter UNREAD = new Filter(message -> !message.isRead(), 0);
+    public static final Filter EMERGENCY = new Filter(message ->
+            CrossAppIntegrationService.MESSAGE_TYPE_EMERGENCY.equals(message.getMessageType())
+                    && CrossAppIntegrationService.PRIORITY_URGENT.equals(message.getPriority()), 0);
+    public static final Filter RECENT = new Filter(message -> true, Constants.CROSS_APP_MESSAGE_LIMIT);
+
+    private FirebaseFirestore firestore;
+    private final Map<String, Feed> feeds = new HashMap<>();
+
+    private MessageInbox() {
+        this(FirebaseFirestore.getInstance());
+    }
+
+    MessageInbox(FirebaseFirestore firestore) {
+        this.firestore = firestore;
+    }
+
+    public static synchronized MessageInbox getInstance() {
+        if (instance == null) {
+            instance = new MessageInbox();
+        }
+        return instance;
+    }
+
+    /**
+     * Subscribe a view of the inbox; remove() the returned registration to unsubscribe
+     */
+    public synchronized Subscription subscribe(String receiverId, String receiverType, Filter filter,
+                                               Consumer<MessageView.Delta> sink) {
+        String key = receiverType + "/" + receiverId;
+        Feed feed = feeds.get(key);
+        if (feed == null) {
+            feed = new Feed(key);
+            feeds.put(key, feed);
+            feed.start(firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
+                    .whereEqualTo("receiverId", receiverId)
+                    .whereEqualTo("receiverType", receiverType)
+                    .whereGreaterThan("timestamp", RetentionPolicy.inboxWindowStart())
+                    .orderBy("timestamp", Query.Direction.DESCENDING));
+        }
+        Subscription subscription = new Subscription(feed, filter, sink);
+        feed.add(subscription);
+        return subscription;
+    }
+
+    /**
+     * Apply a read receipt to every open view before the server confirms it,
+     * so the unread view drops the message at once instead of after the write
+     */
+    public void setReadLocally(String messageId, boolean read) {
+        List<Feed> open;
+        synchronized (this) {
+            open = new ArrayList<>(feeds.values());
+        }
+        for (Feed feed : open) {
+            feed.setRead(messageId, read);
+        }
+    }
+
+    private synchronized void release(Feed feed) {
+        if (feed.subscriptions.isEmpty() && feeds.get(feed.key) == feed) {
+            Log.d(TAG, "Last view of " + feed.key + " gone, closing subscription");
+            feeds.remove(feed.key);
+            feed.registration.remove();
+        }
+    }
+
+    /**
+     * Which messages a view holds; a limit of 0 keeps every match
+     */
+    public static class Filter {
+        final Predicate<CrossAppMessage> predicate;
+        final int limit;
+
+        public Filter(Predicate<CrossAppMessage> predicate, int limit) {
+            this.predicate = predicate;
+            this.limit = limit;
+        }
+    }
+
+    /**
+     * The shared listener and the inbox it maintains
+     */
+    class Feed {
+        final String key;
+        final MessageView view = new MessageView();
+        final List<Subscription> subscriptions = new ArrayList<>();
+        ListenerRegistration registration;
+        boolean loaded;
+
+        Feed(String key) {
+            this.key = key;
+        }
+
+        void start(Query query) {
+            Log.d(TAG, "Opening inbox subscription for " + key);
+            registration = query.addSnapshotListener((snapshots, e) -> {
+                if (e != null) {
+                    Log.e(TAG, "Error listening to inbox " + key, e);
+                    return;
+                }
+                if (snapshots == null) {
+                    return;
+                }
+                update(() -> view.apply(snapshots));
+            });
+        }
+
+        /**
+         * Apply a change to the view and route what it changed to every subscription
+         */
+        void update(Supplier<MessageView.Delta> change) {
+            // Views are computed under the lock and delivered outside it
+            Map<Subscription, MessageView.Delta> deliveries;
+            synchronized (this) {
+                MessageView.Delta delta = change.get();
+                loaded = true;
+                deliveries = route(delta);
+            }
+            deliver(deliveries);
+        }
+
+        void setRead(String messageId, boolean read) {
+            Map<Subscription, MessageView.Delta> deliveries;
+            synchronized (this) {
+                CrossAppMessage message = view.get(messageId);
+                if (message == null || message.isRead() == read) {
+                    return;
+                }
+                message.setRead(read);
+                message.setReadAt(read ? new Date() : null);
+                List<CrossAppMessage> modified = new ArrayList<>();
+                modified.add(message);
+                deliveries = route(new MessageView.Delta(new ArrayList<>(), modified, new ArrayList<>(),
+                        view::getMessages));
+            }
+            deliver(deliveries);
+        }
+
+        private Map<Subscription, MessageView.Delta> route(MessageView.Delta delta) {
+            Map<Subscription, MessageView.Delta> deliveries = new LinkedHashMap<>();
+            if (delta.isEmpty()) {
+                return deliveries;
+            }
+            for (Subscription subscription : subscriptions) {
+                MessageView.Delta routed = subscription.route(delta);
+                if (routed != null) {
+                    deliveries.put(subscription, routed);
+                }
+            }
+            return deliveries;
+        }
+
+        private void deliver(Map<Subscription, MessageView.Delta> deliveries) {
+            for (Map.Entry<Subscription, MessageView.Delta> delivery : deliveries.entrySet()) {
+                delivery.getKey().sink.accept(delivery.getValue());
+            }
+        }
+
+        void add(Subscription subscription) {
+            MessageView.Delta initial = null;
+            synchronized (this) {
+                subscriptions.add(subscription);
+                if (loaded) {
+                    // Joined a live feed: start from what is already there
+                    initial = subscription.catchUp();
+                }
+            }
+            if (initial != null) {
+                subscription.sink.accept(initial);
+            }
+        }
+
+        synchronized void remove(Subscription subscription) {
+            subscriptions.remove(subscription);
+        }
+
+        synchronized List<CrossAppMessage> select(Filter filter) {
+            List<CrossAppMessage> selected = new ArrayList<>();
+            for (CrossAppMessage message : view.getMessages()) {
+                if (filter.predicate.test(message)) {
+                    selected.add(message);
+                    if (filter.limit > 0 && selected.size() == filter.limit) {
+                        break;
+                    }
+                }
+            }
+            return selected;
+        }
+    }
+
+    /**
+     * One view of a shared inbox
+     */
+    public class Subscription implements ListenerRegistration {
+        private final Feed feed;
+        private final Filter filter;
+        private final Consumer<MessageView.Delta> sink;
+        private final Set<String> members = new HashSet<>();
+        private boolean removed;
+
+        Subscription(Feed feed, Filter filter, Consumer<MessageView.Delta> sink) {
+            this.feed = feed;
+            this.filter = filter;
+            this.sink = sink;
+        }
+
+        /**
+         * Messages currently in this view, newest first
+         */
+        public List<CrossAppMessage> getMessages() {
+            return feed.select(filter);
+        }
+
+        @Override
+        public void remove() {
+            if (removed) {
+                return;
+            }
+            removed = true;
+            feed.remove(this);
+            release(feed);
+        }
+
+        MessageView.Delta catchUp() {
+            List<CrossAppMessage> current = getMessages();
+            for (CrossAppMessage message : current) {
+                members.add(message.getMessageId());
+            }
+            return toDelta(current, new ArrayList<>(), new ArrayList<>());
+        }
+
+        /**
+         * This view's share of a feed change, or null if it is not affected
+         */
+        MessageView.Delta route(MessageView.Delta delta) {
+            if (filter.limit > 0) {
+                return routeLimited(delta);
+            }
+            List<CrossAppMessage> added = new ArrayList<>();
+            List<CrossAppMessage> modified = new ArrayList<>();
+            List<String> removedIds = new ArrayList<>();
+            for (CrossAppMessage message : delta.getAdded()) {
+                if (filter.predicate.test(message)) {
+                    members.add(message.getMessageId());
+                    added.add(message);
+                }
+            }
+            for (CrossAppMessage message : delta.getModified()) {
+                boolean was = members.contains(message.getMessageId());
+                boolean is = filter.predicate.test(message);
+                if (is) {
+                    members.add(message.getMessageId());
+                    (was ? modified : added).add(message);
+                } else if (was) {
+                    // e.g. an unread message that was just read
+                    members.remove(message.getMessageId());
+                    removedIds.add(message.getMessageId());
+                }
+            }
+            for (String messageId : delta.getRemovedIds()) {
+                if (members.remove(messageId)) {
+                    removedIds.add(messageId);
+                }
+            }
+            return toDelta(added, modified, removedIds);
+        }
+
+        /**
+         * Membership of a top-N view depends on rank, so diff the new top N against the old
+         */
+        private MessageView.Delta routeLimited(MessageView.Delta delta) {
+            Set<String> modifiedIds = new HashSet<>();
+            for (CrossAppMessage message : delta.getModified()) {
+                modifiedIds.add(message.getMessageId());
+            }
+            List<CrossAppMessage> added = new ArrayList<>();
+            List<CrossAppMessage> modified = new ArrayList<>();
+            Set<String> current = new HashSet<>();
+            for (CrossAppMessage message : getMessages()) {
+                String messageId = message.getMessageId();
+                current.add(messageId);
+                if (!members.contains(messageId)) {
+                    added.add(message);
+                } else if (modifiedIds.contains(messageId)) {
+                    modified.add(message);
+                }
+            }
+            List<String> removedIds = new ArrayList<>();
+            for (String messageId : members) {
+                if (!current.contains(messageId)) {
+                    removedIds.add(messageId);
+                }
+            }
+            members.clear();
+            members.addAll(current);
+            return toDelta(added, modified, removedIds);
+        }
+
+        private MessageView.Delta toDelta(List<CrossAppMessage> added, List<CrossAppMessage> modified,
+                                          List<String> removedIds) {
+            if (added.isEmpty() && modified.isEmpty() && removedIds.isEmpty()) {
+                return null;
+            }
+            return new MessageView.Delta(added, modified, removedIds, this::getMessages);
+        }
+    }
+}
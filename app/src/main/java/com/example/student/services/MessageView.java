@@ -0,0 +1,161 @@
+package com.example.student.services;
+
+import com.example.student.models.CrossAppMessage;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.QueryDocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Supplier;
+
+/**
+ * Local copy of a message query's results, kept in query order and keyed by
+ * message id. Each snapshot is applied through its document changes, so only
+ * added or modified documents are deserialized.
+ */
+public class MessageView {
+    private final List<CrossAppMessage> ordered = new ArrayList<>();
+    private final Map<String, CrossAppMessage> byId = new HashMap<>();
+
+    /**
+     * Apply one snapshot and return what it changed
+     */
+    public Delta apply(QuerySnapshot snapshots) {
+        List<CrossAppMessage> added = new ArrayList<>();
+        List<CrossAppMessage> modified = new ArrayList<>();
+        List<String> removedIds = new ArrayList<>();
+
+        // Changes come in order; old and new indexes are valid at the point each one is applied
+        for (DocumentChange change : snapshots.getDocumentChanges()) {
+            QueryDocumentSnapshot doc = change.getDocument();
+            CrossAppMessage message = null;
+            switch (change.getType()) {
+                case ADDED:
+                    message = toMessage(doc);
+                    added.add(message);
+                    break;
+                case MODIFIED:
+                    message = toMessage(doc);
+                    modified.add(message);
+                    break;
+                case REMOVED:
+                    removedIds.add(doc.getId());
+                    break;
+            }
+            applyChange(change.getType(), change.getOldIndex(), change.getNewIndex(), doc.getId(), message);
+        }
+        return new Delta(added, modified, removedIds, this::getMessages);
+    }
+
+    /**
+     * Apply one document change to the ordered list and the id index
+     * @param message the new content, null for a removal
+     */
+    void applyChange(DocumentChange.Type type, int oldIndex, int newIndex, String messageId,
+                     CrossAppMessage message) {
+        switch (type) {
+            case ADDED:
+                ordered.add(newIndex, message);
+                byId.put(messageId, message);
+                break;
+            case MODIFIED:
+                if (oldIndex == newIndex) {
+                    ordered.set(newIndex, message);
+                } else {
+                    ordered.remove(oldIndex);
+                    ordered.add(newIndex, message);
+                }
+                byId.put(messageId, message);
+                break;
+            case REMOVED:
+                ordered.remove(oldIndex);
+                byId.remove(messageId);
+                break;
+        }
+    }
+
+    public CrossAppMessage get(String messageId) {
+        return byId.get(messageId);
+    }
+
+    public int size() {
+        return ordered.size();
+    }
+
+    /**
+     * Every message currently in the view, in query order
+     */
+    public List<CrossAppMessage> getMessages() {
+        return new ArrayList<>(ordered);
+    }
+
+    public void clear() {
+        ordered.clear();
+        byId.clear();
+    }
+
+    static CrossAppMessage toMessage(DocumentSnapshot doc) {
+        CrossAppMessage message = doc.toObject(CrossAppMessage.class);
+        message.setMessageId(doc.getId());
+        // markMessageAsRead and the inbox queries use "isRead", not the bean property "read"
+        Boolean isRead = doc.getBoolean("isRead");
+        if (isRead != null) {
+            message.setRead(isRead);
+        }
+        return message;
+    }
+
+    /**
+     * What one snapshot changed. The full list is only built if asked for.
+     */
+    public static class Delta {
+        private final List<CrossAppMessage> added;
+        private final List<CrossAppMessage> modified;
+        private final List<String> removedIds;
+        private final Supplier<List<CrossAppMessage>> messages;
+
+        Delta(List<CrossAppMessage> added, List<CrossAppMessage> modified, List<String> removedIds,
+              Supplier<List<CrossAppMessage>> messages) {
+            this.added = Collections.unmodifiableList(added);
+            this.modified = Collections.unmodifiableList(modified);
+            this.removedIds = Collections.unmodifiableList(removedIds);
+            this.messages = messages;
+        }
+
+        static Delta ofAdded(List<CrossAppMessage> added) {
+            return new Delta(added, new ArrayList<>(), new ArrayList<>(), () -> new ArrayList<>(added));
+        }
+
+        public List<CrossAppMessage> getAdded() {
+            return added;
+        }
+
+        public List<CrossAppMessage> getModified() {
+            return modified;
+        }
+
+        public List<String> getRemovedIds() {
+            return removedIds;
+        }
+
+        public boolean isEmpty() {
+            return added.isEmpty() && modified.isEmpty() && removedIds.isEmpty();
+        }
+
+        /**
+         * The whole result set after this change
+         */
+        public List<CrossAppMessage> getMessages() {
+            return messages.get();
+        }
+
+        Delta withMessages(Supplier<List<CrossAppMessage>> messages) {
+            return new Delta(added, modified, removedIds, messages);
+        }
+    }
+}
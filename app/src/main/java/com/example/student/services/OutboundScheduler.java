@@ -0,0 +1,302 @@
+package com.example.student.services;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
+import android.util.Log;
+
+import com.example.student.utils.Constants;
+
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+/**
+ * Admission control for outgoing cross-app writes.
+ * Writes wait in one queue per priority and at most OUTBOUND_MAX_IN_FLIGHT of
+ * them are handed to Firestore at a time, highest priority first. Keeping the
+ * SDK's own FIFO pipeline short means an urgent write never sits behind a burst
+ * of location updates; urgent writes also skip the window entirely.
+ * A write gives up its slot once it completes or after OUTBOUND_SLOT_TIMEOUT,
+ * whichever comes first: offline, Firestore has applied the write locally and
+ * holds it in its persisted queue, but never acknowledges it, and the window
+ * must not stay shut until the device is back online.
+ * The queue holds at most OUTBOUND_MAX_QUEUED writes. When it is full, a write
+ * with a coalesce key at the same or a lower priority is dropped first, then
+ * the oldest write of a lower priority; otherwise the new write is rejected.
+ * Urgent writes skip the window and never stay queued, so they are always
+ * admitted without displacing anything.
+ */
+public class OutboundScheduler {
+    private static final String TAG = "OutboundScheduler";
+    private static OutboundScheduler instance;
+
+    // Dispatch order, lowest index first
+    private static final String[] PRIORITIES = {
+            CrossAppIntegrationService.PRIORITY_URGENT,
+            CrossAppIntegrationService.PRIORITY_HIGH,
+            CrossAppIntegrationService.PRIORITY_MEDIUM,
+            CrossAppIntegrationService.PRIORITY_LOW
+    };
+    private static final int URGENT = 0;
+
+    private final List<ArrayDeque<Entry>> queues = new ArrayList<>();
+    private final Map<String, Entry> coalescing = new HashMap<>();
+    private final Handler handler;
+    private int queued;
+    private int inFlight;
+
+    // Statistics per priority
+    private final long[] dispatched = new long[PRIORITIES.length];
+    private final long[] totalWait = new long[PRIORITIES.length];
+    private final long[] maxWait = new long[PRIORITIES.length];
+    private long coalescedCount;
+    private long droppedCount;
+
+    OutboundScheduler() {
+        this.handler = new Handler(Looper.getMainLooper());
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            queues.add(new ArrayDeque<>());
+        }
+    }
+
+    public static synchronized OutboundScheduler getInstance() {
+        if (instance == null) {
+            instance = new OutboundScheduler();
+        }
+        return instance;
+    }
+
+    /**
+     * Queue a write
+     * @param coalesceKey writes with the same key supersede each other while queued;
+     *                    null for writes that must never be merged or dropped
+     * @param write starts the write and completes with whether it succeeded
+     * @return completes with the result of the write, or of the newer write it was
+     *         coalesced into, or false if it was dropped or rejected
+     */
+    public CompletableFuture<Boolean> submit(String priority, String coalesceKey,
+                                             Supplier<CompletableFuture<Boolean>> write) {
+        Entry dropped = null;
+        Entry entry;
+        synchronized (this) {
+            if (coalesceKey != null) {
+                Entry pending = coalescing.get(coalesceKey);
+                if (pending != null) {
+                    // Keep its place in line, send the newer content
+                    pending.write = write;
+                    coalescedCount++;
+                    return pending.future;
+                }
+            }
+
+            int level = levelOf(priority);
+            // Urgent writes go straight out, so they never need room in the queue
+            if (level != URGENT && queued >= Constants.OUTBOUND_MAX_QUEUED) {
+                dropped = evictDroppable(level);
+                if (dropped == null && coalesceKey == null) {
+                    // Location updates never displace a message
+                    dropped = evictLower(level);
+                }
+                if (dropped == null) {
+                    droppedCount++;
+                    Log.w(TAG, "Outbound queue full, rejecting " + PRIORITIES[level] + " write"
+                            + (coalesceKey != null ? " " + coalesceKey : ""));
+                    return CompletableFuture.completedFuture(false);
+                }
+            }
+
+            entry = new Entry(level, coalesceKey, write);
+            queues.get(level).addLast(entry);
+            queued++;
+            if (coalesceKey != null) {
+                coalescing.put(coalesceKey, entry);
+            }
+        }
+        if (dropped != null) {
+            dropped.future.complete(false);
+        }
+        pump();
+        return entry.future;
+    }
+
+    /**
+     * Number of writes waiting for a slot
+     */
+    public synchronized int getQueueDepth() {
+        return queued;
+    }
+
+    public synchronized int getQueueDepth(String priority) {
+        return queues.get(levelOf(priority)).size();
+    }
+
+    public synchronized int getInFlight() {
+        return inFlight;
+    }
+
+    /**
+     * Average time writes of this priority waited before being dispatched, in milliseconds
+     */
+    public synchronized long getAverageWait(String priority) {
+        int level = levelOf(priority);
+        return dispatched[level] == 0 ? 0 : totalWait[level] / dispatched[level];
+    }
+
+    public synchronized long getMaxWait(String priority) {
+        return maxWait[levelOf(priority)];
+    }
+
+    public synchronized long getCoalescedCount() {
+        return coalescedCount;
+    }
+
+    public synchronized long getDroppedCount() {
+        return droppedCount;
+    }
+
+    private void pump() {
+        List<Entry> ready = new ArrayList<>();
+        synchronized (this) {
+            Entry next;
+            while ((next = takeNext()) != null) {
+                long waited = SystemClock.elapsedRealtime() - next.enqueuedAt;
+                dispatched[next.level]++;
+                totalWait[next.level] += waited;
+                maxWait[next.level] = Math.max(maxWait[next.level], waited);
+                inFlight++;
+                next.holdsSlot = true;
+                ready.add(next);
+            }
+        }
+        for (Entry entry : ready) {
+            start(entry);
+        }
+    }
+
+    private Entry takeNext() {
+        for (int level = 0; level < PRIORITIES.length; level++) {
+            ArrayDeque<Entry> queue = queues.get(level);
+            if (queue.isEmpty()) {
+                continue;
+            }
+            if (level != URGENT && inFlight >= Constants.OUTBOUND_MAX_IN_FLIGHT) {
+                return null;
+            }
+            Entry entry = queue.pollFirst();
+            queued--;
+            if (entry.coalesceKey != null) {
+                coalescing.remove(entry.coalesceKey);
+            }
+            return entry;
+        }
+        return null;
+    }
+
+    private void start(Entry entry) {
+        Runnable slotTimeout = () -> {
+            if (releaseSlot(entry)) {
+                Log.d(TAG, "Outbound write still unacknowledged, releasing its slot");
+                pump();
+            }
+        };
+        handler.postDelayed(slotTimeout, Constants.OUTBOUND_SLOT_TIMEOUT);
+
+        CompletableFuture<Boolean> result;
+        try {
+            result = entry.write.get();
+        } catch (Exception e) {
+            Log.e(TAG, "Error starting outbound write", e);
+            result = CompletableFuture.completedFuture(false);
+        }
+        result.whenComplete((success, error) -> {
+            handler.removeCallbacks(slotTimeout);
+            releaseSlot(entry);
+            entry.future.complete(error == null && Boolean.TRUE.equals(success));
+            pump();
+        });
+    }
+
+    /**
+     * Give back the slot of a dispatched write, once
+     * @return true if the write still held it
+     */
+    private synchronized boolean releaseSlot(Entry entry) {
+        if (!entry.holdsSlot) {
+            return false;
+        }
+        entry.holdsSlot = false;
+        inFlight--;
+        return true;
+    }
+
+    /**
+     * Remove the oldest droppable write of the lowest priority below or at this level
+     */
+    private Entry evictDroppable(int level) {
+        for (int i = PRIORITIES.length - 1; i >= level; i--) {
+            Iterator<Entry> it = queues.get(i).iterator();
+            while (it.hasNext()) {
+                Entry candidate = it.next();
+                if (candidate.coalesceKey != null) {
+                    it.remove();
+                    queued--;
+                    coalescing.remove(candidate.coalesceKey);
+                    droppedCount++;
+                    Log.w(TAG, "Outbound queue full, dropping " + candidate.coalesceKey);
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Remove the oldest write of the lowest priority strictly below this level
+     */
+    private Entry evictLower(int level) {
+        for (int i = PRIORITIES.length - 1; i > level; i--) {
+            Entry candidate = queues.get(i).pollFirst();
+            if (candidate != null) {
+                queued--;
+                if (candidate.coalesceKey != null) {
+                    coalescing.remove(candidate.coalesceKey);
+                }
+                droppedCount++;
+                Log.w(TAG, "Outbound queue full, dropping a " + PRIORITIES[i] + " write");
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    private static int levelOf(String priority) {
+        for (int i = 0; i < PRIORITIES.length; i++) {
+            if (PRIORITIES[i].equals(priority)) {
+                return i;
+            }
+        }
+        // Unset priority is treated like the default message priority
+        return levelOf(CrossAppIntegrationService.PRIORITY_MEDIUM);
+    }
+
+    private static class Entry {
+        final int level;
+        final String coalesceKey;
+        final long enqueuedAt = SystemClock.elapsedRealtime();
+        final CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Supplier<CompletableFuture<Boolean>> write;
+        boolean holdsSlot; // dispatched and counted in inFlight
+
+        Entry(int level, String coalesceKey, Supplier<CompletableFuture<Boolean>> write) {
+            this.level = level;
+            this.coalesceKey = coalesceKey;
+            this.write = write;
+        }
+    }
+}
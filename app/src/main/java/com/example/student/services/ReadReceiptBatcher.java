@@ -0,0 +1,192 @@
+package com.example.student.services;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Collects read receipts for READ_RECEIPT_DEBOUNCE and commits them as
+ * chunked WriteBatch updates of isRead/readAt. Open inbox views are updated
+ * as soon as a receipt is recorded, and rolled back if its write fails.
+ */
+public class ReadReceiptBatcher {
+    private static final String TAG = "ReadReceiptBatcher";
+    private static ReadReceiptBatcher instance;
+
+    private FirebaseFirestore firestore;
+    private MessageInbox inbox;
+    private OutboundScheduler scheduler;
+    private Handler handler;
+
+    // Pending receipts in arrival order, guarded by this
+    private Map<String, List<CompletableFuture<Boolean>>> pending = new LinkedHashMap<>();
+    private boolean flushScheduled;
+
+    private ReadReceiptBatcher() {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.inbox = MessageInbox.getInstance();
+        this.scheduler = OutboundScheduler.getInstance();
+        this.handler = new Handler(Looper.getMainLooper());
+    }
+
+    public static synchronized ReadReceiptBatcher getInstance() {
+        if (instance == null) {
+            instance = new ReadReceiptBatcher();
+        }
+        return instance;
+    }
+
+    /**
+     * Record a receipt; completes once the batch holding it is committed
+     */
+    public CompletableFuture<Boolean> markRead(String messageId) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        inbox.setReadLocally(messageId, true);
+
+        boolean flushNow = false;
+        synchronized (this) {
+            List<CompletableFuture<Boolean>> waiters = pending.get(messageId);
+            if (waiters == null) {
+                waiters = new ArrayList<>();
+                pending.put(messageId, waiters);
+            }
+            waiters.add(future);
+
+            if (pending.size() >= Constants.FANOUT_BATCH_SIZE) {
+                flushNow = true;
+            } else if (!flushScheduled) {
+                flushScheduled = true;
+                handler.postDelayed(this::flush, Constants.READ_RECEIPT_DEBOUNCE);
+            }
+        }
+        if (flushNow) {
+            flush();
+        }
+        return future;
+    }
+
+    /**
+     * Record a receipt and commit it without waiting out the debounce, for
+     * callers whose process may not live that long
+     */
+    public CompletableFuture<Boolean> markReadNow(String messageId) {
+        CompletableFuture<Boolean> future = markRead(messageId);
+        flush();
+        return future;
+    }
+
+    /**
+     * Record receipts for many messages, e.g. "mark all read"
+     */
+    public CompletableFuture<Boolean> markRead(List<String> messageIds) {
+        List<CompletableFuture<Boolean>> receipts = new ArrayList<>();
+        for (String messageId : messageIds) {
+            receipts.add(markRead(messageId));
+        }
+        return CompletableFuture.allOf(receipts.toArray(new CompletableFuture[0]))
+                .thenApply(done -> {
+                    for (CompletableFuture<Boolean> receipt : receipts) {
+                        if (!receipt.join()) {
+                            return false;
+                        }
+                    }
+                    return true;
+                });
+    }
+
+    /**
+     * Commit everything pending now
+     */
+    public void flush() {
+        Map<String, List<CompletableFuture<Boolean>>> batch;
+        synchronized (this) {
+            handler.removeCallbacksAndMessages(null);
+            flushScheduled = false;
+            if (pending.isEmpty()) {
+                return;
+            }
+            batch = pending;
+            pending = new LinkedHashMap<>();
+        }
+
+        List<String> messageIds = new ArrayList<>(batch.keySet());
+        for (int from = 0; from < messageIds.size(); from += Constants.FANOUT_BATCH_SIZE) {
+            List<String> chunk = messageIds.subList(from, Math.min(from + Constants.FANOUT_BATCH_SIZE, messageIds.size()));
+            Set<String> failedIds = ConcurrentHashMap.newKeySet();
+            scheduler.submit(CrossAppIntegrationService.PRIORITY_LOW, null, () -> commit(chunk, failedIds))
+                    .thenAccept(success -> {
+                        for (String messageId : chunk) {
+                            boolean marked = success && !failedIds.contains(messageId);
+                            if (!marked) {
+                                inbox.setReadLocally(messageId, false);
+                            }
+                            for (CompletableFuture<Boolean> waiter : batch.get(messageId)) {
+                                waiter.complete(marked);
+                            }
+                        }
+                    });
+        }
+    }
+
+    private CompletableFuture<Boolean> commit(List<String> chunk, Set<String> failedIds) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        Date readAt = new Date();
+        WriteBatch batch = firestore.batch();
+        for (String messageId : chunk) {
+            batch.update(firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES).document(messageId),
+                    "isRead", true, "readAt", readAt);
+        }
+        batch.commit()
+                .addOnSuccessListener(aVoid -> {
+                    Log.d(TAG, "Marked " + chunk.size() + " messages as read");
+                    future.complete(true);
+                })
+                .addOnFailureListener(e -> {
+                    if (e instanceof FirebaseFirestoreException
+                            && ((FirebaseFirestoreException) e).getCode() == FirebaseFirestoreException.Code.NOT_FOUND
+                            && chunk.size() > 1) {
+                        // One deleted message fails the whole batch; the rest still deserve their receipt
+                        Log.w(TAG, "Read receipt batch hit a missing message, committing one by one");
+                        commitEach(chunk, readAt, failedIds, future);
+                    } else {
+                        Log.e(TAG, "Failed to mark " + chunk.size() + " messages as read", e);
+                        future.complete(false);
+                    }
+                });
+        return future;
+    }
+
+    private void commitEach(List<String> chunk, Date readAt, Set<String> failedIds,
+                            CompletableFuture<Boolean> future) {
+        List<CompletableFuture<Boolean>> updates = new ArrayList<>();
+        for (String messageId : chunk) {
+            CompletableFuture<Boolean> update = new CompletableFuture<>();
+            firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
+                    .document(messageId)
+                    .update("isRead", true, "readAt", readAt)
+                    .addOnSuccessListener(aVoid -> update.complete(true))
+                    .addOnFailureListener(e -> {
+                        Log.e(TAG, "Failed to mark message as read: " + messageId, e);
+                        failedIds.add(messageId);
+                        update.complete(false);
+                    });
+            updates.add(update);
+        }
+        CompletableFuture.allOf(updates.toArray(new CompletableFuture[0]))
+                .thenRun(() -> future.complete(true));
+    }
+}
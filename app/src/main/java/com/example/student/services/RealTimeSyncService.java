@@ -6,8 +6,10 @@ import android.util.Log;
 import com.example.student.models.Bus;
 import com.example.student.models.Student;
 import com.example.student.models.CrossAppMessage;
+import com.example.student.models.Route;
 import com.example.student.utils.Constants;
-import com.google.firebase.firestore.DocumentSnapshot;
+import com.example.student.utils.RetentionPolicy;
+import com.google.firebase.firestore.DocumentChange;
 import com.google.firebase.firestore.FirebaseFirestore;
 import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.Query;
@@ -23,6 +25,8 @@ public class RealTimeSyncService {
     private Context context;
     private List<ListenerRegistration> listeners;
     private CrossAppIntegrationService integrationService;
+    private LocationRelayPolicy relayPolicy;
+    private DocumentHub documentHub;
     
     // Sync intervals
     private static final int BUS_LOCATION_SYNC_INTERVAL = 10000; // 10 seconds
@@ -34,6 +38,8 @@ public class RealTimeSyncService {
         this.firestore = FirebaseFirestore.getInstance();
         this.listeners = new ArrayList<>();
         this.integrationService = CrossAppIntegrationService.getInstance(context);
+        this.relayPolicy = LocationRelayPolicy.getInstance();
+        this.documentHub = DocumentHub.getInstance();
     }
 
     public static synchronized RealTimeSyncService getInstance(Context context) {
@@ -49,31 +55,21 @@ public class RealTimeSyncService {
     public void startBusLocationSync(String studentId, String busId, BusLocationListener listener) {
         Log.d(TAG, "Starting bus location sync for student: " + studentId + ", bus: " + busId);
         
-        ListenerRegistration registration = firestore.collection(Constants.COLLECTION_BUSES)
-                .document(busId)
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Error listening to bus location updates", e);
-                        return;
-                    }
-
-                    if (snapshot != null && snapshot.exists()) {
-                        Bus bus = snapshot.toObject(Bus.class);
-                        if (bus != null) {
-                            Log.d(TAG, "Bus location updated: " + bus.getCurrentLocation());
-                            listener.onBusLocationUpdated(bus);
-                            
-                            // Send location update to other apps
-                            if (bus.getCurrentLocation() != null) {
-                                integrationService.sendLocationUpdate(
-                                        studentId, busId,
-                                        bus.getCurrentLocation().latitude,
-                                        bus.getCurrentLocation().longitude,
-                                        bus.getSpeed(),
-                                        bus.getDirection()
-                                );
-                            }
-                        }
+        ListenerRegistration registration = documentHub.subscribe(Constants.COLLECTION_BUSES, busId, Bus.class,
+                bus -> {
+                    Log.d(TAG, "Bus location updated: " + bus.getCurrentLocation());
+                    listener.onBusLocationUpdated(bus);
+
+                    // Relay to other apps only if this app is the relayer and the bus really moved
+                    if (bus.getCurrentLocation() != null
+                            && relayPolicy.shouldRelay(studentId, busId, bus)) {
+                        integrationService.sendLocationUpdate(
+                                studentId, busId,
+                                bus.getCurrentLocation().latitude,
+                                bus.getCurrentLocation().longitude,
+                                bus.getSpeed(),
+                                bus.getDirection()
+                        );
                     }
                 });
 
@@ -86,36 +82,67 @@ public class RealTimeSyncService {
     public void startMessageSync(String userId, String userType, MessageSyncListener listener) {
         Log.d(TAG, "Starting message sync for user: " + userId + ", type: " + userType);
         
-        Query query = firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
-                .whereEqualTo("receiverId", userId)
-                .whereEqualTo("receiverType", userType)
-                .whereEqualTo("isRead", false)
-                .orderBy("timestamp", Query.Direction.DESCENDING);
-
-        ListenerRegistration registration = query.addSnapshotListener((snapshots, e) -> {
-            if (e != null) {
-                Log.e(TAG, "Error listening for messages", e);
-                return;
-            }
+        // Unread view of the shared inbox subscription
+        listeners.add(MessageInbox.getInstance().subscribe(userId, userType, MessageInbox.UNREAD, delta -> {
+            Log.d(TAG, "Messages: " + delta.getAdded().size() + " added, " + delta.getModified().size()
+                    + " modified, " + delta.getRemovedIds().size() + " removed");
+            listener.onMessagesChanged(delta);
+        }));
+    }
 
-            if (snapshots != null && !snapshots.isEmpty()) {
-                List<CrossAppMessage> newMessages = new ArrayList<>();
-                for (DocumentSnapshot doc : snapshots.getDocuments()) {
-                    CrossAppMessage message = doc.toObject(CrossAppMessage.class);
-                    if (message != null) {
-                        message.setMessageId(doc.getId());
-                        newMessages.add(message);
-                    }
-                }
-                
-                if (!newMessages.isEmpty()) {
-                    Log.d(TAG, "Received " + newMessages.size() + " new messages");
-                    listener.onNewMessagesReceived(newMessages);
-                }
-            }
-        });
+    /**
+     * Start listening for direct messages plus the route and bus channels the
+     * user belongs to. Channel messages have no per-receiver read flag, so only
+     * messages added after subscribing are delivered from them.
+     */
+    public void startMessageSync(String userId, String userType, List<String> channelIds,
+                                 MessageSyncListener listener) {
+        startMessageSync(userId, userType, listener);
+        if (!CrossAppIntegrationService.readsChannels(userType)) {
+            return;
+        }
 
-        listeners.add(registration);
+        for (String channelId : channelIds) {
+            Log.d(TAG, "Starting channel sync for: " + channelId);
+            boolean[] initial = {true};
+            ListenerRegistration registration = firestore.collection(Constants.COLLECTION_CROSS_APP_CHANNELS)
+                    .document(channelId)
+                    .collection(Constants.COLLECTION_CHANNEL_MESSAGES)
+                    .whereGreaterThan("timestamp", RetentionPolicy.inboxWindowStart())
+                    .orderBy("timestamp", Query.Direction.DESCENDING)
+                    .limit(Constants.CROSS_APP_MESSAGE_LIMIT)
+                    .addSnapshotListener((snapshots, e) -> {
+                        if (e != null) {
+                            Log.e(TAG, "Error listening to channel " + channelId, e);
+                            return;
+                        }
+                        if (snapshots == null) {
+                            return;
+                        }
+                        if (initial[0]) {
+                            // Backlog already seen before this session
+                            initial[0] = false;
+                            return;
+                        }
+
+                        List<CrossAppMessage> newMessages = new ArrayList<>();
+                        for (DocumentChange change : snapshots.getDocumentChanges()) {
+                            if (change.getType() != DocumentChange.Type.ADDED) {
+                                continue;
+                            }
+                            CrossAppMessage message = change.getDocument().toObject(CrossAppMessage.class);
+                            message.setMessageId(change.getDocument().getId());
+                            newMessages.add(message);
+                        }
+
+                        if (!newMessages.isEmpty()) {
+                            Log.d(TAG, "Received " + newMessages.size() + " channel messages on " + channelId);
+                            listener.onMessagesChanged(MessageView.Delta.ofAdded(newMessages));
+                        }
+                    });
+
+            listeners.add(registration);
+        }
     }
 
     /**
@@ -124,21 +151,10 @@ public class RealTimeSyncService {
     public void startStudentStatusSync(String studentId, StudentStatusListener listener) {
         Log.d(TAG, "Starting student status sync for: " + studentId);
         
-        ListenerRegistration registration = firestore.collection(Constants.COLLECTION_STUDENTS)
-                .document(studentId)
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Error listening to student status updates", e);
-                        return;
-                    }
-
-                    if (snapshot != null && snapshot.exists()) {
-                        Student student = snapshot.toObject(Student.class);
-                        if (student != null) {
-                            Log.d(TAG, "Student status updated: " + student.getName());
-                            listener.onStudentStatusUpdated(student);
-                        }
-                    }
+        ListenerRegistration registration = documentHub.subscribe(Constants.COLLECTION_STUDENTS, studentId,
+                Student.class, student -> {
+                    Log.d(TAG, "Student status updated: " + student.getName());
+                    listener.onStudentStatusUpdated(student);
                 });
 
         listeners.add(registration);
@@ -150,19 +166,11 @@ public class RealTimeSyncService {
     public void startRouteSync(String routeId, RouteUpdateListener listener) {
         Log.d(TAG, "Starting route sync for: " + routeId);
         
-        ListenerRegistration registration = firestore.collection(Constants.COLLECTION_ROUTES)
-                .document(routeId)
-                .addSnapshotListener((snapshot, e) -> {
-                    if (e != null) {
-                        Log.e(TAG, "Error listening to route updates", e);
-                        return;
-                    }
-
-                    if (snapshot != null && snapshot.exists()) {
-                        // Route object would be created here if needed
-                        Log.d(TAG, "Route updated: " + routeId);
-                        listener.onRouteUpdated(routeId);
-                    }
+        // Same Route object the route data sync receives, no extra listener
+        ListenerRegistration registration = documentHub.subscribe(Constants.COLLECTION_ROUTES, routeId,
+                Route.class, route -> {
+                    Log.d(TAG, "Route updated: " + routeId);
+                    listener.onRouteUpdated(routeId);
                 });
 
         listeners.add(registration);
@@ -174,37 +182,11 @@ public class RealTimeSyncService {
     public void startEmergencySync(String userId, String userType, EmergencyListener listener) {
         Log.d(TAG, "Starting emergency sync for user: " + userId);
         
-        Query query = firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
-                .whereEqualTo("receiverId", userId)
-                .whereEqualTo("receiverType", userType)
-                .whereEqualTo("messageType", CrossAppIntegrationService.MESSAGE_TYPE_EMERGENCY)
-                .whereEqualTo("priority", CrossAppIntegrationService.PRIORITY_URGENT)
-                .orderBy("timestamp", Query.Direction.DESCENDING);
-
-        ListenerRegistration registration = query.addSnapshotListener((snapshots, e) -> {
-            if (e != null) {
-                Log.e(TAG, "Error listening for emergency alerts", e);
-                return;
-            }
-
-            if (snapshots != null && !snapshots.isEmpty()) {
-                List<CrossAppMessage> emergencyMessages = new ArrayList<>();
-                for (DocumentSnapshot doc : snapshots.getDocuments()) {
-                    CrossAppMessage message = doc.toObject(CrossAppMessage.class);
-                    if (message != null) {
-                        message.setMessageId(doc.getId());
-                        emergencyMessages.add(message);
-                    }
-                }
-                
-                if (!emergencyMessages.isEmpty()) {
-                    Log.d(TAG, "Received " + emergencyMessages.size() + " emergency alerts");
-                    listener.onEmergencyReceived(emergencyMessages);
-                }
-            }
-        });
-
-        listeners.add(registration);
+        // Emergency view of the shared inbox subscription
+        listeners.add(MessageInbox.getInstance().subscribe(userId, userType, MessageInbox.EMERGENCY, delta -> {
+            Log.d(TAG, "Emergency alerts: " + delta.getAdded().size() + " new");
+            listener.onEmergencyChanged(delta);
+        }));
     }
 
     /**
@@ -233,6 +215,16 @@ public class RealTimeSyncService {
 
     public interface MessageSyncListener {
         void onNewMessagesReceived(List<CrossAppMessage> messages);
+
+        /**
+         * Called with what changed; override to skip building the full list
+         */
+        default void onMessagesChanged(MessageView.Delta delta) {
+            List<CrossAppMessage> messages = delta.getMessages();
+            if (!messages.isEmpty()) {
+                onNewMessagesReceived(messages);
+            }
+        }
     }
 
     public interface StudentStatusListener {
@@ -245,5 +237,15 @@ public class RealTimeSyncService {
 
     public interface EmergencyListener {
         void onEmergencyReceived(List<CrossAppMessage> emergencyMessages);
+
+        /**
+         * Called with what changed; override to skip building the full list
+         */
+        default void onEmergencyChanged(MessageView.Delta delta) {
+            List<CrossAppMessage> emergencyMessages = delta.getMessages();
+            if (!emergencyMessages.isEmpty()) {
+                onEmergencyReceived(emergencyMessages);
+            }
+        }
     }
 }
@@ -0,0 +1,128 @@
+package com.example.student.services;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.util.Log;
+
+import com.example.student.utils.Constants;
+import com.example.student.utils.RetentionPolicy;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Query;
+import com.google.firebase.firestore.WriteBatch;
+
+import java.util.Date;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Removes expired messages from this student's own inbox, one page at a time,
+ * so the inbox queries stay small between server-side cleanups.
+ * Only documents the student received are touched: the Firestore TTL policy on
+ * expiresAt (and the server job that archives expired emergencies first) owns
+ * analytics, channel messages, sent messages and the archive collections.
+ * Runs at most once per RETENTION_COMPACTION_INTERVAL on this device.
+ */
+public class RetentionCompactor {
+    private static final String TAG = "RetentionCompactor";
+    private static final String PREFS_NAME = "retention_prefs";
+    private static final String KEY_LAST_RUN = "last_compaction";
+    private static RetentionCompactor instance;
+
+    private FirebaseFirestore firestore;
+    private SharedPreferences preferences;
+    private boolean running;
+
+    private RetentionCompactor(Context context) {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.preferences = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+    }
+
+    public static synchronized RetentionCompactor getInstance(Context context) {
+        if (instance == null) {
+            instance = new RetentionCompactor(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Compact if the last run is older than RETENTION_COMPACTION_INTERVAL
+     */
+    public void compactIfDue(String studentId) {
+        long lastRun = preferences.getLong(KEY_LAST_RUN, 0);
+        if (System.currentTimeMillis() - lastRun < Constants.RETENTION_COMPACTION_INTERVAL) {
+            return;
+        }
+        compact(studentId).thenAccept(removed -> {
+            if (removed >= 0) {
+                preferences.edit().putLong(KEY_LAST_RUN, System.currentTimeMillis()).apply();
+            }
+        });
+    }
+
+    /**
+     * Remove the student's expired received messages now
+     * @return completes with the number of documents removed, or -1 if a page failed
+     */
+    public synchronized CompletableFuture<Integer> compact(String studentId) {
+        if (running || studentId == null || studentId.isEmpty()) {
+            return CompletableFuture.completedFuture(0);
+        }
+        running = true;
+
+        Query query = firestore.collection(Constants.COLLECTION_CROSS_APP_MESSAGES)
+                .whereEqualTo("receiverId", studentId)
+                .whereLessThan("expiresAt", new Date());
+        return drain(query, null, 0).whenComplete((removed, e) -> {
+            synchronized (this) {
+                running = false;
+            }
+            Log.d(TAG, "Compaction finished, removed " + removed + " expired documents");
+        });
+    }
+
+    /**
+     * Delete one page after {@code after} and continue with the next
+     */
+    private CompletableFuture<Integer> drain(Query query, DocumentSnapshot after, int removedSoFar) {
+        CompletableFuture<Integer> future = new CompletableFuture<>();
+        (after != null ? query.startAfter(after) : query)
+                .limit(Constants.RETENTION_PAGE_SIZE)
+                .get()
+                .addOnSuccessListener(page -> {
+                    if (page.isEmpty()) {
+                        future.complete(removedSoFar);
+                        return;
+                    }
+                    List<DocumentSnapshot> docs = page.getDocuments();
+                    WriteBatch batch = firestore.batch();
+                    int deleted = 0;
+                    for (DocumentSnapshot doc : docs) {
+                        // Emergencies are archived by the server before they go
+                        if (!RetentionPolicy.shouldArchive(doc.getString("messageType"))) {
+                            batch.delete(doc.getReference());
+                            deleted++;
+                        }
+                    }
+                    int removed = removedSoFar + deleted;
+                    DocumentSnapshot last = docs.get(docs.size() - 1);
+                    batch.commit()
+                            .addOnSuccessListener(aVoid -> {
+                                if (docs.size() < Constants.RETENTION_PAGE_SIZE) {
+                                    future.complete(removed);
+                                } else {
+                                    drain(query, last, removed).thenAccept(future::complete);
+                                }
+                            })
+                            .addOnFailureListener(e -> {
+                                Log.e(TAG, "Failed to remove expired page", e);
+                                future.complete(-1);
+                            });
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to query expired documents", e);
+                    future.complete(-1);
+                });
+        return future;
+    }
+}
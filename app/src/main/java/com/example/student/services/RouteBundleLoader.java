@@ -0,0 +1,367 @@
+package com.example.student.services;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.student.models.Bus;
+import com.example.student.models.Driver;
+import com.example.student.models.Route;
+import com.example.student.models.Student;
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.Source;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.BufferedInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.text.ParseException;
+import java.text.SimpleDateFormat;
+import java.util.Date;
+import java.util.Locale;
+import java.util.TimeZone;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.GZIPInputStream;
+
+import okhttp3.Call;
+import okhttp3.Callback;
+import okhttp3.OkHttpClient;
+import okhttp3.Request;
+import okhttp3.Response;
+import okhttp3.ResponseBody;
+
+/**
+ * Seeds the caches at login from one gzipped Firestore data bundle per route,
+ * holding the route with its stops, its schedules, its buses and their drivers.
+ * The bundle is downloaded at most once per BUNDLE_MAX_AGE and kept on disk;
+ * loading it fills the Firestore cache without billed reads, and the documents
+ * are then copied into LocalStore so the first sync of each scope is a delta.
+ */
+public class RouteBundleLoader {
+    private static final String TAG = "RouteBundleLoader";
+    private static final String DIRECTORY = "bundles";
+    private static RouteBundleLoader instance;
+
+    private FirebaseFirestore firestore;
+    private LocalSyncEngine localSync;
+    private OkHttpClient httpClient;
+    private Executor ioExecutor;
+    private File directory;
+
+    private RouteBundleLoader(Context context) {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.localSync = LocalSyncEngine.getInstance(context);
+        this.httpClient = new OkHttpClient.Builder()
+                .connectTimeout(Constants.CONNECT_TIMEOUT, TimeUnit.SECONDS)
+                .readTimeout(Constants.READ_TIMEOUT, TimeUnit.SECONDS)
+                .build();
+        // Bundle files are read on the download threads, never on the caller's (often main) thread
+        this.ioExecutor = httpClient.dispatcher().executorService();
+        this.directory = new File(context.getApplicationContext().getFilesDir(), DIRECTORY);
+    }
+
+    public static synchronized RouteBundleLoader getInstance(Context context) {
+        if (instance == null) {
+            instance = new RouteBundleLoader(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Fetch (if stale) and load the bundle of the student's route.
+     * Never fails; completes with false when there was nothing to load.
+     */
+    public CompletableFuture<Boolean> prefetch(Student student) {
+        String busId = student != null ? student.getAssignedBusId() : null;
+        if (!Constants.BUNDLE_PREFETCH_ENABLED || busId == null || busId.isEmpty()) {
+            return CompletableFuture.completedFuture(false);
+        }
+        // The route id comes from disk after the first login, so only a new device pays the bus read
+        return localSync.getDocument(Constants.COLLECTION_BUSES, busId, Bus.class)
+                .thenCompose(bus -> bus != null
+                        ? CompletableFuture.completedFuture(bus)
+                        : BusDirectory.getInstance().getBus(busId))
+                .thenComposeAsync(bus -> {
+                    if (bus == null || bus.getRouteId() == null) {
+                        return CompletableFuture.completedFuture(false);
+                    }
+                    String routeId = bus.getRouteId();
+                    return bundleFile(routeId)
+                            .thenCompose(file -> file != null
+                                    ? loadFromFile(file, routeId, busId)
+                                    : CompletableFuture.completedFuture(false));
+                }, ioExecutor)
+                .exceptionally(e -> {
+                    Log.e(TAG, "Prefetch failed", e);
+                    return false;
+                });
+    }
+
+    /**
+     * Load a bundle file, gzipped or plain, and seed LocalStore with the route's documents
+     */
+    public CompletableFuture<Boolean> loadFromFile(File file, String routeId, String busId) {
+        return CompletableFuture.supplyAsync(() -> BundleFile.read(file), ioExecutor)
+                .thenCompose(bundle -> bundle != null
+                        ? load(bundle, file, routeId, busId)
+                        : CompletableFuture.completedFuture(false));
+    }
+
+    private CompletableFuture<Boolean> load(BundleFile bundle, File file, String routeId, String busId) {
+        CompletableFuture<Boolean> future = new CompletableFuture<>();
+        InputStream input = bundle.input;
+        long builtAt = bundle.builtAt;
+        firestore.loadBundle(input)
+                .addOnSuccessListener(progress -> {
+                    closeQuietly(input);
+                    Log.d(TAG, "Loaded bundle for route " + routeId + ": " + progress.getDocumentsLoaded()
+                            + " documents, " + progress.getBytesLoaded() + " bytes");
+                    seedFromCache(routeId, busId, builtAt).thenAccept(future::complete);
+                })
+                .addOnFailureListener(e -> {
+                    closeQuietly(input);
+                    Log.e(TAG, "Failed to load bundle for route " + routeId, e);
+                    // A corrupt file must not be loaded again on the next login
+                    if (!file.delete()) {
+                        Log.w(TAG, "Could not delete bad bundle " + file.getName());
+                    }
+                    future.complete(false);
+                });
+        return future;
+    }
+
+    /**
+     * Copy the bundle's documents out of the Firestore cache; reading the cache costs nothing
+     */
+    private CompletableFuture<Boolean> seedFromCache(String routeId, String busId, long builtAt) {
+        CompletableFuture<Boolean> route = new CompletableFuture<>();
+        firestore.collection(Constants.COLLECTION_ROUTES).document(routeId)
+                .get(Source.CACHE)
+                .addOnSuccessListener(doc -> {
+                    cache(doc, Route.class);
+                    route.complete(doc.exists());
+                })
+                .addOnFailureListener(e -> route.complete(false));
+
+        CompletableFuture<Boolean> bus = new CompletableFuture<>();
+        firestore.collection(Constants.COLLECTION_BUSES).document(busId)
+                .get(Source.CACHE)
+                .addOnSuccessListener(doc -> {
+                    cache(doc, Bus.class);
+                    bus.complete(doc.exists());
+                })
+                .addOnFailureListener(e -> bus.complete(false));
+
+        CompletableFuture<Boolean> drivers = new CompletableFuture<>();
+        firestore.collection(Constants.COLLECTION_DRIVERS)
+                .whereEqualTo("assignedBusId", busId)
+                .get(Source.CACHE)
+                .addOnSuccessListener(snapshots -> {
+                    for (DocumentSnapshot doc : snapshots.getDocuments()) {
+                        cache(doc, Driver.class);
+                    }
+                    drivers.complete(true);
+                })
+                .addOnFailureListener(e -> drivers.complete(false));
+
+        CompletableFuture<Boolean> schedules = new CompletableFuture<>();
+        firestore.collection(Constants.COLLECTION_SCHEDULES)
+                .whereEqualTo("routeId", routeId)
+                .get(Source.CACHE)
+                .addOnSuccessListener(snapshots -> {
+                    localSync.seedSchedules(routeId, snapshots.getDocuments(), builtAt);
+                    schedules.complete(true);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to read bundled schedules", e);
+                    schedules.complete(false);
+                });
+
+        return CompletableFuture.allOf(route, bus, drivers, schedules)
+                .thenApply(done -> route.join() && bus.join() && schedules.join());
+    }
+
+    private void cache(DocumentSnapshot doc, Class<?> type) {
+        if (!doc.exists()) {
+            return;
+        }
+        Object model = doc.toObject(type);
+        if (model == null) {
+            return;
+        }
+        Date version = doc.getDate("updatedAt");
+        if (version == null) {
+            version = doc.getDate("lastUpdated");
+        }
+        localSync.cacheDocument(doc.getReference().getParent().getId(), doc.getId(), model, version);
+    }
+
+    /**
+     * The route's bundle on disk, downloaded first if missing or older than BUNDLE_MAX_AGE.
+     * Completes with a stale copy if the download fails, or null if there is none.
+     */
+    private CompletableFuture<File> bundleFile(String routeId) {
+        CompletableFuture<File> future = new CompletableFuture<>();
+        File file = new File(directory, "route_" + routeId + ".bundle");
+        if (file.exists() && System.currentTimeMillis() - file.lastModified() < Constants.BUNDLE_MAX_AGE) {
+            future.complete(file);
+            return future;
+        }
+
+        Request request = new Request.Builder()
+                .url(Constants.BUNDLE_BASE_URL + routeId)
+                .build();
+        httpClient.newCall(request).enqueue(new Callback() {
+            @Override
+            public void onResponse(Call call, Response response) {
+                try (ResponseBody body = response.body()) {
+                    if (!response.isSuccessful() || body == null) {
+                        Log.w(TAG, "Bundle download for route " + routeId + " returned " + response.code());
+                        future.complete(file.exists() ? file : null);
+                        return;
+                    }
+                    // Written beside the old copy and renamed, so a torn download is never loaded
+                    File partial = new File(directory, file.getName() + ".part");
+                    if (!directory.exists() && !directory.mkdirs()) {
+                        throw new IOException("Cannot create " + directory);
+                    }
+                    try (InputStream in = body.byteStream(); OutputStream out = new FileOutputStream(partial)) {
+                        byte[] buffer = new byte[8192];
+                        int read;
+                        while ((read = in.read(buffer)) != -1) {
+                            out.write(buffer, 0, read);
+                        }
+                    }
+                    if (!partial.renameTo(file)) {
+                        throw new IOException("Cannot replace " + file.getName());
+                    }
+                    Log.d(TAG, "Downloaded bundle for route " + routeId + ": " + file.length() + " bytes");
+                    future.complete(file);
+                } catch (IOException e) {
+                    Log.e(TAG, "Failed to save bundle for route " + routeId, e);
+                    future.complete(file.exists() ? file : null);
+                }
+            }
+
+            @Override
+            public void onFailure(Call call, IOException e) {
+                Log.w(TAG, "Bundle download for route " + routeId + " failed", e);
+                future.complete(file.exists() ? file : null);
+            }
+        });
+        return future;
+    }
+
+    /**
+     * When the server read the bundle's documents, from the createTime of its leading
+     * metadata element. The file's own timestamp is only the download time, which could
+     * skip the daily full sync over stale data; 0 if unknown, so the bundle seeds rows
+     * without counting as a full sync.
+     */
+    static long readBuildTime(File file) {
+        try (InputStream input = open(file)) {
+            // A bundle is a sequence of length-prefixed JSON elements, metadata first
+            int length = 0;
+            int c;
+            while ((c = input.read()) >= '0' && c <= '9') {
+                length = length * 10 + (c - '0');
+                if (length > 64 * 1024) {
+                    return 0;
+                }
+            }
+            if (c != '{' || length == 0) {
+                return 0;
+            }
+            byte[] element = new byte[length];
+            element[0] = '{';
+            int read = 1;
+            while (read < length) {
+                int n = input.read(element, read, length - read);
+                if (n < 0) {
+                    return 0;
+                }
+                read += n;
+            }
+            JsonObject metadata = JsonParser.parseString(new String(element, StandardCharsets.UTF_8))
+                    .getAsJsonObject().getAsJsonObject("metadata");
+            JsonElement createTime = metadata != null ? metadata.get("createTime") : null;
+            if (createTime == null) {
+                return 0;
+            }
+            if (createTime.isJsonObject()) {
+                JsonObject timestamp = createTime.getAsJsonObject();
+                long seconds = timestamp.get("seconds").getAsLong();
+                long nanos = timestamp.has("nanos") ? timestamp.get("nanos").getAsLong() : 0;
+                return seconds * 1000 + nanos / 1000000;
+            }
+            // RFC 3339, e.g. 2024-09-02T05:00:00.123456Z; whole seconds are enough here
+            SimpleDateFormat format = new SimpleDateFormat("yyyy-MM-dd'T'HH:mm:ss", Locale.US);
+            format.setTimeZone(TimeZone.getTimeZone("UTC"));
+            Date date = format.parse(createTime.getAsString());
+            return date != null ? date.getTime() : 0;
+        } catch (IOException | ParseException | RuntimeException e) {
+            Log.w(TAG, "No build time in bundle " + file.getName(), e);
+            return 0;
+        }
+    }
+
+    /**
+     * Bundles are stored as served; gzip is detected by its magic number
+     */
+    static InputStream open(File file) throws IOException {
+        BufferedInputStream input = new BufferedInputStream(new FileInputStream(file));
+        input.mark(2);
+        int first = input.read();
+        int second = input.read();
+        input.reset();
+        if (first == 0x1f && second == 0x8b) {
+            return new GZIPInputStream(input);
+        }
+        return input;
+    }
+
+    private static void closeQuietly(InputStream input) {
+        try {
+            input.close();
+        } catch (IOException e) {
+            Log.w(TAG, "Failed to close bundle", e);
+        }
+    }
+
+    /**
+     * An opened bundle file and its build time, ready for Firestore to read
+     */
+    static class BundleFile {
+        final InputStream input;
+        final long builtAt;
+
+        BundleFile(InputStream input, long builtAt) {
+            this.input = input;
+            this.builtAt = builtAt;
+        }
+
+        /**
+         * Open a bundle file; null if it cannot be read
+         */
+        static BundleFile read(File file) {
+            InputStream input;
+            try {
+                input = open(file);
+            } catch (IOException e) {
+                Log.e(TAG, "Cannot open bundle " + file.getName(), e);
+                return null;
+            }
+            return new BundleFile(input, readBuildTime(file));
+        }
+    }
+}
@@ -0,0 +1,111 @@
+package com.example.student.services;
+
+import android.content.Context;
+import android.util.Log;
+
+import com.example.student.models.BusStop;
+import com.example.student.models.Route;
+import com.example.student.utils.Constants;
+import com.example.student.utils.StopSpatialIndex;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Keeps a StopSpatialIndex current for check-in lookups.
+ * Route stops come from the route document listener and only the changed
+ * route is replaced in the index; the stops collection is loaded once.
+ */
+public class StopIndexService {
+    private static final String TAG = "StopIndexService";
+    private static final String SOURCE_ALL_STOPS = "stops";
+    private static StopIndexService instance;
+
+    private FirebaseFirestore firestore;
+    private CrossAppDataSyncService dataSyncService;
+    private volatile StopSpatialIndex index = StopSpatialIndex.empty();
+    private final Map<String, Date> routeVersions = new HashMap<>();
+    private final Set<String> indexedRoutes = new HashSet<>();
+    private boolean allStopsLoaded;
+
+    private StopIndexService(Context context) {
+        this.firestore = FirebaseFirestore.getInstance();
+        this.dataSyncService = CrossAppDataSyncService.getInstance(context);
+    }
+
+    public static synchronized StopIndexService getInstance(Context context) {
+        if (instance == null) {
+            instance = new StopIndexService(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Current immutable index; safe to query from any thread
+     */
+    public StopSpatialIndex getIndex() {
+        return index;
+    }
+
+    /**
+     * Index a route's stops and keep them current while the route changes
+     */
+    public synchronized void startRouteIndexing(String routeId) {
+        if (routeId == null || !indexedRoutes.add(routeId)) {
+            return;
+        }
+        dataSyncService.startRouteDataSync(routeId, route -> onRouteUpdated(routeId, route));
+    }
+
+    /**
+     * Load every stop in the stops collection into the index once
+     */
+    public synchronized void loadAllStops() {
+        if (allStopsLoaded) {
+            return;
+        }
+        allStopsLoaded = true;
+        firestore.collection(Constants.COLLECTION_STOPS)
+                .whereEqualTo("isActive", true)
+                .get()
+                .addOnSuccessListener(stopDocs -> {
+                    List<BusStop> stops = new ArrayList<>(stopDocs.size());
+                    for (DocumentSnapshot doc : stopDocs.getDocuments()) {
+                        BusStop stop = doc.toObject(BusStop.class);
+                        if (stop != null) {
+                            stops.add(stop);
+                        }
+                    }
+                    replaceSource(SOURCE_ALL_STOPS, stops);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Failed to load stops for index", e);
+                    synchronized (this) {
+                        allStopsLoaded = false;
+                    }
+                });
+    }
+
+    private synchronized void onRouteUpdated(String routeId, Route route) {
+        Date version = route.getUpdatedAt();
+        if (version != null && version.equals(routeVersions.get(routeId))) {
+            // Same route revision, nothing to rebuild
+            return;
+        }
+        routeVersions.put(routeId, version);
+        List<BusStop> stops = route.getStops() != null ? route.getStops() : new ArrayList<>();
+        replaceSource("route:" + routeId, stops);
+    }
+
+    private synchronized void replaceSource(String sourceId, List<BusStop> stops) {
+        index = index.withSource(sourceId, stops);
+        Log.d(TAG, "Stop index rebuilt for " + sourceId + ": " + index.size() + " stops");
+    }
+}
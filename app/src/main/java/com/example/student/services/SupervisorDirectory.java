@@ -0,0 +1,253 @@
+package com.example.student.services;
+
+import android.util.Log;
+
+import com.example.student.models.Supervisor;
+import com.example.student.utils.Constants;
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.Query;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * Local routing table of supervisors: routeId -> supervisors assigned to it,
+ * plus the roster of active supervisors. A single listener on the supervisors
+ * collection applies document changes as they happen, so fan-out resolves its
+ * recipients in memory instead of querying on every message. If the listener
+ * fails, lookups query Firestore directly until it is restarted on a later
+ * lookup, with a backoff between attempts.
+ */
+public class SupervisorDirectory {
+    private static final String TAG = "SupervisorDirectory";
+    private static SupervisorDirectory instance;
+
+    private FirebaseFirestore firestore;
+    private ListenerRegistration registration;
+
+    // Mutable state, guarded by this
+    private final Map<String, Supervisor> supervisors = new HashMap<>();
+    private final Map<String, Boolean> activeFlags = new HashMap<>();
+    private final List<Runnable> waiters = new ArrayList<>();
+    private boolean loaded;
+    private boolean failed;
+    private long failedAt;
+    private long retryDelay = Constants.SUPERVISOR_LISTENER_RETRY_DELAY;
+
+    // Read-only view rebuilt after every change
+    private volatile RoutingTable table = new RoutingTable(
+            Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList());
+
+    private SupervisorDirectory() {
+        this.firestore = FirebaseFirestore.getInstance();
+    }
+
+    public static synchronized SupervisorDirectory getInstance() {
+        if (instance == null) {
+            instance = new SupervisorDirectory();
+        }
+        return instance;
+    }
+
+    /**
+     * Supervisors assigned to a route
+     * @param activeOnly skip supervisors whose isActive flag is false
+     */
+    public CompletableFuture<List<Supervisor>> getSupervisorsForRoute(String routeId, boolean activeOnly) {
+        CompletableFuture<List<Supervisor>> future = new CompletableFuture<>();
+        whenLoaded(() -> {
+            RoutingTable current = table;
+            List<Supervisor> assigned = activeOnly
+                    ? current.activeByRoute.get(routeId)
+                    : current.byRoute.get(routeId);
+            future.complete(assigned != null ? assigned : Collections.emptyList());
+        }, () -> queryFallback(firestore.collection(Constants.COLLECTION_SUPERVISORS)
+                .whereArrayContains("assignedRoutes", routeId), activeOnly, future));
+        return future;
+    }
+
+    /**
+     * Every supervisor whose isActive flag is set
+     */
+    public CompletableFuture<List<Supervisor>> getActiveSupervisors() {
+        CompletableFuture<List<Supervisor>> future = new CompletableFuture<>();
+        whenLoaded(() -> future.complete(table.active), () -> queryFallback(
+                firestore.collection(Constants.COLLECTION_SUPERVISORS).whereEqualTo("isActive", true),
+                false, future));
+        return future;
+    }
+
+    /**
+     * Stop listening and forget the table; the next lookup starts over
+     */
+    public synchronized void stop() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        supervisors.clear();
+        activeFlags.clear();
+        loaded = false;
+        failed = false;
+        retryDelay = Constants.SUPERVISOR_LISTENER_RETRY_DELAY;
+        table = new RoutingTable(Collections.emptyMap(), Collections.emptyMap(), Collections.emptyList());
+    }
+
+    private void whenLoaded(Runnable fromTable, Runnable fallback) {
+        synchronized (this) {
+            if (failed && System.currentTimeMillis() - failedAt >= retryDelay) {
+                // Give the listener another go; lookups keep querying until it loads
+                Log.d(TAG, "Restarting supervisor listener after " + retryDelay + " ms");
+                retryDelay = Math.min(retryDelay * 2, Constants.SUPERVISOR_LISTENER_RETRY_MAX_DELAY);
+                failed = false;
+            }
+            if (registration == null && !failed) {
+                start();
+            }
+            if (failed) {
+                // No listener, go back to querying for this lookup
+                fallback.run();
+                return;
+            }
+            if (!loaded) {
+                waiters.add(() -> {
+                    if (failed) {
+                        fallback.run();
+                    } else {
+                        fromTable.run();
+                    }
+                });
+                return;
+            }
+        }
+        fromTable.run();
+    }
+
+    private void start() {
+        Log.d(TAG, "Starting supervisor routing table");
+        registration = firestore.collection(Constants.COLLECTION_SUPERVISORS)
+                .addSnapshotListener((snapshots, e) -> {
+                    List<Runnable> ready;
+                    synchronized (this) {
+                        if (e != null) {
+                            Log.e(TAG, "Supervisor listener failed, falling back to queries", e);
+                            failed = true;
+                            failedAt = System.currentTimeMillis();
+                            registration = null;
+                            // A restarted listener reports every document as added again
+                            supervisors.clear();
+                            activeFlags.clear();
+                            loaded = false;
+                        } else if (snapshots != null) {
+                            if (!snapshots.getMetadata().isFromCache()) {
+                                retryDelay = Constants.SUPERVISOR_LISTENER_RETRY_DELAY;
+                            }
+                            for (DocumentChange change : snapshots.getDocumentChanges()) {
+                                apply(change);
+                            }
+                            table = buildTable();
+                            loaded = true;
+                        }
+                        ready = new ArrayList<>(waiters);
+                        waiters.clear();
+                    }
+                    for (Runnable waiter : ready) {
+                        waiter.run();
+                    }
+                });
+    }
+
+    private void apply(DocumentChange change) {
+        DocumentSnapshot doc = change.getDocument();
+        String id = doc.getId();
+        if (change.getType() == DocumentChange.Type.REMOVED) {
+            supervisors.remove(id);
+            activeFlags.remove(id);
+            return;
+        }
+        Supervisor supervisor = doc.toObject(Supervisor.class);
+        if (supervisor == null) {
+            return;
+        }
+        supervisors.put(id, supervisor);
+        // Same field the queries filtered on
+        activeFlags.put(id, Boolean.TRUE.equals(doc.getBoolean("isActive")));
+    }
+
+    private RoutingTable buildTable() {
+        Map<String, List<Supervisor>> byRoute = new HashMap<>();
+        Map<String, List<Supervisor>> activeByRoute = new HashMap<>();
+        List<Supervisor> active = new ArrayList<>();
+        for (Map.Entry<String, Supervisor> entry : supervisors.entrySet()) {
+            Supervisor supervisor = entry.getValue();
+            boolean isActive = Boolean.TRUE.equals(activeFlags.get(entry.getKey()));
+            if (isActive) {
+                active.add(supervisor);
+            }
+            if (supervisor.getAssignedRoutes() == null) {
+                continue;
+            }
+            for (String routeId : supervisor.getAssignedRoutes()) {
+                addTo(byRoute, routeId, supervisor);
+                if (isActive) {
+                    addTo(activeByRoute, routeId, supervisor);
+                }
+            }
+        }
+        return new RoutingTable(freeze(byRoute), freeze(activeByRoute), Collections.unmodifiableList(active));
+    }
+
+    private static void addTo(Map<String, List<Supervisor>> map, String routeId, Supervisor supervisor) {
+        List<Supervisor> list = map.get(routeId);
+        if (list == null) {
+            list = new ArrayList<>();
+            map.put(routeId, list);
+        }
+        list.add(supervisor);
+    }
+
+    private static Map<String, List<Supervisor>> freeze(Map<String, List<Supervisor>> map) {
+        for (Map.Entry<String, List<Supervisor>> entry : map.entrySet()) {
+            entry.setValue(Collections.unmodifiableList(entry.getValue()));
+        }
+        return Collections.unmodifiableMap(map);
+    }
+
+    private void queryFallback(Query query, boolean activeOnly, CompletableFuture<List<Supervisor>> future) {
+        query.get()
+                .addOnSuccessListener(supervisorDocs -> {
+                    List<Supervisor> result = new ArrayList<>();
+                    for (DocumentSnapshot doc : supervisorDocs.getDocuments()) {
+                        Supervisor supervisor = doc.toObject(Supervisor.class);
+                        if (supervisor != null && (!activeOnly || Boolean.TRUE.equals(doc.getBoolean("isActive")))) {
+                            result.add(supervisor);
+                        }
+                    }
+                    future.complete(result);
+                })
+                .addOnFailureListener(e -> {
+                    Log.e(TAG, "Supervisor query failed", e);
+                    future.complete(new ArrayList<>());
+                });
+    }
+
+    private static class RoutingTable {
+        final Map<String, List<Supervisor>> byRoute;
+        final Map<String, List<Supervisor>> activeByRoute;
+        final List<Supervisor> active;
+
+        RoutingTable(Map<String, List<Supervisor>> byRoute, Map<String, List<Supervisor>> activeByRoute,
+                     List<Supervisor> active) {
+            this.byRoute = byRoute;
+            this.activeByRoute = activeByRoute;
+            this.active = active;
+        }
+    }
+}
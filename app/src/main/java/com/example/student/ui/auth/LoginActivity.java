@@ -2,6 +2,8 @@ package com.example.student.ui.auth;
 
 import android.content.Intent;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.text.TextUtils;
 import android.util.Patterns;
 import android.view.View;
@@ -18,6 +20,7 @@ import androidx.core.content.ContextCompat;
 
 import com.example.student.R;
 import com.example.student.services.AuthService;
+import com.example.student.services.RouteBundleLoader;
 import com.example.student.ui.MainActivity;
 import com.example.student.utils.Constants;
 
@@ -161,8 +164,7 @@ public class LoginActivity extends AppCompatActivity {
                         showProgress(false);
                         if (success) {
                             Toast.makeText(this, getString(R.string.login_success), Toast.LENGTH_SHORT).show();
-                            startActivity(new Intent(this, MainActivity.class));
-                            finish();
+                            openMainAfterPrefetch();
                         } else {
                             Toast.makeText(this, getString(R.string.login_failed), Toast.LENGTH_SHORT).show();
                         }
@@ -177,6 +179,28 @@ public class LoginActivity extends AppCompatActivity {
                 });
     }
 
+    /**
+     * Seed the caches from the route bundle before the main screen renders,
+     * but never hold the student at login longer than BUNDLE_PREFETCH_TIMEOUT
+     */
+    private void openMainAfterPrefetch() {
+        showProgress(true);
+        boolean[] opened = {false};
+        Runnable openMain = () -> {
+            if (opened[0] || isFinishing()) {
+                return;
+            }
+            opened[0] = true;
+            showProgress(false);
+            startActivity(new Intent(this, MainActivity.class));
+            finish();
+        };
+        new Handler(Looper.getMainLooper()).postDelayed(openMain, Constants.BUNDLE_PREFETCH_TIMEOUT);
+        RouteBundleLoader.getInstance(this)
+                .prefetch(authService.getCurrentStudent())
+                .thenAccept(loaded -> runOnUiThread(openMain));
+    }
+
     private void resetPassword(String email) {
         showProgress(true);
         
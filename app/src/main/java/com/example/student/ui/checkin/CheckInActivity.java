@@ -4,7 +4,9 @@ import android.Manifest;
 import android.content.Intent;
 import android.content.pm.PackageManager;
 import android.location.Location;
+import android.os.Build;
 import android.os.Bundle;
+import android.util.Log;
 import android.view.View;
 import android.widget.Button;
 import android.widget.TextView;
@@ -16,10 +18,20 @@ import androidx.core.app.ActivityCompat;
 import androidx.core.content.ContextCompat;
 
 import com.example.student.R;
+import com.example.student.models.BusStop;
+import com.example.student.models.Student;
 import com.example.student.models.Trip;
 import com.example.student.services.AuthService;
+import com.example.student.services.GeofenceCheckInService;
+import com.example.student.services.JournalReplayService;
+import com.example.student.services.LocationFilter;
 import com.example.student.services.LocationService;
+import com.example.student.services.LocationUiChannel;
+import com.example.student.services.StopIndexService;
 import com.example.student.utils.Constants;
+import com.example.student.utils.LocationJournal;
+import com.example.student.utils.StopSpatialIndex;
+import com.example.student.utils.TrajectorySimplifier;
 import com.example.student.ui.qr.QRScannerActivity;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
@@ -27,8 +39,10 @@ import com.google.android.gms.location.LocationServices;
 import java.text.SimpleDateFormat;
 import java.util.Date;
 import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 public class CheckInActivity extends AppCompatActivity {
+    private static final String TAG = "CheckInActivity";
     private static final int REQUEST_CODE_QR_SCAN = 1003;
     
     private TextView tvStatus, tvLocation, tvTime;
@@ -36,7 +50,6 @@ public class CheckInActivity extends AppCompatActivity {
     private View progressBar;
     
     private AuthService authService;
-    private LocationService locationService;
     private FusedLocationProviderClient fusedLocationClient;
     private Location currentLocation;
     private boolean isCheckedIn = false;
@@ -47,15 +60,21 @@ public class CheckInActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_checkin);
         
+        authService = AuthService.getInstance(this);
+        fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        
         initViews();
         setupClickListeners();
         checkLocationPermission();
-        
-        authService = AuthService.getInstance(this);
-        locationService = new LocationService(this);
-        fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
+        StopIndexService.getInstance(this).loadAllStops();
         
         updateUI();
+
+        // Filtered fixes from the location thread, delivered only while visible
+        LocationUiChannel.getInstance().getLocation().observe(this, location -> {
+            currentLocation = location;
+            updateLocationDisplay();
+        });
     }
 
     private void initViews() {
@@ -84,18 +103,41 @@ public class CheckInActivity extends AppCompatActivity {
                     Constants.REQUEST_CODE_LOCATION_PERMISSION);
         } else {
             getCurrentLocation();
+            enableAutoCheckIn();
         }
     }
 
+    /**
+     * Hand check-in to OS geofences; needs background location on Android 10+
+     */
+    private void enableAutoCheckIn() {
+        if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q
+                && ContextCompat.checkSelfPermission(this, Manifest.permission.ACCESS_BACKGROUND_LOCATION)
+                != PackageManager.PERMISSION_GRANTED) {
+            ActivityCompat.requestPermissions(this,
+                    new String[]{Manifest.permission.ACCESS_BACKGROUND_LOCATION},
+                    Constants.REQUEST_CODE_BACKGROUND_LOCATION_PERMISSION);
+            return;
+        }
+        GeofenceCheckInService.getInstance(this).startAutoCheckIn()
+                .thenAccept(enabled -> Log.d(TAG, "Auto check-in " + (enabled ? "enabled" : "unavailable")));
+    }
+
     @Override
     public void onRequestPermissionsResult(int requestCode, @NonNull String[] permissions, @NonNull int[] grantResults) {
         super.onRequestPermissionsResult(requestCode, permissions, grantResults);
         if (requestCode == Constants.REQUEST_CODE_LOCATION_PERMISSION) {
             if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
                 getCurrentLocation();
+                enableAutoCheckIn();
             } else {
                 Toast.makeText(this, getString(R.string.location_permission_required), Toast.LENGTH_LONG).show();
             }
+        } else if (requestCode == Constants.REQUEST_CODE_BACKGROUND_LOCATION_PERMISSION) {
+            if (grantResults.length > 0 && grantResults[0] == PackageManager.PERMISSION_GRANTED) {
+                enableAutoCheckIn();
+            }
+            // Without it check-in stays manual
         }
     }
 
@@ -104,9 +146,12 @@ public class CheckInActivity extends AppCompatActivity {
                 == PackageManager.PERMISSION_GRANTED) {
             fusedLocationClient.getLastLocation()
                     .addOnSuccessListener(this, location -> {
-                        if (location != null) {
+                        if (LocationFilter.isAccurateEnough(location)) {
                             currentLocation = location;
                             updateLocationDisplay();
+                        } else if (location != null) {
+                            tvLocation.setText(String.format(Locale.getDefault(),
+                                    "Waiting for accurate location (±%.0fm)", location.getAccuracy()));
                         }
                     });
         }
@@ -149,18 +194,31 @@ public class CheckInActivity extends AppCompatActivity {
             return;
         }
 
+        Student student = authService.getCurrentStudent();
+        String busId = student != null ? student.getAssignedBusId() : null;
+        if (busId == null || busId.isEmpty()) {
+            Toast.makeText(this, "No bus is assigned to your account", Toast.LENGTH_SHORT).show();
+            return;
+        }
+        // Only a check-in at a known stop is recorded; it becomes a real trip once replayed
+        String stopId = findCheckInStopId(currentLocation);
+        if (stopId == null) {
+            Toast.makeText(this, "No bus stop within " + Constants.CHECKIN_RADIUS + "m. Move closer and try again.",
+                    Toast.LENGTH_SHORT).show();
+            return;
+        }
+
         showProgress(true);
         
-        // Simulate check-in process
-        // In real implementation, this would save to Firebase
         currentTrip = new Trip(
                 "trip_" + System.currentTimeMillis(),
-                authService.getCurrentStudent().getStudentId(),
-                "bus001",
-                "stop001"
+                student.getStudentId(),
+                busId,
+                stopId
         );
         currentTrip.setCheckInTime(new Date());
         currentTrip.setCheckInLocation(currentLocation.getLatitude() + "," + currentLocation.getLongitude());
+        journalTrip(currentTrip, false, currentLocation);
         
         // Simulate API call delay
         new android.os.Handler().postDelayed(() -> {
@@ -171,6 +229,20 @@ public class CheckInActivity extends AppCompatActivity {
         }, 1000);
     }
 
+    /**
+     * Nearest indexed stop within the check-in radius, or null if there is none
+     */
+    private String findCheckInStopId(Location location) {
+        StopSpatialIndex index = StopIndexService.getInstance(this).getIndex();
+        int nearest = index.nearest(location.getLatitude(), location.getLongitude(), Constants.CHECKIN_RADIUS);
+        if (nearest < 0) {
+            Log.d(TAG, "No indexed stop within " + Constants.CHECKIN_RADIUS + "m of check-in");
+            return null;
+        }
+        BusStop stop = index.getStop(nearest);
+        return stop.getStopId();
+    }
+
     private void performCheckOut() {
         if (currentTrip == null) {
             Toast.makeText(this, "No active trip to check out", Toast.LENGTH_SHORT).show();
@@ -185,15 +257,63 @@ public class CheckInActivity extends AppCompatActivity {
             currentTrip.setCheckOutLocation(currentLocation.getLatitude() + "," + currentLocation.getLongitude());
         }
         currentTrip.setCompleted(true);
-        
-        // Simulate API call delay
-        new android.os.Handler().postDelayed(() -> {
-            isCheckedIn = false;
-            currentTrip = null;
-            updateUI();
-            showProgress(false);
-            Toast.makeText(this, getString(R.string.checkout_success), Toast.LENGTH_SHORT).show();
-        }, 1000);
+        Trip trip = currentTrip;
+        Location location = currentLocation != null ? new Location(currentLocation) : null;
+        // The trace is simplified first so the journaled check-out already carries it
+        simplifyTripTrace(trip).whenComplete((trace, throwable) -> runOnUiThread(() -> {
+            if (throwable != null) {
+                // The check-out matters more than its trace, journal it without one
+                Log.e(TAG, "Failed to simplify trip trace", throwable);
+            } else {
+                applyTripTrace(trip, trace);
+            }
+            journalTrip(trip, true, location);
+
+            // Simulate API call delay
+            new android.os.Handler().postDelayed(() -> {
+                isCheckedIn = false;
+                currentTrip = null;
+                updateUI();
+                showProgress(false);
+                Toast.makeText(this, getString(R.string.checkout_success), Toast.LENGTH_SHORT).show();
+            }, 1000);
+        }));
+    }
+
+    /**
+     * Record the check-in/out in the journal so it survives going offline
+     */
+    private void journalTrip(Trip trip, boolean checkOut, Location location) {
+        Date time = checkOut ? trip.getCheckOutTime() : trip.getCheckInTime();
+        LocationJournal.getInstance(this).appendCheckIn(
+                trip.getTripId(), trip.getStudentId(), trip.getBusId(), trip.getStopId(),
+                Constants.CHECKIN_TYPE_GPS, checkOut, time.getTime(),
+                location != null ? location.getLatitude() : 0,
+                location != null ? location.getLongitude() : 0,
+                trip.getEncodedPath(), trip.getRawPointCount(), trip.getPathPointCount());
+        JournalReplayService.getInstance(this).requestDrain();
+    }
+
+    /**
+     * Simplified track between check-in and check-out; completes off the main thread,
+     * with null if the location service is not recording
+     */
+    private CompletableFuture<TrajectorySimplifier.Result> simplifyTripTrace(Trip trip) {
+        if (trip.getCheckInTime() == null || trip.getCheckOutTime() == null) {
+            return CompletableFuture.completedFuture(null);
+        }
+        return LocationService.simplifyActiveTrack(trip.getCheckInTime().getTime(), trip.getCheckOutTime().getTime());
+    }
+
+    private void applyTripTrace(Trip trip, TrajectorySimplifier.Result trace) {
+        if (trace == null || trace.size() == 0) {
+            return;
+        }
+        trip.setEncodedPath(trace.toEncodedPolyline());
+        trip.setRawPointCount(trace.getInputCount());
+        trip.setPathPointCount(trace.size());
+        Log.d(TAG, "Trip trace compressed " + trace.getInputCount() + " -> " + trace.size()
+                + " points (" + trace.getCompressionRatio() + "x)");
     }
 
     private void startQRScanner() {
@@ -12,11 +12,14 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.student.R;
+import com.example.student.models.Student;
 import com.example.student.models.Trip;
 import com.example.student.services.AuthService;
+import com.example.student.services.LocalSyncEngine;
+import com.google.firebase.firestore.ListenerRegistration;
 
 import java.util.ArrayList;
-import java.util.Date;
+import java.util.Collections;
 import java.util.List;
 
 public class TripHistoryActivity extends AppCompatActivity {
@@ -27,18 +30,21 @@ public class TripHistoryActivity extends AppCompatActivity {
     private TripHistoryAdapter adapter;
     private List<Trip> tripList;
     private AuthService authService;
+    private LocalSyncEngine localSync;
+    private ListenerRegistration tripRegistration;
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_trip_history);
         
+        authService = AuthService.getInstance(this);
+        localSync = LocalSyncEngine.getInstance(this);
+        
         initViews();
         setupToolbar();
         setupRecyclerView();
         loadTripHistory();
-        
-        authService = AuthService.getInstance(this);
     }
 
     private void initViews() {
@@ -63,43 +69,29 @@ public class TripHistoryActivity extends AppCompatActivity {
     }
 
     private void loadTripHistory() {
-        // Simulate loading trip history
-        // In real implementation, this would fetch from Firebase
-        simulateTripHistory();
+        Student student = authService.getCurrentStudent();
+        if (student == null) {
+            updateNoHistoryVisibility();
+            return;
+        }
+
+        // Rendered from disk; the sync engine only fetches trips changed since the last visit
+        String studentId = student.getStudentId();
+        localSync.syncTrips(studentId);
+        tripRegistration = localSync.observe(LocalSyncEngine.tripScope(studentId), Trip.class, trips -> {
+            Collections.sort(trips, (a, b) -> Long.compare(startOf(b), startOf(a)));
+            tripList.clear();
+            tripList.addAll(trips);
+            adapter.notifyDataSetChanged();
+            updateNoHistoryVisibility();
+        });
     }
 
-    private void simulateTripHistory() {
-        tripList.clear();
-        
-        // Create mock trip history
-        Trip trip1 = new Trip(
-                "trip_001",
-                authService.getCurrentStudent().getStudentId(),
-                "bus_001",
-                "stop_001"
-        );
-        trip1.setCheckInTime(new Date(System.currentTimeMillis() - 86400000)); // 1 day ago
-        trip1.setCheckOutTime(new Date(System.currentTimeMillis() - 86400000 + 1800000)); // 30 minutes later
-        trip1.setCompleted(true);
-        trip1.setCheckInLocation("37.7749,-122.4194");
-        trip1.setCheckOutLocation("37.7849,-122.4094");
-        tripList.add(trip1);
-        
-        Trip trip2 = new Trip(
-                "trip_002",
-                authService.getCurrentStudent().getStudentId(),
-                "bus_001",
-                "stop_001"
-        );
-        trip2.setCheckInTime(new Date(System.currentTimeMillis() - 172800000)); // 2 days ago
-        trip2.setCheckOutTime(new Date(System.currentTimeMillis() - 172800000 + 1800000)); // 30 minutes later
-        trip2.setCompleted(true);
-        trip2.setCheckInLocation("37.7749,-122.4194");
-        trip2.setCheckOutLocation("37.7849,-122.4094");
-        tripList.add(trip2);
-        
-        adapter.notifyDataSetChanged();
-        updateNoHistoryVisibility();
+    private static long startOf(Trip trip) {
+        if (trip.getCheckInTime() != null) {
+            return trip.getCheckInTime().getTime();
+        }
+        return trip.getCreatedAt() != null ? trip.getCreatedAt().getTime() : 0;
     }
 
     private void updateNoHistoryVisibility() {
@@ -112,6 +104,14 @@ public class TripHistoryActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (tripRegistration != null) {
+            tripRegistration.remove();
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
@@ -19,8 +19,12 @@ import androidx.core.content.ContextCompat;
 import com.example.student.R;
 import com.example.student.models.Bus;
 import com.example.student.models.Route;
+import com.example.student.services.LocationFilter;
 import com.example.student.services.LocationService;
+import com.example.student.services.LocationUiChannel;
 import com.example.student.utils.Constants;
+import com.example.student.utils.FrameJankMonitor;
+import com.example.student.utils.LocationServiceManager;
 import com.google.android.gms.location.FusedLocationProviderClient;
 import com.google.android.gms.location.LocationServices;
 import com.google.android.gms.maps.CameraUpdateFactory;
@@ -39,7 +43,7 @@ import java.util.List;
 public class MapsActivity extends AppCompatActivity implements OnMapReadyCallback {
     private GoogleMap googleMap;
     private FusedLocationProviderClient fusedLocationClient;
-    private LocationService locationService;
+    private final FrameJankMonitor jankMonitor = new FrameJankMonitor("MapsActivity");
     
     private TextView tvBusInfo, tvEta, tvNextStop;
     private FloatingActionButton btnRefresh, btnCenterLocation;
@@ -50,6 +54,7 @@ public class MapsActivity extends AppCompatActivity implements OnMapReadyCallbac
     private Bus currentBus;
     private Route currentRoute;
     private LatLng userLocation;
+    private boolean startedLocationService; // true if this screen started it and must stop it
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
@@ -68,7 +73,12 @@ public class MapsActivity extends AppCompatActivity implements OnMapReadyCallbac
         }
         
         fusedLocationClient = LocationServices.getFusedLocationProviderClient(this);
-        locationService = new LocationService(this);
+
+        // Filtered fixes from the location thread, throttled and lifecycle-bound
+        LocationUiChannel.getInstance().getLocation().observe(this, location -> {
+            userLocation = new LatLng(location.getLatitude(), location.getLongitude());
+            updateUserLocationMarker();
+        });
     }
 
     private void initViews() {
@@ -131,7 +141,7 @@ public class MapsActivity extends AppCompatActivity implements OnMapReadyCallbac
                 == PackageManager.PERMISSION_GRANTED) {
             fusedLocationClient.getLastLocation()
                     .addOnSuccessListener(this, location -> {
-                        if (location != null) {
+                        if (LocationFilter.isAccurateEnough(location)) {
                             userLocation = new LatLng(location.getLatitude(), location.getLongitude());
                             updateUserLocationMarker();
                         }
@@ -141,8 +151,11 @@ public class MapsActivity extends AppCompatActivity implements OnMapReadyCallbac
 
     private void updateUserLocationMarker() {
         if (googleMap != null && userLocation != null) {
+            jankMonitor.sample();
             if (userMarker != null) {
-                userMarker.remove();
+                // Move the existing marker instead of re-adding it
+                userMarker.setPosition(userLocation);
+                return;
             }
             userMarker = googleMap.addMarker(new MarkerOptions()
                     .position(userLocation)
@@ -179,6 +192,7 @@ public class MapsActivity extends AppCompatActivity implements OnMapReadyCallbac
 
     private void updateMap() {
         if (googleMap == null || currentBus == null) return;
+        jankMonitor.sample();
         
         // Update bus marker
         if (busMarker != null) {
@@ -248,16 +262,21 @@ public class MapsActivity extends AppCompatActivity implements OnMapReadyCallbac
     @Override
     protected void onResume() {
         super.onResume();
-        if (locationService != null) {
-            locationService.startLocationUpdates();
+        jankMonitor.start(getWindowManager().getDefaultDisplay().getRefreshRate());
+        // Fixes are processed by the service on its own thread. Tracking started elsewhere,
+        // e.g. at boot, is left alone; otherwise it only runs while the map is visible.
+        if (!LocationService.isRunning()) {
+            startedLocationService = LocationServiceManager.startLocationService(this);
         }
     }
 
     @Override
     protected void onPause() {
         super.onPause();
-        if (locationService != null) {
-            locationService.stopLocationUpdates();
+        jankMonitor.stop();
+        if (startedLocationService) {
+            LocationServiceManager.stopLocationService(this);
+            startedLocationService = false;
         }
     }
 }
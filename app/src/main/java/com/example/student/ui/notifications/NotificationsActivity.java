@@ -12,11 +12,19 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.student.R;
+import com.example.student.models.CrossAppMessage;
 import com.example.student.models.Notification;
+import com.example.student.models.Student;
 import com.example.student.services.AuthService;
+import com.example.student.services.CrossAppIntegrationService;
+import com.example.student.services.LocalSyncEngine;
+import com.example.student.services.MessageHistoryPager;
+import com.example.student.utils.Constants;
 
 import java.util.ArrayList;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 
 public class NotificationsActivity extends AppCompatActivity {
     private RecyclerView rvNotifications;
@@ -24,20 +32,26 @@ public class NotificationsActivity extends AppCompatActivity {
     private Toolbar toolbar;
     
     private NotificationsAdapter adapter;
+    private LinearLayoutManager layoutManager;
     private List<Notification> notificationList;
     private AuthService authService;
+    private MessageHistoryPager historyPager;
+    private LocalSyncEngine localSync;
+    private boolean headLoaded;
+    private int headSize; // leading rows that belong to the live newest page
 
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_notifications);
         
+        authService = AuthService.getInstance(this);
+        localSync = LocalSyncEngine.getInstance(this);
+        
         initViews();
         setupToolbar();
         setupRecyclerView();
         loadNotifications();
-        
-        authService = AuthService.getInstance(this);
     }
 
     private void initViews() {
@@ -57,42 +71,105 @@ public class NotificationsActivity extends AppCompatActivity {
     private void setupRecyclerView() {
         notificationList = new ArrayList<>();
         adapter = new NotificationsAdapter(notificationList);
-        rvNotifications.setLayoutManager(new LinearLayoutManager(this));
+        layoutManager = new LinearLayoutManager(this);
+        rvNotifications.setLayoutManager(layoutManager);
         rvNotifications.setAdapter(adapter);
+        rvNotifications.addOnScrollListener(new RecyclerView.OnScrollListener() {
+            @Override
+            public void onScrolled(@NonNull RecyclerView recyclerView, int dx, int dy) {
+                if (dy > 0) {
+                    prefetchIfNearEnd();
+                }
+            }
+        });
     }
 
     private void loadNotifications() {
-        // Simulate loading notifications
-        // In real implementation, this would fetch from Firebase
-        simulateNotifications();
+        Student student = authService.getCurrentStudent();
+        if (student == null) {
+            updateNoNotificationsVisibility();
+            return;
+        }
+
+        // The newest page last seen is shown from disk until the live one arrives
+        String inboxScope = LocalSyncEngine.inboxScope(student.getStudentId());
+        localSync.load(inboxScope, CrossAppMessage.class).thenAccept(cached -> {
+            if (!headLoaded && !isDestroyed()) {
+                replaceHead(cached);
+            }
+        });
+
+        // Only the newest page is loaded up front; older pages follow the scroll position
+        historyPager = new MessageHistoryPager(student.getStudentId(),
+                CrossAppIntegrationService.USER_TYPE_STUDENT, new MessageHistoryPager.PageListener() {
+            @Override
+            public void onHeadChanged(List<CrossAppMessage> head, boolean hasMore) {
+                headLoaded = true;
+                replaceHead(head);
+                Map<String, CrossAppMessage> byId = new LinkedHashMap<>();
+                for (CrossAppMessage message : head) {
+                    byId.put(message.getMessageId(), message);
+                }
+                localSync.cacheScope(Constants.COLLECTION_CROSS_APP_MESSAGES, inboxScope, byId,
+                        CrossAppMessage::getTimestamp);
+            }
+
+            @Override
+            public void onPageLoaded(List<CrossAppMessage> page, boolean hasMore) {
+                int start = notificationList.size();
+                for (CrossAppMessage message : page) {
+                    notificationList.add(toNotification(message));
+                }
+                adapter.notifyItemRangeInserted(start, page.size());
+                updateNoNotificationsVisibility();
+                prefetchIfNearEnd();
+            }
+        });
+        historyPager.start();
     }
 
-    private void simulateNotifications() {
-        notificationList.clear();
-        
-        // Create mock notifications
-        Notification notification1 = new Notification(
-                "notif_001",
-                authService.getCurrentStudent().getStudentId(),
-                "Bus Arrival",
-                "Your bus will arrive in 5 minutes",
-                Notification.TYPE_BUS_ARRIVAL
-        );
-        notification1.setCreatedAt(new java.util.Date(System.currentTimeMillis() - 3600000)); // 1 hour ago
-        notificationList.add(notification1);
-        
-        Notification notification2 = new Notification(
-                "notif_002",
-                authService.getCurrentStudent().getStudentId(),
-                "Schedule Change",
-                "Bus pickup time changed to 7:45 AM",
-                Notification.TYPE_SCHEDULE_CHANGE
-        );
-        notification2.setCreatedAt(new java.util.Date(System.currentTimeMillis() - 7200000)); // 2 hours ago
-        notificationList.add(notification2);
-        
-        adapter.notifyDataSetChanged();
+    private void replaceHead(List<CrossAppMessage> head) {
+        int oldSize = headSize;
+        notificationList.subList(0, oldSize).clear();
+        List<Notification> rows = new ArrayList<>(head.size());
+        for (CrossAppMessage message : head) {
+            rows.add(toNotification(message));
+        }
+        notificationList.addAll(0, rows);
+        headSize = rows.size();
+
+        int common = Math.min(oldSize, headSize);
+        adapter.notifyItemRangeChanged(0, common);
+        if (headSize > oldSize) {
+            adapter.notifyItemRangeInserted(common, headSize - oldSize);
+        } else if (oldSize > headSize) {
+            adapter.notifyItemRangeRemoved(common, oldSize - headSize);
+        }
         updateNoNotificationsVisibility();
+        prefetchIfNearEnd();
+    }
+
+    private void prefetchIfNearEnd() {
+        if (historyPager == null || !historyPager.hasMore()) {
+            return;
+        }
+        int lastVisible = layoutManager.findLastVisibleItemPosition();
+        if (lastVisible >= adapter.getItemCount() - Constants.HISTORY_PREFETCH_DISTANCE) {
+            historyPager.loadNextPage();
+        }
+    }
+
+    private Notification toNotification(CrossAppMessage message) {
+        Notification notification = new Notification(
+                message.getMessageId(),
+                message.getReceiverId(),
+                message.getTitle(),
+                message.getContent(),
+                message.getMessageType()
+        );
+        notification.setCreatedAt(message.getTimestamp());
+        notification.setRead(message.isRead());
+        return notification;
     }
 
     private void updateNoNotificationsVisibility() {
@@ -105,6 +182,14 @@ public class NotificationsActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (historyPager != null) {
+            historyPager.stop();
+        }
+    }
+
     @Override
     public boolean onOptionsItemSelected(@NonNull MenuItem item) {
         if (item.getItemId() == android.R.id.home) {
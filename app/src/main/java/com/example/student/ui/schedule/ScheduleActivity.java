@@ -9,16 +9,22 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import com.example.student.R;
+import com.example.student.models.Bus;
 import com.example.student.models.Schedule;
+import com.example.student.models.Student;
 import com.example.student.services.AuthService;
+import com.example.student.services.BusDirectory;
+import com.example.student.services.LocalSyncEngine;
+import com.example.student.utils.Constants;
 import com.google.android.material.tabs.TabLayout;
+import com.google.firebase.firestore.ListenerRegistration;
 
-import java.text.SimpleDateFormat;
 import java.util.ArrayList;
 import java.util.Calendar;
+import java.util.Collections;
 import java.util.Date;
 import java.util.List;
-import java.util.Locale;
+import java.util.concurrent.CompletableFuture;
 
 public class ScheduleActivity extends AppCompatActivity {
     private TabLayout tabLayout;
@@ -27,6 +33,8 @@ public class ScheduleActivity extends AppCompatActivity {
     private View progressBar;
     
     private AuthService authService;
+    private LocalSyncEngine localSync;
+    private ListenerRegistration scheduleRegistration;
     private ScheduleAdapter scheduleAdapter;
     private List<Schedule> scheduleList;
 
@@ -35,12 +43,13 @@ public class ScheduleActivity extends AppCompatActivity {
         super.onCreate(savedInstanceState);
         setContentView(R.layout.activity_schedule);
         
+        authService = AuthService.getInstance(this);
+        localSync = LocalSyncEngine.getInstance(this);
+        
         initViews();
         setupTabs();
         setupRecyclerView();
         loadScheduleData();
-        
-        authService = AuthService.getInstance(this);
     }
 
     private void initViews() {
@@ -88,55 +97,69 @@ public class ScheduleActivity extends AppCompatActivity {
     }
 
     private void loadScheduleData() {
+        Student student = authService.getCurrentStudent();
+        String busId = student != null ? student.getAssignedBusId() : null;
+        if (busId == null || busId.isEmpty()) {
+            updateNoScheduleVisibility();
+            return;
+        }
         showProgress(true);
-        
-        // Simulate loading schedule data
-        // In real implementation, this would fetch from Firebase
-        simulateScheduleData();
+
+        // The bus, and so the route, comes from disk too; the network is only asked on first use
+        localSync.getDocument(Constants.COLLECTION_BUSES, busId, Bus.class)
+                .thenCompose(bus -> bus != null
+                        ? CompletableFuture.completedFuture(bus)
+                        : BusDirectory.getInstance().getBus(busId))
+                .thenAccept(bus -> runOnUiThread(() -> {
+                    if (isDestroyed()) {
+                        return;
+                    }
+                    if (bus == null || bus.getRouteId() == null) {
+                        showProgress(false);
+                        updateNoScheduleVisibility();
+                        return;
+                    }
+                    observeSchedules(bus.getRouteId());
+                }));
     }
 
-    private void simulateScheduleData() {
-        scheduleList.clear();
-        
-        // Create mock schedule data
+    private void observeSchedules(String routeId) {
+        localSync.syncSchedules(routeId);
+        scheduleRegistration = localSync.observe(LocalSyncEngine.scheduleScope(routeId), Schedule.class,
+                schedules -> {
+                    scheduleList.clear();
+                    for (Schedule schedule : schedules) {
+                        if (schedule.isActive()) {
+                            scheduleList.add(schedule);
+                        }
+                    }
+                    Collections.sort(scheduleList, (a, b) -> Long.compare(timeOfDay(a), timeOfDay(b)));
+                    showProgress(false);
+                    showSelectedTab();
+                });
+    }
+
+    private static long timeOfDay(Schedule schedule) {
+        if (schedule.getPickupTime() == null) {
+            return Long.MAX_VALUE;
+        }
         Calendar calendar = Calendar.getInstance();
-        Date today = calendar.getTime();
-        
-        // Morning pickup
-        calendar.set(Calendar.HOUR_OF_DAY, 7);
-        calendar.set(Calendar.MINUTE, 30);
-        Date morningPickup = calendar.getTime();
-        
-        // Afternoon dropoff
-        calendar.set(Calendar.HOUR_OF_DAY, 15);
-        calendar.set(Calendar.MINUTE, 45);
-        Date afternoonDropoff = calendar.getTime();
-        
-        Schedule morningSchedule = new Schedule(
-                "schedule_001",
-                "route_001",
-                "stop_001",
-                "monday",
-                morningPickup,
-                afternoonDropoff
-        );
-        morningSchedule.setNotes("Regular pickup time");
-        scheduleList.add(morningSchedule);
-        
-        Schedule afternoonSchedule = new Schedule(
-                "schedule_002",
-                "route_001",
-                "stop_001",
-                "monday",
-                afternoonDropoff,
-                morningPickup
-        );
-        afternoonSchedule.setNotes("Regular dropoff time");
-        scheduleList.add(afternoonSchedule);
-        
-        scheduleAdapter.notifyDataSetChanged();
-        showProgress(false);
-        updateNoScheduleVisibility();
+        calendar.setTime(schedule.getPickupTime());
+        return calendar.get(Calendar.HOUR_OF_DAY) * 60L + calendar.get(Calendar.MINUTE);
+    }
+
+    private void showSelectedTab() {
+        switch (tabLayout.getSelectedTabPosition()) {
+            case 1:
+                loadTomorrowSchedule();
+                break;
+            case 2:
+                loadWeeklySchedule();
+                break;
+            default:
+                loadTodaySchedule();
+                break;
+        }
     }
 
     private void loadTodaySchedule() {
@@ -145,7 +168,7 @@ public class ScheduleActivity extends AppCompatActivity {
         String today = getDayOfWeek(new Date());
         
         for (Schedule schedule : scheduleList) {
-            if (schedule.getDayOfWeek().equals(today)) {
+            if (today.equals(schedule.getDayOfWeek())) {
                 todaySchedule.add(schedule);
             }
         }
@@ -162,7 +185,7 @@ public class ScheduleActivity extends AppCompatActivity {
         
         List<Schedule> tomorrowSchedule = new ArrayList<>();
         for (Schedule schedule : scheduleList) {
-            if (schedule.getDayOfWeek().equals(tomorrow)) {
+            if (tomorrow.equals(schedule.getDayOfWeek())) {
                 tomorrowSchedule.add(schedule);
             }
         }
@@ -215,5 +238,13 @@ public class ScheduleActivity extends AppCompatActivity {
     private void showProgress(boolean show) {
         progressBar.setVisibility(show ? View.VISIBLE : View.GONE);
     }
+
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        if (scheduleRegistration != null) {
+            scheduleRegistration.remove();
+        }
+    }
 }
 
@@ -13,6 +13,12 @@ public class Constants {
     public static final String COLLECTION_DRIVERS = "drivers";
     public static final String COLLECTION_SUPERVISORS = "supervisors";
     public static final String COLLECTION_CROSS_APP_MESSAGES = "cross_app_messages";
+    public static final String COLLECTION_STUDENT_LOCATIONS = "student_locations";
+    public static final String COLLECTION_TRACKS = "tracks";
+    public static final String COLLECTION_CROSS_APP_CHANNELS = "cross_app_channels";
+    public static final String COLLECTION_CHANNEL_MESSAGES = "messages";
+    public static final String COLLECTION_ANALYTICS = "analytics";
+    public static final String COLLECTION_LOCATION_RELAYS = "location_relays";
 
     // SharedPreferences Keys
     public static final String PREF_USER_ID = "user_id";
@@ -30,6 +36,117 @@ public class Constants {
     public static final float LOCATION_ACCURACY_THRESHOLD = 50.0f; // 50 meters
     public static final int CHECKIN_RADIUS = 100; // 100 meters
 
+    public static final long LOCATION_UI_THROTTLE = 1000; // at most one UI update per second
+
+    // Location Filter Constants
+    public static final long LOCATION_FILTER_RESET_GAP = 120000; // 2 minutes without fixes
+    public static final float LOCATION_FILTER_MAX_SPEED = 40.0f; // m/s, well above bus speeds
+    public static final float LOCATION_FILTER_ACCEL_NOISE = 2.0f; // m/s^2
+    public static final int LOCATION_FILTER_MAX_REJECTS = 5;
+
+    // Adaptive Sampling Constants
+    public static final long SAMPLING_DORMANT_INTERVAL = 900000; // 15 minutes
+    public static final long SAMPLING_IDLE_INTERVAL = 120000; // 2 minutes
+    public static final long SAMPLING_APPROACH_INTERVAL = 30000; // 30 seconds
+    public static final long SAMPLING_WINDOW_BEFORE = 1200000; // 20 minutes before pickup
+    public static final long SAMPLING_WINDOW_AFTER = 900000; // 15 minutes after pickup
+    public static final float SAMPLING_NEAR_STOP_DISTANCE = 1000.0f; // 1 km
+    public static final float SAMPLING_MOVING_SPEED = 1.5f; // m/s
+    public static final float SAMPLING_STATIONARY_SPEED = 0.5f; // m/s
+    public static final float SAMPLING_MOVING_DISPLACEMENT = 50.0f; // meters
+    public static final int SAMPLING_MOVING_FIXES = 2;
+    public static final int SAMPLING_STATIONARY_FIXES = 3;
+
+    // Frame Monitoring Constants
+    public static final long FRAME_SAMPLE_WINDOW = 1500; // milliseconds of frames sampled after a map update
+
+    // Track Recording Constants
+    public static final int TRACK_BUFFER_CAPACITY = 43200; // 12 hours at 1 Hz
+    public static final float TRACK_SIMPLIFY_TOLERANCE = 15.0f; // meters
+    public static final float TRACK_SIMPLIFY_SPEED_TOLERANCE = 5.0f; // m/s
+    public static final int TRACK_SIMPLIFY_MAX_WINDOW = 256;
+
+    // Stop Index Constants
+    public static final double STOP_INDEX_CELL_SIZE = 250.0; // meters
+
+    // Geofence Check-in Constants
+    public static final int GEOFENCE_LOITERING_DELAY = 60000; // 1 minute at the stop
+    public static final int GEOFENCE_RESPONSIVENESS = 60000; // 1 minute, lets the OS batch wakeups
+    public static final long GEOFENCE_RECEIVER_TIMEOUT = 8000; // milliseconds, under the 10 s broadcast ANR limit
+    public static final long GEOFENCE_TRIP_WINDOW = 5400000; // 90 minutes from boarding to leaving the bus
+
+    // Location Relay Constants
+    public static final boolean LOCATION_RELAY_ENABLED = true;
+    public static final long LOCATION_RELAY_MIN_INTERVAL = 30000; // 30 seconds per bus
+    public static final long LOCATION_RELAY_MAX_SILENCE = 300000; // 5 minutes
+    public static final long LOCATION_RELAY_LEASE = 120000; // 2 minutes a relayer holds a bus without renewing
+    public static final float LOCATION_RELAY_MIN_DISTANCE = 50f; // meters
+    public static final float LOCATION_RELAY_MIN_HEADING = 30f; // degrees
+
+    // Cross-App Channel Constants
+    public static final boolean CROSS_APP_CHANNEL_DELIVERY = false; // enable once the driver and supervisor apps read channels
+    public static final int CROSS_APP_MESSAGE_LIMIT = 50;
+
+    // Outbound Scheduler Constants
+    public static final int OUTBOUND_MAX_IN_FLIGHT = 4; // non-urgent writes handed to Firestore at once
+    public static final int OUTBOUND_MAX_QUEUED = 200; // queued writes before lower-priority writes are dropped
+    public static final long OUTBOUND_SLOT_TIMEOUT = 5000; // milliseconds a dispatched write holds its slot without an ack
+
+    // Message Retry Constants
+    public static final int MESSAGE_RETRY_MAX = 3; // retries after the first attempt
+    public static final long MESSAGE_RETRY_BASE_DELAY = 1000; // milliseconds, doubled per retry
+    public static final long MESSAGE_QUEUED_TIMEOUT = 5000; // milliseconds without an ack before a write counts as queued
+
+    // Read Receipt Constants
+    public static final long READ_RECEIPT_DEBOUNCE = 500; // milliseconds receipts are collected before a batch
+    public static final long READ_RECEIPT_RECEIVER_TIMEOUT = 8000; // milliseconds, under the 10 s broadcast ANR limit
+
+    // Retention Constants
+    public static final long TTL_LOCATION_UPDATE = 6 * 60 * 60 * 1000L; // 6 hours
+    public static final long TTL_STATUS_UPDATE = 24 * 60 * 60 * 1000L; // 1 day
+    public static final long TTL_CHECKIN = 7 * 24 * 60 * 60 * 1000L; // 7 days
+    public static final long TTL_DEFAULT_MESSAGE = 30 * 24 * 60 * 60 * 1000L; // 30 days
+    public static final long TTL_EMERGENCY = 365 * 24 * 60 * 60 * 1000L; // 1 year, archived on expiry
+    public static final long TTL_ANALYTICS = 90 * 24 * 60 * 60 * 1000L; // 90 days
+    public static final long INBOX_SYNC_WINDOW = 30 * 24 * 60 * 60 * 1000L; // oldest message a client query reads
+    public static final long RETENTION_COMPACTION_INTERVAL = 24 * 60 * 60 * 1000L; // 1 day
+    public static final int RETENTION_PAGE_SIZE = 200; // expired documents per delete batch
+
+    // Message History Constants
+    public static final int HISTORY_PAGE_SIZE = 20;
+    public static final int HISTORY_PREFETCH_DISTANCE = 5; // rows from the end that trigger the next page
+
+    // Local Sync Constants
+    public static final long SYNC_DELTA_OVERLAP = 5 * 60 * 1000L; // re-read before the high-water mark, covers writer clock skew
+    public static final long SYNC_FULL_RECONCILE_INTERVAL = 24 * 60 * 60 * 1000L; // full read that also drops deleted documents
+
+    // Cross-App Fan-out Constants
+    public static final int FANOUT_BATCH_SIZE = 450; // writes per WriteBatch, below the 500 limit
+
+    // Bus Directory Constants
+    public static final long BUS_DIRECTORY_TTL = 300000; // 5 minutes for entries without a live listener
+
+    // Driver Directory Constants
+    public static final long DRIVER_DIRECTORY_TTL = 300000; // 5 minutes for entries without a live listener
+
+    // Supervisor Directory Constants
+    public static final long SUPERVISOR_LISTENER_RETRY_DELAY = 5000; // milliseconds, doubled per failed restart
+    public static final long SUPERVISOR_LISTENER_RETRY_MAX_DELAY = 300000; // 5 minutes
+
+    // Location Journal Constants
+    public static final long JOURNAL_MAX_BYTES = 4 * 1024 * 1024; // 4 MB, about a week of offline fixes
+    public static final long JOURNAL_WRITE_DELAY = 1000; // 1 second
+    public static final long JOURNAL_SYNC_INTERVAL = 10000; // 10 seconds
+    public static final int JOURNAL_REPLAY_BATCH = 400; // records per WriteBatch, below the 500 limit
+    public static final int JOURNAL_CHUNK_SPAN = 100; // sequence numbers per replayed track chunk
+
+    // Location Upload Constants
+    public static final int LOCATION_UPLOAD_QUEUE_CAPACITY = 240;
+    public static final int LOCATION_UPLOAD_MAX_BATCH_SIZE = 20;
+    public static final long LOCATION_UPLOAD_MAX_BATCH_AGE = 60000; // 1 minute
+    public static final long LOCATION_UPLOAD_COALESCE_WINDOW = 15000; // 15 seconds
+    public static final long LOCATION_UPLOAD_SHUTDOWN_TIMEOUT = 10000; // milliseconds the final commit may hold the thread
+
     // Notification Constants
     public static final int NOTIFICATION_ID_BUS_TRACKING = 1001;
     public static final int NOTIFICATION_ID_ARRIVAL = 1002;
@@ -41,6 +158,7 @@ public class Constants {
     public static final int REQUEST_CODE_CAMERA_PERMISSION = 101;
     public static final int REQUEST_CODE_BIOMETRIC_AUTH = 102;
     public static final int REQUEST_CODE_QR_SCAN = 103;
+    public static final int REQUEST_CODE_BACKGROUND_LOCATION_PERMISSION = 104;
 
     // API Constants
     public static final String BASE_URL = "https://your-api-endpoint.com/api/";
@@ -48,6 +166,12 @@ public class Constants {
     public static final int READ_TIMEOUT = 30;
     public static final int WRITE_TIMEOUT = 30;
 
+    // Prefetch Bundle Constants
+    public static final boolean BUNDLE_PREFETCH_ENABLED = false; // enable once BASE_URL points at a real bundle server
+    public static final String BUNDLE_BASE_URL = BASE_URL + "bundles/routes/"; // + routeId, gzipped Firestore bundle
+    public static final long BUNDLE_MAX_AGE = 6 * 60 * 60 * 1000L; // 6 hours before a bundle is downloaded again
+    public static final long BUNDLE_PREFETCH_TIMEOUT = 3000; // milliseconds login waits before opening the main screen anyway
+
     // Map Constants
     public static final double DEFAULT_LATITUDE = 37.7749;
     public static final double DEFAULT_LONGITUDE = -122.4194;
@@ -64,6 +188,8 @@ public class Constants {
     public static final String CHECKIN_TYPE_GPS = "gps";
     public static final String CHECKIN_TYPE_QR = "qr";
     public static final String CHECKIN_TYPE_MANUAL = "manual";
+    public static final String CHECKIN_TYPE_GEOFENCE = "geofence";
+    public static final String CHECKOUT_TYPE_GEOFENCE = "geofence_checkout";
 
     // Error Codes
     public static final int ERROR_NETWORK = 1001;
@@ -0,0 +1,128 @@
+package com.example.student.utils;
+
+import android.util.Log;
+import android.view.Choreographer;
+
+import java.util.Locale;
+
+/**
+ * Counts rendered and janky frames on the main thread via Choreographer.
+ * A frame is janky when it takes longer than one and a half vsync intervals
+ * of the display it is shown on. Frames are only sampled for
+ * FRAME_SAMPLE_WINDOW after each sample() call, e.g. around map updates, so
+ * an idle screen is not woken up on every vsync.
+ */
+public class FrameJankMonitor implements Choreographer.FrameCallback {
+    private static final String TAG = "FrameJankMonitor";
+    private static final float DEFAULT_REFRESH_RATE = 60f; // Hz
+
+    private final String name;
+    private boolean running;
+    private boolean posted;
+    private long frameIntervalNanos;
+    private long jankThresholdNanos;
+    private long sampleUntilNanos;
+    private long lastFrameNanos;
+    private long frameCount;
+    private long jankCount;
+    private long maxFrameNanos;
+    private long totalFrameNanos;
+
+    public FrameJankMonitor(String name) {
+        this.name = name;
+    }
+
+    /**
+     * Start counting; must be called on the main thread
+     * @param refreshRate refresh rate of the window's display in Hz
+     */
+    public void start(float refreshRate) {
+        if (running) {
+            return;
+        }
+        running = true;
+        frameIntervalNanos = (long) (1_000_000_000L / (refreshRate > 0 ? refreshRate : DEFAULT_REFRESH_RATE));
+        jankThresholdNanos = frameIntervalNanos * 3 / 2;
+        lastFrameNanos = 0;
+        frameCount = 0;
+        jankCount = 0;
+        maxFrameNanos = 0;
+        totalFrameNanos = 0;
+    }
+
+    /**
+     * Sample the frames of the next FRAME_SAMPLE_WINDOW; must be called on the main thread
+     */
+    public void sample() {
+        if (!running) {
+            return;
+        }
+        sampleUntilNanos = System.nanoTime() + Constants.FRAME_SAMPLE_WINDOW * 1_000_000L;
+        if (!posted) {
+            posted = true;
+            lastFrameNanos = 0;
+            Choreographer.getInstance().postFrameCallback(this);
+        }
+    }
+
+    /**
+     * Stop counting and log the summary; must be called on the main thread
+     */
+    public void stop() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        posted = false;
+        Choreographer.getInstance().removeFrameCallback(this);
+        Log.i(TAG, name + ": " + frameCount + " frames, " + jankCount + " janky ("
+                + String.format(Locale.US, "%.1f", getJankPercent()) + "%), avg "
+                + getAverageFrameMillis() + "ms, max " + getMaxFrameMillis() + "ms at "
+                + (1_000_000_000L / frameIntervalNanos) + " Hz");
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        if (!running) {
+            return;
+        }
+        if (lastFrameNanos != 0) {
+            long duration = frameTimeNanos - lastFrameNanos;
+            frameCount++;
+            totalFrameNanos += duration;
+            if (duration > jankThresholdNanos) {
+                jankCount++;
+            }
+            if (duration > maxFrameNanos) {
+                maxFrameNanos = duration;
+            }
+        }
+        lastFrameNanos = frameTimeNanos;
+        if (frameTimeNanos < sampleUntilNanos) {
+            Choreographer.getInstance().postFrameCallback(this);
+        } else {
+            // The gap until the next sample() is idle time, not a frame
+            posted = false;
+        }
+    }
+
+    public long getFrameCount() {
+        return frameCount;
+    }
+
+    public long getJankCount() {
+        return jankCount;
+    }
+
+    public float getJankPercent() {
+        return frameCount == 0 ? 0f : jankCount * 100f / frameCount;
+    }
+
+    public long getAverageFrameMillis() {
+        return frameCount == 0 ? 0 : totalFrameNanos / frameCount / 1_000_000;
+    }
+
+    public long getMaxFrameMillis() {
+        return maxFrameNanos / 1_000_000;
+    }
+}
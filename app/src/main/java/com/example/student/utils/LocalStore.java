@@ -0,0 +1,238 @@
+package com.example.student.utils;
+
+import android.content.ContentValues;
+import android.content.Context;
+import android.database.Cursor;
+import android.database.sqlite.SQLiteDatabase;
+import android.database.sqlite.SQLiteOpenHelper;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonDeserializer;
+import com.google.gson.JsonPrimitive;
+import com.google.gson.JsonSerializer;
+
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Set;
+import java.util.concurrent.Executor;
+
+/**
+ * On-disk copy of the Firestore documents the screens show. Every model is
+ * stored as one JSON row keyed by (collection, document id), tagged with the
+ * sync scope that brought it in and the version it was written at; a row is
+ * only replaced by a version at least as new, so a late or replayed delta
+ * never overwrites newer data. Each scope keeps a high-water mark so the next
+ * sync only asks Firestore for documents changed since then.
+ * All methods except getExecutor touch the database and must run on the
+ * store's executor.
+ */
+public class LocalStore extends SQLiteOpenHelper {
+    private static final String TAG = "LocalStore";
+    private static final String DATABASE_NAME = "local_store.db";
+    private static final int DATABASE_VERSION = 1;
+
+    private static final String TABLE_DOCUMENTS = "documents";
+    private static final String TABLE_SYNC_STATE = "sync_state";
+
+    private static LocalStore instance;
+
+    private final Gson gson;
+    private final Executor executor;
+
+    private LocalStore(Context context) {
+        super(context.getApplicationContext(), DATABASE_NAME, null, DATABASE_VERSION);
+        // Dates as epoch millis, so a round trip is exact and locale independent
+        gson = new GsonBuilder()
+                .registerTypeAdapter(Date.class, (JsonSerializer<Date>) (date, type, serializer) ->
+                        new JsonPrimitive(date.getTime()))
+                .registerTypeAdapter(Date.class, (JsonDeserializer<Date>) (json, type, deserializer) ->
+                        new Date(json.getAsLong()))
+                .create();
+
+        HandlerThread ioThread = new HandlerThread("LocalStore", Process.THREAD_PRIORITY_BACKGROUND);
+        ioThread.start();
+        Handler ioHandler = new Handler(ioThread.getLooper());
+        executor = ioHandler::post;
+    }
+
+    public static synchronized LocalStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocalStore(context);
+        }
+        return instance;
+    }
+
+    @Override
+    public void onCreate(SQLiteDatabase db) {
+        db.execSQL("CREATE TABLE " + TABLE_DOCUMENTS + " ("
+                + "collection TEXT NOT NULL, "
+                + "doc_id TEXT NOT NULL, "
+                + "scope TEXT NOT NULL, "
+                + "json TEXT NOT NULL, "
+                + "version INTEGER NOT NULL, "
+                + "PRIMARY KEY (collection, doc_id))");
+        db.execSQL("CREATE INDEX documents_scope ON " + TABLE_DOCUMENTS + " (scope, version)");
+        db.execSQL("CREATE TABLE " + TABLE_SYNC_STATE + " ("
+                + "scope TEXT PRIMARY KEY, "
+                + "high_water INTEGER NOT NULL, "
+                + "last_full_sync INTEGER NOT NULL)");
+    }
+
+    @Override
+    public void onUpgrade(SQLiteDatabase db, int oldVersion, int newVersion) {
+        // Everything here can be fetched again, so a schema change just starts over
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_DOCUMENTS);
+        db.execSQL("DROP TABLE IF EXISTS " + TABLE_SYNC_STATE);
+        onCreate(db);
+    }
+
+    /**
+     * Executor of the store thread; every other method must run on it
+     */
+    public Executor getExecutor() {
+        return executor;
+    }
+
+    /**
+     * Write a document unless the stored copy is newer
+     * @return true if the row changed
+     */
+    public boolean put(String collection, String scope, String documentId, Object model, long version) {
+        SQLiteDatabase db = getWritableDatabase();
+        long stored = storedVersion(db, collection, documentId);
+        if (stored > version) {
+            return false;
+        }
+        ContentValues values = new ContentValues();
+        values.put("collection", collection);
+        values.put("doc_id", documentId);
+        values.put("scope", scope);
+        values.put("json", gson.toJson(model));
+        values.put("version", version);
+        db.insertWithOnConflict(TABLE_DOCUMENTS, null, values, SQLiteDatabase.CONFLICT_REPLACE);
+        return true;
+    }
+
+    public void delete(String collection, String documentId) {
+        getWritableDatabase().delete(TABLE_DOCUMENTS, "collection = ? AND doc_id = ?",
+                new String[]{collection, documentId});
+    }
+
+    /**
+     * Drop rows of the scope that are not in {@code documentIds}, after a full read of the scope
+     * @return number of rows removed
+     */
+    public int retainOnly(String scope, Set<String> documentIds) {
+        SQLiteDatabase db = getWritableDatabase();
+        List<String[]> stale = new ArrayList<>();
+        try (Cursor cursor = db.query(TABLE_DOCUMENTS, new String[]{"collection", "doc_id"},
+                "scope = ?", new String[]{scope}, null, null, null)) {
+            while (cursor.moveToNext()) {
+                if (!documentIds.contains(cursor.getString(1))) {
+                    stale.add(new String[]{cursor.getString(0), cursor.getString(1)});
+                }
+            }
+        }
+        for (String[] key : stale) {
+            db.delete(TABLE_DOCUMENTS, "collection = ? AND doc_id = ?", key);
+        }
+        return stale.size();
+    }
+
+    /**
+     * Every document of the scope, newest version first
+     */
+    public <T> List<T> query(String scope, Class<T> type) {
+        List<T> models = new ArrayList<>();
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOCUMENTS, new String[]{"json"},
+                "scope = ?", new String[]{scope}, null, null, "version DESC")) {
+            while (cursor.moveToNext()) {
+                T model = decode(cursor.getString(0), type);
+                if (model != null) {
+                    models.add(model);
+                }
+            }
+        }
+        return models;
+    }
+
+    public <T> T get(String collection, String documentId, Class<T> type) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_DOCUMENTS, new String[]{"json"},
+                "collection = ? AND doc_id = ?", new String[]{collection, documentId}, null, null, null)) {
+            return cursor.moveToFirst() ? decode(cursor.getString(0), type) : null;
+        }
+    }
+
+    /**
+     * Largest updatedAt applied to the scope, 0 if it was never synced
+     */
+    public long getHighWater(String scope) {
+        return readSyncState(scope, "high_water");
+    }
+
+    public long getLastFullSync(String scope) {
+        return readSyncState(scope, "last_full_sync");
+    }
+
+    public void setSyncState(String scope, long highWater, long lastFullSync) {
+        ContentValues values = new ContentValues();
+        values.put("scope", scope);
+        values.put("high_water", highWater);
+        values.put("last_full_sync", lastFullSync);
+        getWritableDatabase().insertWithOnConflict(TABLE_SYNC_STATE, null, values,
+                SQLiteDatabase.CONFLICT_REPLACE);
+    }
+
+    /**
+     * Run {@code work} as one transaction, so a delta is applied all or nothing
+     */
+    public void runInTransaction(Runnable work) {
+        SQLiteDatabase db = getWritableDatabase();
+        db.beginTransaction();
+        try {
+            work.run();
+            db.setTransactionSuccessful();
+        } finally {
+            db.endTransaction();
+        }
+    }
+
+    /**
+     * Forget every document and sync position, e.g. when another student logs in
+     */
+    public void clear() {
+        SQLiteDatabase db = getWritableDatabase();
+        db.delete(TABLE_DOCUMENTS, null, null);
+        db.delete(TABLE_SYNC_STATE, null, null);
+    }
+
+    private long storedVersion(SQLiteDatabase db, String collection, String documentId) {
+        try (Cursor cursor = db.query(TABLE_DOCUMENTS, new String[]{"version"},
+                "collection = ? AND doc_id = ?", new String[]{collection, documentId}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : Long.MIN_VALUE;
+        }
+    }
+
+    private long readSyncState(String scope, String column) {
+        try (Cursor cursor = getReadableDatabase().query(TABLE_SYNC_STATE, new String[]{column},
+                "scope = ?", new String[]{scope}, null, null, null)) {
+            return cursor.moveToFirst() ? cursor.getLong(0) : 0;
+        }
+    }
+
+    private <T> T decode(String json, Class<T> type) {
+        try {
+            return gson.fromJson(json, type);
+        } catch (RuntimeException e) {
+            // A row written by an older model shape is simply refetched
+            Log.w(TAG, "Dropping undecodable " + type.getSimpleName() + " row", e);
+            return null;
+        }
+    }
+}
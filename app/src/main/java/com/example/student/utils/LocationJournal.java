@@ -0,0 +1,565 @@
+package com.example.student.utils;
+
+import android.content.Context;
+import android.location.Location;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+import java.util.concurrent.Executor;
+import java.util.zip.CRC32;
+
+/**
+ * Crash-safe, append-only binary journal of location fixes and check-ins.
+ * Each record on disk is [length][crc32][sequence, type, payload]; a torn or
+ * corrupt tail left by process death is detected by its CRC and cut off when
+ * the journal is reopened. Callers only copy the record into a memory buffer;
+ * sequence numbering, CRC, file writes and fsync all happen on the journal's
+ * own thread, so the location thread never waits on disk.
+ */
+public class LocationJournal {
+    private static final String TAG = "LocationJournal";
+    private static final String DIRECTORY = "location_journal";
+    private static final String JOURNAL_FILE = "journal.bin";
+    private static final String ACK_FILE = "journal.ack";
+    private static final int HEADER_SIZE = 8; // length + crc
+    private static final int MAX_RECORD_SIZE = 32 * 1024;
+    private static final int MAX_PATH_BYTES = 24 * 1024; // a longer trace is left out rather than cut
+
+    public static final byte TYPE_FIX = 1;
+    public static final byte TYPE_CHECKIN = 2;
+
+    private static LocationJournal instance;
+
+    private final File journalFile;
+    private final File ackFile;
+    private final Handler ioHandler;
+    private final Executor ioExecutor;
+    private final Runnable writeRunnable = this::writePending;
+    private final Runnable syncRunnable = this::sync;
+
+    // Encoded records waiting for the journal thread, guarded by lock
+    private final Object lock = new Object();
+    private ByteBuffer pending = ByteBuffer.allocate(16 * 1024);
+    private boolean writeScheduled;
+    private long pendingBytes;
+
+    // Journal thread only
+    private FileChannel channel;
+    private final ByteBuffer writeBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final ByteBuffer readBuffer = ByteBuffer.allocateDirect(64 * 1024);
+    private final CRC32 crc = new CRC32();
+    private final Record record = new Record();
+    private long nextSequence = 1;
+    private boolean syncScheduled;
+    // Position just after the last record known to be at or below cursorSequence
+    private long cursorSequence;
+    private long cursorPosition;
+
+    private volatile long lastSequence;
+    private volatile long acknowledgedSequence;
+    private volatile long journalBytes;
+    private volatile long droppedFixes;
+
+    private LocationJournal(Context context) {
+        this(new File(context.getApplicationContext().getFilesDir(), DIRECTORY), startIoThread());
+    }
+
+    /**
+     * Journal kept in directory whose disk work runs on ioHandler
+     */
+    LocationJournal(File directory, Handler ioHandler) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Failed to create journal directory");
+        }
+        journalFile = new File(directory, JOURNAL_FILE);
+        ackFile = new File(directory, ACK_FILE);
+
+        this.ioHandler = ioHandler;
+        ioExecutor = ioHandler::post;
+        // Runs before any write is processed
+        ioHandler.post(this::recover);
+    }
+
+    private static Handler startIoThread() {
+        HandlerThread ioThread = new HandlerThread("LocationJournal", Process.THREAD_PRIORITY_BACKGROUND);
+        ioThread.start();
+        return new Handler(ioThread.getLooper());
+    }
+
+    public static synchronized LocationJournal getInstance(Context context) {
+        if (instance == null) {
+            instance = new LocationJournal(context);
+        }
+        return instance;
+    }
+
+    /**
+     * Executor of the journal thread; readAfter and acknowledge must run on it
+     */
+    public Executor getExecutor() {
+        return ioExecutor;
+    }
+
+    /**
+     * Journal a fix. Cheap enough for the location thread.
+     */
+    public void appendFix(Location location) {
+        long time = location.getTime() > 0 ? location.getTime() : System.currentTimeMillis();
+        synchronized (lock) {
+            if (journalBytes + pendingBytes >= Constants.JOURNAL_MAX_BYTES) {
+                // Keep room for check-ins, which matter more than one more fix
+                droppedFixes++;
+                return;
+            }
+            ByteBuffer buffer = reserve(4 + 1 + 8 + 8 + 8 + 4 + 4 + 4);
+            int start = buffer.position();
+            buffer.putInt(0);
+            buffer.put(TYPE_FIX);
+            buffer.putLong(time);
+            buffer.putDouble(location.getLatitude());
+            buffer.putDouble(location.getLongitude());
+            buffer.putFloat(location.getAccuracy());
+            buffer.putFloat(location.getSpeed());
+            buffer.putFloat(location.getBearing());
+            finishPending(buffer, start);
+            scheduleWrite(Constants.JOURNAL_WRITE_DELAY);
+        }
+    }
+
+    /**
+     * Journal a check-in or check-out and get it to disk straight away
+     * @param encodedPath simplified trip trace as an encoded polyline, or null
+     */
+    public void appendCheckIn(String tripId, String studentId, String busId, String stopId,
+                              String checkInType, boolean checkOut, long time,
+                              double latitude, double longitude,
+                              String encodedPath, int rawPointCount, int pathPointCount) {
+        byte[] trip = utf8(tripId);
+        byte[] student = utf8(studentId);
+        byte[] bus = utf8(busId);
+        byte[] stop = utf8(stopId);
+        byte[] type = utf8(checkInType);
+        byte[] path = encodedPath != null ? encodedPath.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        if (path.length > MAX_PATH_BYTES) {
+            Log.w(TAG, "Trip trace of " + path.length + " bytes too large to journal, dropped");
+            path = new byte[0];
+            rawPointCount = 0;
+            pathPointCount = 0;
+        }
+        synchronized (lock) {
+            ByteBuffer buffer = reserve(4 + 1 + 8 + 1 + 8 + 8 + 4 + 4
+                    + 2 * 6 + trip.length + student.length + bus.length + stop.length + type.length + path.length);
+            int start = buffer.position();
+            buffer.putInt(0);
+            buffer.put(TYPE_CHECKIN);
+            buffer.putLong(time);
+            buffer.put((byte) (checkOut ? 1 : 0));
+            buffer.putDouble(latitude);
+            buffer.putDouble(longitude);
+            putString(buffer, trip);
+            putString(buffer, student);
+            putString(buffer, bus);
+            putString(buffer, stop);
+            putString(buffer, type);
+            buffer.putInt(rawPointCount);
+            buffer.putInt(pathPointCount);
+            putString(buffer, path);
+            finishPending(buffer, start);
+            scheduleWrite(0);
+        }
+    }
+
+    /**
+     * Visit up to maxRecords valid records with a sequence above afterSequence.
+     * Must be called on the journal thread; the record passed to the visitor is reused.
+     * @return the number of records visited
+     */
+    public int readAfter(long afterSequence, int maxRecords, RecordVisitor visitor) {
+        if (channel == null) {
+            return 0;
+        }
+        writePending();
+        int visited = 0;
+        // Skip what earlier reads already passed instead of rescanning from the start
+        long position = afterSequence >= cursorSequence ? cursorPosition : 0;
+        try {
+            long size = channel.size();
+            while (position + HEADER_SIZE <= size && visited < maxRecords) {
+                int length = readRecord(position, size);
+                if (length < 0) {
+                    break;
+                }
+                position += HEADER_SIZE + length;
+                if (record.sequence > afterSequence) {
+                    visitor.visit(record);
+                    visited++;
+                } else {
+                    cursorSequence = record.sequence;
+                    cursorPosition = position;
+                }
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read journal", e);
+        }
+        return visited;
+    }
+
+    /**
+     * Mark every record up to sequence as delivered. Must be called on the
+     * journal thread; once everything is delivered the journal is truncated.
+     */
+    public void acknowledge(long sequence) {
+        if (sequence <= acknowledgedSequence) {
+            return;
+        }
+        acknowledgedSequence = sequence;
+        writeAck(sequence);
+        boolean drained;
+        synchronized (lock) {
+            drained = pending.position() == 0 && sequence >= lastSequence;
+        }
+        if (drained && channel != null) {
+            try {
+                channel.truncate(0);
+                channel.position(0);
+                journalBytes = 0;
+                cursorSequence = 0;
+                cursorPosition = 0;
+                Log.d(TAG, "Journal fully replayed, truncated");
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to truncate journal", e);
+            }
+        }
+    }
+
+    public long getLastSequence() {
+        return lastSequence;
+    }
+
+    public long getAcknowledgedSequence() {
+        return acknowledgedSequence;
+    }
+
+    public boolean hasUnacknowledged() {
+        synchronized (lock) {
+            return pending.position() > 0 || lastSequence > acknowledgedSequence;
+        }
+    }
+
+    public long getJournalBytes() {
+        return journalBytes;
+    }
+
+    public long getDroppedFixes() {
+        return droppedFixes;
+    }
+
+    private ByteBuffer reserve(int bytes) {
+        if (pending.remaining() < bytes) {
+            ByteBuffer grown = ByteBuffer.allocate(Math.max(pending.capacity() * 2, pending.position() + bytes));
+            pending.flip();
+            grown.put(pending);
+            pending = grown;
+        }
+        return pending;
+    }
+
+    private void finishPending(ByteBuffer buffer, int start) {
+        int length = buffer.position() - start - 4;
+        buffer.putInt(start, length);
+        pendingBytes += HEADER_SIZE + 8 + length;
+    }
+
+    private void scheduleWrite(long delayMs) {
+        if (delayMs == 0) {
+            ioHandler.removeCallbacks(writeRunnable);
+            ioHandler.post(writeRunnable);
+            writeScheduled = true;
+        } else if (!writeScheduled) {
+            ioHandler.postDelayed(writeRunnable, delayMs);
+            writeScheduled = true;
+        }
+    }
+
+    /**
+     * Number, checksum and write everything pending; runs on the journal thread
+     */
+    private void writePending() {
+        ByteBuffer drained;
+        boolean urgent = false;
+        synchronized (lock) {
+            writeScheduled = false;
+            if (pending.position() == 0) {
+                return;
+            }
+            pending.flip();
+            drained = ByteBuffer.allocate(pending.remaining());
+            drained.put(pending);
+            drained.flip();
+            pending.clear();
+            pendingBytes = 0;
+        }
+        if (channel == null) {
+            Log.e(TAG, "Journal not open, dropping " + drained.remaining() + " bytes");
+            return;
+        }
+
+        try {
+            while (drained.hasRemaining()) {
+                int bodyLength = drained.getInt();
+                int bodyEnd = drained.position() + bodyLength;
+                if (drained.get(drained.position()) == TYPE_CHECKIN) {
+                    urgent = true;
+                }
+                if (writeBuffer.remaining() < HEADER_SIZE + 8 + bodyLength) {
+                    flushWriteBuffer();
+                }
+                long sequence = nextSequence++;
+                int recordStart = writeBuffer.position();
+                writeBuffer.putInt(8 + bodyLength);
+                writeBuffer.putInt(0);
+                writeBuffer.putLong(sequence);
+                ByteBuffer body = drained.duplicate();
+                body.limit(bodyEnd);
+                writeBuffer.put(body);
+                drained.position(bodyEnd);
+
+                crc.reset();
+                for (int i = recordStart + HEADER_SIZE; i < writeBuffer.position(); i++) {
+                    crc.update(writeBuffer.get(i));
+                }
+                writeBuffer.putInt(recordStart + 4, (int) crc.getValue());
+                lastSequence = sequence;
+            }
+            flushWriteBuffer();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write journal", e);
+            return;
+        }
+
+        if (urgent) {
+            ioHandler.removeCallbacks(syncRunnable);
+            sync();
+        } else if (!syncScheduled) {
+            ioHandler.postDelayed(syncRunnable, Constants.JOURNAL_SYNC_INTERVAL);
+            syncScheduled = true;
+        }
+    }
+
+    private void flushWriteBuffer() throws IOException {
+        writeBuffer.flip();
+        while (writeBuffer.hasRemaining()) {
+            channel.write(writeBuffer);
+        }
+        writeBuffer.clear();
+        journalBytes = channel.size();
+    }
+
+    private void sync() {
+        syncScheduled = false;
+        if (channel == null) {
+            return;
+        }
+        try {
+            channel.force(false);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to sync journal", e);
+        }
+    }
+
+    /**
+     * Open the journal, drop any torn tail and restore the sequence counter
+     */
+    void recover() {
+        acknowledgedSequence = readAck();
+        try {
+            channel = new RandomAccessFile(journalFile, "rw").getChannel();
+            long size = channel.size();
+            long position = 0;
+            long last = 0;
+            int records = 0;
+            while (position + HEADER_SIZE <= size) {
+                int length = readRecord(position, size);
+                if (length < 0) {
+                    break;
+                }
+                last = record.sequence;
+                position += HEADER_SIZE + length;
+                records++;
+            }
+            if (position < size) {
+                Log.w(TAG, "Dropping " + (size - position) + " bytes of torn journal tail");
+                channel.truncate(position);
+            }
+            channel.position(position);
+            journalBytes = position;
+            lastSequence = Math.max(last, acknowledgedSequence);
+            nextSequence = lastSequence + 1;
+            Log.d(TAG, "Journal opened with " + records + " records, acked up to " + acknowledgedSequence);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to open journal", e);
+            channel = null;
+        }
+    }
+
+    /**
+     * Decode the record at position into the reused record
+     * @return the record length after the header, or -1 if it is torn or corrupt
+     */
+    private int readRecord(long position, long size) throws IOException {
+        readBuffer.clear();
+        readBuffer.limit(HEADER_SIZE);
+        if (readFully(position) < HEADER_SIZE) {
+            return -1;
+        }
+        readBuffer.flip();
+        int length = readBuffer.getInt();
+        int expectedCrc = readBuffer.getInt();
+        if (length < 8 + 1 || length > MAX_RECORD_SIZE || position + HEADER_SIZE + length > size) {
+            return -1;
+        }
+
+        readBuffer.clear();
+        readBuffer.limit(length);
+        if (readFully(position + HEADER_SIZE) < length) {
+            return -1;
+        }
+        readBuffer.flip();
+        crc.reset();
+        for (int i = 0; i < length; i++) {
+            crc.update(readBuffer.get(i));
+        }
+        if ((int) crc.getValue() != expectedCrc) {
+            return -1;
+        }
+
+        record.sequence = readBuffer.getLong();
+        record.type = readBuffer.get();
+        record.time = readBuffer.getLong();
+        if (record.type == TYPE_FIX) {
+            record.latitude = readBuffer.getDouble();
+            record.longitude = readBuffer.getDouble();
+            record.accuracy = readBuffer.getFloat();
+            record.speed = readBuffer.getFloat();
+            record.bearing = readBuffer.getFloat();
+        } else if (record.type == TYPE_CHECKIN) {
+            record.checkOut = readBuffer.get() == 1;
+            record.latitude = readBuffer.getDouble();
+            record.longitude = readBuffer.getDouble();
+            record.tripId = getString(readBuffer);
+            record.studentId = getString(readBuffer);
+            record.busId = getString(readBuffer);
+            record.stopId = getString(readBuffer);
+            record.checkInType = getString(readBuffer);
+            // Records journaled before trip traces end here
+            if (readBuffer.remaining() >= 4 + 4 + 2) {
+                record.rawPointCount = readBuffer.getInt();
+                record.pathPointCount = readBuffer.getInt();
+                String path = getString(readBuffer);
+                record.encodedPath = path.isEmpty() ? null : path;
+            } else {
+                record.rawPointCount = 0;
+                record.pathPointCount = 0;
+                record.encodedPath = null;
+            }
+        }
+        return length;
+    }
+
+    private int readFully(long position) throws IOException {
+        int total = 0;
+        while (readBuffer.hasRemaining()) {
+            int read = channel.read(readBuffer, position + total);
+            if (read < 0) {
+                break;
+            }
+            total += read;
+        }
+        return total;
+    }
+
+    private long readAck() {
+        if (!ackFile.exists()) {
+            return 0;
+        }
+        try (RandomAccessFile file = new RandomAccessFile(ackFile, "r")) {
+            long sequence = file.readLong();
+            long check = file.readLong();
+            return check == ~sequence ? sequence : 0;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read journal ack", e);
+            return 0;
+        }
+    }
+
+    private void writeAck(long sequence) {
+        // Write then rename so a crash leaves either the old or the new ack
+        File temp = new File(ackFile.getParentFile(), ACK_FILE + ".tmp");
+        try (RandomAccessFile file = new RandomAccessFile(temp, "rw")) {
+            file.setLength(0);
+            file.writeLong(sequence);
+            file.writeLong(~sequence);
+            file.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write journal ack", e);
+            return;
+        }
+        if (!temp.renameTo(ackFile)) {
+            Log.e(TAG, "Failed to replace journal ack");
+        }
+    }
+
+    private static byte[] utf8(String value) {
+        byte[] bytes = value != null ? value.getBytes(StandardCharsets.UTF_8) : new byte[0];
+        // Keep each string small enough for one record
+        return bytes.length > 512 ? Arrays.copyOf(bytes, 512) : bytes;
+    }
+
+    private static void putString(ByteBuffer buffer, byte[] bytes) {
+        buffer.putShort((short) bytes.length);
+        buffer.put(bytes);
+    }
+
+    private static String getString(ByteBuffer buffer) {
+        int length = buffer.getShort() & 0xffff;
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+
+    /**
+     * A decoded journal record; fields not used by its type are stale
+     */
+    public static class Record {
+        public long sequence;
+        public byte type;
+        public long time;
+        public double latitude;
+        public double longitude;
+        public float accuracy;
+        public float speed;
+        public float bearing;
+        public boolean checkOut;
+        public String tripId;
+        public String studentId;
+        public String busId;
+        public String stopId;
+        public String checkInType;
+        public String encodedPath;
+        public int rawPointCount;
+        public int pathPointCount;
+    }
+
+    public interface RecordVisitor {
+        void visit(Record record);
+    }
+}
@@ -40,6 +40,23 @@ public class LocationServiceManager {
         context.stopService(serviceIntent);
     }
 
+    /**
+     * Ask the running location service to upload queued fixes immediately
+     * @param context The context to send the request from
+     */
+    public static void requestEmergencyFlush(Context context) {
+        if (hasLocationPermissions(context)) {
+            Intent serviceIntent = new Intent(context, LocationService.class);
+            serviceIntent.setAction(LocationService.ACTION_EMERGENCY_FLUSH);
+            try {
+                context.startForegroundService(serviceIntent);
+            } catch (IllegalStateException e) {
+                // Android 12+ refuses foreground service starts from the background
+                Log.w(TAG, "Cannot start location service for emergency flush", e);
+            }
+        }
+    }
+
     /**
      * Check if the app has the required location permissions
      * @param context The context to check permissions for
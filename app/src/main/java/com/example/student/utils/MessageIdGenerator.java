@@ -0,0 +1,66 @@
+package com.example.student.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+
+import java.security.SecureRandom;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Unique, time-ordered ids for cross-app messages: "msg_" + 16 hex digits of
+ * (milliseconds << 12 | sequence) + "_" + a per-install node id.
+ * The counter never goes backwards, even if the wall clock does, and up to
+ * 4096 ids per millisecond are handed out before it borrows from the next
+ * millisecond. Ids of one install sort by creation order.
+ */
+public class MessageIdGenerator {
+    private static final String PREFS_NAME = "message_id_prefs";
+    private static final String KEY_NODE = "node";
+    private static final int SEQUENCE_BITS = 12;
+    private static MessageIdGenerator instance;
+
+    private final AtomicLong last = new AtomicLong();
+    private final String node;
+
+    private MessageIdGenerator(Context context) {
+        this(loadNode(context));
+    }
+
+    MessageIdGenerator(String node) {
+        this.node = node;
+    }
+
+    public static synchronized MessageIdGenerator getInstance(Context context) {
+        if (instance == null) {
+            instance = new MessageIdGenerator(context);
+        }
+        return instance;
+    }
+
+    public String next() {
+        return next(System.currentTimeMillis());
+    }
+
+    String next(long nowMillis) {
+        long candidate = nowMillis << SEQUENCE_BITS;
+        while (true) {
+            long previous = last.get();
+            long value = candidate > previous ? candidate : previous + 1;
+            if (last.compareAndSet(previous, value)) {
+                return String.format("msg_%016x_%s", value, node);
+            }
+        }
+    }
+
+    private static String loadNode(Context context) {
+        SharedPreferences preferences = context.getApplicationContext()
+                .getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        String stored = preferences.getString(KEY_NODE, null);
+        if (stored == null) {
+            // Random rather than a hardware id, generated once per install
+            stored = String.format("%08x", new SecureRandom().nextInt());
+            preferences.edit().putString(KEY_NODE, stored).apply();
+        }
+        return stored;
+    }
+}
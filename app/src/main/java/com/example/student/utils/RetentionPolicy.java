@@ -0,0 +1,47 @@
+package com.example.student.utils;
+
+import com.example.student.services.CrossAppIntegrationService;
+
+import java.util.Date;
+
+/**
+ * How long each kind of document is kept. Writers stamp an expiresAt from
+ * here and the Firestore TTL policy on expiresAt deletes documents past it;
+ * RetentionCompactor only trims the student's own inbox in between, and
+ * client listeners never read further back than INBOX_SYNC_WINDOW.
+ */
+public class RetentionPolicy {
+
+    public static long ttlFor(String messageType) {
+        if (CrossAppIntegrationService.MESSAGE_TYPE_LOCATION_UPDATE.equals(messageType)) {
+            return Constants.TTL_LOCATION_UPDATE;
+        } else if (CrossAppIntegrationService.MESSAGE_TYPE_STATUS_UPDATE.equals(messageType)) {
+            return Constants.TTL_STATUS_UPDATE;
+        } else if (CrossAppIntegrationService.MESSAGE_TYPE_CHECKIN.equals(messageType)) {
+            return Constants.TTL_CHECKIN;
+        } else if (CrossAppIntegrationService.MESSAGE_TYPE_EMERGENCY.equals(messageType)) {
+            return Constants.TTL_EMERGENCY;
+        }
+        return Constants.TTL_DEFAULT_MESSAGE;
+    }
+
+    public static Date expiresAt(String messageType, Date from) {
+        long start = from != null ? from.getTime() : System.currentTimeMillis();
+        return new Date(start + ttlFor(messageType));
+    }
+
+    /**
+     * Expired emergencies are moved to the archive collection by the server job
+     * instead of being deleted, so clients must leave them alone
+     */
+    public static boolean shouldArchive(String messageType) {
+        return CrossAppIntegrationService.MESSAGE_TYPE_EMERGENCY.equals(messageType);
+    }
+
+    /**
+     * Lower bound for timestamp in client message queries
+     */
+    public static Date inboxWindowStart() {
+        return new Date(System.currentTimeMillis() - Constants.INBOX_SYNC_WINDOW);
+    }
+}
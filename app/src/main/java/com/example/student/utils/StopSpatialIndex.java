@@ -0,0 +1,307 @@
+package com.example.student.utils;
+
+import com.example.student.models.BusStop;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Immutable grid index over bus stops for nearest and within-radius lookups.
+ * Stops are bucketed into fixed-size lat/lng cells found through a primitive
+ * open-addressing hash table, so a query only runs haversine on stops in the
+ * cells around the query point. Queries write into caller-supplied arrays and
+ * allocate nothing.
+ */
+public class StopSpatialIndex {
+    private static final double EARTH_RADIUS = 6371000.0;
+    private static final double METERS_PER_DEG_LAT = EARTH_RADIUS * Math.PI / 180.0;
+    private static final long EMPTY_KEY = Long.MIN_VALUE;
+
+    private static final StopSpatialIndex EMPTY = new StopSpatialIndex(
+            Collections.emptyList(), Collections.emptyList(), Constants.STOP_INDEX_CELL_SIZE);
+
+    private final double cellMeters;
+    private final double cellDegLat;
+    private final double cellDegLng;
+
+    // Stops sorted by cell, column-wise
+    private final BusStop[] stops;
+    private final String[] sourceIds;
+    private final double[] latitudes;
+    private final double[] longitudes;
+
+    // Cell table: key -> [cellStart[slot], cellEnd[slot]) in the stop arrays
+    private final long[] tableKeys;
+    private final int[] cellStart;
+    private final int[] cellEnd;
+    private final int tableMask;
+
+    public static StopSpatialIndex empty() {
+        return EMPTY;
+    }
+
+    /**
+     * Build an index of stops that all come from one source, e.g. a route id
+     */
+    public static StopSpatialIndex build(String sourceId, List<BusStop> stops) {
+        List<String> sources = new ArrayList<>(stops.size());
+        for (int i = 0; i < stops.size(); i++) {
+            sources.add(sourceId);
+        }
+        return new StopSpatialIndex(stops, sources, Constants.STOP_INDEX_CELL_SIZE);
+    }
+
+    private StopSpatialIndex(List<BusStop> input, List<String> inputSources, double cellMeters) {
+        this.cellMeters = cellMeters;
+        this.cellDegLat = cellMeters / METERS_PER_DEG_LAT;
+
+        // Longitude cell width is fixed at the mean latitude of the stops
+        double latSum = 0;
+        int located = 0;
+        for (BusStop stop : input) {
+            if (stop != null && stop.getLocation() != null) {
+                latSum += stop.getLocation().latitude;
+                located++;
+            }
+        }
+        double referenceLat = located == 0 ? 0 : latSum / located;
+        this.cellDegLng = cellMeters / (METERS_PER_DEG_LAT * Math.max(Math.cos(Math.toRadians(referenceLat)), 0.01));
+
+        Integer[] order = new Integer[located];
+        long[] keys = new long[input.size()];
+        int n = 0;
+        for (int i = 0; i < input.size(); i++) {
+            BusStop stop = input.get(i);
+            if (stop != null && stop.getLocation() != null) {
+                keys[i] = cellKey(stop.getLocation().latitude, stop.getLocation().longitude);
+                order[n++] = i;
+            }
+        }
+        Arrays.sort(order, (a, b) -> Long.compare(keys[a], keys[b]));
+
+        stops = new BusStop[located];
+        sourceIds = new String[located];
+        latitudes = new double[located];
+        longitudes = new double[located];
+        int cells = 0;
+        for (int i = 0; i < located; i++) {
+            BusStop stop = input.get(order[i]);
+            stops[i] = stop;
+            sourceIds[i] = inputSources.get(order[i]);
+            latitudes[i] = stop.getLocation().latitude;
+            longitudes[i] = stop.getLocation().longitude;
+            if (i == 0 || keys[order[i]] != keys[order[i - 1]]) {
+                cells++;
+            }
+        }
+
+        int tableSize = Integer.highestOneBit(Math.max(cells, 1) * 2 - 1) << 1;
+        tableKeys = new long[tableSize];
+        Arrays.fill(tableKeys, EMPTY_KEY);
+        cellStart = new int[tableSize];
+        cellEnd = new int[tableSize];
+        tableMask = tableSize - 1;
+
+        int runStart = 0;
+        for (int i = 1; i <= located; i++) {
+            if (i == located || keys[order[i]] != keys[order[runStart]]) {
+                int slot = findSlot(keys[order[runStart]]);
+                tableKeys[slot] = keys[order[runStart]];
+                cellStart[slot] = runStart;
+                cellEnd[slot] = i;
+                runStart = i;
+            }
+        }
+    }
+
+    /**
+     * New index with every stop of sourceId replaced by the given stops.
+     * Stops from other sources are carried over without being re-fetched.
+     */
+    public StopSpatialIndex withSource(String sourceId, List<BusStop> sourceStops) {
+        List<BusStop> merged = new ArrayList<>(stops.length + sourceStops.size());
+        List<String> mergedSources = new ArrayList<>(stops.length + sourceStops.size());
+        for (int i = 0; i < stops.length; i++) {
+            if (!sourceId.equals(sourceIds[i])) {
+                merged.add(stops[i]);
+                mergedSources.add(sourceIds[i]);
+            }
+        }
+        for (BusStop stop : sourceStops) {
+            merged.add(stop);
+            mergedSources.add(sourceId);
+        }
+        return new StopSpatialIndex(merged, mergedSources, cellMeters);
+    }
+
+    public int size() {
+        return stops.length;
+    }
+
+    public BusStop getStop(int index) {
+        return stops[index];
+    }
+
+    /**
+     * Index of the nearest stop within maxRadiusMeters, or -1
+     */
+    public int nearest(double latitude, double longitude, double maxRadiusMeters) {
+        int best = -1;
+        double bestDistance = maxRadiusMeters;
+        int cy = (int) Math.floor(latitude / cellDegLat);
+        int cx = (int) Math.floor(longitude / cellDegLng);
+        int rings = ringsFor(latitude, maxRadiusMeters);
+        for (int ring = 0; ring <= rings; ring++) {
+            if (best >= 0 && minRingDistance(latitude, ring) > bestDistance) {
+                break;
+            }
+            for (int dy = -ring; dy <= ring; dy++) {
+                int step = (dy == -ring || dy == ring) ? 1 : 2 * ring;
+                for (int dx = -ring; dx <= ring; dx += Math.max(step, 1)) {
+                    int slot = lookup(packKey(cy + dy, cx + dx));
+                    if (slot < 0) {
+                        continue;
+                    }
+                    for (int i = cellStart[slot]; i < cellEnd[slot]; i++) {
+                        double d = haversine(latitude, longitude, latitudes[i], longitudes[i]);
+                        if (d <= bestDistance) {
+                            bestDistance = d;
+                            best = i;
+                        }
+                    }
+                }
+            }
+        }
+        return best;
+    }
+
+    /**
+     * Fill outIndices/outDistances with up to k nearest stops within
+     * maxRadiusMeters, closest first.
+     * @return the number of stops written
+     */
+    public int nearestK(double latitude, double longitude, double maxRadiusMeters, int k,
+                        int[] outIndices, double[] outDistances) {
+        int limit = Math.min(k, Math.min(outIndices.length, outDistances.length));
+        if (limit <= 0) {
+            return 0;
+        }
+        int count = 0;
+        int cy = (int) Math.floor(latitude / cellDegLat);
+        int cx = (int) Math.floor(longitude / cellDegLng);
+        int rings = ringsFor(latitude, maxRadiusMeters);
+        for (int ring = 0; ring <= rings; ring++) {
+            if (count == limit && minRingDistance(latitude, ring) > outDistances[count - 1]) {
+                break;
+            }
+            for (int dy = -ring; dy <= ring; dy++) {
+                int step = (dy == -ring || dy == ring) ? 1 : 2 * ring;
+                for (int dx = -ring; dx <= ring; dx += Math.max(step, 1)) {
+                    int slot = lookup(packKey(cy + dy, cx + dx));
+                    if (slot < 0) {
+                        continue;
+                    }
+                    for (int i = cellStart[slot]; i < cellEnd[slot]; i++) {
+                        double d = haversine(latitude, longitude, latitudes[i], longitudes[i]);
+                        if (d > maxRadiusMeters || (count == limit && d >= outDistances[count - 1])) {
+                            continue;
+                        }
+                        // Insertion into the sorted output
+                        int pos = count < limit ? count++ : count - 1;
+                        while (pos > 0 && outDistances[pos - 1] > d) {
+                            outDistances[pos] = outDistances[pos - 1];
+                            outIndices[pos] = outIndices[pos - 1];
+                            pos--;
+                        }
+                        outDistances[pos] = d;
+                        outIndices[pos] = i;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Write the indices of all stops within radiusMeters into out, unordered.
+     * @return the number of stops found, which may exceed out.length
+     */
+    public int withinRadius(double latitude, double longitude, double radiusMeters, int[] out) {
+        int count = 0;
+        int cy = (int) Math.floor(latitude / cellDegLat);
+        int cx = (int) Math.floor(longitude / cellDegLng);
+        int rings = ringsFor(latitude, radiusMeters);
+        for (int dy = -rings; dy <= rings; dy++) {
+            for (int dx = -rings; dx <= rings; dx++) {
+                int slot = lookup(packKey(cy + dy, cx + dx));
+                if (slot < 0) {
+                    continue;
+                }
+                for (int i = cellStart[slot]; i < cellEnd[slot]; i++) {
+                    if (haversine(latitude, longitude, latitudes[i], longitudes[i]) <= radiusMeters) {
+                        if (count < out.length) {
+                            out[count] = i;
+                        }
+                        count++;
+                    }
+                }
+            }
+        }
+        return count;
+    }
+
+    private int ringsFor(double latitude, double radiusMeters) {
+        double cellWidth = cellDegLng * METERS_PER_DEG_LAT * Math.cos(Math.toRadians(latitude));
+        double smallest = Math.min(cellMeters, cellWidth);
+        // One extra ring covers the query's offset inside its own cell
+        return (int) Math.floor(radiusMeters / Math.max(smallest, 1.0)) + 1;
+    }
+
+    /**
+     * Lower bound on the distance to any stop in the given ring
+     */
+    private double minRingDistance(double latitude, int ring) {
+        if (ring == 0) {
+            return 0;
+        }
+        double cellWidth = cellDegLng * METERS_PER_DEG_LAT * Math.cos(Math.toRadians(latitude));
+        return (ring - 1) * Math.min(cellMeters, cellWidth);
+    }
+
+    private long cellKey(double latitude, double longitude) {
+        return packKey((int) Math.floor(latitude / cellDegLat), (int) Math.floor(longitude / cellDegLng));
+    }
+
+    private static long packKey(int cellLat, int cellLng) {
+        return ((long) cellLat << 32) | (cellLng & 0xffffffffL);
+    }
+
+    private int findSlot(long key) {
+        int slot = mix(key) & tableMask;
+        while (tableKeys[slot] != EMPTY_KEY && tableKeys[slot] != key) {
+            slot = (slot + 1) & tableMask;
+        }
+        return slot;
+    }
+
+    private int lookup(long key) {
+        int slot = findSlot(key);
+        return tableKeys[slot] == key ? slot : -1;
+    }
+
+    private static int mix(long key) {
+        long h = key * 0x9E3779B97F4A7C15L;
+        return (int) (h ^ (h >>> 32));
+    }
+
+    private static double haversine(double lat1, double lng1, double lat2, double lng2) {
+        double dLat = Math.toRadians(lat2 - lat1);
+        double dLng = Math.toRadians(lng2 - lng1);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat1)) * Math.cos(Math.toRadians(lat2))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * EARTH_RADIUS * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+}
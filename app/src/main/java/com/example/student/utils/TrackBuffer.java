@@ -0,0 +1,200 @@
+package com.example.student.utils;
+
+import android.location.Location;
+
+/**
+ * Fixed-capacity ring buffer of track points stored column-wise in primitive arrays.
+ * Appending never allocates; once full the oldest point is overwritten.
+ * Points are expected in non-decreasing time order so lookups can binary search.
+ * Not thread-safe; use it from the thread that owns the location pipeline.
+ */
+public class TrackBuffer {
+    private final int capacity;
+    private final long[] times;
+    private final double[] latitudes;
+    private final double[] longitudes;
+    private final float[] accuracies;
+    private final float[] speeds;
+    private final float[] bearings;
+
+    private int start; // physical index of the oldest point
+    private int size;
+
+    public TrackBuffer() {
+        this(Constants.TRACK_BUFFER_CAPACITY);
+    }
+
+    public TrackBuffer(int capacity) {
+        if (capacity <= 0) {
+            throw new IllegalArgumentException("capacity must be positive");
+        }
+        this.capacity = capacity;
+        this.times = new long[capacity];
+        this.latitudes = new double[capacity];
+        this.longitudes = new double[capacity];
+        this.accuracies = new float[capacity];
+        this.speeds = new float[capacity];
+        this.bearings = new float[capacity];
+    }
+
+    /**
+     * Append a point. Points older than the newest stored point are ignored.
+     * @return true if the point was stored
+     */
+    public boolean append(long timeMillis, double latitude, double longitude,
+                          float accuracy, float speed, float bearing) {
+        if (size > 0 && timeMillis < getTime(size - 1)) {
+            return false;
+        }
+        int slot;
+        if (size < capacity) {
+            slot = physical(size);
+            size++;
+        } else {
+            slot = start;
+            start = (start + 1) % capacity;
+        }
+        times[slot] = timeMillis;
+        latitudes[slot] = latitude;
+        longitudes[slot] = longitude;
+        accuracies[slot] = accuracy;
+        speeds[slot] = speed;
+        bearings[slot] = bearing;
+        return true;
+    }
+
+    public boolean append(Location location) {
+        return append(location.getTime(), location.getLatitude(), location.getLongitude(),
+                location.getAccuracy(), location.getSpeed(), location.getBearing());
+    }
+
+    public void clear() {
+        start = 0;
+        size = 0;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public int capacity() {
+        return capacity;
+    }
+
+    public boolean isEmpty() {
+        return size == 0;
+    }
+
+    // Accessors by logical index, 0 being the oldest stored point
+    public long getTime(int index) {
+        return times[physical(checkIndex(index))];
+    }
+
+    public double getLatitude(int index) {
+        return latitudes[physical(checkIndex(index))];
+    }
+
+    public double getLongitude(int index) {
+        return longitudes[physical(checkIndex(index))];
+    }
+
+    public float getAccuracy(int index) {
+        return accuracies[physical(checkIndex(index))];
+    }
+
+    public float getSpeed(int index) {
+        return speeds[physical(checkIndex(index))];
+    }
+
+    public float getBearing(int index) {
+        return bearings[physical(checkIndex(index))];
+    }
+
+    /**
+     * Index of the first point with time >= timeMillis, or size() if there is none
+     */
+    public int indexAtOrAfter(long timeMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[physical(mid)] < timeMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Index of the last point with time <= timeMillis, or -1 if there is none
+     */
+    public int indexAtOrBefore(long timeMillis) {
+        int low = 0;
+        int high = size;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (times[physical(mid)] <= timeMillis) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low - 1;
+    }
+
+    /**
+     * Index of the point closest in time to timeMillis, or -1 if empty
+     */
+    public int indexNearest(long timeMillis) {
+        if (size == 0) {
+            return -1;
+        }
+        int after = indexAtOrAfter(timeMillis);
+        if (after == 0) {
+            return 0;
+        }
+        if (after == size) {
+            return size - 1;
+        }
+        long before = timeMillis - times[physical(after - 1)];
+        long next = times[physical(after)] - timeMillis;
+        return before <= next ? after - 1 : after;
+    }
+
+    /**
+     * Visit every point with fromMillis <= time <= toMillis in time order.
+     * @return the number of points visited
+     */
+    public int forEachInRange(long fromMillis, long toMillis, PointVisitor visitor) {
+        int first = indexAtOrAfter(fromMillis);
+        int visited = 0;
+        for (int i = first; i < size; i++) {
+            int p = physical(i);
+            if (times[p] > toMillis) {
+                break;
+            }
+            visitor.visit(i, times[p], latitudes[p], longitudes[p], accuracies[p], speeds[p], bearings[p]);
+            visited++;
+        }
+        return visited;
+    }
+
+    private int physical(int index) {
+        int p = start + index;
+        return p >= capacity ? p - capacity : p;
+    }
+
+    private int checkIndex(int index) {
+        if (index < 0 || index >= size) {
+            throw new IndexOutOfBoundsException("index " + index + ", size " + size);
+        }
+        return index;
+    }
+
+    public interface PointVisitor {
+        void visit(int index, long timeMillis, double latitude, double longitude,
+                   float accuracy, float speed, float bearing);
+    }
+}
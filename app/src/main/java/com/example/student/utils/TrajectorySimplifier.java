@@ -0,0 +1,239 @@
+package com.example.student.utils;
+
+import java.util.Arrays;
+
+/**
+ * Streaming, time-aware trajectory simplifier.
+ * This is the opening-window form of Douglas-Peucker using the synchronized
+ * euclidean distance: a point is dropped only if its position at its own
+ * timestamp is within the tolerance of the straight, constant-speed segment
+ * between the points that are kept, so the simplified path replays correctly
+ * in time and not just in shape.
+ */
+public class TrajectorySimplifier {
+    private static final double METERS_PER_DEG_LAT = 6371000.0 * Math.PI / 180.0;
+
+    private final float toleranceMeters;
+    private final float speedToleranceMps;
+    private final int maxWindow;
+
+    // Points after the current anchor, the last one being the floating end
+    private final long[] windowTimes;
+    private final double[] windowLats;
+    private final double[] windowLngs;
+    private final float[] windowSpeeds;
+    private int windowSize;
+
+    private boolean hasAnchor;
+    private long anchorTime;
+    private double anchorLat;
+    private double anchorLng;
+    private float anchorSpeed;
+
+    private Result result;
+
+    public TrajectorySimplifier() {
+        this(Constants.TRACK_SIMPLIFY_TOLERANCE, Constants.TRACK_SIMPLIFY_SPEED_TOLERANCE,
+                Constants.TRACK_SIMPLIFY_MAX_WINDOW);
+    }
+
+    public TrajectorySimplifier(float toleranceMeters, float speedToleranceMps, int maxWindow) {
+        if (maxWindow < 2) {
+            throw new IllegalArgumentException("maxWindow must be at least 2");
+        }
+        this.toleranceMeters = toleranceMeters;
+        this.speedToleranceMps = speedToleranceMps;
+        this.maxWindow = maxWindow;
+        this.windowTimes = new long[maxWindow];
+        this.windowLats = new double[maxWindow];
+        this.windowLngs = new double[maxWindow];
+        this.windowSpeeds = new float[maxWindow];
+        reset();
+    }
+
+    /**
+     * Compress the points of a track between two timestamps (inclusive)
+     */
+    public static Result simplify(TrackBuffer track, long fromMillis, long toMillis) {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier();
+        track.forEachInRange(fromMillis, toMillis,
+                (index, time, lat, lng, accuracy, speed, bearing) -> simplifier.offer(time, lat, lng, speed));
+        return simplifier.finish();
+    }
+
+    public void reset() {
+        windowSize = 0;
+        hasAnchor = false;
+        result = new Result();
+    }
+
+    /**
+     * Feed the next point in time order
+     */
+    public void offer(long timeMillis, double latitude, double longitude, float speed) {
+        result.inputCount++;
+        if (!hasAnchor) {
+            setAnchor(timeMillis, latitude, longitude, speed);
+            return;
+        }
+
+        windowTimes[windowSize] = timeMillis;
+        windowLats[windowSize] = latitude;
+        windowLngs[windowSize] = longitude;
+        windowSpeeds[windowSize] = speed;
+        windowSize++;
+
+        if (windowSize >= 2 && violatesTolerance()) {
+            // The previous point is the furthest we can reach in one segment
+            int keep = windowSize - 2;
+            setAnchor(windowTimes[keep], windowLats[keep], windowLngs[keep], windowSpeeds[keep]);
+            shiftWindow(keep + 1);
+        }
+
+        if (windowSize == maxWindow) {
+            int last = windowSize - 1;
+            setAnchor(windowTimes[last], windowLats[last], windowLngs[last], windowSpeeds[last]);
+            windowSize = 0;
+        }
+    }
+
+    /**
+     * Emit the trailing point and return the simplified track
+     */
+    public Result finish() {
+        if (windowSize > 0) {
+            int last = windowSize - 1;
+            result.add(windowTimes[last], windowLats[last], windowLngs[last]);
+            windowSize = 0;
+        }
+        Result finished = result;
+        hasAnchor = false;
+        result = new Result();
+        return finished;
+    }
+
+    private boolean violatesTolerance() {
+        int end = windowSize - 1;
+        long span = windowTimes[end] - anchorTime;
+        for (int i = 0; i < end; i++) {
+            double ratio = span <= 0 ? 0 : (double) (windowTimes[i] - anchorTime) / span;
+            double lat = anchorLat + (windowLats[end] - anchorLat) * ratio;
+            double lng = anchorLng + (windowLngs[end] - anchorLng) * ratio;
+            if (distanceMeters(lat, lng, windowLats[i], windowLngs[i]) > toleranceMeters) {
+                return true;
+            }
+            if (speedToleranceMps > 0) {
+                double speed = anchorSpeed + (windowSpeeds[end] - anchorSpeed) * ratio;
+                if (Math.abs(speed - windowSpeeds[i]) > speedToleranceMps) {
+                    return true;
+                }
+            }
+        }
+        return false;
+    }
+
+    private void setAnchor(long time, double lat, double lng, float speed) {
+        anchorTime = time;
+        anchorLat = lat;
+        anchorLng = lng;
+        anchorSpeed = speed;
+        hasAnchor = true;
+        result.add(time, lat, lng);
+    }
+
+    private void shiftWindow(int from) {
+        int remaining = windowSize - from;
+        System.arraycopy(windowTimes, from, windowTimes, 0, remaining);
+        System.arraycopy(windowLats, from, windowLats, 0, remaining);
+        System.arraycopy(windowLngs, from, windowLngs, 0, remaining);
+        System.arraycopy(windowSpeeds, from, windowSpeeds, 0, remaining);
+        windowSize = remaining;
+    }
+
+    /**
+     * Equirectangular distance, accurate enough at tolerance scale
+     */
+    private static double distanceMeters(double lat1, double lng1, double lat2, double lng2) {
+        double x = (lng2 - lng1) * Math.cos(Math.toRadians((lat1 + lat2) / 2));
+        double y = lat2 - lat1;
+        return Math.sqrt(x * x + y * y) * METERS_PER_DEG_LAT;
+    }
+
+    /**
+     * Kept points of a simplified track
+     */
+    public static class Result {
+        private long[] times = new long[64];
+        private double[] latitudes = new double[64];
+        private double[] longitudes = new double[64];
+        private int size;
+        private int inputCount;
+
+        void add(long time, double lat, double lng) {
+            if (size == times.length) {
+                int grown = size * 2;
+                times = Arrays.copyOf(times, grown);
+                latitudes = Arrays.copyOf(latitudes, grown);
+                longitudes = Arrays.copyOf(longitudes, grown);
+            }
+            times[size] = time;
+            latitudes[size] = lat;
+            longitudes[size] = lng;
+            size++;
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public int getInputCount() {
+            return inputCount;
+        }
+
+        public long getTime(int index) {
+            return times[index];
+        }
+
+        public double getLatitude(int index) {
+            return latitudes[index];
+        }
+
+        public double getLongitude(int index) {
+            return longitudes[index];
+        }
+
+        /**
+         * Input points per kept point, e.g. 10.0 for a tenfold reduction
+         */
+        public float getCompressionRatio() {
+            return size == 0 ? 1f : (float) inputCount / size;
+        }
+
+        /**
+         * Encode the kept positions in the Google encoded polyline format
+         */
+        public String toEncodedPolyline() {
+            StringBuilder encoded = new StringBuilder(size * 6);
+            long previousLat = 0;
+            long previousLng = 0;
+            for (int i = 0; i < size; i++) {
+                long lat = Math.round(latitudes[i] * 1e5);
+                long lng = Math.round(longitudes[i] * 1e5);
+                encodeValue(lat - previousLat, encoded);
+                encodeValue(lng - previousLng, encoded);
+                previousLat = lat;
+                previousLng = lng;
+            }
+            return encoded.toString();
+        }
+
+        private static void encodeValue(long value, StringBuilder out) {
+            value = value < 0 ? ~(value << 1) : (value << 1);
+            while (value >= 0x20) {
+                out.append((char) ((0x20 | (value & 0x1f)) + 63));
+                value >>= 5;
+            }
+            out.append((char) (value + 63));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package com.example.student.services;
+
+import android.location.Location;
+
+import com.example.student.utils.Constants;
+
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Location is an android.jar stub here, so the filter is driven through update()
+ * and read back through its estimate getters.
+ */
+public class LocationFilterTest {
+    private static final double BASE_LAT = 40.0;
+    private static final double BASE_LNG = -74.0;
+    private static final double METERS_PER_DEG_LAT = 6371000.0 * Math.PI / 180.0;
+    private static final double METERS_PER_DEG_LNG = METERS_PER_DEG_LAT * Math.cos(Math.toRadians(BASE_LAT));
+
+    private static double northOf(double meters) {
+        return BASE_LAT + meters / METERS_PER_DEG_LAT;
+    }
+
+    private static double eastOf(double meters) {
+        return BASE_LNG + meters / METERS_PER_DEG_LNG;
+    }
+
+    private static double errorMeters(LocationFilter filter, double lat, double lng) {
+        return Math.hypot((filter.getFilteredLatitude() - lat) * METERS_PER_DEG_LAT,
+                (filter.getFilteredLongitude() - lng) * METERS_PER_DEG_LNG);
+    }
+
+    private static Location withAccuracy(float accuracy) {
+        return new Location("test") {
+            @Override
+            public boolean hasAccuracy() {
+                return true;
+            }
+
+            @Override
+            public float getAccuracy() {
+                return accuracy;
+            }
+        };
+    }
+
+    @Test
+    public void accuracyCheck() {
+        assertFalse(LocationFilter.isAccurateEnough(null));
+        assertTrue(LocationFilter.isAccurateEnough(withAccuracy(10f)));
+        assertTrue(LocationFilter.isAccurateEnough(withAccuracy(Constants.LOCATION_ACCURACY_THRESHOLD)));
+        assertFalse(LocationFilter.isAccurateEnough(withAccuracy(Constants.LOCATION_ACCURACY_THRESHOLD + 1)));
+    }
+
+    @Test
+    public void processRejectsInaccurateFix() {
+        LocationFilter filter = new LocationFilter();
+
+        assertNull(filter.process(withAccuracy(200f)));
+        assertNull(filter.process(null));
+        assertEquals(1, filter.getRejectedAccuracyCount());
+        assertEquals(0, filter.getAcceptedCount());
+    }
+
+    @Test
+    public void firstMeasurementIsTakenAsIs() {
+        LocationFilter filter = new LocationFilter();
+
+        assertTrue(filter.update(1000, BASE_LAT, BASE_LNG, 10f));
+
+        assertEquals(BASE_LAT, filter.getFilteredLatitude(), 1e-9);
+        assertEquals(BASE_LNG, filter.getFilteredLongitude(), 1e-9);
+        assertEquals(10f, filter.getFilteredAccuracy(), 0.01f);
+        assertEquals(0f, filter.getFilteredSpeed(), 0f);
+    }
+
+    @Test
+    public void noisyStationaryFixesConverge() {
+        LocationFilter filter = new LocationFilter();
+        Random random = new Random(1);
+        double rawError = 0;
+        double filteredError = 0;
+
+        for (int i = 0; i < 120; i++) {
+            double dx = random.nextGaussian() * 8;
+            double dy = random.nextGaussian() * 8;
+            assertTrue(filter.update(i * 1000L, northOf(dy), eastOf(dx), 10f));
+            if (i >= 60) {
+                // Once settled, the estimate should sit closer to the truth than the fixes
+                rawError += Math.hypot(dx, dy);
+                filteredError += errorMeters(filter, BASE_LAT, BASE_LNG);
+            }
+        }
+
+        assertTrue("filtered " + filteredError + " raw " + rawError, filteredError < rawError * 0.8);
+        assertTrue(filter.getFilteredAccuracy() < 10f);
+    }
+
+    @Test
+    public void constantVelocityGivesSpeedAndBearing() {
+        LocationFilter north = new LocationFilter();
+        LocationFilter east = new LocationFilter();
+
+        for (int i = 0; i <= 30; i++) {
+            north.update(i * 1000L, northOf(i * 10.0), BASE_LNG, 5f);
+            east.update(i * 1000L, BASE_LAT, eastOf(i * 10.0), 5f);
+        }
+
+        assertEquals(10f, north.getFilteredSpeed(), 1f);
+        float northBearing = north.getFilteredBearing();
+        assertTrue("bearing " + northBearing, northBearing < 5f || northBearing > 355f);
+        assertEquals(10f, east.getFilteredSpeed(), 1f);
+        assertEquals(90f, east.getFilteredBearing(), 5f);
+        assertTrue(errorMeters(north, northOf(300), BASE_LNG) < 5);
+    }
+
+    @Test
+    public void impossibleJumpIsRejected() {
+        LocationFilter filter = new LocationFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.update(i * 1000L, BASE_LAT, BASE_LNG, 5f);
+        }
+        double lat = filter.getFilteredLatitude();
+
+        assertFalse(filter.update(10000, northOf(1000), BASE_LNG, 5f));
+
+        assertEquals(1, filter.getRejectedSpeedCount());
+        assertEquals(lat, filter.getFilteredLatitude(), 0);
+    }
+
+    @Test
+    public void repeatedJumpsResetFilter() {
+        LocationFilter filter = new LocationFilter();
+        for (int i = 0; i < 10; i++) {
+            filter.update(i * 1000L, BASE_LAT, BASE_LNG, 5f);
+        }
+
+        for (int i = 1; i < Constants.LOCATION_FILTER_MAX_REJECTS; i++) {
+            assertFalse(filter.update((9 + i) * 1000L, northOf(1000), BASE_LNG, 5f));
+        }
+        assertTrue(filter.update((9 + Constants.LOCATION_FILTER_MAX_REJECTS) * 1000L, northOf(1000), BASE_LNG, 5f));
+
+        assertEquals(northOf(1000), filter.getFilteredLatitude(), 1e-9);
+    }
+
+    @Test
+    public void longGapStartsNewTrack() {
+        LocationFilter filter = new LocationFilter();
+        filter.update(0, BASE_LAT, BASE_LNG, 5f);
+
+        assertTrue(filter.update(Constants.LOCATION_FILTER_RESET_GAP + 1000, northOf(5000), BASE_LNG, 5f));
+
+        assertEquals(northOf(5000), filter.getFilteredLatitude(), 1e-9);
+        assertEquals(0, filter.getRejectedSpeedCount());
+    }
+
+    @Test
+    public void resetForgetsTrack() {
+        LocationFilter filter = new LocationFilter();
+        filter.update(0, BASE_LAT, BASE_LNG, 5f);
+        filter.reset();
+
+        assertTrue(filter.update(1000, northOf(5000), BASE_LNG, 5f));
+
+        assertEquals(northOf(5000), filter.getFilteredLatitude(), 1e-9);
+    }
+}
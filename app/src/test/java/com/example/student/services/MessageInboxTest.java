@@ -0,0 +1,179 @@
+package com.example.student.services;
+
+import com.example.student.models.CrossAppMessage;
+import com.google.firebase.firestore.DocumentChange;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Feeds are driven through update() with the document changes a snapshot would
+ * carry, so routing runs without a listener.
+ */
+public class MessageInboxTest {
+    private final MessageInbox inbox = new MessageInbox(null);
+    private final MessageInbox.Feed feed = inbox.new Feed("student/s1");
+
+    private static CrossAppMessage message(String id, boolean read) {
+        CrossAppMessage message = new CrossAppMessage();
+        message.setMessageId(id);
+        message.setRead(read);
+        return message;
+    }
+
+    private static List<String> ids(List<CrossAppMessage> messages) {
+        List<String> ids = new ArrayList<>();
+        for (CrossAppMessage message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+
+    private MessageInbox.Subscription subscribe(MessageInbox.Filter filter, List<MessageView.Delta> deltas) {
+        MessageInbox.Subscription subscription = inbox.new Subscription(feed, filter, deltas::add);
+        feed.add(subscription);
+        return subscription;
+    }
+
+    private void add(int index, CrossAppMessage message) {
+        feed.update(() -> {
+            feed.view.applyChange(DocumentChange.Type.ADDED, -1, index, message.getMessageId(), message);
+            return new MessageView.Delta(Collections.singletonList(message), new ArrayList<>(),
+                    new ArrayList<>(), feed.view::getMessages);
+        });
+    }
+
+    private void modify(int index, CrossAppMessage message) {
+        feed.update(() -> {
+            feed.view.applyChange(DocumentChange.Type.MODIFIED, index, index, message.getMessageId(), message);
+            return new MessageView.Delta(new ArrayList<>(), Collections.singletonList(message),
+                    new ArrayList<>(), feed.view::getMessages);
+        });
+    }
+
+    private void remove(int index, String messageId) {
+        feed.update(() -> {
+            feed.view.applyChange(DocumentChange.Type.REMOVED, index, -1, messageId, null);
+            return new MessageView.Delta(new ArrayList<>(), new ArrayList<>(),
+                    Collections.singletonList(messageId), feed.view::getMessages);
+        });
+    }
+
+    @Test
+    public void readMessageLeavesUnreadView() {
+        List<MessageView.Delta> unread = new ArrayList<>();
+        List<MessageView.Delta> all = new ArrayList<>();
+        subscribe(MessageInbox.UNREAD, unread);
+        subscribe(new MessageInbox.Filter(message -> true, 0), all);
+        add(0, message("a", false));
+
+        modify(0, message("a", true));
+
+        assertEquals(2, unread.size());
+        assertEquals(Arrays.asList("a"), unread.get(1).getRemovedIds());
+        assertTrue(unread.get(1).getModified().isEmpty());
+        assertEquals(Arrays.asList("a"), ids(all.get(1).getModified()));
+    }
+
+    @Test
+    public void messageMarkedUnreadAgainRejoinsUnreadView() {
+        List<MessageView.Delta> unread = new ArrayList<>();
+        subscribe(MessageInbox.UNREAD, unread);
+        add(0, message("a", true));
+
+        feed.setRead("a", false);
+
+        assertEquals(1, unread.size());
+        assertEquals(Arrays.asList("a"), ids(unread.get(0).getAdded()));
+    }
+
+    @Test
+    public void changesOutsideViewAreNotDelivered() {
+        List<MessageView.Delta> unread = new ArrayList<>();
+        subscribe(MessageInbox.UNREAD, unread);
+        add(0, message("a", true));
+
+        modify(0, message("a", true));
+        remove(0, "a");
+
+        assertTrue(unread.isEmpty());
+    }
+
+    @Test
+    public void topNViewDiffsRank() {
+        List<MessageView.Delta> recent = new ArrayList<>();
+        MessageInbox.Subscription subscription = subscribe(new MessageInbox.Filter(message -> true, 2), recent);
+        add(0, message("a", false));
+        add(0, message("b", false));
+
+        // A newer message pushes the oldest out of the top two
+        add(0, message("c", false));
+
+        MessageView.Delta pushed = recent.get(2);
+        assertEquals(Arrays.asList("c"), ids(pushed.getAdded()));
+        assertEquals(Arrays.asList("a"), pushed.getRemovedIds());
+        assertEquals(Arrays.asList("c", "b"), ids(subscription.getMessages()));
+
+        // Removing one from the top lets the next one back in
+        remove(0, "c");
+
+        MessageView.Delta promoted = recent.get(3);
+        assertEquals(Arrays.asList("a"), ids(promoted.getAdded()));
+        assertEquals(Arrays.asList("c"), promoted.getRemovedIds());
+
+        // Changes below the top are not this view's business
+        int before = recent.size();
+        add(2, message("d", false));
+        modify(2, message("d", true));
+        assertEquals(before, recent.size());
+
+        modify(0, message("b", true));
+        assertEquals(Arrays.asList("b"), ids(recent.get(recent.size() - 1).getModified()));
+    }
+
+    @Test
+    public void lateJoinerCatchesUpAndThenGetsDeltas() {
+        add(0, message("a", true));
+        add(0, message("b", false));
+        add(0, message("c", false));
+        List<MessageView.Delta> unread = new ArrayList<>();
+
+        subscribe(MessageInbox.UNREAD, unread);
+
+        assertEquals(1, unread.size());
+        assertEquals(Arrays.asList("c", "b"), ids(unread.get(0).getAdded()));
+
+        // Members come from the catch-up, so reading one is a removal, not nothing
+        modify(1, message("b", true));
+
+        assertEquals(2, unread.size());
+        assertEquals(Arrays.asList("b"), unread.get(1).getRemovedIds());
+    }
+
+    @Test
+    public void joinerBeforeFirstSnapshotGetsNoCatchUp() {
+        List<MessageView.Delta> unread = new ArrayList<>();
+
+        subscribe(MessageInbox.UNREAD, unread);
+
+        assertTrue(unread.isEmpty());
+    }
+
+    @Test
+    public void removedSubscriptionStopsReceiving() {
+        List<MessageView.Delta> unread = new ArrayList<>();
+        MessageInbox.Subscription subscription = subscribe(MessageInbox.UNREAD, unread);
+
+        subscription.remove();
+        add(0, message("a", false));
+
+        assertTrue(unread.isEmpty());
+    }
+}
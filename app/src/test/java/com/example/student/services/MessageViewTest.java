@@ -0,0 +1,184 @@
+package com.example.student.services;
+
+import com.example.student.models.CrossAppMessage;
+import com.google.firebase.firestore.DocumentChange;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Snapshots can't be built outside the SDK, so changes are fed through applyChange
+ * with the indexes Firestore would report.
+ */
+public class MessageViewTest {
+
+    private static CrossAppMessage message(String id, String content) {
+        CrossAppMessage message = new CrossAppMessage();
+        message.setMessageId(id);
+        message.setContent(content);
+        return message;
+    }
+
+    private static List<String> ids(List<CrossAppMessage> messages) {
+        List<String> ids = new ArrayList<>();
+        for (CrossAppMessage message : messages) {
+            ids.add(message.getMessageId());
+        }
+        return ids;
+    }
+
+    private static void add(MessageView view, int index, String id) {
+        view.applyChange(DocumentChange.Type.ADDED, -1, index, id, message(id, id));
+    }
+
+    @Test
+    public void addedMessagesLandAtTheirIndex() {
+        MessageView view = new MessageView();
+
+        add(view, 0, "b");
+        add(view, 0, "a");
+        add(view, 2, "d");
+        add(view, 2, "c");
+
+        assertEquals(Arrays.asList("a", "b", "c", "d"), ids(view.getMessages()));
+        assertEquals(4, view.size());
+        assertEquals("c", view.get("c").getMessageId());
+    }
+
+    @Test
+    public void modificationInPlaceReplacesContent() {
+        MessageView view = new MessageView();
+        add(view, 0, "a");
+        add(view, 1, "b");
+        CrossAppMessage updated = message("a", "edited");
+
+        view.applyChange(DocumentChange.Type.MODIFIED, 0, 0, "a", updated);
+
+        assertEquals(Arrays.asList("a", "b"), ids(view.getMessages()));
+        assertSame(updated, view.get("a"));
+        assertSame(updated, view.getMessages().get(0));
+    }
+
+    @Test
+    public void modificationCanMoveMessage() {
+        MessageView view = new MessageView();
+        add(view, 0, "a");
+        add(view, 1, "b");
+        add(view, 2, "c");
+
+        view.applyChange(DocumentChange.Type.MODIFIED, 0, 2, "a", message("a", "newest"));
+
+        assertEquals(Arrays.asList("b", "c", "a"), ids(view.getMessages()));
+        assertEquals("newest", view.get("a").getContent());
+    }
+
+    @Test
+    public void removalDropsMessage() {
+        MessageView view = new MessageView();
+        add(view, 0, "a");
+        add(view, 1, "b");
+
+        view.applyChange(DocumentChange.Type.REMOVED, 0, -1, "a", null);
+
+        assertEquals(Arrays.asList("b"), ids(view.getMessages()));
+        assertNull(view.get("a"));
+    }
+
+    @Test
+    public void randomChangesMatchQueryResult() {
+        // Replays random edits of an ordered result set the way Firestore reports them
+        Random random = new Random(1);
+        MessageView view = new MessageView();
+        List<String> expected = new ArrayList<>();
+        int nextId = 0;
+
+        for (int step = 0; step < 2000; step++) {
+            int op = expected.isEmpty() ? 0 : random.nextInt(3);
+            if (op == 0) {
+                String id = "m" + nextId++;
+                int index = random.nextInt(expected.size() + 1);
+                expected.add(index, id);
+                add(view, index, id);
+            } else if (op == 1) {
+                int oldIndex = random.nextInt(expected.size());
+                String id = expected.remove(oldIndex);
+                int newIndex = random.nextInt(expected.size() + 1);
+                expected.add(newIndex, id);
+                view.applyChange(DocumentChange.Type.MODIFIED, oldIndex, newIndex, id, message(id, "step " + step));
+            } else {
+                int oldIndex = random.nextInt(expected.size());
+                String id = expected.remove(oldIndex);
+                view.applyChange(DocumentChange.Type.REMOVED, oldIndex, -1, id, null);
+                assertNull(view.get(id));
+            }
+        }
+
+        assertEquals(expected, ids(view.getMessages()));
+        for (String id : expected) {
+            assertEquals(id, view.get(id).getMessageId());
+        }
+    }
+
+    @Test
+    public void clearEmptiesView() {
+        MessageView view = new MessageView();
+        add(view, 0, "a");
+
+        view.clear();
+
+        assertEquals(0, view.size());
+        assertNull(view.get("a"));
+    }
+
+    @Test
+    public void messagesAreACopy() {
+        MessageView view = new MessageView();
+        add(view, 0, "a");
+
+        view.getMessages().clear();
+
+        assertEquals(1, view.size());
+    }
+
+    @Test
+    public void deltaReportsChanges() {
+        MessageView.Delta empty = new MessageView.Delta(new ArrayList<>(), new ArrayList<>(), new ArrayList<>(),
+                ArrayList::new);
+        MessageView.Delta removal = new MessageView.Delta(new ArrayList<>(), new ArrayList<>(),
+                new ArrayList<>(Arrays.asList("a")), ArrayList::new);
+
+        assertTrue(empty.isEmpty());
+        assertFalse(removal.isEmpty());
+        assertEquals(Arrays.asList("a"), removal.getRemovedIds());
+    }
+
+    @Test
+    public void deltaBuildsMessagesOnlyWhenAsked() {
+        int[] built = {0};
+        MessageView.Delta delta = MessageView.Delta.ofAdded(new ArrayList<>(Arrays.asList(message("a", "a"))))
+                .withMessages(() -> {
+                    built[0]++;
+                    return new ArrayList<>();
+                });
+
+        assertEquals(0, built[0]);
+        assertEquals(1, delta.getAdded().size());
+        delta.getMessages();
+        assertEquals(1, built[0]);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void deltaListsAreReadOnly() {
+        MessageView.Delta.ofAdded(new ArrayList<>()).getAdded().add(message("a", "a"));
+    }
+}
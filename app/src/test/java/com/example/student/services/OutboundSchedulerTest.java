@@ -0,0 +1,270 @@
+package com.example.student.services;
+
+import com.example.student.models.CrossAppMessage;
+import com.example.student.utils.Constants;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Supplier;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Writes here are futures the test completes by hand. The slot timeout is
+ * posted to an android.jar stub handler and never fires.
+ */
+public class OutboundSchedulerTest {
+    private static final String URGENT = CrossAppIntegrationService.PRIORITY_URGENT;
+    private static final String HIGH = CrossAppIntegrationService.PRIORITY_HIGH;
+    private static final String MEDIUM = CrossAppIntegrationService.PRIORITY_MEDIUM;
+    private static final String LOW = CrossAppIntegrationService.PRIORITY_LOW;
+
+    private final OutboundScheduler scheduler = new OutboundScheduler();
+    private final List<String> started = new ArrayList<>();
+    private final List<CompletableFuture<Boolean>> running = new ArrayList<>();
+
+    private Supplier<CompletableFuture<Boolean>> write(String name) {
+        return () -> {
+            CompletableFuture<Boolean> future = new CompletableFuture<>();
+            started.add(name);
+            running.add(future);
+            return future;
+        };
+    }
+
+    private CompletableFuture<Boolean> submit(String priority, String name) {
+        return scheduler.submit(priority, null, write(name));
+    }
+
+    private static CrossAppMessage fanOut(String messageType, String routeId) {
+        CrossAppMessage template = new CrossAppMessage(null, "driver-1", CrossAppIntegrationService.USER_TYPE_DRIVER,
+                null, CrossAppIntegrationService.USER_TYPE_SUPERVISOR, messageType);
+        template.setRouteId(routeId);
+        return template;
+    }
+
+    private CompletableFuture<Boolean> submitFanOut(CrossAppMessage template, int chunkStart, String name) {
+        String key = CrossAppIntegrationService.fanOutCoalesceKey(template,
+                CrossAppIntegrationService.USER_TYPE_SUPERVISOR, chunkStart);
+        return scheduler.submit(MEDIUM, key, write(name));
+    }
+
+    private void fillWindow() {
+        for (int i = 0; i < Constants.OUTBOUND_MAX_IN_FLIGHT; i++) {
+            submit(LOW, "window-" + i);
+        }
+        started.clear();
+    }
+
+    private void finishOldest() {
+        running.remove(0).complete(true);
+    }
+
+    @Test
+    public void dispatchesUpToWindow() {
+        for (int i = 0; i < Constants.OUTBOUND_MAX_IN_FLIGHT + 2; i++) {
+            submit(MEDIUM, "m" + i);
+        }
+
+        assertEquals(Constants.OUTBOUND_MAX_IN_FLIGHT, started.size());
+        assertEquals(Constants.OUTBOUND_MAX_IN_FLIGHT, scheduler.getInFlight());
+        assertEquals(2, scheduler.getQueueDepth());
+
+        finishOldest();
+
+        assertEquals(Constants.OUTBOUND_MAX_IN_FLIGHT + 1, started.size());
+        assertEquals(1, scheduler.getQueueDepth());
+    }
+
+    @Test
+    public void resultOfWriteIsPassedThrough() {
+        CompletableFuture<Boolean> result = submit(MEDIUM, "m");
+
+        running.get(0).complete(true);
+
+        assertTrue(result.join());
+        assertEquals(0, scheduler.getInFlight());
+    }
+
+    @Test
+    public void higherPriorityIsDispatchedFirst() {
+        fillWindow();
+        submit(LOW, "low");
+        submit(HIGH, "high");
+        submit(MEDIUM, "medium");
+
+        finishOldest();
+        finishOldest();
+        finishOldest();
+
+        assertEquals(List.of("high", "medium", "low"), started);
+    }
+
+    @Test
+    public void urgentSkipsWindow() {
+        fillWindow();
+
+        submit(URGENT, "urgent");
+
+        assertEquals(List.of("urgent"), started);
+        assertEquals(Constants.OUTBOUND_MAX_IN_FLIGHT + 1, scheduler.getInFlight());
+    }
+
+    @Test
+    public void queuedWriteWithSameKeyIsCoalesced() {
+        fillWindow();
+        CompletableFuture<Boolean> first = scheduler.submit(MEDIUM, "loc", write("first"));
+        CompletableFuture<Boolean> second = scheduler.submit(MEDIUM, "loc", write("second"));
+
+        finishOldest();
+
+        assertSame(first, second);
+        assertEquals(List.of("second"), started);
+        assertEquals(1, scheduler.getCoalescedCount());
+    }
+
+    @Test
+    public void queuedLocationFanOutsAreCoalescedPerChunk() {
+        fillWindow();
+        String location = CrossAppIntegrationService.MESSAGE_TYPE_LOCATION_UPDATE;
+        CompletableFuture<Boolean> first = submitFanOut(fanOut(location, "route-1"), 0, "first");
+        submitFanOut(fanOut(location, "route-1"), 500, "first-rest");
+        CompletableFuture<Boolean> second = submitFanOut(fanOut(location, "route-1"), 0, "second");
+        submitFanOut(fanOut(location, "route-2"), 0, "other-route");
+        submitFanOut(fanOut(CrossAppIntegrationService.MESSAGE_TYPE_CHECKIN, "route-1"), 0, "checkin");
+        submitFanOut(fanOut(CrossAppIntegrationService.MESSAGE_TYPE_CHECKIN, "route-1"), 0, "checkin-again");
+
+        for (int i = 0; i < 5; i++) {
+            finishOldest();
+        }
+
+        assertSame(first, second);
+        assertEquals(List.of("second", "first-rest", "other-route", "checkin", "checkin-again"), started);
+        assertEquals(1, scheduler.getCoalescedCount());
+    }
+
+    @Test
+    public void fullQueueDropsLocationFanOutBeforeMessages() {
+        fillWindow();
+        CompletableFuture<Boolean> location = submitFanOut(
+                fanOut(CrossAppIntegrationService.MESSAGE_TYPE_LOCATION_UPDATE, "route-1"), 0, "loc");
+        List<CompletableFuture<Boolean>> messages = new ArrayList<>();
+        for (int i = 1; i < Constants.OUTBOUND_MAX_QUEUED; i++) {
+            messages.add(submit(LOW, "low-" + i));
+        }
+
+        submit(MEDIUM, "message");
+
+        assertFalse(location.join());
+        for (CompletableFuture<Boolean> message : messages) {
+            assertFalse(message.isDone());
+        }
+        assertEquals(1, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void failedOrThrowingWriteReleasesSlot() {
+        fillWindow();
+        CompletableFuture<Boolean> throwing = scheduler.submit(MEDIUM, null, () -> {
+            throw new IllegalStateException("boom");
+        });
+        submit(MEDIUM, "after");
+
+        running.remove(0).completeExceptionally(new RuntimeException("failed"));
+
+        assertFalse(throwing.join());
+        assertEquals(List.of("after"), started);
+        assertEquals(Constants.OUTBOUND_MAX_IN_FLIGHT, scheduler.getInFlight());
+    }
+
+    @Test
+    public void fullQueueDropsCoalescibleWriteFirst() {
+        fillWindow();
+        CompletableFuture<Boolean> location = scheduler.submit(LOW, "loc", write("loc"));
+        for (int i = 1; i < Constants.OUTBOUND_MAX_QUEUED; i++) {
+            submit(LOW, "low-" + i);
+        }
+
+        submit(MEDIUM, "message");
+
+        assertFalse(location.join());
+        assertEquals(Constants.OUTBOUND_MAX_QUEUED, scheduler.getQueueDepth());
+        assertEquals(1, scheduler.getQueueDepth(MEDIUM));
+        assertEquals(1, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void fullQueueEvictsOldestLowerPriorityWrite() {
+        fillWindow();
+        CompletableFuture<Boolean> oldest = submit(LOW, "low-0");
+        CompletableFuture<Boolean> next = submit(LOW, "low-1");
+        for (int i = 2; i < Constants.OUTBOUND_MAX_QUEUED; i++) {
+            submit(LOW, "low-" + i);
+        }
+
+        CompletableFuture<Boolean> high = submit(HIGH, "high");
+
+        assertFalse(oldest.join());
+        assertFalse(next.isDone());
+        assertFalse(high.isDone());
+        assertEquals(Constants.OUTBOUND_MAX_QUEUED, scheduler.getQueueDepth());
+        assertEquals(1, scheduler.getQueueDepth(HIGH));
+    }
+
+    @Test
+    public void fullQueueRejectsWriteWithNothingLowerToDrop() {
+        fillWindow();
+        for (int i = 0; i < Constants.OUTBOUND_MAX_QUEUED; i++) {
+            submit(HIGH, "high-" + i);
+        }
+
+        assertFalse(submit(HIGH, "high").join());
+        assertFalse(submit(MEDIUM, "medium").join());
+        assertEquals(Constants.OUTBOUND_MAX_QUEUED, scheduler.getQueueDepth());
+        assertEquals(2, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void fullQueueNeverDropsMessageForLocationUpdate() {
+        fillWindow();
+        List<CompletableFuture<Boolean>> messages = new ArrayList<>();
+        for (int i = 0; i < Constants.OUTBOUND_MAX_QUEUED; i++) {
+            messages.add(submit(LOW, "low-" + i));
+        }
+
+        assertFalse(scheduler.submit(HIGH, "loc", write("loc")).join());
+        for (CompletableFuture<Boolean> message : messages) {
+            assertFalse(message.isDone());
+        }
+    }
+
+    @Test
+    public void fullQueueStillAdmitsUrgent() {
+        fillWindow();
+        for (int i = 0; i < Constants.OUTBOUND_MAX_QUEUED; i++) {
+            submit(HIGH, "high-" + i);
+        }
+
+        submit(URGENT, "urgent");
+
+        assertEquals(List.of("urgent"), started);
+        assertEquals(Constants.OUTBOUND_MAX_QUEUED, scheduler.getQueueDepth());
+        assertEquals(0, scheduler.getDroppedCount());
+    }
+
+    @Test
+    public void unknownPriorityIsTreatedAsMedium() {
+        fillWindow();
+
+        submit("sometime", "unknown");
+        submit(null, "unset");
+
+        assertEquals(2, scheduler.getQueueDepth(MEDIUM));
+    }
+}
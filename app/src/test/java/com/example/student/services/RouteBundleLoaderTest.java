@@ -0,0 +1,133 @@
+package com.example.student.services;
+
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
+import java.util.zip.GZIPInputStream;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Fixture bundles are built here in the served format: length-prefixed JSON
+ * elements, metadata first, optionally gzipped.
+ */
+public class RouteBundleLoaderTest {
+    // 2024-09-02T05:00:00Z
+    private static final long CREATE_TIME = 1725253200000L;
+    private static final String DOCUMENT = "{\"documentMetadata\":{\"name\":\"projects/p/databases/(default)"
+            + "/documents/routes/route-1\",\"exists\":true}}";
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private static byte[] bundle(String createTime) {
+        String metadata = "{\"metadata\":{\"id\":\"route-1\",\"createTime\":" + createTime
+                + ",\"version\":1,\"totalDocuments\":1}}";
+        StringBuilder out = new StringBuilder();
+        for (String element : new String[] {metadata, DOCUMENT}) {
+            out.append(element.getBytes(StandardCharsets.UTF_8).length).append(element);
+        }
+        return out.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static byte[] gzip(byte[] data) throws IOException {
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (OutputStream out = new GZIPOutputStream(bytes)) {
+            out.write(data);
+        }
+        return bytes.toByteArray();
+    }
+
+    private File write(byte[] data) throws IOException {
+        File file = folder.newFile();
+        try (OutputStream out = new FileOutputStream(file)) {
+            out.write(data);
+        }
+        return file;
+    }
+
+    private static byte[] readAll(InputStream input) throws IOException {
+        try (InputStream in = input) {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            byte[] buffer = new byte[256];
+            int read;
+            while ((read = in.read(buffer)) != -1) {
+                out.write(buffer, 0, read);
+            }
+            return out.toByteArray();
+        }
+    }
+
+    @Test
+    public void buildTimeFromTimestampObject() throws IOException {
+        File file = write(bundle("{\"seconds\":1725253200,\"nanos\":123456789}"));
+
+        assertEquals(CREATE_TIME + 123, RouteBundleLoader.readBuildTime(file));
+    }
+
+    @Test
+    public void buildTimeFromRfc3339String() throws IOException {
+        File file = write(bundle("\"2024-09-02T05:00:00.123456Z\""));
+
+        assertEquals(CREATE_TIME, RouteBundleLoader.readBuildTime(file));
+    }
+
+    @Test
+    public void buildTimeFromGzippedBundle() throws IOException {
+        File file = write(gzip(bundle("{\"seconds\":1725253200}")));
+
+        assertEquals(CREATE_TIME, RouteBundleLoader.readBuildTime(file));
+    }
+
+    @Test
+    public void buildTimeIsZeroWhenUnknown() throws IOException {
+        assertEquals(0, RouteBundleLoader.readBuildTime(write(bundle("null"))));
+        assertEquals(0, RouteBundleLoader.readBuildTime(write("{\"metadata\":{}}".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(0, RouteBundleLoader.readBuildTime(write("99999999{".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(0, RouteBundleLoader.readBuildTime(write("500{\"metadata\":".getBytes(StandardCharsets.UTF_8))));
+        assertEquals(0, RouteBundleLoader.readBuildTime(new File(folder.getRoot(), "missing.bundle")));
+    }
+
+    @Test
+    public void openDetectsGzip() throws IOException {
+        byte[] plain = bundle("{\"seconds\":1725253200}");
+
+        InputStream gzipped = RouteBundleLoader.open(write(gzip(plain)));
+        assertTrue(gzipped instanceof GZIPInputStream);
+        assertArrayEquals(plain, readAll(gzipped));
+
+        InputStream unzipped = RouteBundleLoader.open(write(plain));
+        assertFalse(unzipped instanceof GZIPInputStream);
+        assertArrayEquals(plain, readAll(unzipped));
+    }
+
+    @Test
+    public void bundleFileIsReadyToLoad() throws IOException {
+        byte[] plain = bundle("{\"seconds\":1725253200}");
+
+        RouteBundleLoader.BundleFile bundle = RouteBundleLoader.BundleFile.read(write(gzip(plain)));
+
+        assertNotNull(bundle);
+        assertEquals(CREATE_TIME, bundle.builtAt);
+        assertArrayEquals(plain, readAll(bundle.input));
+    }
+
+    @Test
+    public void bundleFileIsNullWhenMissing() {
+        assertNull(RouteBundleLoader.BundleFile.read(new File(folder.getRoot(), "missing.bundle")));
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.student.utils;
+
+import android.location.Location;
+import android.os.Handler;
+import android.os.Looper;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * The journal's handler is an android.jar stub here, so nothing it posts runs;
+ * each test opens the journal itself and readAfter writes out pending records.
+ */
+public class LocationJournalTest {
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private File directory;
+
+    @Before
+    public void setUp() throws IOException {
+        directory = folder.newFolder("journal");
+    }
+
+    private LocationJournal open() {
+        LocationJournal journal = new LocationJournal(directory, new Handler(Looper.getMainLooper()));
+        journal.recover();
+        return journal;
+    }
+
+    private File journalFile() {
+        return new File(directory, "journal.bin");
+    }
+
+    private static void appendCheckIn(LocationJournal journal, String tripId, boolean checkOut) {
+        journal.appendCheckIn(tripId, "student-1", "bus-1", "stop-1", "manual", checkOut,
+                1700000000000L, 40.5, -74.25, null, 0, 0);
+    }
+
+    private static List<LocationJournal.Record> readAll(LocationJournal journal, long afterSequence) {
+        List<LocationJournal.Record> records = new ArrayList<>();
+        journal.readAfter(afterSequence, Integer.MAX_VALUE, record -> records.add(copy(record)));
+        return records;
+    }
+
+    private static LocationJournal.Record copy(LocationJournal.Record record) {
+        LocationJournal.Record copy = new LocationJournal.Record();
+        copy.sequence = record.sequence;
+        copy.type = record.type;
+        copy.time = record.time;
+        copy.latitude = record.latitude;
+        copy.longitude = record.longitude;
+        copy.checkOut = record.checkOut;
+        copy.tripId = record.tripId;
+        copy.studentId = record.studentId;
+        copy.busId = record.busId;
+        copy.stopId = record.stopId;
+        copy.checkInType = record.checkInType;
+        copy.encodedPath = record.encodedPath;
+        copy.rawPointCount = record.rawPointCount;
+        copy.pathPointCount = record.pathPointCount;
+        return copy;
+    }
+
+    @Test
+    public void checkInRoundTrips() {
+        LocationJournal journal = open();
+        journal.appendCheckIn("trip-1", "student-1", "bus-1", "stop-1", "geofence", true,
+                1700000000000L, 40.5, -74.25, "_p~iF~ps|U", 120, 2);
+
+        List<LocationJournal.Record> records = readAll(journal, 0);
+
+        assertEquals(1, records.size());
+        LocationJournal.Record record = records.get(0);
+        assertEquals(1, record.sequence);
+        assertEquals(LocationJournal.TYPE_CHECKIN, record.type);
+        assertEquals(1700000000000L, record.time);
+        assertTrue(record.checkOut);
+        assertEquals(40.5, record.latitude, 0);
+        assertEquals(-74.25, record.longitude, 0);
+        assertEquals("trip-1", record.tripId);
+        assertEquals("student-1", record.studentId);
+        assertEquals("bus-1", record.busId);
+        assertEquals("stop-1", record.stopId);
+        assertEquals("geofence", record.checkInType);
+        assertEquals("_p~iF~ps|U", record.encodedPath);
+        assertEquals(120, record.rawPointCount);
+        assertEquals(2, record.pathPointCount);
+    }
+
+    @Test
+    public void fixIsJournaled() {
+        LocationJournal journal = open();
+        // Location is a stub returning zeros, so the fix is stamped with the current time
+        long before = System.currentTimeMillis();
+        journal.appendFix(new Location("test"));
+
+        List<LocationJournal.Record> records = readAll(journal, 0);
+
+        assertEquals(1, records.size());
+        assertEquals(LocationJournal.TYPE_FIX, records.get(0).type);
+        assertTrue(records.get(0).time >= before);
+    }
+
+    @Test
+    public void oversizedTraceIsLeftOut() {
+        LocationJournal journal = open();
+        StringBuilder path = new StringBuilder();
+        while (path.length() <= 24 * 1024) {
+            path.append("_p~iF~ps|U");
+        }
+        journal.appendCheckIn("trip-1", "student-1", "bus-1", "stop-1", "manual", true,
+                1700000000000L, 40.5, -74.25, path.toString(), 5000, 900);
+
+        LocationJournal.Record record = readAll(journal, 0).get(0);
+
+        assertEquals("trip-1", record.tripId);
+        assertNull(record.encodedPath);
+        assertEquals(0, record.rawPointCount);
+        assertEquals(0, record.pathPointCount);
+    }
+
+    @Test
+    public void readAfterSkipsEarlierRecordsAndHonoursLimit() {
+        LocationJournal journal = open();
+        for (int i = 1; i <= 4; i++) {
+            appendCheckIn(journal, "trip-" + i, false);
+        }
+
+        List<LocationJournal.Record> records = readAll(journal, 2);
+        List<String> firstOne = new ArrayList<>();
+        int visited = journal.readAfter(0, 1, record -> firstOne.add(record.tripId));
+
+        assertEquals(2, records.size());
+        assertEquals(3, records.get(0).sequence);
+        assertEquals("trip-4", records.get(1).tripId);
+        assertEquals(1, visited);
+        assertEquals("trip-1", firstOne.get(0));
+    }
+
+    @Test
+    public void sequenceContinuesAfterReopen() {
+        LocationJournal journal = open();
+        appendCheckIn(journal, "trip-1", false);
+        appendCheckIn(journal, "trip-2", false);
+        readAll(journal, 0);
+
+        LocationJournal reopened = open();
+        appendCheckIn(reopened, "trip-3", false);
+
+        List<LocationJournal.Record> records = readAll(reopened, 0);
+        assertEquals(3, records.size());
+        assertEquals(3, records.get(2).sequence);
+        assertEquals("trip-3", records.get(2).tripId);
+    }
+
+    @Test
+    public void tornTailIsCutOnReopen() throws IOException {
+        LocationJournal journal = open();
+        for (int i = 1; i <= 3; i++) {
+            appendCheckIn(journal, "trip-" + i, false);
+        }
+        readAll(journal, 0);
+        long fullLength = journalFile().length();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            file.setLength(fullLength - 5);
+        }
+
+        LocationJournal reopened = open();
+
+        List<LocationJournal.Record> records = readAll(reopened, 0);
+        assertEquals(2, records.size());
+        assertEquals(2, reopened.getLastSequence());
+        assertEquals(journalFile().length(), reopened.getJournalBytes());
+        assertTrue(journalFile().length() < fullLength - 5);
+    }
+
+    @Test
+    public void corruptRecordFailsChecksum() throws IOException {
+        LocationJournal journal = open();
+        for (int i = 1; i <= 3; i++) {
+            appendCheckIn(journal, "trip-" + i, false);
+        }
+        readAll(journal, 0);
+        long fullLength = journalFile().length();
+        try (RandomAccessFile file = new RandomAccessFile(journalFile(), "rw")) {
+            // A byte inside the last record's body
+            long position = fullLength - 10;
+            file.seek(position);
+            int value = file.read();
+            file.seek(position);
+            file.write(value ^ 0xff);
+        }
+
+        LocationJournal reopened = open();
+
+        List<LocationJournal.Record> records = readAll(reopened, 0);
+        assertEquals(2, records.size());
+        assertEquals("trip-2", records.get(1).tripId);
+    }
+
+    @Test
+    public void fullAcknowledgeTruncatesAndSurvivesReopen() {
+        LocationJournal journal = open();
+        appendCheckIn(journal, "trip-1", false);
+        appendCheckIn(journal, "trip-2", true);
+        readAll(journal, 0);
+        assertTrue(journal.hasUnacknowledged());
+
+        journal.acknowledge(2);
+
+        assertFalse(journal.hasUnacknowledged());
+        assertEquals(0, journal.getJournalBytes());
+        assertEquals(0, journalFile().length());
+
+        LocationJournal reopened = open();
+        assertEquals(2, reopened.getAcknowledgedSequence());
+        appendCheckIn(reopened, "trip-3", false);
+        List<LocationJournal.Record> records = readAll(reopened, 2);
+        assertEquals(1, records.size());
+        assertEquals(3, records.get(0).sequence);
+    }
+
+    @Test
+    public void partialAcknowledgeKeepsJournal() {
+        LocationJournal journal = open();
+        appendCheckIn(journal, "trip-1", false);
+        appendCheckIn(journal, "trip-2", false);
+        readAll(journal, 0);
+
+        journal.acknowledge(1);
+
+        assertTrue(journal.hasUnacknowledged());
+        assertEquals(1, journal.getAcknowledgedSequence());
+        assertEquals(1, readAll(journal, journal.getAcknowledgedSequence()).size());
+    }
+}
@@ -0,0 +1,99 @@
+package com.example.student.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class MessageIdGeneratorTest {
+    private static final long NOW = 1700000000000L;
+
+    private static long counter(String id) {
+        return Long.parseUnsignedLong(id.substring(4, 20), 16);
+    }
+
+    private static void assertIncreasing(String previous, String next) {
+        assertTrue(previous + " then " + next, next.compareTo(previous) > 0);
+    }
+
+    @Test
+    public void idHasTimeAndNode() {
+        String id = new MessageIdGenerator("0badcafe").next(NOW);
+
+        assertTrue(id, id.matches("msg_[0-9a-f]{16}_0badcafe"));
+        assertEquals(NOW << 12, counter(id));
+    }
+
+    @Test
+    public void idsWithinOneMillisecondUseSequence() {
+        MessageIdGenerator generator = new MessageIdGenerator("node");
+
+        String first = generator.next(NOW);
+        String second = generator.next(NOW);
+
+        assertEquals(counter(first) + 1, counter(second));
+        assertIncreasing(first, second);
+    }
+
+    @Test
+    public void fullMillisecondBorrowsFromNext() {
+        MessageIdGenerator generator = new MessageIdGenerator("node");
+        String previous = generator.next(NOW);
+        for (int i = 1; i < 5000; i++) {
+            String next = generator.next(NOW);
+            assertIncreasing(previous, next);
+            previous = next;
+        }
+
+        // Past the 4096 ids of NOW, so the counter is already into NOW + 1
+        assertEquals(NOW + 1, counter(previous) >>> 12);
+        assertIncreasing(previous, generator.next(NOW + 1));
+    }
+
+    @Test
+    public void clockGoingBackwardsStillIncreases() {
+        MessageIdGenerator generator = new MessageIdGenerator("node");
+        String before = generator.next(NOW);
+
+        String after = generator.next(NOW - 60000);
+
+        assertEquals(counter(before) + 1, counter(after));
+        assertIncreasing(before, after);
+    }
+
+    @Test
+    public void laterMillisecondStartsFreshSequence() {
+        MessageIdGenerator generator = new MessageIdGenerator("node");
+        generator.next(NOW);
+        generator.next(NOW);
+
+        assertEquals((NOW + 5) << 12, counter(generator.next(NOW + 5)));
+    }
+
+    @Test
+    public void concurrentIdsAreUnique() throws InterruptedException {
+        MessageIdGenerator generator = new MessageIdGenerator("node");
+        Set<String> ids = Collections.synchronizedSet(new HashSet<>());
+        List<Thread> threads = new ArrayList<>();
+        for (int t = 0; t < 4; t++) {
+            Thread thread = new Thread(() -> {
+                for (int i = 0; i < 5000; i++) {
+                    ids.add(generator.next());
+                }
+            });
+            threads.add(thread);
+            thread.start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+
+        assertEquals(20000, ids.size());
+    }
+}
@@ -0,0 +1,187 @@
+package com.example.student.utils;
+
+import com.example.student.models.BusStop;
+import com.google.android.gms.maps.model.LatLng;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+
+public class StopSpatialIndexTest {
+    private static final double BASE_LAT = 40.0;
+    private static final double BASE_LNG = -74.0;
+
+    private static BusStop stop(String id, double lat, double lng) {
+        return new BusStop(id, id, new LatLng(lat, lng), 0);
+    }
+
+    /**
+     * Stops scattered over roughly 5 km around the base point
+     */
+    private static List<BusStop> randomStops(String prefix, int count, long seed) {
+        Random random = new Random(seed);
+        List<BusStop> stops = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            stops.add(stop(prefix + i, BASE_LAT + (random.nextDouble() - 0.5) * 0.05,
+                    BASE_LNG + (random.nextDouble() - 0.5) * 0.06));
+        }
+        return stops;
+    }
+
+    private static double distance(BusStop stop, double lat, double lng) {
+        double dLat = Math.toRadians(stop.getLocation().latitude - lat);
+        double dLng = Math.toRadians(stop.getLocation().longitude - lng);
+        double a = Math.sin(dLat / 2) * Math.sin(dLat / 2)
+                + Math.cos(Math.toRadians(lat)) * Math.cos(Math.toRadians(stop.getLocation().latitude))
+                * Math.sin(dLng / 2) * Math.sin(dLng / 2);
+        return 2 * 6371000.0 * Math.asin(Math.min(1.0, Math.sqrt(a)));
+    }
+
+    private static List<BusStop> byDistance(List<BusStop> stops, double lat, double lng, double radius) {
+        List<BusStop> inRange = new ArrayList<>();
+        for (BusStop stop : stops) {
+            if (distance(stop, lat, lng) <= radius) {
+                inRange.add(stop);
+            }
+        }
+        inRange.sort((a, b) -> Double.compare(distance(a, lat, lng), distance(b, lat, lng)));
+        return inRange;
+    }
+
+    @Test
+    public void nearestMatchesBruteForce() {
+        List<BusStop> stops = randomStops("s", 300, 1);
+        StopSpatialIndex index = StopSpatialIndex.build("route", stops);
+        Random random = new Random(2);
+
+        for (int q = 0; q < 200; q++) {
+            double lat = BASE_LAT + (random.nextDouble() - 0.5) * 0.06;
+            double lng = BASE_LNG + (random.nextDouble() - 0.5) * 0.07;
+            double radius = 100 + random.nextDouble() * 1500;
+            List<BusStop> expected = byDistance(stops, lat, lng, radius);
+
+            int found = index.nearest(lat, lng, radius);
+
+            if (expected.isEmpty()) {
+                assertEquals(-1, found);
+            } else {
+                assertEquals(expected.get(0).getStopId(), index.getStop(found).getStopId());
+            }
+        }
+    }
+
+    @Test
+    public void nearestKMatchesBruteForce() {
+        List<BusStop> stops = randomStops("s", 300, 3);
+        StopSpatialIndex index = StopSpatialIndex.build("route", stops);
+        Random random = new Random(4);
+        int[] indices = new int[5];
+        double[] distances = new double[5];
+
+        for (int q = 0; q < 200; q++) {
+            double lat = BASE_LAT + (random.nextDouble() - 0.5) * 0.05;
+            double lng = BASE_LNG + (random.nextDouble() - 0.5) * 0.06;
+            List<BusStop> expected = byDistance(stops, lat, lng, 800);
+
+            int count = index.nearestK(lat, lng, 800, 5, indices, distances);
+
+            assertEquals(Math.min(5, expected.size()), count);
+            for (int i = 0; i < count; i++) {
+                assertEquals(expected.get(i).getStopId(), index.getStop(indices[i]).getStopId());
+                assertEquals(distance(expected.get(i), lat, lng), distances[i], 0.001);
+            }
+        }
+    }
+
+    @Test
+    public void nearestKIsLimitedByOutputArrays() {
+        StopSpatialIndex index = StopSpatialIndex.build("route", randomStops("s", 50, 5));
+
+        assertEquals(2, index.nearestK(BASE_LAT, BASE_LNG, 10000, 10, new int[2], new double[2]));
+        assertEquals(0, index.nearestK(BASE_LAT, BASE_LNG, 10000, 0, new int[2], new double[2]));
+    }
+
+    @Test
+    public void withinRadiusMatchesBruteForce() {
+        List<BusStop> stops = randomStops("s", 300, 6);
+        StopSpatialIndex index = StopSpatialIndex.build("route", stops);
+        Random random = new Random(7);
+        int[] out = new int[stops.size()];
+
+        for (int q = 0; q < 100; q++) {
+            double lat = BASE_LAT + (random.nextDouble() - 0.5) * 0.05;
+            double lng = BASE_LNG + (random.nextDouble() - 0.5) * 0.06;
+            double radius = random.nextDouble() * 1200;
+            Set<String> expected = new HashSet<>();
+            for (BusStop stop : byDistance(stops, lat, lng, radius)) {
+                expected.add(stop.getStopId());
+            }
+
+            int count = index.withinRadius(lat, lng, radius, out);
+
+            Set<String> found = new HashSet<>();
+            for (int i = 0; i < count; i++) {
+                found.add(index.getStop(out[i]).getStopId());
+            }
+            assertEquals(expected, found);
+        }
+    }
+
+    @Test
+    public void withinRadiusCountsPastFullOutput() {
+        StopSpatialIndex index = StopSpatialIndex.build("route", Arrays.asList(
+                stop("a", BASE_LAT, BASE_LNG),
+                stop("b", BASE_LAT + 0.0001, BASE_LNG),
+                stop("c", BASE_LAT, BASE_LNG + 0.0001)));
+
+        assertEquals(3, index.withinRadius(BASE_LAT, BASE_LNG, 100, new int[1]));
+    }
+
+    @Test
+    public void stopsWithoutLocationAreSkipped() {
+        List<BusStop> stops = new ArrayList<>();
+        stops.add(stop("a", BASE_LAT, BASE_LNG));
+        stops.add(new BusStop("b", "b", null, 1));
+        stops.add(null);
+
+        StopSpatialIndex index = StopSpatialIndex.build("route", stops);
+
+        assertEquals(1, index.size());
+        assertEquals("a", index.getStop(index.nearest(BASE_LAT, BASE_LNG, 10)).getStopId());
+    }
+
+    @Test
+    public void emptyIndexFindsNothing() {
+        StopSpatialIndex index = StopSpatialIndex.empty();
+
+        assertEquals(0, index.size());
+        assertEquals(-1, index.nearest(BASE_LAT, BASE_LNG, 1000));
+        assertEquals(0, index.withinRadius(BASE_LAT, BASE_LNG, 1000, new int[4]));
+    }
+
+    @Test
+    public void withSourceReplacesOnlyThatSource() {
+        StopSpatialIndex index = StopSpatialIndex.build("r1", Arrays.asList(
+                stop("r1-a", BASE_LAT, BASE_LNG),
+                stop("r1-b", BASE_LAT + 0.01, BASE_LNG)));
+        index = index.withSource("r2", Arrays.asList(stop("r2-a", BASE_LAT + 0.02, BASE_LNG)));
+
+        StopSpatialIndex replaced = index.withSource("r1", Arrays.asList(stop("r1-c", BASE_LAT - 0.01, BASE_LNG)));
+
+        Set<String> ids = new HashSet<>();
+        for (int i = 0; i < replaced.size(); i++) {
+            ids.add(replaced.getStop(i).getStopId());
+        }
+        assertEquals(new HashSet<>(Arrays.asList("r1-c", "r2-a")), ids);
+        // The original index is unchanged
+        assertEquals(3, index.size());
+        assertEquals(-1, replaced.nearest(BASE_LAT, BASE_LNG, 500));
+    }
+}
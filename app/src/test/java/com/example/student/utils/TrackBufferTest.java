@@ -0,0 +1,124 @@
+package com.example.student.utils;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class TrackBufferTest {
+
+    private static void appendAt(TrackBuffer buffer, long time) {
+        buffer.append(time, time / 1000.0, -time / 1000.0, 5f, 1f, 90f);
+    }
+
+    @Test
+    public void appendStoresPointsInOrder() {
+        TrackBuffer buffer = new TrackBuffer(4);
+        appendAt(buffer, 1000);
+        appendAt(buffer, 2000);
+
+        assertEquals(2, buffer.size());
+        assertEquals(1000, buffer.getTime(0));
+        assertEquals(2000, buffer.getTime(1));
+        assertEquals(2.0, buffer.getLatitude(1), 0);
+        assertEquals(-2.0, buffer.getLongitude(1), 0);
+        assertEquals(5f, buffer.getAccuracy(1), 0);
+    }
+
+    @Test
+    public void appendRejectsOutOfOrderPoints() {
+        TrackBuffer buffer = new TrackBuffer(4);
+        appendAt(buffer, 2000);
+
+        assertFalse(buffer.append(1000, 0, 0, 0, 0, 0));
+        assertTrue(buffer.append(2000, 0, 0, 0, 0, 0));
+        assertEquals(2, buffer.size());
+    }
+
+    @Test
+    public void fullBufferOverwritesOldest() {
+        TrackBuffer buffer = new TrackBuffer(3);
+        for (long t = 1; t <= 5; t++) {
+            appendAt(buffer, t * 1000);
+        }
+
+        assertEquals(3, buffer.size());
+        assertEquals(3000, buffer.getTime(0));
+        assertEquals(5000, buffer.getTime(2));
+    }
+
+    @Test
+    public void lookupsAcrossWrapAround() {
+        TrackBuffer buffer = new TrackBuffer(4);
+        for (long t = 1; t <= 6; t++) {
+            appendAt(buffer, t * 1000);
+        }
+        // Holds 3000, 4000, 5000, 6000 with the oldest in the middle of the arrays
+
+        assertEquals(0, buffer.indexAtOrAfter(0));
+        assertEquals(1, buffer.indexAtOrAfter(3500));
+        assertEquals(4, buffer.indexAtOrAfter(7000));
+        assertEquals(-1, buffer.indexAtOrBefore(2000));
+        assertEquals(1, buffer.indexAtOrBefore(4500));
+        assertEquals(3, buffer.indexAtOrBefore(9000));
+        assertEquals(0, buffer.indexNearest(0));
+        assertEquals(1, buffer.indexNearest(4400));
+        assertEquals(2, buffer.indexNearest(4600));
+        assertEquals(3, buffer.indexNearest(9000));
+    }
+
+    @Test
+    public void nearestPrefersEarlierPointOnTie() {
+        TrackBuffer buffer = new TrackBuffer(4);
+        appendAt(buffer, 1000);
+        appendAt(buffer, 2000);
+
+        assertEquals(0, buffer.indexNearest(1500));
+    }
+
+    @Test
+    public void nearestOfEmptyBufferIsMinusOne() {
+        assertEquals(-1, new TrackBuffer(4).indexNearest(1000));
+    }
+
+    @Test
+    public void forEachInRangeVisitsInclusiveRange() {
+        TrackBuffer buffer = new TrackBuffer(8);
+        for (long t = 1; t <= 6; t++) {
+            appendAt(buffer, t * 1000);
+        }
+        List<Long> times = new ArrayList<>();
+
+        int visited = buffer.forEachInRange(2000, 4000,
+                (index, time, lat, lng, accuracy, speed, bearing) -> times.add(time));
+
+        assertEquals(3, visited);
+        assertEquals(List.of(2000L, 3000L, 4000L), times);
+    }
+
+    @Test
+    public void clearEmptiesBuffer() {
+        TrackBuffer buffer = new TrackBuffer(2);
+        appendAt(buffer, 1000);
+        buffer.clear();
+
+        assertTrue(buffer.isEmpty());
+        assertEquals(2, buffer.capacity());
+    }
+
+    @Test(expected = IndexOutOfBoundsException.class)
+    public void accessorRejectsIndexPastSize() {
+        TrackBuffer buffer = new TrackBuffer(2);
+        appendAt(buffer, 1000);
+        buffer.getTime(1);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void constructorRejectsZeroCapacity() {
+        new TrackBuffer(0);
+    }
+}
@@ -0,0 +1,145 @@
+package com.example.student.utils;
+
+import org.junit.Test;
+
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class TrajectorySimplifierTest {
+    // About 11 meters at the equator, where longitude and latitude scale alike
+    private static final double STEP = 0.0001;
+
+    private static long[] keptTimes(TrajectorySimplifier.Result result) {
+        long[] times = new long[result.size()];
+        for (int i = 0; i < times.length; i++) {
+            times[i] = result.getTime(i);
+        }
+        return times;
+    }
+
+    private static void assertKept(TrajectorySimplifier.Result result, long... expected) {
+        assertEquals(Arrays.toString(expected), Arrays.toString(keptTimes(result)));
+    }
+
+    @Test
+    public void straightConstantSpeedLineKeepsEndpoints() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(5f, 0f, 100);
+        for (int i = 0; i <= 10; i++) {
+            simplifier.offer(i * 1000L, i * STEP, 0, 11f);
+        }
+
+        TrajectorySimplifier.Result result = simplifier.finish();
+
+        assertKept(result, 0, 10000);
+        assertEquals(11, result.getInputCount());
+        assertEquals(5.5f, result.getCompressionRatio(), 0.001f);
+    }
+
+    @Test
+    public void cornerIsKept() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(5f, 0f, 100);
+        for (int i = 0; i <= 4; i++) {
+            simplifier.offer(i * 1000L, 0, i * STEP, 11f);
+        }
+        for (int i = 1; i <= 4; i++) {
+            simplifier.offer((4 + i) * 1000L, i * STEP, 4 * STEP, 11f);
+        }
+
+        assertKept(simplifier.finish(), 0, 4000, 8000);
+    }
+
+    @Test
+    public void pauseOnStraightLineIsKeptInTime() {
+        // Same shape as a straight line, but replaying it at constant speed would be wrong
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(5f, 0f, 100);
+        for (int i = 0; i <= 4; i++) {
+            simplifier.offer(i * 1000L, i * STEP, 0, 11f);
+        }
+        for (int i = 5; i <= 9; i++) {
+            simplifier.offer(i * 1000L, 4 * STEP, 0, 0f);
+        }
+        for (int i = 10; i <= 14; i++) {
+            simplifier.offer(i * 1000L, (i - 5) * STEP, 0, 11f);
+        }
+
+        assertKept(simplifier.finish(), 0, 4000, 9000, 14000);
+    }
+
+    @Test
+    public void speedChangeIsKeptWhenSpeedToleranceSet() {
+        TrajectorySimplifier withSpeed = new TrajectorySimplifier(5f, 5f, 100);
+        TrajectorySimplifier positionOnly = new TrajectorySimplifier(5f, 0f, 100);
+        float[] speeds = {10f, 10f, 10f, 30f, 10f, 10f, 10f};
+        for (int i = 0; i < speeds.length; i++) {
+            withSpeed.offer(i * 1000L, i * STEP, 0, speeds[i]);
+            positionOnly.offer(i * 1000L, i * STEP, 0, speeds[i]);
+        }
+
+        long[] kept = keptTimes(withSpeed.finish());
+        assertTrue(Arrays.binarySearch(kept, 3000L) >= 0);
+        assertKept(positionOnly.finish(), 0, 6000);
+    }
+
+    @Test
+    public void fullWindowForcesAnchor() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(5f, 0f, 3);
+        for (int i = 0; i <= 9; i++) {
+            simplifier.offer(i * 1000L, i * STEP, 0, 11f);
+        }
+
+        assertKept(simplifier.finish(), 0, 3000, 6000, 9000);
+    }
+
+    @Test
+    public void finishResetsForNextTrack() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(5f, 0f, 100);
+        simplifier.offer(0, 0, 0, 0f);
+        simplifier.offer(1000, STEP, 0, 0f);
+        simplifier.finish();
+
+        simplifier.offer(5000, 1, 1, 0f);
+        TrajectorySimplifier.Result result = simplifier.finish();
+
+        assertKept(result, 5000);
+        assertEquals(1, result.getInputCount());
+    }
+
+    @Test
+    public void emptyTrackHasNoPoints() {
+        TrajectorySimplifier.Result result = new TrajectorySimplifier().finish();
+
+        assertEquals(0, result.size());
+        assertEquals(1f, result.getCompressionRatio(), 0f);
+        assertEquals("", result.toEncodedPolyline());
+    }
+
+    @Test
+    public void simplifyUsesOnlyTheRequestedRange() {
+        TrackBuffer track = new TrackBuffer(32);
+        for (int i = 0; i <= 20; i++) {
+            track.append(i * 1000L, i * STEP, 0, 5f, 11f, 0f);
+        }
+
+        TrajectorySimplifier.Result result = TrajectorySimplifier.simplify(track, 5000, 15000);
+
+        assertKept(result, 5000, 15000);
+        assertEquals(11, result.getInputCount());
+    }
+
+    @Test
+    public void encodesGooglePolylineExample() {
+        TrajectorySimplifier simplifier = new TrajectorySimplifier(0f, 0f, 100);
+        simplifier.offer(0, 38.5, -120.2, 0f);
+        simplifier.offer(1000, 40.7, -120.95, 0f);
+        simplifier.offer(2000, 43.252, -126.453, 0f);
+
+        assertEquals("_p~iF~ps|U_ulLnnqC_mqNvxq`@", simplifier.finish().toEncodedPolyline());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void rejectsWindowSmallerThanTwo() {
+        new TrajectorySimplifier(5f, 0f, 1);
+    }
+}